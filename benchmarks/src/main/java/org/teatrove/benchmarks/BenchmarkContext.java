@@ -0,0 +1,41 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.benchmarks;
+
+import org.teatrove.tea.runtime.DefaultContext;
+
+/**
+ * Runtime context of benchmarked templates, which collects their output in
+ * memory so that it can be cleared between invocations.
+ */
+public class BenchmarkContext extends DefaultContext {
+    private final StringBuilder mOutput = new StringBuilder(1024);
+
+    public void print(Object obj) {
+        mOutput.append(toString(obj));
+    }
+
+    /**
+     * Returns the number of characters printed since the last reset.
+     */
+    public int getLength() {
+        return mOutput.length();
+    }
+
+    public void reset() {
+        mOutput.setLength(0);
+    }
+}
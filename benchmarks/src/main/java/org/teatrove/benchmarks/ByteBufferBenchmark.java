@@ -0,0 +1,130 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teatrove.trove.io.ChunkPool;
+import org.teatrove.trove.io.DefaultByteBuffer;
+import org.teatrove.trove.io.FastCharToByteBuffer;
+
+/**
+ * Measures filling and clearing response buffers, with and without a pool
+ * of chunks, as a template would when printing a page.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteBufferBenchmark {
+
+    /** Number of bytes or characters appended per operation. */
+    @Param({ "1024", "65536" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean pooled;
+
+    private ChunkPool mPool;
+    private byte[] mBytes;
+    private String mText;
+    private char[] mChars;
+
+    @Setup
+    public void setup() {
+        mPool = pooled ? new ChunkPool(4096, 16, 1024) : null;
+
+        mBytes = new byte[64];
+        for (int i = 0; i < mBytes.length; i++) {
+            mBytes[i] = (byte) ('a' + i % 26);
+        }
+        // Mostly ASCII, with one character that takes two bytes in UTF-8.
+        mText = new String(mBytes, 0, 40) + "\u00e9";
+        mChars = mText.toCharArray();
+    }
+
+    @Benchmark
+    public long appendBytes() throws Exception {
+        DefaultByteBuffer buffer = newByteBuffer();
+        for (int n = 0; n < size; n += mBytes.length) {
+            buffer.append(mBytes);
+        }
+        return finish(buffer);
+    }
+
+    @Benchmark
+    public long appendSingleBytes() throws Exception {
+        DefaultByteBuffer buffer = newByteBuffer();
+        for (int n = 0; n < size; n++) {
+            buffer.append((byte) n);
+        }
+        return finish(buffer);
+    }
+
+    @Benchmark
+    public long appendStrings() throws Exception {
+        FastCharToByteBuffer buffer = newCharBuffer();
+        for (int n = 0; n < size; n += mText.length()) {
+            buffer.append(mText);
+        }
+        return finish(buffer);
+    }
+
+    @Benchmark
+    public long appendChars() throws Exception {
+        FastCharToByteBuffer buffer = newCharBuffer();
+        for (int n = 0; n < size; n += mChars.length) {
+            buffer.append(mChars, 0, mChars.length);
+        }
+        return finish(buffer);
+    }
+
+    private DefaultByteBuffer newByteBuffer() {
+        return mPool == null ? new DefaultByteBuffer()
+            : new DefaultByteBuffer(mPool);
+    }
+
+    private FastCharToByteBuffer newCharBuffer() {
+        return new FastCharToByteBuffer
+            (newByteBuffer(), "UTF-8", mPool);
+    }
+
+    private static long finish(DefaultByteBuffer buffer) throws Exception {
+        long count = buffer.getByteCount();
+        // Return pooled chunks, as a finished response does.
+        buffer.clear();
+        return count;
+    }
+
+    private static long finish(FastCharToByteBuffer buffer) throws Exception {
+        long count = buffer.getByteCount();
+        buffer.clear();
+        return count;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teatrove.tea.runtime.TemplateLoader;
+
+/**
+ * Measures the code that the compiler generates for common template
+ * constructs: foreach loops, string concatenation and property, map and
+ * array lookups.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratedCodeBenchmark {
+
+    private static final String ITEM = Item.class.getName();
+
+    private BenchmarkContext mContext;
+    private TemplateLoader.Template mForeach;
+    private TemplateLoader.Template mForeachRange;
+    private TemplateLoader.Template mConcat;
+    private TemplateLoader.Template mLookup;
+
+    private Object[] mItemsParams;
+    private Object[] mRangeParams;
+    private Object[] mConcatParams;
+    private Object[] mLookupParams;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<String, String> sources = new HashMap<String, String>();
+        sources.put("items", "<% template items(" + ITEM + "[] items) " +
+                    "foreach (item in items) { item.name ': ' item.price ' ' } %>");
+        sources.put("range", "<% template range(Integer n) " +
+                    "total = 0; foreach (i in 1..n) { total = total + i } " +
+                    "total %>");
+        sources.put("concat", "<% template concat(String a, String b, " +
+                    "Integer n) s = a & ', ' & b & ' #' & n & '.'; s %>");
+        sources.put("lookup", "<% template lookup(" + ITEM + " item, " +
+                    "java.util.Map<String, String> map, String[] array) " +
+                    "item.name; item.quantity; map['key']; array[1] %>");
+
+        TemplateLoader loader = Templates.compile(sources);
+        mForeach = loader.getTemplate("items");
+        mForeachRange = loader.getTemplate("range");
+        mConcat = loader.getTemplate("concat");
+        mLookup = loader.getTemplate("lookup");
+
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("key", "value");
+
+        mContext = new BenchmarkContext();
+        mItemsParams = new Object[] { Item.create(20) };
+        mRangeParams = new Object[] { Integer.valueOf(100) };
+        mConcatParams = new Object[] { "first", "second", Integer.valueOf(42) };
+        mLookupParams = new Object[] {
+            new Item("item", 7, 1.5), map, new String[] { "a", "b", "c" }
+        };
+    }
+
+    @Benchmark
+    public int foreach() throws Exception {
+        return execute(mForeach, mItemsParams);
+    }
+
+    @Benchmark
+    public int foreachRange() throws Exception {
+        return execute(mForeachRange, mRangeParams);
+    }
+
+    @Benchmark
+    public int concat() throws Exception {
+        return execute(mConcat, mConcatParams);
+    }
+
+    @Benchmark
+    public int lookup() throws Exception {
+        return execute(mLookup, mLookupParams);
+    }
+
+    private int execute(TemplateLoader.Template template, Object[] params)
+        throws Exception {
+        mContext.reset();
+        template.execute(mContext, params);
+        return mContext.getLength();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.benchmarks;
+
+/**
+ * A bean passed to benchmarked templates for property lookups.
+ */
+public class Item {
+    private final String mName;
+    private final int mQuantity;
+    private final double mPrice;
+
+    public Item(String name, int quantity, double price) {
+        mName = name;
+        mQuantity = quantity;
+        mPrice = price;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    public double getPrice() {
+        return mPrice;
+    }
+
+    /**
+     * Returns items named "item0" through "item" + (count - 1).
+     */
+    public static Item[] create(int count) {
+        Item[] items = new Item[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = new Item("item" + i, i, i * 1.25);
+        }
+        return items;
+    }
+}
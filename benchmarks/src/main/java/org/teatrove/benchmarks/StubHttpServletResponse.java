@@ -0,0 +1,219 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet response that discards its output, only counting the bytes
+ * written, so that responses can be finished without a servlet container.
+ * Call {@link #reset} before reusing it for another response.
+ */
+public class StubHttpServletResponse implements HttpServletResponse {
+    private final Map<String, String> mHeaders = new HashMap<String, String>();
+    private final CountingOutputStream mOut = new CountingOutputStream();
+
+    private String mContentType;
+    private String mCharacterEncoding = "ISO-8859-1";
+    private int mContentLength = -1;
+    private int mStatus = SC_OK;
+    private boolean mCommitted;
+    private Locale mLocale = Locale.getDefault();
+
+    /**
+     * Returns the number of bytes written since the last reset.
+     */
+    public long getBytesWritten() {
+        return mOut.mCount;
+    }
+
+    public String getHeader(String name) {
+        return mHeaders.get(name.toLowerCase());
+    }
+
+    public int getContentLength() {
+        return mContentLength;
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    // ServletResponse methods
+
+    public String getCharacterEncoding() {
+        return mCharacterEncoding;
+    }
+
+    public String getContentType() {
+        return mContentType;
+    }
+
+    public ServletOutputStream getOutputStream() {
+        return mOut;
+    }
+
+    public PrintWriter getWriter() throws IOException {
+        return new PrintWriter
+            (new OutputStreamWriter(mOut, mCharacterEncoding));
+    }
+
+    public void setCharacterEncoding(String charset) {
+        mCharacterEncoding = charset;
+    }
+
+    public void setContentLength(int len) {
+        mContentLength = len;
+    }
+
+    public void setContentType(String type) {
+        mContentType = type;
+    }
+
+    public void setBufferSize(int size) {
+    }
+
+    public int getBufferSize() {
+        return 0;
+    }
+
+    public void flushBuffer() {
+        mCommitted = true;
+    }
+
+    public void resetBuffer() {
+        mOut.mCount = 0;
+    }
+
+    public boolean isCommitted() {
+        return mCommitted;
+    }
+
+    public void reset() {
+        mHeaders.clear();
+        mOut.mCount = 0;
+        mContentType = null;
+        mContentLength = -1;
+        mStatus = SC_OK;
+        mCommitted = false;
+    }
+
+    public void setLocale(Locale locale) {
+        mLocale = locale;
+    }
+
+    public Locale getLocale() {
+        return mLocale;
+    }
+
+    // HttpServletResponse methods
+
+    public void addCookie(Cookie cookie) {
+    }
+
+    public boolean containsHeader(String name) {
+        return mHeaders.containsKey(name.toLowerCase());
+    }
+
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    /** @deprecated */
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    /** @deprecated */
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    public void sendError(int sc, String msg) {
+        mStatus = sc;
+        mCommitted = true;
+    }
+
+    public void sendError(int sc) {
+        sendError(sc, null);
+    }
+
+    public void sendRedirect(String location) {
+        mStatus = SC_FOUND;
+        setHeader("Location", location);
+        mCommitted = true;
+    }
+
+    public void setDateHeader(String name, long date) {
+        setHeader(name, String.valueOf(date));
+    }
+
+    public void addDateHeader(String name, long date) {
+        addHeader(name, String.valueOf(date));
+    }
+
+    public void setHeader(String name, String value) {
+        mHeaders.put(name.toLowerCase(), value);
+    }
+
+    public void addHeader(String name, String value) {
+        String key = name.toLowerCase();
+        String existing = mHeaders.get(key);
+        mHeaders.put(key, existing == null ? value : existing + ", " + value);
+    }
+
+    public void setIntHeader(String name, int value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    public void addIntHeader(String name, int value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    public void setStatus(int sc) {
+        mStatus = sc;
+    }
+
+    /** @deprecated */
+    public void setStatus(int sc, String msg) {
+        mStatus = sc;
+    }
+
+    private static class CountingOutputStream extends ServletOutputStream {
+        long mCount;
+
+        public void write(int b) {
+            mCount++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teatrove.tea.runtime.TemplateLoader;
+
+/**
+ * Measures looking up and executing templates through a
+ * {@link TemplateLoader}. Warm lookups take no locks, so the throughput of
+ * the contended lookup should scale with the number of cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateLoaderBenchmark {
+
+    private static final int TEMPLATE_COUNT = 64;
+
+    @State(Scope.Benchmark)
+    public static class Loader {
+        TemplateLoader mLoader;
+        String[] mNames;
+
+        @Setup
+        public void setup() throws Exception {
+            Map<String, String> sources = new HashMap<String, String>();
+            mNames = new String[TEMPLATE_COUNT];
+            for (int i = 0; i < TEMPLATE_COUNT; i++) {
+                mNames[i] = "lookup" + i;
+                sources.put(mNames[i], "<% template " + mNames[i] +
+                            "(String name) 'Hello ' name '!' %>");
+            }
+            mLoader = Templates.compile(sources);
+
+            // Warm lookups are measured, not loading.
+            for (int i = 0; i < TEMPLATE_COUNT; i++) {
+                mLoader.getTemplate(mNames[i]);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        final BenchmarkContext mContext = new BenchmarkContext();
+        final Object[] mParams = { "world" };
+        int mIndex;
+
+        String nextName(Loader loader) {
+            return loader.mNames[mIndex++ & (TEMPLATE_COUNT - 1)];
+        }
+    }
+
+    @Benchmark
+    public TemplateLoader.Template lookup(Loader loader, Caller caller)
+        throws Exception {
+        return loader.mLoader.getTemplate(caller.nextName(loader));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public TemplateLoader.Template lookupContended(Loader loader,
+                                                   Caller caller)
+        throws Exception {
+        return loader.mLoader.getTemplate(caller.nextName(loader));
+    }
+
+    @Benchmark
+    public int lookupAndExecute(Loader loader, Caller caller)
+        throws Exception {
+        BenchmarkContext context = caller.mContext;
+        context.reset();
+        loader.mLoader.getTemplate(caller.nextName(loader))
+            .execute(context, caller.mParams);
+        return context.getLength();
+    }
+}
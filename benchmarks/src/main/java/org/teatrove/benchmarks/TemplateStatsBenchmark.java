@@ -0,0 +1,72 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teatrove.teaservlet.stats.TemplateStats;
+
+/**
+ * Measures recording template invocations in {@link TemplateStats}, both
+ * from a single thread and from all threads logging the same template.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateStatsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Stats {
+        TemplateStats mStats;
+
+        @Setup
+        public void setup() {
+            mStats = new TemplateStats("benchmark.template", 1000, 60);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        final Object[] mParams = { "param" };
+        long mTime = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public void log(Stats stats, Caller caller) {
+        long start = caller.mTime++;
+        stats.mStats.log(start, start + 5, 4096, caller.mParams);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void logContended(Stats stats, Caller caller) {
+        long start = caller.mTime++;
+        stats.mStats.log(start, start + 5, 4096, caller.mParams);
+    }
+}
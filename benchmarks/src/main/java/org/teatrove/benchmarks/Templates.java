@@ -0,0 +1,80 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.benchmarks;
+
+import java.util.Map;
+
+import org.teatrove.tea.compiler.CompileEvent;
+import org.teatrove.tea.compiler.CompileListener;
+import org.teatrove.tea.compiler.Compiler;
+import org.teatrove.tea.runtime.TemplateLoader;
+import org.teatrove.tea.util.StringCompilationProvider;
+import org.teatrove.trove.util.ClassInjector;
+
+/**
+ * Compiles template sources in memory for benchmarks, using
+ * {@link BenchmarkContext} as the runtime context.
+ */
+public class Templates {
+    /** Package that benchmarked templates are compiled into. */
+    public static final String PACKAGE = "org.teatrove.benchmarks.templates";
+
+    private Templates() {
+    }
+
+    /**
+     * Compiles the given templates and returns a loader of them.
+     *
+     * @param sources template sources, keyed by template name
+     *
+     * @throws IllegalStateException if any template fails to compile
+     */
+    public static TemplateLoader compile(Map<String, String> sources) {
+        ClassInjector injector =
+            new ClassInjector(BenchmarkContext.class.getClassLoader());
+        Compiler compiler = new Compiler(injector, PACKAGE, null);
+        compiler.setRuntimeContext(BenchmarkContext.class);
+
+        StringCompilationProvider provider = new StringCompilationProvider();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            provider.setTemplateSource(entry.getKey(), entry.getValue());
+        }
+        compiler.addCompilationProvider(provider);
+
+        final StringBuilder errors = new StringBuilder();
+        compiler.addCompileListener(new CompileListener() {
+            public void compileError(CompileEvent e) {
+                errors.append('\n').append(e.getDetailedMessage());
+            }
+
+            public void compileWarning(CompileEvent e) {
+            }
+        });
+
+        try {
+            compiler.compileAll();
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Unable to compile templates", e);
+        }
+        if (errors.length() > 0) {
+            throw new IllegalStateException
+                ("Unable to compile templates:" + errors);
+        }
+
+        return new TemplateLoader(injector, PACKAGE);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.teaservlet;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.teatrove.benchmarks.StubHttpServletResponse;
+import org.teatrove.trove.io.ChunkPool;
+import org.teatrove.trove.io.DefaultByteBuffer;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.PropertyMap;
+
+/**
+ * Measures buffering a page and finishing the response, with and without
+ * GZIP compression of the whole response. This benchmark is in the
+ * teaservlet package to create responses the way the engine does.
+ * <p>
+ * Compression uses trove's native Deflater when its library can be loaded
+ * from java.library.path, or java.util.zip otherwise. Setup fails if the
+ * compressed case does not produce a GZIP response, so that uncompressed
+ * results are never reported as compressed ones.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseFinishBenchmark {
+
+    /** Approximate number of bytes in the page. */
+    @Param({ "4096", "65536" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean gzip;
+
+    private TeaServletEngineImpl mEngine;
+    private ChunkPool mPool;
+    private ApplicationRequest mRequest;
+    private StubHttpServletResponse mResponse;
+    private String mLine;
+
+    @Setup
+    public void setup() throws Exception {
+        PropertyMap properties = new PropertyMap();
+        properties.put("response.compress.enabled", String.valueOf(gzip));
+        final Log log = new Log("benchmark", null);
+        mEngine = new TeaServletEngineImpl() {
+            public Log getLog() {
+                return log;
+            }
+        };
+        mEngine.setResponseSettings(properties);
+        mPool = mEngine.getChunkPool();
+
+        mRequest = (ApplicationRequest) Proxy.newProxyInstance
+            (ApplicationRequest.class.getClassLoader(),
+             new Class<?>[] { ApplicationRequest.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method method,
+                                      Object[] args) {
+                     if ("isCompressionAccepted".equals(method.getName())) {
+                         return Boolean.TRUE;
+                     }
+                     Class<?> type = method.getReturnType();
+                     return type == boolean.class ? Boolean.FALSE : null;
+                 }
+             });
+
+        mResponse = new StubHttpServletResponse();
+        mLine = "<tr><td class=\"name\">Item name</td>" +
+            "<td class=\"value\">12,345.67</td></tr>\n";
+
+        finish();
+        if (gzip && !"gzip".equals(mResponse.getHeader("Content-Encoding"))) {
+            throw new IllegalStateException
+                ("Responses are not being compressed");
+        }
+    }
+
+    @Benchmark
+    public long finish() throws Exception {
+        mResponse.reset();
+        ApplicationResponseImpl response = new ApplicationResponseImpl
+            (mResponse, mEngine, new DefaultByteBuffer(mPool), 0, mPool);
+        response.setRequestAndHttpContext(null, mRequest);
+        response.setContentType("text/html");
+
+        for (int n = 0; n < size; n += mLine.length()) {
+            response.getResponseBuffer().append(mLine);
+        }
+
+        response.finish();
+        return mResponse.getBytesWritten();
+    }
+}
@@ -29,11 +29,21 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.teatrove.tea.parsetree.Template;
 import org.teatrove.trove.io.SourceReader;
@@ -63,11 +73,37 @@ public class Compiler {
     private final Map<String, Template> mParseTreeMap;
 
     // Maps qualified names to CompilationUnits.
-    private final Map<String, CompilationUnit> mCompilationUnitMap =
-        new HashMap<String, CompilationUnit>();
+    private final ConcurrentMap<String, CompilationUnit> mCompilationUnitMap =
+        new ConcurrentHashMap<String, CompilationUnit>();
 
     // Set of names for CompilationUnits that have already been compiled.
-    private final Set<String> mCompiled = new HashSet<String>();
+    private final Set<String> mCompiled =
+        Collections.synchronizedSet(new HashSet<String>());
+
+    // Maps names of templates being compiled to the threads compiling them,
+    // and threads waiting for a template to the name of the template. Both
+    // are guarded by mCompiling.
+    private final Map<String, Owner> mCompiling = new HashMap<String, Owner>();
+    private final Map<Thread, String> mWaiting = new HashMap<Thread, String>();
+
+    // Units being compiled by the current thread, which receive its compile
+    // events. A unit compiling a template it calls receives the events of
+    // the called template too.
+    private final ThreadLocal<List<CompilationUnit>> mActiveUnits =
+        new ThreadLocal<List<CompilationUnit>>() {
+            protected List<CompilationUnit> initialValue() {
+                return new ArrayList<CompilationUnit>(4);
+            }
+        };
+
+    // Compile events of the current thread that are held back so that
+    // they are reported in a deterministic order.
+    private final ThreadLocal<List<CompileEvent>> mHeldEvents =
+        new ThreadLocal<List<CompileEvent>>();
+
+    private int mThreadCount = 1;
+
+    private String mLiteralEncoding;
 
     // List of compilation providers
     private final List<CompilationProvider> mCompilationProviders = 
@@ -87,8 +123,8 @@ public class Compiler {
     private Vector<CompileListener> mCompileListeners =
         new Vector<CompileListener>(4);
 
-    private int mErrorCount = 0;
-    private int mWarningCount = 0;
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+    private final AtomicInteger mWarningCount = new AtomicInteger();
 
     private Vector<StatusListener> mStatusListeners =
         new Vector<StatusListener>();
@@ -272,8 +308,23 @@ public class Compiler {
     }
 
     private void dispatchCompileError(CompileEvent e) {
-        mErrorCount++;
+        mErrorCount.incrementAndGet();
 
+        List<CompilationUnit> units = mActiveUnits.get();
+        for (int i = 0; i < units.size(); i++) {
+            units.get(i).compileError(e);
+        }
+
+        List<CompileEvent> held = mHeldEvents.get();
+        if (held != null) {
+            held.add(e);
+        }
+        else {
+            fireCompileError(e);
+        }
+    }
+
+    private void fireCompileError(CompileEvent e) {
         synchronized (mCompileListeners) {
             for (int i = 0; i < mCompileListeners.size(); i++) {
                 mCompileListeners.elementAt(i).compileError(e);
@@ -282,8 +333,23 @@ public class Compiler {
     }
 
     private void dispatchCompileWarning(CompileEvent e) {
-        mWarningCount++;
+        mWarningCount.incrementAndGet();
+
+        List<CompilationUnit> units = mActiveUnits.get();
+        for (int i = 0; i < units.size(); i++) {
+            units.get(i).compileWarning(e);
+        }
 
+        List<CompileEvent> held = mHeldEvents.get();
+        if (held != null) {
+            held.add(e);
+        }
+        else {
+            fireCompileWarning(e);
+        }
+    }
+
+    private void fireCompileWarning(CompileEvent e) {
         synchronized (mCompileListeners) {
             for (int i = 0; i < mCompileListeners.size(); i++) {
                 mCompileListeners.elementAt(i).compileWarning(e);
@@ -421,6 +487,52 @@ public class Compiler {
     public void setForceCompile(boolean force) {
         mForce = force;
     }
+
+    /**
+     * Get the number of threads that templates are compiled with.
+     *
+     * @return the number of compiler threads
+     */
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * Set the number of threads that templates are compiled with. By
+     * default, templates are compiled by the calling thread alone. With
+     * more threads, templates are compiled in parallel, and templates are
+     * compiled after the templates they call when the template repository
+     * knows which those are. Errors and warnings are reported in the same
+     * order regardless of the number of threads.
+     *
+     * @param count the number of compiler threads, at least 1
+     */
+    public void setThreadCount(int count) {
+        mThreadCount = Math.max(1, count);
+    }
+
+    /**
+     * Get the output encoding that static template text is converted to
+     * when templates are loaded.
+     *
+     * @return the encoding, or null if text is not converted in advance
+     */
+    public String getLiteralEncoding() {
+        return mLiteralEncoding;
+    }
+
+    /**
+     * Set the output encoding that static template text is converted to
+     * when templates are loaded. The converted text is only used if the
+     * runtime context has a receiver method for
+     * {@link org.teatrove.tea.runtime.EncodedLiteral}, and output in other
+     * encodings still gets the right bytes, converted when first needed.
+     *
+     * @param encoding the encoding, or null to not convert text in advance
+     */
+    public void setLiteralEncoding(String encoding) {
+        mLiteralEncoding = encoding;
+    }
     
     protected void loadTemplates() {
         if (mTemplateProviderMap == null) {
@@ -544,7 +656,10 @@ public class Compiler {
     }
     
     protected String[] compile0(String[] names) throws IOException {
-        synchronized (mParseTreeMap) {
+        if (mThreadCount > 1 && names.length > 1) {
+            compileParallel(names);
+        }
+        else {
             for (int i=0; i<names.length; i++) {
                 if(Thread.interrupted()) {
                     break;
@@ -553,9 +668,7 @@ public class Compiler {
                         names[i]));
                 CompilationUnit unit = getCompilationUnit(names[i], null);
                 if (unit == null) {
-                    String msg = mFormatter.format("not.found", names[i]);
-                    dispatchCompileError(new CompileEvent(this, 
-                        CompileEvent.Type.ERROR, msg, (SourceInfo) null, null));
+                    dispatchNotFound(names[i]);
                 } else if (!mCompiled.contains(names[i]) &&
                         unit.shouldCompile()) {
                     mParseTreeMap.remove(names[i]);
@@ -564,22 +677,187 @@ public class Compiler {
             }
         }
 
-        names = new String[mCompiled.size()];
-        Iterator<String> it = mCompiled.iterator();
-        int i = 0;
-        while (it.hasNext()) {
-            names[i++] = it.next();
+        synchronized (mCompiled) {
+            return mCompiled.toArray(new String[mCompiled.size()]);
         }
+    }
 
-        return names;
+    private void dispatchNotFound(String name) {
+        String msg = mFormatter.format("not.found", name);
+        dispatchCompileError(new CompileEvent(this, 
+            CompileEvent.Type.ERROR, msg, (SourceInfo) null, null));
+    }
+
+    /**
+     * Compiles the given templates with a pool of mThreadCount threads.
+     * Templates are started after the templates they call, as far as the
+     * template repository knows them, and in the order given otherwise.
+     * Compile events are held back and reported in the order given once
+     * all the templates before them have finished.
+     */
+    private void compileParallel(String[] names) {
+        int progress = 0;
+
+        // Find the templates to compile, and discard their old parse trees
+        // before any are compiled, so that no template is type checked
+        // against an old signature of a template that is being compiled.
+        List<CompileTask> tasks = new ArrayList<CompileTask>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            CompilationUnit unit = getCompilationUnit(names[i], null);
+            if (unit != null && !mCompiled.contains(names[i]) &&
+                unit.shouldCompile()) {
+                mParseTreeMap.remove(names[i]);
+                tasks.add(new CompileTask(tasks.size(), unit));
+                continue;
+            }
+
+            dispatchCompileStatus(new StatusEvent(this, progress++,
+                names.length, names[i]));
+            if (unit == null) {
+                dispatchNotFound(names[i]);
+            }
+        }
+
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        findCallees(tasks);
+
+        int threads = Math.min(mThreadCount, tasks.size());
+        ExecutorService executor =
+            Executors.newFixedThreadPool(threads, new CompilerThreadFactory());
+        CompletionService<CompileTask> completion =
+            new ExecutorCompletionService<CompileTask>(executor);
+
+        PriorityQueue<CompileTask> ready = new PriorityQueue<CompileTask>();
+        for (CompileTask task : tasks) {
+            if (task.mPendingCallees == 0) {
+                ready.add(task);
+            }
+        }
+
+        int running = 0;
+        int started = 0;
+        int reported = 0;
+        boolean interrupted = false;
+
+        try {
+            while (reported < tasks.size()) {
+                if (!interrupted && Thread.interrupted()) {
+                    interrupted = true;
+                }
+
+                if (!interrupted) {
+                    while (running < threads && !ready.isEmpty()) {
+                        CompileTask task = ready.poll();
+                        task.mStarted = true;
+                        completion.submit(task);
+                        running++;
+                        started++;
+                    }
+
+                    if (running == 0 && started < tasks.size()) {
+                        // The remaining templates call each other, so start
+                        // the first of them anyway.
+                        for (CompileTask task : tasks) {
+                            if (!task.mStarted) {
+                                ready.remove(task);
+                                task.mStarted = true;
+                                completion.submit(task);
+                                running++;
+                                started++;
+                                break;
+                            }
+                        }
+                    }
+                }
+
+                if (running == 0) {
+                    break;
+                }
+
+                CompileTask done;
+                try {
+                    done = completion.take().get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+                catch (ExecutionException e) {
+                    // CompileTask reports its own failures.
+                    throw new InternalError(e.toString());
+                }
+                running--;
+                done.mFinished = true;
+
+                dispatchCompileStatus(new StatusEvent(this, progress++,
+                    names.length, done.mUnit.getName()));
+
+                for (CompileTask caller : done.mCallers) {
+                    if (--caller.mPendingCallees == 0 && !caller.mStarted) {
+                        ready.add(caller);
+                    }
+                }
+
+                // Report the held back events of finished templates, up to
+                // the first unfinished one.
+                while (reported < tasks.size() &&
+                       tasks.get(reported).mFinished) {
+                    tasks.get(reported++).fireEvents();
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Links each task to the tasks of the templates it calls, according to
+     * the template repository.
+     */
+    private void findCallees(List<CompileTask> tasks) {
+        if (!TemplateRepository.isInitialized()) {
+            return;
+        }
+
+        TemplateRepository rep = TemplateRepository.getInstance();
+        Map<String, CompileTask> byName = new HashMap<String, CompileTask>();
+        for (CompileTask task : tasks) {
+            TemplateRepository.TemplateInfo info =
+                rep.getTemplateInfo(task.mUnit.getName());
+            if (info != null) {
+                task.mInfo = info;
+                byName.put(info.getName(), task);
+            }
+        }
+
+        for (CompileTask task : tasks) {
+            if (task.mInfo == null || task.mInfo.getDependents() == null) {
+                continue;
+            }
+            for (String dependent : task.mInfo.getDependents()) {
+                TemplateRepository.TemplateInfo info =
+                    rep.getTemplateInfo(dependent);
+                CompileTask callee =
+                    info == null ? null : byName.get(info.getName());
+                if (callee != null && callee != task &&
+                    !callee.mCallers.contains(task)) {
+                    callee.mCallers.add(task);
+                    task.mPendingCallees++;
+                }
+            }
+        }
     }
 
     public int getErrorCount() {
-        return mErrorCount;
+        return mErrorCount.get();
     }
 
     public int getWarningCount() {
-        return mWarningCount;
+        return mWarningCount.get();
     }
     
     /**
@@ -617,12 +895,12 @@ public class Compiler {
             if (!compiled) {
                 unit = createCompilationUnit(fqName);
                 if (unit != null)
-                    mCompilationUnitMap.put(fqName, unit);
+                    unit = putCompilationUnit(fqName, unit);
             } else {
                 unit = new CompiledTemplate(name, this, from);
                 // if the CompiledTemplate class was precompiled (is valid) return the unit, otherwise return null to signify 'not found'
                 if( ((CompiledTemplate)unit).isValid() ) {
-                    mCompilationUnitMap.put(fqName, unit);
+                    unit = putCompilationUnit(fqName, unit);
                 } else {
                     // TODO:  flag the template class for removal
                     unit = null;
@@ -633,6 +911,13 @@ public class Compiler {
         return unit;
     }
 
+    private CompilationUnit putCompilationUnit(String fqName,
+                                               CompilationUnit unit) {
+        // Another thread may have created the unit at the same time.
+        CompilationUnit existing = mCompilationUnitMap.putIfAbsent(fqName, unit);
+        return existing == null ? unit : existing;
+    }
+
     /**
      * Returns the list of imported packages that all templates have. Template
      * parameters can abbreviate the names of all classes in these packages.
@@ -899,9 +1184,76 @@ public class Compiler {
      * generated.
      */
     public Template getParseTree(CompilationUnit unit) {
-        synchronized (mParseTreeMap) {
+        String name = unit.getName();
+        if (!lock(name)) {
+            // Waiting for the template would deadlock with a template that
+            // it calls, so use the tree as parsed so far, just as a template
+            // that calls itself does.
+            return mParseTreeMap.get(name);
+        }
+        try {
             return getParseTree0(unit);
         }
+        finally {
+            unlock(name);
+        }
+    }
+
+    /**
+     * Acquires the lock for compiling the named template, waiting for any
+     * other thread compiling it. Returns false without the lock if the
+     * other thread is waiting for the current thread, directly or through
+     * other threads, or if the current thread is interrupted.
+     */
+    private boolean lock(String name) {
+        Thread current = Thread.currentThread();
+        synchronized (mCompiling) {
+            while (true) {
+                Owner owner = mCompiling.get(name);
+                if (owner == null) {
+                    mCompiling.put(name, new Owner(current));
+                    return true;
+                }
+                if (owner.mThread == current) {
+                    owner.mHoldCount++;
+                    return true;
+                }
+
+                // Follow the chain of threads waiting for each other.
+                Thread thread = owner.mThread;
+                for (int i = mWaiting.size(); thread != null && i >= 0; i--) {
+                    if (thread == current) {
+                        return false;
+                    }
+                    String waitingFor = mWaiting.get(thread);
+                    Owner next =
+                        waitingFor == null ? null : mCompiling.get(waitingFor);
+                    thread = next == null ? null : next.mThread;
+                }
+
+                mWaiting.put(current, name);
+                try {
+                    mCompiling.wait();
+                }
+                catch (InterruptedException e) {
+                    current.interrupt();
+                    return false;
+                }
+                finally {
+                    mWaiting.remove(current);
+                }
+            }
+        }
+    }
+
+    private void unlock(String name) {
+        synchronized (mCompiling) {
+            Owner owner = mCompiling.get(name);
+            if (--owner.mHoldCount == 0) {
+                mCompiling.remove(name);
+                mCompiling.notifyAll();
+            }
+        }
     }
 
     private Template getParseTree0(CompilationUnit unit) {
@@ -914,10 +1266,10 @@ public class Compiler {
         try {
             // Parse and type check the parse tree.
 
-            // Direct all compile events into the CompilationUnit.
-            // Remove the unit as an CompileListener in the finally block
-            // at the end of this method.
-            addCompileListener(unit);
+            // Direct all compile events of this thread into the
+            // CompilationUnit. Remove the unit in the finally block at the
+            // end of this method.
+            mActiveUnits.get().add(unit);
 
             try {
                 Scanner s = createScanner(createSourceReader(unit), unit);
@@ -999,7 +1351,8 @@ public class Compiler {
             dispatchCompileError(new CompileEvent(this, 
                 CompileEvent.Type.ERROR, msg, (SourceInfo) null, unit));
         } finally {
-            removeCompileListener(unit);
+            List<CompilationUnit> units = mActiveUnits.get();
+            units.remove(units.size() - 1);
             // Conserve memory by removing the bulk of the parse tree after
             // compilation. This preserves the signature for templates that
             // may need to call this one.
@@ -1012,4 +1365,82 @@ public class Compiler {
         return tree;
     }
 
+    private static class Owner {
+        final Thread mThread;
+        int mHoldCount = 1;
+
+        Owner(Thread thread) {
+            mThread = thread;
+        }
+    }
+
+    /**
+     * Compiles one template in a compiler thread, holding back its compile
+     * events until they can be reported in order.
+     */
+    private class CompileTask
+        implements Callable<CompileTask>, Comparable<CompileTask>
+    {
+        final int mIndex;
+        final CompilationUnit mUnit;
+        final List<CompileEvent> mEvents = new ArrayList<CompileEvent>();
+
+        // Tasks of templates calling this one, and the number of templates
+        // called by this one that have not been compiled yet. Only used by
+        // the thread scheduling the tasks.
+        final List<CompileTask> mCallers = new ArrayList<CompileTask>(2);
+        TemplateRepository.TemplateInfo mInfo;
+        int mPendingCallees;
+        boolean mStarted;
+        boolean mFinished;
+
+        CompileTask(int index, CompilationUnit unit) {
+            mIndex = index;
+            mUnit = unit;
+        }
+
+        public CompileTask call() {
+            mHeldEvents.set(mEvents);
+            try {
+                getParseTree(mUnit);
+            }
+            catch (Throwable e) {
+                uncaughtException(e);
+                String msg = mFormatter.format("internal.error", e.toString());
+                dispatchCompileError(new CompileEvent(Compiler.this, 
+                    CompileEvent.Type.ERROR, msg, (SourceInfo) null, mUnit));
+            }
+            finally {
+                mHeldEvents.remove();
+            }
+            return this;
+        }
+
+        void fireEvents() {
+            for (CompileEvent e : mEvents) {
+                if (e.getType() == CompileEvent.Type.WARNING) {
+                    fireCompileWarning(e);
+                }
+                else {
+                    fireCompileError(e);
+                }
+            }
+            mEvents.clear();
+        }
+
+        public int compareTo(CompileTask other) {
+            return mIndex - other.mIndex;
+        }
+    }
+
+    private static class CompilerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger cThreadNumber = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread
+                (r, "TeaCompiler-" + cThreadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
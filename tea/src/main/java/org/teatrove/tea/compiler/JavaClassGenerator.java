@@ -85,6 +85,7 @@ import org.teatrove.tea.parsetree.TypeName;
 import org.teatrove.tea.parsetree.Variable;
 import org.teatrove.tea.parsetree.VariableRef;
 import org.teatrove.tea.runtime.Context;
+import org.teatrove.tea.runtime.EncodedLiteral;
 import org.teatrove.tea.runtime.Substitution;
 import org.teatrove.tea.runtime.SubstitutionId;
 import org.teatrove.tea.runtime.Truthful;
@@ -253,6 +254,14 @@ public class JavaClassGenerator extends CodeGenerator {
     private List<Object> mInitializerStatements =
         new ArrayList<Object>();
 
+    // Maps static text to the names of the EncodedLiteral fields holding it.
+    private Map<String, String> mLiterals =
+        new LinkedHashMap<String, String>();
+
+    // Runtime receiver method for EncodedLiterals, if supported.
+    private Method mLiteralReceiver;
+    private boolean mLiteralReceiverChecked;
+
     private MessageFormatter mFormatter;
 
     public JavaClassGenerator(CompilationUnit unit) {
@@ -696,10 +705,12 @@ public class JavaClassGenerator extends CodeGenerator {
 
         // Build static initializer, if required.
 
-        if (mInitializerStatements.size() > 0) {
+        if (mInitializerStatements.size() > 0 || mLiterals.size() > 0) {
             mi = classFile.addInitializer();
             builder = new CodeBuilder(mi);
 
+            generateLiterals(classFile, builder);
+
             Visitor gen = new Visitor(new Variable[0]);
 
             for (int i=0; i<mInitializerStatements.size(); i++) {
@@ -726,6 +737,79 @@ public class JavaClassGenerator extends CodeGenerator {
         }
     }
 
+    /**
+     * Returns the runtime context method that receives static text as an
+     * EncodedLiteral, or null if literals are not encoded in advance.
+     */
+    private Method getLiteralReceiver() {
+        if (!mLiteralReceiverChecked) {
+            mLiteralReceiverChecked = true;
+
+            Compiler c = mUnit.getCompiler();
+            if (c != null && c.getLiteralEncoding() != null) {
+                String name = c.getRuntimeReceiver();
+                Method[] methods = c.getRuntimeContextMethods();
+                for (int i=0; i<methods.length; i++) {
+                    Method m = methods[i];
+                    Class<?>[] params = m.getParameterTypes();
+                    if (m.getName().equals(name) &&
+                        params.length == 1 &&
+                        params[0] == EncodedLiteral.class &&
+                        !Modifier.isStatic(m.getModifiers())) {
+
+                        mLiteralReceiver = m;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return mLiteralReceiver;
+    }
+
+    /**
+     * Returns the name of the static field that holds the given text as an
+     * EncodedLiteral, defining the field if it is the first use of the text.
+     */
+    private String getLiteralField(String text) {
+        String name = mLiterals.get(text);
+        if (name == null) {
+            // Not a valid template identifier, so it cannot clash with the
+            // fields of template variables.
+            name = "literal-" + mLiterals.size();
+            mLiterals.put(text, name);
+        }
+        return name;
+    }
+
+    /**
+     * Defines the EncodedLiteral fields, and generates static initializer
+     * code that converts the text to the literal encoding once, when the
+     * template class is initialized.
+     */
+    private void generateLiterals(ClassFile classFile, CodeBuilder builder) {
+        TypeDesc literalDesc = makeDesc(EncodedLiteral.class);
+        String encoding = mUnit.getCompiler().getLiteralEncoding();
+
+        Modifiers flags = new Modifiers();
+        flags.setPrivate(true);
+        flags.setStatic(true);
+        flags.setFinal(true);
+
+        for (Map.Entry<String, String> entry : mLiterals.entrySet()) {
+            classFile.addField(flags, entry.getValue(), literalDesc)
+                .markSynthetic();
+
+            builder.newObject(literalDesc);
+            builder.dup();
+            builder.loadConstant(entry.getKey());
+            builder.loadConstant(encoding);
+            builder.invokeConstructor(literalDesc.getRootName(),
+                new TypeDesc[] {TypeDesc.STRING, TypeDesc.STRING});
+            builder.storeStaticField(entry.getValue(), literalDesc);
+        }
+    }
+
     private class Visitor implements NodeVisitor {
         private CodeBuilder mBuilder;
         private int mLastLine = -1;
@@ -1325,6 +1409,10 @@ public class JavaClassGenerator extends CodeGenerator {
         public Object visit(ExpressionStatement node) {
             Method receiver = node.getReceiverMethod();
 
+            if (receiver != null && generateLiteral(node, receiver)) {
+                return null;
+            }
+
             if (receiver != null &&
                 !Modifier.isStatic(receiver.getModifiers())) {
                 generateContext();
@@ -1349,6 +1437,45 @@ public class JavaClassGenerator extends CodeGenerator {
             return null;
         }
 
+        /**
+         * Generates code that passes static text to the runtime context as
+         * an EncodedLiteral, if the context supports it, returning false if
+         * not.
+         */
+        private boolean generateLiteral(ExpressionStatement node,
+                                        Method receiver) {
+            Expression expr = node.getExpression();
+            if (!expr.isValueKnown() ||
+                !(expr.getValue() instanceof String) ||
+                !receiver.getParameterTypes()[0].isAssignableFrom
+                    (String.class)) {
+
+                return false;
+            }
+
+            Method literalReceiver = getLiteralReceiver();
+            if (literalReceiver == null) {
+                return false;
+            }
+
+            generateContext();
+            mBuilder.loadStaticField(getLiteralField((String)expr.getValue()),
+                                     makeDesc(EncodedLiteral.class));
+            mBuilder.invoke(literalReceiver);
+
+            Class<?> retType = literalReceiver.getReturnType();
+            if (retType != null && retType != void.class) {
+                if (makeDesc(retType).isDoubleWord()) {
+                    mBuilder.pop2();
+                }
+                else {
+                    mBuilder.pop();
+                }
+            }
+
+            return true;
+        }
+
         public Object visit(ReturnStatement node) {
             Expression expr = node.getExpression();
 
@@ -17,12 +17,21 @@
 package org.teatrove.tea.compiler;
 
 import java.beans.MethodDescriptor;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -31,12 +40,17 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarException;
 import java.util.jar.JarFile;
+import java.util.zip.CRC32;
 import java.util.zip.ZipException;
 
 import org.teatrove.trove.classfile.TypeDesc;
@@ -52,9 +66,18 @@ import org.teatrove.trove.util.PropertyParser;
  * The TemplateRepository class manages metadata pertaining to the
  * caller/callee hierarchy.  This information is derived from the template
  * class files and does not rely on tea source code.  In order to reduce the
- * repository spin-up time, this data is stored in a file named <b>.templates.info</b>
- * and is updated as templates are successfully compiled.  This file is located
- * in the root directory where template classes are stored.
+ * repository spin-up time, this data is stored in a binary index file named
+ * <b>.templates.idx</b> and is updated as templates are successfully
+ * compiled.  This file is located in the root directory where template
+ * classes are stored.
+ * <p>
+ * The index is a journal of records, each holding the metadata of one
+ * template or the removal of one, and each followed by its checksum.
+ * Updates append records for just the templates that changed, and the file
+ * is compacted once most of its records have been replaced.  A record that
+ * fails its checksum causes the index to be regenerated from the class
+ * files.  An index in the older <b>.templates.info</b> text format is
+ * converted when first loaded.
  *
  */
 public class TemplateRepository {
@@ -63,17 +86,40 @@ public class TemplateRepository {
     // private File mRepositoryFile;
     private String mRootPackage;
 
-    private HashMap<String, TemplateInfo> mTemplateInfoMap =
-        new HashMap<String, TemplateInfo>();
+    // Readers are not synchronized, so the maps are concurrent. They are only
+    // modified while holding the lock of this repository.
+    private final ConcurrentMap<String, TemplateInfo> mTemplateInfoMap =
+        new ConcurrentHashMap<String, TemplateInfo>();
+
+    // Maps template names to the templates that call them.
+    private final ConcurrentMap<String, Map<String, TemplateInfo>> mAncestorMap =
+        new ConcurrentHashMap<String, Map<String, TemplateInfo>>();
+    // Maps method descriptors to the templates that call them.
+    private final ConcurrentMap<String, Map<String, TemplateInfo>> mFunctionMap =
+        new ConcurrentHashMap<String, Map<String, TemplateInfo>>();
+
+    // Number of records in the index file that later records replaced.
+    private int mStaleRecords;
 
-    private HashMap<String, Map<String, TemplateInfo>> mAncestorMap = null;
-    private HashMap<String, Map<String, TemplateInfo>> mFunctionMap = null;
     private static final SimpleDateFormat mDateFmt = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss(S) a z");
     private static TemplateRepository mInstance = null;
 
+    /** Name of the text file that older versions stored the repository in. */
     public static final String REPOSITORY_FILENAME = ".templates.info";
 
-    private TemplateRepository(File rootClassesDir, String rootPackage) {
+    /** Name of the binary index file that the repository is stored in. */
+    public static final String INDEX_FILENAME = ".templates.idx";
+
+    private static final int INDEX_MAGIC = 0x54454149;
+    private static final int INDEX_VERSION = 1;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    // Minimum number of stale records before the index file is compacted.
+    private static final int MIN_STALE_RECORDS = 256;
+
+    TemplateRepository(File rootClassesDir, String rootPackage) {
         mRootClassesDir = rootClassesDir;
         mRootPackage = rootPackage.replace('.', '/');
         mRootPackage = !mRootPackage.endsWith("/") ? mRootPackage += "/" : mRootPackage;
@@ -98,18 +144,30 @@ public class TemplateRepository {
         if (! rootClassesDir.isDirectory())
             throw new IllegalArgumentException("Root classes parameter not a directory.");
         mInstance = new TemplateRepository(rootClassesDir, rootPackage);
+        mInstance.load();
+    }
+
+    /**
+     * Loads the repository from its index file, or generates it from the
+     * template class files if the index is missing or corrupt.
+     */
+    synchronized void load() {
         try {
             long start = System.currentTimeMillis();
-            mInstance.loadRepositoryFile();
+            loadRepositoryFile();
             Syslog.info("Repository initialized.  Elapsed time " +
                 (System.currentTimeMillis() - start) + " ms.");
         }
         catch (Exception ex) {
+            if (!(ex instanceof FileNotFoundException)) {
+                Syslog.warn("Unable to load repository: " + ex.getMessage());
+            }
             long start = System.currentTimeMillis();
             Syslog.info("Generating repository...");
+            mTemplateInfoMap.clear();
             try {
-                mInstance.getTemplateInfoForAllFiles();
-                mInstance.createRepositoryFile();
+                getTemplateInfoForAllFiles();
+                createRepositoryFile();
             }
             catch (IOException ix) {
                 ix.printStackTrace();
@@ -119,6 +177,15 @@ public class TemplateRepository {
         }
     }
 
+    /**
+     * Discards the singleton instance, so that the next call to init
+     * creates it again. Only used by tests, which initialize the repository
+     * for directories that do not outlive them.
+     */
+    static synchronized void reset() {
+        mInstance = null;
+    }
+
     /**
      * Check to see if the repository was initialized (singleton instance
      * create).
@@ -248,6 +315,52 @@ public class TemplateRepository {
             this(mi, lastModified, rootClassesDir, false);
         }
 
+        /**
+         * Construct a TemplateInfo from a record of the index file.
+         *
+         * @param in The record, positioned after its type.
+         */
+        TemplateInfo(DataInput in) throws IOException {
+            mName = in.readUTF();
+            mSourceFile = in.readBoolean() ? in.readUTF() : null;
+            mLastModified = in.readLong();
+            mReturnType = TypeDesc.forDescriptor(in.readUTF());
+            mParameterTypes = new TypeDesc[in.readInt()];
+            for (int i = 0; i < mParameterTypes.length; i++)
+                mParameterTypes[i] = TypeDesc.forDescriptor(in.readUTF());
+            mDependents = new String[in.readInt()];
+            for (int i = 0; i < mDependents.length; i++)
+                mDependents[i] = in.readUTF();
+            mMethodsCalled =
+                new TemplateCallExtractor.AppMethodInfo[in.readInt()];
+            for (int i = 0; i < mMethodsCalled.length; i++)
+                mMethodsCalled[i] =
+                    new TemplateCallExtractor.AppMethodInfo(in.readUTF());
+            mPrecompiled = in.readBoolean();
+        }
+
+        /**
+         * Writes this TemplateInfo as a record of the index file.
+         */
+        void writeTo(DataOutput out) throws IOException {
+            out.writeUTF(mName);
+            out.writeBoolean(mSourceFile != null);
+            if (mSourceFile != null)
+                out.writeUTF(mSourceFile);
+            out.writeLong(mLastModified);
+            out.writeUTF(mReturnType.toString());
+            out.writeInt(mParameterTypes.length);
+            for (int i = 0; i < mParameterTypes.length; i++)
+                out.writeUTF(mParameterTypes[i].toString());
+            out.writeInt(mDependents.length);
+            for (int i = 0; i < mDependents.length; i++)
+                out.writeUTF(mDependents[i]);
+            out.writeInt(mMethodsCalled.length);
+            for (int i = 0; i < mMethodsCalled.length; i++)
+                out.writeUTF(mMethodsCalled[i].toString());
+            out.writeBoolean(mPrecompiled);
+        }
+
 
         /**
          * Returns false if the template signatures do not match.  The
@@ -424,35 +537,190 @@ public class TemplateRepository {
 
 
     /**
-     * Persist the current state of the repository to disk.
+     * Persist the current state of the repository to disk, replacing the
+     * index file with one that holds a single record for each template.
      */
     public synchronized void createRepositoryFile() throws IOException {
-        StringBuffer buf = new StringBuffer();
-        long lastModified = System.currentTimeMillis();
-        buf.append("lastModified = ").append(
-            mDateFmt.format(new Date(lastModified))).append("\n");
-        buf.append("templates {\n");
-        for (Iterator<String> i = mTemplateInfoMap.keySet().iterator(); i.hasNext(); )
-            buf.append((mTemplateInfoMap.get(i.next())).toString());
-        buf.append("}\n");
-        File repositoryFile = new File(mRootClassesDir,
-            REPOSITORY_FILENAME);
-        FileOutputStream out = new FileOutputStream(repositoryFile);
-        out.write(buf.toString().getBytes());
+        File indexFile = new File(mRootClassesDir, INDEX_FILENAME);
+        File tempFile = new File(mRootClassesDir, INDEX_FILENAME + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(tempFile), 8192));
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            CRC32 crc = new CRC32();
+            for (Iterator<TemplateInfo> i = mTemplateInfoMap.values().iterator(); i.hasNext(); )
+                writeRecord(out, createPutRecord(i.next()), crc);
+        }
+        finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(indexFile)) {
+            // Windows does not rename over an existing file.
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile))
+                throw new IOException("Unable to replace " + indexFile);
+        }
+        mStaleRecords = 0;
+    }
+
+    /**
+     * Append the given records to the index file, or compact the index file
+     * instead if most of its records would be stale.
+     */
+    private void appendRecords(byte[][] records, int count) throws IOException {
+        File indexFile = new File(mRootClassesDir, INDEX_FILENAME);
+        if (!indexFile.exists() ||
+            mStaleRecords > Math.max(MIN_STALE_RECORDS, mTemplateInfoMap.size())) {
+            createRepositoryFile();
+            return;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(indexFile, true), 8192));
+        try {
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < count; i++)
+                writeRecord(out, records[i], crc);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static byte[] createPutRecord(TemplateInfo t) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_PUT);
+        t.writeTo(out);
         out.flush();
-        out.close();
-        repositoryFile.setLastModified(lastModified);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] createRemoveRecord(String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_REMOVE);
+        out.writeUTF(name);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a record, preceded by its length and followed by its checksum.
+     */
+    private static void writeRecord(DataOutputStream out, byte[] record,
+                                    CRC32 crc)
+        throws IOException
+    {
+        crc.reset();
+        crc.update(record);
+        out.writeInt(record.length);
+        out.write(record);
+        out.writeInt((int) crc.getValue());
     }
 
     /**
      * Loads the current repository state from disk.
      */
     private void loadRepositoryFile() throws IOException, ParseException {
+        File indexFile = new File(mRootClassesDir, INDEX_FILENAME);
+        File legacyFile = new File(mRootClassesDir, REPOSITORY_FILENAME);
+        if (!indexFile.exists() && legacyFile.exists()) {
+            loadLegacyRepositoryFile(legacyFile);
+            createRepositoryFile();
+            legacyFile.delete();
+            return;
+        }
+
+        byte[] data = readFile(indexFile);
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < 8 || in.readInt() != INDEX_MAGIC ||
+            in.readInt() != INDEX_VERSION) {
+            throw new IOException("Repository index has an unknown format.");
+        }
+
+        CRC32 crc = new CRC32();
+        int stale = 0;
+        int offset = 8;
+        while (offset < data.length) {
+            if (data.length - offset < 8)
+                throw new IOException("Repository index is truncated.");
+            int length = in.readInt();
+            offset += 4;
+            if (length <= 0 || length > data.length - offset - 4)
+                throw new IOException("Repository index is truncated.");
+
+            crc.reset();
+            crc.update(data, offset, length);
+            in.skipBytes(length);
+            if (in.readInt() != (int) crc.getValue())
+                throw new IOException("Repository index checksum mismatch.");
+
+            DataInputStream record = new DataInputStream(
+                new ByteArrayInputStream(data, offset, length));
+            offset += length + 4;
+
+            byte type = record.readByte();
+            if (type == RECORD_PUT) {
+                TemplateInfo t = new TemplateInfo(record);
+                if (mTemplateInfoMap.put(t.getName(), t) != null)
+                    stale++;
+            }
+            else if (type == RECORD_REMOVE) {
+                if (mTemplateInfoMap.remove(record.readUTF()) != null)
+                    stale++;
+                stale++;
+            }
+            else {
+                throw new IOException("Repository index has an unknown record.");
+            }
+        }
+
+        mStaleRecords = stale;
+        buildAncestorMap();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Repository index is too large.");
+            byte[] data = new byte[(int) length];
+            int offset = 0;
+            while (offset < data.length) {
+                int amt = in.read(data, offset, data.length - offset);
+                if (amt < 0)
+                    throw new IOException("Repository index is truncated.");
+                offset += amt;
+            }
+            return data;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Loads the repository state from a text file written by an older
+     * version.
+     */
+    private void loadLegacyRepositoryFile(File repositoryFile)
+        throws IOException, ParseException
+    {
         PropertyMap m = new PropertyMap();
         PropertyParser p = new PropertyParser(m);
-        File repositoryFile = new File(mRootClassesDir,
-            REPOSITORY_FILENAME);
-        p.parse(new FileReader(repositoryFile));
+        FileReader reader = new FileReader(repositoryFile);
+        try {
+            p.parse(reader);
+        }
+        finally {
+            reader.close();
+        }
         boolean isWindows = System.getProperty("os.name").startsWith("Windows");
         long lastModified = mDateFmt.parse((String) m.get("lastModified")).
             getTime();
@@ -482,29 +750,51 @@ public class TemplateRepository {
      * representation here as a workaround.
      */
     private void buildAncestorMap() {
-        mAncestorMap = new HashMap<String, Map<String, TemplateInfo>>();
-        mFunctionMap = new HashMap<String, Map<String, TemplateInfo>>();
-        for (Iterator<TemplateInfo> i = mTemplateInfoMap.values().iterator(); i.hasNext();) {
-            TemplateInfo t = i.next();
-            for (int j = 0; j < t.getDependents().length; j++) {
-                Map<String, TemplateInfo> parentMap =
-                    mAncestorMap.get(t.getDependents()[j]);
-                if (parentMap == null)
-                    parentMap = new HashMap<String, TemplateInfo>();
-                if (!parentMap.containsKey(t.getName()))
-                    parentMap.put(t.getName(), t);
-                mAncestorMap.put(t.getDependents()[j], parentMap);
-            }
-            for (int j = 0; j < t.getAppMethodsCalled().length; j++) {
-                String sKey = t.getAppMethodsCalled()[j].toString();
-                Map<String, TemplateInfo> callMap = mFunctionMap.get(sKey);
-                if (callMap == null) {
-                    callMap = new HashMap<String, TemplateInfo>();
-                    mFunctionMap.put(sKey, callMap);
-                }
-                if (!callMap.containsKey(t.getName()))
-                    callMap.put(t.getName(), t);
-            }
+        mAncestorMap.clear();
+        mFunctionMap.clear();
+        for (Iterator<TemplateInfo> i = mTemplateInfoMap.values().iterator(); i.hasNext();)
+            addToIndexes(i.next());
+    }
+
+    /**
+     * Add a template to the caller and function indexes.
+     */
+    private void addToIndexes(TemplateInfo t) {
+        for (int j = 0; j < t.getDependents().length; j++)
+            addToIndex(mAncestorMap, t.getDependents()[j], t);
+        for (int j = 0; j < t.getAppMethodsCalled().length; j++)
+            addToIndex(mFunctionMap,
+                t.getAppMethodsCalled()[j].getDescriptorStr(), t);
+    }
+
+    /**
+     * Remove a template from the caller and function indexes.
+     */
+    private void removeFromIndexes(TemplateInfo t) {
+        for (int j = 0; j < t.getDependents().length; j++)
+            removeFromIndex(mAncestorMap, t.getDependents()[j], t);
+        for (int j = 0; j < t.getAppMethodsCalled().length; j++)
+            removeFromIndex(mFunctionMap,
+                t.getAppMethodsCalled()[j].getDescriptorStr(), t);
+    }
+
+    private static void addToIndex(ConcurrentMap<String, Map<String, TemplateInfo>> index,
+                                   String key, TemplateInfo t) {
+        Map<String, TemplateInfo> callers = index.get(key);
+        if (callers == null) {
+            callers = new ConcurrentHashMap<String, TemplateInfo>();
+            index.put(key, callers);
+        }
+        callers.put(t.getName(), t);
+    }
+
+    private static void removeFromIndex(ConcurrentMap<String, Map<String, TemplateInfo>> index,
+                                        String key, TemplateInfo t) {
+        Map<String, TemplateInfo> callers = index.get(key);
+        if (callers != null) {
+            callers.remove(t.getName());
+            if (callers.isEmpty())
+                index.remove(key);
         }
     }
 
@@ -519,8 +809,9 @@ public class TemplateRepository {
     public TemplateInfo[] getCallers(String templateName) {
         templateName = !templateName.startsWith(mRootPackage) ?
             getFullyQualifiedTemplateName(templateName) : templateName;
-        if (mAncestorMap.containsKey(templateName)) {
-            Collection<TemplateInfo> parents = mAncestorMap.get(templateName).values();
+        Map<String, TemplateInfo> parentMap = mAncestorMap.get(templateName);
+        if (parentMap != null) {
+            Collection<TemplateInfo> parents = parentMap.values();
             return parents.toArray(new TemplateInfo[parents.size()]);
         }
         else
@@ -545,8 +836,10 @@ public class TemplateRepository {
         TemplateCallExtractor.AppMethodInfo mi =
             new TemplateCallExtractor.AppMethodInfo(method.getName(), params);
 
-        if (mFunctionMap.containsKey(mi)) {
-            Collection<TemplateInfo> callers = mFunctionMap.get(mi).values();
+        Map<String, TemplateInfo> callerMap =
+            mFunctionMap.get(mi.getDescriptorStr());
+        if (callerMap != null) {
+            Collection<TemplateInfo> callers = callerMap.values();
             return callers.toArray(new TemplateInfo[callers.size()]);
         }
         else
@@ -621,26 +914,39 @@ public class TemplateRepository {
 
     /**
      * Synchronize the repository state with respect to the named template
-     * class file(s).  The dependency lists will be updated an the new
-     * repository file will be written to disk.
+     * class file(s).  The dependency lists will be updated and records of
+     * the changes will be appended to the repository file on disk.
      *
      * @param templatesChanged The templates to update.
      */
     public synchronized void update(String[] templatesChanged) throws IOException {
-        HashMap<String, String> updated = new HashMap<String, String>();
+        Set<String> updated = new HashSet<String>();
+        byte[][] records = new byte[templatesChanged.length][];
+        int count = 0;
         for (int i = 0; i < templatesChanged.length; i++) {
             String templateName = getFullyQualifiedTemplateName(templatesChanged[i]);
-            if (!updated.containsKey(templateName)) {
-                TemplateInfo tUpdated = getTemplateInfoForClassFile(getClassFileForName(templateName));
-                if (tUpdated != null)
-                    mTemplateInfoMap.put(templateName, tUpdated);
-                else
-                    mTemplateInfoMap.remove(templateName);
-                updated.put(templateName, templateName);
+            if (!updated.add(templateName))
+                continue;
+
+            TemplateInfo tUpdated = getTemplateInfoForClassFile(getClassFileForName(templateName));
+            TemplateInfo tOld = (tUpdated != null) ?
+                mTemplateInfoMap.put(templateName, tUpdated) :
+                mTemplateInfoMap.remove(templateName);
+            if (tOld != null) {
+                removeFromIndexes(tOld);
+                mStaleRecords++;
+            }
+            if (tUpdated != null) {
+                addToIndexes(tUpdated);
+                records[count++] = createPutRecord(tUpdated);
+            }
+            else if (tOld != null) {
+                records[count++] = createRemoveRecord(templateName);
+                mStaleRecords++;
             }
         }
-        buildAncestorMap();
-        createRepositoryFile();
+        if (count > 0)
+            appendRecords(records, count);
     }
 
     /**
@@ -23,14 +23,27 @@ import org.teatrove.trove.util.MergedClass;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A ContextSource implementation that merges several ContextSources into one.
+ * Contexts are created lazily, when first used by a merged context. Sources
+ * that declare their context as {@link SharedContextSource shared} create it
+ * only once, and it is then bound to every merged context.
  *
  * @author Jonathan Colwell
  */
 public class MergedContextSource implements ContextSource {
 
+    /**
+     * Observer passed to merged contexts when profiling is disabled.
+     */
+    protected static final MergedClass.InvocationEventObserver NO_OBSERVER =
+        new MergedClass.InvocationEventObserver() {
+            public void invokedEvent(String caller, String callee, long elapsedTime) { }
+            public long currentTime() { return 0L; }
+        };
+
     private ClassInjector mInjector;
     private ContextSource[] mSources;
     private Class<?>[] mContextsInOrder;
@@ -38,6 +51,9 @@ public class MergedContextSource implements ContextSource {
 
     private Constructor<?> mConstr;
 
+    private boolean[] mShared;
+    private AtomicReferenceArray<Object> mSharedContexts;
+
     // TODO: Why use init? Constructers may make more sense.
 
     public void init(ClassLoader loader, ContextSource[] contextSources, boolean profilingEnabled)
@@ -58,6 +74,15 @@ public class MergedContextSource implements ContextSource {
 
         mSources = contextSources;
         int len = contextSources.length;
+
+        mShared = new boolean[len];
+        mSharedContexts = new AtomicReferenceArray<Object>(len);
+        for (int j = 0; j < len; j++) {
+            if (contextSources[j] instanceof SharedContextSource) {
+                mShared[j] =
+                    ((SharedContextSource) contextSources[j]).isContextShared();
+            }
+        }
         ArrayList<Class<?>> contextList = new ArrayList<Class<?>>(len);
         ArrayList<ClassLoader> delegateList = new ArrayList<ClassLoader>(len);
 
@@ -108,6 +133,38 @@ public class MergedContextSource implements ContextSource {
         return mProfilingEnabled;
     }
 
+    /**
+     * Returns true if the source at the given index declared its context as
+     * shared by all merged contexts.
+     */
+    protected boolean isContextShared(int index) {
+        return mShared[index];
+    }
+
+    /**
+     * Returns the shared context of the source at the given index, creating
+     * it upon first use. Concurrent first uses may each create a context,
+     * but only one of them is kept.
+     */
+    protected Object getSharedContext(int index) throws Exception {
+        Object context = mSharedContexts.get(index);
+        if (context == null) {
+            context = createSharedContext(index);
+            if (!mSharedContexts.compareAndSet(index, null, context)) {
+                context = mSharedContexts.get(index);
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Creates the shared context of the source at the given index. Subclasses
+     * that create contexts differently may override this method.
+     */
+    protected Object createSharedContext(int index) throws Exception {
+        return mSources[index].createContext(null);
+    }
+
     /**
      * @return the Class of the object returned by createContext.
      */
@@ -123,11 +180,7 @@ public class MergedContextSource implements ContextSource {
         Class<?>[] params = mConstr != null ? mConstr.getParameterTypes() : new Class[0];
         if (params.length > 1 && MergedClass.InvocationEventObserver.class.equals(params[1])) {
             return mConstr.newInstance(new Object[] {
-                new MergingContextFactory(param),
-                new MergedClass.InvocationEventObserver() {
-                    public void invokedEvent(String caller, String callee, long elapsedTime) { }
-                    public long currentTime() { return 0L; }
-            }});
+                new MergingContextFactory(param), NO_OBSERVER });
         }
         else {
             return mConstr.newInstance(new Object[] {
@@ -146,6 +199,9 @@ public class MergedContextSource implements ContextSource {
 
         public Object getInstance(int i) {
             try {
+                if (mShared[i]) {
+                    return getSharedContext(i);
+                }
                 return mSources[i].createContext(mContextParameter);
             }
             catch (Exception e) {
@@ -0,0 +1,35 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.tea.engine;
+
+/**
+ * A ContextSource that may declare its context as shared. A shared context
+ * is thread-safe and does not depend upon the engine specific parameter, so
+ * a single instance may be used by all concurrent template executions. A
+ * {@link MergedContextSource} creates a shared context once, passing a null
+ * parameter, instead of creating one for each merged context.
+ *
+ * @see MergedContextSource
+ */
+public interface SharedContextSource extends ContextSource {
+
+    /**
+     * Returns true if the context of this source may be created once and
+     * shared by all template executions.
+     */
+    public boolean isContextShared();
+}
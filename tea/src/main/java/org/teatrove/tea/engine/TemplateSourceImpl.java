@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -32,6 +33,8 @@ import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.teatrove.tea.compiler.CompilationProvider;
 import org.teatrove.tea.compiler.CompilationUnit;
@@ -48,6 +51,7 @@ import org.teatrove.tea.util.ResourceCompilationProvider;
 import org.teatrove.tea.util.StringCompilationProvider;
 import org.teatrove.trove.io.LinePositionReader;
 import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.ClassArchive;
 import org.teatrove.trove.util.ClassInjector;
 import org.teatrove.trove.util.DefaultStatusListener;
 import org.teatrove.trove.util.PropertyMap;
@@ -113,6 +117,9 @@ public class TemplateSourceImpl implements TemplateSource {
         return destDir;
     }
 
+    /** Name of the archive that template classes are packed into. */
+    public static final String CLASS_ARCHIVE_FILENAME = ".classes.pack";
+
     public static String[] chopString(String target, String delimiters) {
         if (target != null && target.length() != 0) {
             StringTokenizer st = new StringTokenizer(target, delimiters);
@@ -139,9 +146,12 @@ public class TemplateSourceImpl implements TemplateSource {
     private String[] mImports;
     private String mEncoding;
     private long mPrecompiledTolerance;
+    private int mCompilerThreads;
+    private String mLiteralEncoding;
+    private boolean mClassArchive;
 
     // result fields
-    protected Results mResults;
+    protected volatile Results mResults;
 
     // compiled template source file info field
     protected Map<String, TemplateSourceFileInfo> mTemplateSourceFileInfo;
@@ -170,6 +180,11 @@ public class TemplateSourceImpl implements TemplateSource {
         mEncoding = mProperties.getString("file.encoding", "ISO-8859-1");
         mPrecompiledTolerance = 
             mProperties.getInt("precompiled.tolerance", 1000);
+        mCompilerThreads = mProperties.getInt
+            ("compiler.threads", Runtime.getRuntime().availableProcessors());
+        mLiteralEncoding = 
+            mProperties.getString("literal.encoding", "ISO-8859-1");
+        mClassArchive = mProperties.getBoolean("classes.archive", false);
     }
 
     public String[] getImports() {
@@ -475,41 +490,39 @@ public class TemplateSourceImpl implements TemplateSource {
     public Template getTemplate(String name)
         throws ClassNotFoundException, NoSuchMethodException
     {
-        Template wrapped = null;
-
-        try {
-            Map<String, Template> wrappedTemplates =
-                mResults.getWrappedTemplates();
-            wrapped = wrappedTemplates.get(name);
-
-            if (wrapped == null) {
-                TemplateSourceFileInfo sourceFileInfo = null;
-                String sourcePath = null;
-                long lastModifiedTime = 0;
-
-                if (mTemplateSourceFileInfo != null) {
-                    sourceFileInfo = mTemplateSourceFileInfo.get(name);
-                }
+        Results results = mResults;
+        if (results == null || results.getLoader() == null) {
+            throw new ClassNotFoundException("TemplateLoader not yet available");
+        }
 
-                if (sourceFileInfo != null) {
-                    sourcePath = sourceFileInfo.getSourcePath();
-                    lastModifiedTime = sourceFileInfo.getLastModifiedTime();
-                }
+        ConcurrentMap<String, Template> wrappedTemplates =
+            results.getWrappedTemplates();
+        Template wrapped = wrappedTemplates.get(name);
+        if (wrapped != null) {
+            return wrapped;
+        }
 
-                wrapped = new TemplateImpl
-                    (getTemplateLoader().getTemplate(name), this,
-                        sourcePath, lastModifiedTime);
-            }
+        TemplateSourceFileInfo sourceFileInfo = null;
+        String sourcePath = null;
+        long lastModifiedTime = 0;
 
-            wrappedTemplates.put(name, wrapped);
+        if (mTemplateSourceFileInfo != null) {
+            sourceFileInfo = mTemplateSourceFileInfo.get(name);
         }
-        catch (NullPointerException npe) {
-            mLog.debug(npe);
 
-            throw new ClassNotFoundException("TemplateLoader not yet available");
+        if (sourceFileInfo != null) {
+            sourcePath = sourceFileInfo.getSourcePath();
+            lastModifiedTime = sourceFileInfo.getLastModifiedTime();
         }
 
-        return wrapped;
+        // the loader ensures the template class is only loaded once, so
+        // concurrent callers can only race on creating the lightweight wrapper
+        wrapped = new TemplateImpl
+            (results.getLoader().getTemplate(name), this,
+                sourcePath, lastModifiedTime);
+
+        Template existing = wrappedTemplates.putIfAbsent(name, wrapped);
+        return (existing == null ? wrapped : existing);
     }
 
     protected Compiler createCompiler(ClassInjector injector, 
@@ -526,6 +539,8 @@ public class TemplateSourceImpl implements TemplateSource {
         (
             injector, packagePrefix, outputDir, mEncoding, mPrecompiledTolerance
         );
+        compiler.setThreadCount(mCompilerThreads);
+        compiler.setLiteralEncoding(mLiteralEncoding);
         
         CompilationProvider[] providers = parseProviders(mProperties);
         if (providers != null) {
@@ -685,6 +700,13 @@ public class TemplateSourceImpl implements TemplateSource {
         mTemplateSourceFileInfo = 
             createTemplateSourceFileInfo(compiler, knownTemplateNames); 
 
+        // load the template classes from a packed archive rather than
+        // from each class file
+        if (mClassArchive && mCompiledDir != null &&
+            injector.getClassArchive() == null) {
+            updateClassArchive(injector, reloadedTemplates.keySet());
+        }
+
         // return results
         return new Results(
             new TemplateCompilationResults(reloadedTemplates, 
@@ -692,10 +714,43 @@ public class TemplateSourceImpl implements TemplateSource {
             new TemplateAdapter(type, injector, mConfig.getPackagePrefix()),
             lastReloadTime,
             knownTemplateNames,
-            new HashMap<String, Template>()
+            new ConcurrentHashMap<String, Template>()
         );
     }
 
+    /**
+     * packs the compiled template classes into a single archive, if they
+     * changed since it was last packed, and has the injector load them from
+     * the archive. The names of the templates that were just compiled are
+     * passed in, since their class files may have been rewritten without
+     * changing their length or last modified time.
+     */
+    protected void updateClassArchive(ClassInjector injector,
+                                      Collection<String> compiledTemplates) {
+        File[] dirs = injector.getRootClassDirs();
+        if (dirs == null || dirs.length == 0 || !mCompiledDir.equals(dirs[0])) {
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            List<String> changed = new ArrayList<String>();
+            for (String name : compiledTemplates) {
+                changed.add(name.replace('.', '/'));
+            }
+            ClassArchive archive = ClassArchive.update
+                (new File(mCompiledDir, CLASS_ARCHIVE_FILENAME), mCompiledDir,
+                 changed);
+            injector.setClassArchive(archive);
+            mLog.debug("Opened " + archive + " in " +
+                       (System.currentTimeMillis() - start) + " ms");
+        }
+        catch (IOException e) {
+            mLog.warn("Unable to pack template classes, loading them " +
+                      "from each class file instead: " + e.getMessage());
+        }
+    }
+
     /**
      * provides subclasses with access to modify the KnownTemplateNames
      */
@@ -1076,7 +1131,7 @@ public class TemplateSourceImpl implements TemplateSource {
         private TemplateLoader mLoader;
         private Date mLastReloadTime;
         private Set<String> mKnownTemplateNames;
-        private Map<String, Template> mWrappedTemplates;
+        private ConcurrentMap<String, Template> mWrappedTemplates;
 
         public Results(TemplateCompilationResults transientResults,
                        TemplateLoader loader,
@@ -1087,7 +1142,16 @@ public class TemplateSourceImpl implements TemplateSource {
             mLastReloadTime = lastReload;
             mLoader = loader;
             mKnownTemplateNames = known;
-            mWrappedTemplates = wrapped;
+
+            if (wrapped instanceof ConcurrentMap) {
+                mWrappedTemplates = (ConcurrentMap<String, Template>) wrapped;
+            }
+            else {
+                mWrappedTemplates = new ConcurrentHashMap<String, Template>();
+                if (wrapped != null) {
+                    mWrappedTemplates.putAll(wrapped);
+                }
+            }
         }
 
         public TemplateCompilationResults getTransientResults() {
@@ -1102,7 +1166,7 @@ public class TemplateSourceImpl implements TemplateSource {
             return mLastReloadTime;
         }
 
-        public Map<String, Template> getWrappedTemplates() {
+        public ConcurrentMap<String, Template> getWrappedTemplates() {
             return mWrappedTemplates;
         }
 
@@ -90,6 +90,10 @@ public abstract class DefaultContext extends Writer
     private String mNullFormat = DEFAULT_NULL_FORMAT;
     private DecimalFormat mDecimalFormat;
 
+    // Reused when printing numbers, so that no strings are created.
+    private char[] mNumberChars;
+    private StringBuffer mNumberBuffer;
+
     // Fields used with date formatting.
     private DateTimeFormatter mDateTimeFormatter;
     private DateTimeZone mDateTimeZone;
@@ -201,35 +205,143 @@ public abstract class DefaultContext extends Writer
      * @hidden
      */
     public void print(Number n) throws Exception {
-        print(toString(n));
+        if (n == null) {
+            print(mNullFormat);
+        }
+        else if (n instanceof Integer) {
+            print(n.intValue());
+        }
+        else if (n instanceof Long) {
+            print(n.longValue());
+        }
+        else if (n instanceof Double) {
+            print(n.doubleValue());
+        }
+        else if (n instanceof Float) {
+            print(n.floatValue());
+        }
+        else {
+            print(toString(n));
+        }
     }
 
     /**
      * @hidden
      */
     public void print(int n) throws Exception {
-        print(toString(n));
+        if (mDecimalFormat == null) {
+            if (n <= LAST_INT_VALUE && n >= FIRST_INT_VALUE) {
+                print(INT_VALUES[n]);
+            }
+            else {
+                printDigits(n);
+            }
+        }
+        else {
+            printNumber(mDecimalFormat.format(n, getNumberBuffer()));
+        }
     }
 
     /**
      * @hidden
      */
     public void print(float n) throws Exception {
-        print(toString(n));
+        if (mDecimalFormat == null) {
+            printNumber(getNumberBuffer().append(n));
+        }
+        else {
+            printNumber(mDecimalFormat.format(n, getNumberBuffer()));
+        }
     }
 
     /**
      * @hidden
      */
     public void print(long n) throws Exception {
-        print(toString(n));
+        if (mDecimalFormat == null) {
+            if (n <= LAST_INT_VALUE && n >= FIRST_INT_VALUE) {
+                print(INT_VALUES[(int)n]);
+            }
+            else {
+                printDigits(n);
+            }
+        }
+        else {
+            printNumber(mDecimalFormat.format(n, getNumberBuffer()));
+        }
     }
 
     /**
      * @hidden
      */
     public void print(double n) throws Exception {
-        print(toString(n));
+        if (mDecimalFormat == null) {
+            printNumber(getNumberBuffer().append(n));
+        }
+        else {
+            printNumber(mDecimalFormat.format(n, getNumberBuffer()));
+        }
+    }
+
+    /**
+     * Receives the characters of a printed number. This implementation
+     * passes them to print as a String, but subclasses that append
+     * characters directly to their output can override it so that printing
+     * numbers creates no objects. The array is reused, so it must not be
+     * kept.
+     *
+     * @hidden
+     */
+    protected void printChars(char[] chars, int offset, int length)
+        throws Exception
+    {
+        print(new String(chars, offset, length));
+    }
+
+    private void printDigits(long n) throws Exception {
+        char[] chars = getNumberChars(20);
+
+        // Accumulate negative digits, which also works for the minimum
+        // value.
+        int pos = chars.length;
+        long v = n < 0 ? n : -n;
+        do {
+            long q = v / 10;
+            chars[--pos] = (char)('0' + (q * 10 - v));
+            v = q;
+        } while (v != 0);
+
+        if (n < 0) {
+            chars[--pos] = '-';
+        }
+
+        printChars(chars, pos, chars.length - pos);
+    }
+
+    private void printNumber(StringBuffer buffer) throws Exception {
+        int length = buffer.length();
+        char[] chars = getNumberChars(length);
+        buffer.getChars(0, length, chars, 0);
+        printChars(chars, 0, length);
+    }
+
+    private char[] getNumberChars(int length) {
+        char[] chars = mNumberChars;
+        if (chars == null || chars.length < length) {
+            mNumberChars = chars = new char[Math.max(length, 32)];
+        }
+        return chars;
+    }
+
+    private StringBuffer getNumberBuffer() {
+        StringBuffer buffer = mNumberBuffer;
+        if (buffer == null) {
+            mNumberBuffer = buffer = new StringBuffer(32);
+        }
+        else {
+            buffer.setLength(0);
+        }
+        return buffer;
     }
 
     /**
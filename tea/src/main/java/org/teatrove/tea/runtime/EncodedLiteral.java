@@ -0,0 +1,126 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.tea.runtime;
+
+import java.nio.charset.Charset;
+
+/**
+ * Static text of a template, along with its bytes in the output encoding
+ * the template was compiled for. Compiled templates create one for each
+ * block of static text when their class is initialized, and pass it to a
+ * runtime context that defines a receiver method for it, such as:
+ *
+ * <pre>
+ *     public void print(EncodedLiteral literal) throws Exception;
+ * </pre>
+ *
+ * The context can then append the bytes directly to its output instead of
+ * converting the text again each time it is printed.
+ *
+ * @see org.teatrove.tea.compiler.Compiler#setLiteralEncoding
+ */
+public final class EncodedLiteral {
+    private final String mText;
+    private final String mEncoding;
+    private final byte[] mBytes;
+
+    // Bytes of the text in the last other encoding asked for.
+    private volatile Encoded mOther;
+
+    /**
+     * @param text the static text
+     * @param encoding the output encoding to convert the text to
+     */
+    public EncodedLiteral(String text, String encoding) {
+        mText = text;
+        mEncoding = encoding;
+        mBytes = encode(text, encoding);
+    }
+
+    /**
+     * Returns the encoding the text was converted to when this literal was
+     * created.
+     */
+    public String getEncoding() {
+        return mEncoding;
+    }
+
+    /**
+     * Returns the bytes of the text in the given encoding, or null if the
+     * text cannot be converted in advance, in which case the text must be
+     * printed as characters. The returned array must not be modified.
+     *
+     * @param encoding the encoding of the output the bytes are written to
+     */
+    public byte[] getBytes(String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+        if (encoding == mEncoding || encoding.equalsIgnoreCase(mEncoding)) {
+            return mBytes;
+        }
+
+        Encoded other = mOther;
+        if (other == null || !encoding.equalsIgnoreCase(other.mEncoding)) {
+            mOther = other = new Encoded(encoding, encode(mText, encoding));
+        }
+        return other.mBytes;
+    }
+
+    /**
+     * Returns the static text.
+     */
+    public String toString() {
+        return mText;
+    }
+
+    /**
+     * Converts the text to bytes, unless it has characters that cannot be
+     * encoded, or the encoding adds bytes of its own, such as a byte order
+     * mark, that would be repeated for each literal.
+     */
+    private static byte[] encode(String text, String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        if (!charset.canEncode() || "a".getBytes(charset).length != 1 ||
+            !charset.newEncoder().canEncode(text)) {
+            return null;
+        }
+
+        return text.getBytes(charset);
+    }
+
+    private static class Encoded {
+        final String mEncoding;
+        final byte[] mBytes;
+
+        Encoded(String encoding, byte[] bytes) {
+            mEncoding = encoding;
+            mBytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.tea.runtime;
+
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.teatrove.trove.classfile.ClassFile;
+import org.teatrove.trove.classfile.CodeBuilder;
+import org.teatrove.trove.classfile.LocalVariable;
+import org.teatrove.trove.classfile.MethodInfo;
+import org.teatrove.trove.classfile.Modifiers;
+import org.teatrove.trove.classfile.TypeDesc;
+import org.teatrove.trove.util.ClassInjector;
+
+/**
+ * Invokes the static execute method of a compiled template. TemplateInvoker
+ * auto-generates a class per template that casts the arguments and calls the
+ * execute method directly, eliminating the need to invoke it via reflection.
+ * If the invoker cannot be generated, a reflection based invoker is used
+ * instead.
+ *
+ * @see TemplateLoader
+ */
+public abstract class TemplateInvoker {
+    private static final String INVOKE_METHOD_NAME = "invoke";
+    private static final String INVOKER_SUFFIX = "$$Invoker";
+
+    /**
+     * Returns a new TemplateInvoker that calls the given static execute
+     * method. The generated class is defined in a ClassInjector that is
+     * shared by all templates loaded by the same ClassLoader.
+     *
+     * @param executeMethod static execute method of a template class
+     */
+    public static TemplateInvoker forMethod(Method executeMethod) {
+        Class<?> templateClass = executeMethod.getDeclaringClass();
+        if (!Modifier.isPublic(templateClass.getModifiers())) {
+            return new Reflective(executeMethod);
+        }
+
+        try {
+            return generate(executeMethod);
+        }
+        catch (Exception e) {
+            return new Reflective(executeMethod);
+        }
+        catch (LinkageError e) {
+            return new Reflective(executeMethod);
+        }
+    }
+
+    private static TemplateInvoker generate(Method executeMethod)
+        throws Exception
+    {
+        Class<?> templateClass = executeMethod.getDeclaringClass();
+        ClassInjector injector =
+            ClassInjector.getInstance(templateClass.getClassLoader());
+
+        ClassFile cf = generateClassFile
+            (templateClass.getName() + INVOKER_SUFFIX, executeMethod);
+
+        OutputStream stream = injector.getStream(cf.getClassName());
+        cf.writeTo(stream);
+        stream.close();
+
+        Class<?> clazz = injector.loadClass(cf.getClassName());
+        return (TemplateInvoker)clazz.newInstance();
+    }
+
+    private static ClassFile generateClassFile(String className,
+                                               Method executeMethod) {
+        ClassFile cf = new ClassFile(className, TemplateInvoker.class);
+        cf.markSynthetic();
+
+        Modifiers publicAccess = new Modifiers();
+        publicAccess.setPublic(true);
+
+        MethodInfo ctor = cf.addConstructor(publicAccess);
+        ctor.markSynthetic();
+        CodeBuilder builder = new CodeBuilder(ctor);
+
+        builder.loadThis();
+        builder.invokeSuperConstructor();
+        builder.returnVoid();
+
+        TypeDesc objectArrayType = TypeDesc.OBJECT.toArrayType();
+        TypeDesc[] params = {
+            TypeDesc.forClass(Context.class), objectArrayType
+        };
+
+        MethodInfo mi = cf.addMethod
+            (publicAccess, INVOKE_METHOD_NAME, TypeDesc.OBJECT, params);
+        mi.markSynthetic();
+        builder = new CodeBuilder(mi);
+
+        LocalVariable contextVar = builder.getParameters()[0];
+        LocalVariable paramsVar = builder.getParameters()[1];
+
+        Class<?>[] methodParams = executeMethod.getParameterTypes();
+        TypeDesc[] executeParams = new TypeDesc[methodParams.length];
+
+        for (int i=0; i<methodParams.length; i++) {
+            TypeDesc type = TypeDesc.forClass(methodParams[i]);
+            executeParams[i] = type;
+
+            if (i == 0) {
+                builder.loadLocal(contextVar);
+            }
+            else {
+                builder.loadLocal(paramsVar);
+                builder.loadConstant(i - 1);
+                builder.loadFromArray(TypeDesc.OBJECT);
+            }
+
+            if (type.isPrimitive()) {
+                TypeDesc objectType = type.toObjectType();
+                builder.checkCast(objectType);
+                builder.convert(objectType, type);
+            }
+            else if (type != TypeDesc.OBJECT) {
+                builder.checkCast(type);
+            }
+        }
+
+        TypeDesc returnType = TypeDesc.forClass(executeMethod.getReturnType());
+        builder.invokeStatic(executeMethod.getDeclaringClass().getName(),
+                             executeMethod.getName(),
+                             returnType, executeParams);
+
+        if (returnType == TypeDesc.VOID) {
+            builder.loadConstant(null);
+        }
+        else {
+            builder.convert(returnType, TypeDesc.OBJECT);
+        }
+        builder.returnValue(TypeDesc.OBJECT);
+
+        return cf;
+    }
+
+    /**
+     * Executes the template using the given runtime context instance and
+     * parameters. Exceptions thrown by the template are passed through
+     * without being wrapped.
+     *
+     * @param context Must be assignable to the template's context type.
+     * @param parameters Must have same length and types as the template's
+     * parameter types.
+     *
+     * @return the value returned by the template, boxed if primitive, or null
+     * if the template returns void
+     */
+    public abstract Object invoke(Context context, Object[] parameters)
+        throws Exception;
+
+    private static class Reflective extends TemplateInvoker {
+        private final Method mExecuteMethod;
+
+        Reflective(Method executeMethod) {
+            mExecuteMethod = executeMethod;
+        }
+
+        public Object invoke(Context context, Object[] parameters)
+            throws Exception
+        {
+            int length = parameters.length;
+            Object[] args = new Object[1 + length];
+            args[0] = context;
+            for (int i=0; i<length; i++) {
+                args[i + 1] = parameters[i];
+            }
+
+            try {
+                return mExecuteMethod.invoke(null, args);
+            }
+            catch (InvocationTargetException e) {
+                Throwable t = e.getTargetException();
+                if (t instanceof Exception) {
+                    throw (Exception)t;
+                }
+                else if (t instanceof Error) {
+                    throw (Error)t;
+                }
+                else {
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -18,12 +18,11 @@ package org.teatrove.tea.runtime;
 
 import org.teatrove.tea.compiler.JavaClassGenerator;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * TemplateLoader manages the loading and execution of Tea templates. To
@@ -33,11 +32,18 @@ import java.util.Map;
  * @see org.teatrove.tea.util.ClassInjector
  */
 public class TemplateLoader {
+    // Number of locks used to serialize loading of templates by name. Must be
+    // a power of two.
+    private static final int LOAD_LOCK_COUNT = 32;
+
     private ClassLoader mBaseLoader;
     private String mPackagePrefix;
 
     // Maps full template names to Templates.
-    private Map<String, Template> mTemplates;
+    private ConcurrentMap<String, Template> mTemplates;
+
+    // Striped locks that ensure a template is only loaded once.
+    private Object[] mLoadLocks;
 
     /**
      * Creates a TemplateLoader that uses the current ClassLoader as a base.
@@ -83,7 +89,12 @@ public class TemplateLoader {
         }
         mPackagePrefix = packagePrefix.trim();
 
-        mTemplates = new HashMap<String, Template>();
+        mTemplates = new ConcurrentHashMap<String, Template>();
+
+        mLoadLocks = new Object[LOAD_LOCK_COUNT];
+        for (int i=0; i<LOAD_LOCK_COUNT; i++) {
+            mLoadLocks[i] = new Object();
+        }
     }
 
     /**
@@ -91,25 +102,44 @@ public class TemplateLoader {
      * has '.' characters to separate name parts, and it does not include a
      * Java package prefix.
      *
+     * Templates that are already loaded are returned without locking. A
+     * template that is not yet loaded is loaded only once, even if requested
+     * by several threads at the same time.
+     *
      * @throws ClassNotFoundException when template not found
      * @throws NoSuchMethodException when the template is invalid
      */
-    public final synchronized Template getTemplate(String name)
+    public final Template getTemplate(String name)
         throws ClassNotFoundException, NoSuchMethodException, LinkageError
     {
         Template template = mTemplates.get(name);
-        if (template == null) {
-            template = loadTemplate(name);
-            mTemplates.put(name, template);
+        if (template != null) {
+            return template;
+        }
+
+        synchronized (getLoadLock(name)) {
+            template = mTemplates.get(name);
+            if (template == null) {
+                template = loadTemplate(name);
+                if (template != null) {
+                    mTemplates.put(name, template);
+                }
+            }
+            return template;
         }
-        return template;
     }
 
     /**
      * Returns all the templates that have been loaded thus far.
      */
-    public final synchronized Template[] getLoadedTemplates() {
-        return mTemplates.values().toArray(new Template[mTemplates.size()]);
+    public final Template[] getLoadedTemplates() {
+        return mTemplates.values().toArray(new Template[0]);
+    }
+
+    private Object getLoadLock(String name) {
+        int hash = name.hashCode();
+        hash ^= (hash >>> 16);
+        return mLoadLocks[hash & (LOAD_LOCK_COUNT - 1)];
     }
 
     protected Template loadTemplate(String name)
@@ -198,6 +228,7 @@ public class TemplateLoader {
         private Class<?> mClass;
 
         private transient Method mExecuteMethod;
+        private transient TemplateInvoker mInvoker;
         private transient Class<?> mReturnType;
         private transient Type mGenericReturnType;
         private transient String[] mParameterNames;
@@ -251,30 +282,15 @@ public class TemplateLoader {
         public void execute(Context context, Object[] parameters)
             throws Exception
         {
-            int length = parameters.length;
-            Object[] args = new Object[1 + length];
-            args[0] = context;
-            for (int i=0; i<length; i++) {
-                args[i + 1] = parameters[i];
+            if (parameters.length != mParameterTypes.length) {
+                throw new IllegalArgumentException
+                    ("Wrong number of arguments for template \"" +
+                     getName() + "\": " + parameters.length);
             }
 
-            try {
-                Object ret = mExecuteMethod.invoke(null, args);
-                if (mReturnType != void.class) {
-                    context.print(ret);
-                }
-            }
-            catch (InvocationTargetException e) {
-                Throwable t = e.getTargetException();
-                if (t instanceof Exception) {
-                    throw (Exception)t;
-                }
-                else if (t instanceof Error) {
-                    throw (Error)t;
-                }
-                else {
-                    throw e;
-                }
+            Object ret = mInvoker.invoke(context, parameters);
+            if (mReturnType != void.class) {
+                context.print(ret);
             }
         }
 
@@ -363,6 +379,8 @@ public class TemplateLoader {
             catch (Exception e) {
                 // No big deal, we just don't set paramater names.
             }
+
+            mInvoker = TemplateInvoker.forMethod(mExecuteMethod);
         }
     }
 }
@@ -0,0 +1,144 @@
+package org.teatrove.tea.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.tea.compiler.TemplateRepository.TemplateInfo;
+import org.teatrove.tea.util.StringCompilationProvider;
+import org.teatrove.trove.util.ClassInjector;
+
+public class TemplateRepositoryTest {
+
+    private static final String ROOT_PACKAGE =
+        "org.teatrove.teaservlet.template";
+
+    private File dir;
+    private StringCompilationProvider provider;
+
+    @Before
+    public void init() throws IOException {
+        dir = File.createTempFile("templates", "");
+        dir.delete();
+        dir.mkdirs();
+
+        // compiling initializes the shared repository for this directory
+        TemplateRepository.reset();
+
+        provider = new StringCompilationProvider();
+        provider.setTemplateSource("a", "<% template a() call b() %>");
+        provider.setTemplateSource("b", "<% template b() call c(1) %>");
+        provider.setTemplateSource("c", "<% template c(Integer n) n %>");
+        compile("a", "b", "c");
+    }
+
+    @After
+    public void cleanup() {
+        TemplateRepository.reset();
+        delete(dir);
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        TemplateRepository repository = load();
+        assertEquals(3, repository.getTemplateInfos().length);
+        assertTrue(new File(dir, TemplateRepository.INDEX_FILENAME).exists());
+
+        TemplateRepository loaded = load();
+        assertEquals(3, loaded.getTemplateInfos().length);
+        assertCallers(loaded, "b", "a");
+        assertCallers(loaded, "c", "b");
+
+        TemplateInfo c = loaded.getTemplateInfo("c");
+        assertNotNull(c);
+        // the context is the first parameter
+        assertEquals(2, c.getParameterTypes().length);
+        assertEquals(repository.getTemplateInfo("c").getLastModified(),
+                     c.getLastModified());
+    }
+
+    @Test
+    public void testUpdate() throws IOException {
+        TemplateRepository repository = load();
+        long length = new File(dir, TemplateRepository.INDEX_FILENAME).length();
+
+        provider.setTemplateSource("a", "<% template a() call c(2) %>");
+        compile("a");
+        new File(dir, "b.class").delete();
+        repository.update(new String[] { "a", "b" });
+
+        assertNull(repository.getTemplateInfo("b"));
+        assertCallers(repository, "b");
+        assertCallers(repository, "c", "a");
+
+        // the changes were appended rather than rewriting the index
+        assertTrue(new File(dir, TemplateRepository.INDEX_FILENAME).length() >
+                   length);
+
+        TemplateRepository loaded = load();
+        assertEquals(2, loaded.getTemplateInfos().length);
+        assertNull(loaded.getTemplateInfo("b"));
+        assertCallers(loaded, "c", "a");
+    }
+
+    @Test
+    public void testCorruptIndex() throws IOException {
+        load();
+
+        File index = new File(dir, TemplateRepository.INDEX_FILENAME);
+        RandomAccessFile file = new RandomAccessFile(index, "rw");
+        try {
+            file.seek(file.length() - 1);
+            int b = file.read();
+            file.seek(file.length() - 1);
+            file.write(b ^ 0xff);
+        }
+        finally {
+            file.close();
+        }
+
+        TemplateRepository loaded = load();
+        assertEquals(3, loaded.getTemplateInfos().length);
+        assertCallers(loaded, "c", "b");
+    }
+
+    private TemplateRepository load() {
+        TemplateRepository repository =
+            new TemplateRepository(dir, ROOT_PACKAGE);
+        repository.load();
+        return repository;
+    }
+
+    private void compile(String... names) throws IOException {
+        Compiler compiler =
+            new Compiler(new ClassInjector(), ROOT_PACKAGE, dir);
+        compiler.addCompilationProvider(provider);
+        compiler.compile(names);
+        assertEquals(0, compiler.getErrorCount());
+    }
+
+    private void assertCallers(TemplateRepository repository, String name,
+                               String... expected) {
+        TemplateInfo[] callers = repository.getCallers(name);
+        assertEquals(expected.length, callers.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], callers[i].getShortName());
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,102 @@
+package org.teatrove.tea.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MergedContextSourceTest {
+
+    @Test
+    public void testSharedContextCreatedOnce() throws Exception {
+        TestSource shared = new TestSource(SharedContext.class, true);
+        TestSource request = new TestSource(RequestContext.class, false);
+
+        MergedContextSource source = new MergedContextSource();
+        source.init(getClass().getClassLoader(),
+                    new ContextSource[] { shared, request }, false);
+
+        for (int i = 0; i < 3; i++) {
+            Object context = source.createContext("request" + i);
+            assertEquals(Integer.valueOf(1), invoke(context, "sharedValue"));
+            assertEquals("request" + i, invoke(context, "requestValue"));
+            assertEquals("request" + i, invoke(context, "requestValue"));
+        }
+
+        assertEquals(1, shared.created.get());
+        assertEquals(3, request.created.get());
+    }
+
+    @Test
+    public void testContextsCreatedWhenUsed() throws Exception {
+        TestSource shared = new TestSource(SharedContext.class, true);
+        TestSource request = new TestSource(RequestContext.class, false);
+
+        MergedContextSource source = new MergedContextSource();
+        source.init(getClass().getClassLoader(),
+                    new ContextSource[] { shared, request }, false);
+
+        Object context = source.createContext("request");
+        assertEquals(0, shared.created.get());
+        assertEquals(0, request.created.get());
+
+        invoke(context, "requestValue");
+        assertEquals(0, shared.created.get());
+        assertEquals(1, request.created.get());
+    }
+
+    private static Object invoke(Object context, String name)
+        throws Exception {
+        return context.getClass().getMethod(name).invoke(context);
+    }
+
+    public static class SharedContext {
+        private final int mValue;
+
+        public SharedContext(int value) {
+            mValue = value;
+        }
+
+        public int sharedValue() {
+            return mValue;
+        }
+    }
+
+    public static class RequestContext {
+        private final Object mParam;
+
+        public RequestContext(Object param) {
+            mParam = param;
+        }
+
+        public Object requestValue() {
+            return mParam;
+        }
+    }
+
+    private static class TestSource implements SharedContextSource {
+        final AtomicInteger created = new AtomicInteger();
+        private final Class<?> mType;
+        private final boolean mShared;
+
+        TestSource(Class<?> type, boolean shared) {
+            mType = type;
+            mShared = shared;
+        }
+
+        public Class<?> getContextType() {
+            return mType;
+        }
+
+        public boolean isContextShared() {
+            return mShared;
+        }
+
+        public Object createContext(Object param) {
+            int count = created.incrementAndGet();
+            return mShared ? new SharedContext(count)
+                : new RequestContext(param);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.teatrove.tea.runtime;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.util.Arrays;
@@ -39,6 +40,40 @@ public class DefaultContextTest {
         dump("composite", new DumperComposite());
     }
 
+    @Test
+    public void testPrintNumbers() throws Exception {
+        final StringBuilder output = new StringBuilder();
+        DefaultContext context = new DefaultContext() {
+            @Override
+            public void print(Object obj) throws Exception {
+                output.append(toString(obj)).append(',');
+            }
+        };
+
+        context.print(7);
+        context.print(-12345);
+        context.print(Integer.MIN_VALUE);
+        context.print(Long.MAX_VALUE);
+        context.print(Long.MIN_VALUE);
+        context.print(1.5f);
+        context.print(-0.25d);
+        context.print(Integer.valueOf(100));
+        context.print((Number) null);
+        assertEquals("7,-12345,-2147483648,9223372036854775807," +
+                     "-9223372036854775808,1.5,-0.25,100,null,",
+                     output.toString());
+
+        output.setLength(0);
+        context.numberFormat("#,##0.00");
+        context.nullFormat("-");
+        context.print(1234567);
+        context.print(12L);
+        context.print(2.5d);
+        context.print(Float.valueOf(0.5f));
+        context.print((Number) null);
+        assertEquals("1,234,567.00,12.00,2.50,0.50,-,", output.toString());
+    }
+
     protected void dump(String type, Object value) {
         dump(type, value, false, false);
         dump(type, value, false, true);
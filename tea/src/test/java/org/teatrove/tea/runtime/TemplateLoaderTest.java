@@ -0,0 +1,155 @@
+package org.teatrove.tea.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.tea.templates.AbstractTemplateTest;
+
+public class TemplateLoaderTest extends AbstractTemplateTest {
+
+    private TemplateLoader loader;
+
+    @Before
+    public void setup() throws Exception {
+        addContext("LoaderApplication", new LoaderContext());
+        loader = new TemplateLoader(getInjector(), PKG);
+    }
+
+    @Test
+    public void testGeneratedInvoker() throws Exception {
+        compile("loadertest1",
+                "<% template loadertest1(int a, Integer b, String c) " +
+                "a ' ' b ' ' c %>");
+
+        TemplateLoader.Template template = loader.getTemplate("loadertest1");
+        Class<?> clazz = template.getTemplateClass();
+        for (java.lang.reflect.Method method : clazz.getMethods()) {
+            if (method.getName().equals("execute")) {
+                TemplateInvoker invoker = TemplateInvoker.forMethod(method);
+                assertTrue(invoker.getClass().getName().endsWith("$$Invoker"));
+            }
+        }
+
+        assertEquals("5 6 test", execute(template, 5, 6, "test"));
+        assertEquals("5 null null", execute(template, 5, null, null));
+    }
+
+    @Test
+    public void testReturnValue() throws Exception {
+        compile("loadertest2", "<% template loadertest2(int a, int b) a + b");
+
+        TemplateLoader.Template template = loader.getTemplate("loadertest2");
+        assertSame(int.class, template.getReturnType());
+        assertEquals("11", execute(template, 5, 6));
+    }
+
+    @Test
+    public void testExceptionNotWrapped() throws Exception {
+        compile("loadertest3", "<% template loadertest3() failure()");
+
+        TemplateLoader.Template template = loader.getTemplate("loadertest3");
+        try {
+            execute(template);
+            fail("expected exception");
+        }
+        catch (IllegalStateException expected) {
+            assertEquals("failure", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testWrongNumberOfArguments() throws Exception {
+        compile("loadertest4", "<% template loadertest4(String a) a");
+
+        TemplateLoader.Template template = loader.getTemplate("loadertest4");
+        try {
+            execute(template, "a", "b");
+            fail("expected exception");
+        }
+        catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        compile("loadertest5", "<% template loadertest5() 'test'");
+
+        final AtomicInteger loads = new AtomicInteger();
+        final TemplateLoader counting =
+            new TemplateLoader(getInjector(), PKG) {
+            protected Template loadTemplate(String name)
+                throws ClassNotFoundException, NoSuchMethodException
+            {
+                loads.incrementAndGet();
+                return super.loadTemplate(name);
+            }
+        };
+
+        int count = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final TemplateLoader.Template[] results =
+            new TemplateLoader.Template[count];
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        results[index] = counting.getTemplate("loadertest5");
+                    }
+                    catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (!failures.isEmpty()) {
+            AssertionError error =
+                new AssertionError("template load failed: " + failures);
+            error.initCause(failures.peek());
+            throw error;
+        }
+        assertEquals(1, loads.get());
+        for (TemplateLoader.Template result : results) {
+            assertSame(results[0], result);
+        }
+        assertEquals(1, counting.getLoadedTemplates().length);
+    }
+
+    protected String execute(TemplateLoader.Template template,
+                             Object... params)
+        throws Exception {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(1024);
+        Context context = (Context) getContext().createContext(output);
+        template.execute(context, params);
+        return output.toString();
+    }
+
+    public static class LoaderContext {
+        public void failure() {
+            throw new IllegalStateException("failure");
+        }
+    }
+}
@@ -155,6 +155,7 @@ public abstract class AbstractTemplateTest {
 
         // setup error handler
         compiler.addCompileListener(createCompileListener());
+        configureCompiler(compiler);
 
         // add sources for templates
         provider.setTemplateSource(template, source);
@@ -194,6 +195,7 @@ public abstract class AbstractTemplateTest {
 
         // setup error handler
         compiler.addCompileListener(createCompileListener());
+        configureCompiler(compiler);
 
         // compile templates
         String[] results = compiler.compile(template);
@@ -309,6 +311,10 @@ public abstract class AbstractTemplateTest {
         return outcome;
     }
     
+    protected void configureCompiler(Compiler compiler) {
+        // nothing to configure by default
+    }
+
     protected CompileListener createCompileListener() {
         return new CompileListener() {
             @Override
@@ -0,0 +1,57 @@
+package org.teatrove.tea.templates;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.tea.compiler.Compiler;
+import org.teatrove.tea.runtime.EncodedLiteral;
+
+public class LiteralTest extends AbstractTemplateTest {
+
+    private LiteralContext literals;
+
+    @Before
+    public void setup() {
+        literals = new LiteralContext();
+        addContext("LiteralApplication", literals);
+    }
+
+    @Override
+    protected void configureCompiler(Compiler compiler) {
+        compiler.setLiteralEncoding("UTF-8");
+    }
+
+    @Test
+    public void testEncodedLiterals() throws Exception {
+        String result = executeSource(
+            "%>héllo <% a %> wörld<% " +
+            "foreach (i in 1..2) { 'x' } a & 'y'", "String a", "b");
+
+        // Static text goes to the literal receiver, computed output does not.
+        assertEquals("bby", result);
+        assertEquals("héllo  wörldxx",
+                     literals.mOutput.toString("UTF-8"));
+    }
+
+    @Test
+    public void testOtherEncodings() throws Exception {
+        EncodedLiteral literal = new EncodedLiteral("café", "UTF-8");
+        assertEquals(5, literal.getBytes("utf-8").length);
+        assertEquals(4, literal.getBytes("ISO-8859-1").length);
+        assertEquals(null, literal.getBytes("UTF-16"));
+        assertEquals(null, literal.getBytes("US-ASCII"));
+        assertEquals(null, literal.getBytes("no-such-encoding"));
+        assertEquals("café", literal.toString());
+    }
+
+    public static class LiteralContext {
+        final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+
+        public void print(EncodedLiteral literal) throws Exception {
+            mOutput.write(literal.getBytes("UTF-8"));
+        }
+    }
+}
@@ -5,9 +5,14 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.teatrove.tea.compiler.CompileEvent;
+import org.teatrove.tea.compiler.CompileListener;
 import org.teatrove.tea.compiler.Compiler;
 import org.teatrove.trove.util.ClassInjector;
 
@@ -44,4 +49,49 @@ public class StringCompilerTest {
         assertEquals(2, results.length);
     }
 
+    @Test
+    public void testCompileParallel() throws IOException {
+        List<String> serialErrors = new ArrayList<String>();
+        String[] serial = compileCalls(1, serialErrors);
+
+        List<String> parallelErrors = new ArrayList<String>();
+        String[] parallel = compileCalls(4, parallelErrors);
+
+        Arrays.sort(serial);
+        Arrays.sort(parallel);
+        assertEquals(Arrays.asList(serial), Arrays.asList(parallel));
+        assertEquals(serialErrors, parallelErrors);
+        assertEquals(3, parallelErrors.size());
+    }
+
+    private String[] compileCalls(int threads, final List<String> errors)
+        throws IOException
+    {
+        Compiler compiler = new Compiler(new ClassInjector());
+        StringCompilationProvider provider = new StringCompilationProvider();
+        for (int i = 0; i < 20; i++) {
+            // Each template calls the next, and the last calls the first.
+            provider.setTemplateSource("t" + i, "<% template t" + i +
+                "(Integer n) if (n > 0) { call t" + ((i + 1) % 20) +
+                "(n - 1) } %>");
+        }
+        provider.setTemplateSource("e1", "<% template e1() call t1('x') %>");
+        provider.setTemplateSource("e2", "<% template e2() a = %>");
+        provider.setTemplateSource("e3", "<% template e3() call missing() %>");
+        compiler.addCompilationProvider(provider);
+
+        compiler.addCompileListener(new CompileListener() {
+            public void compileError(CompileEvent e) {
+                errors.add(e.getDetailedMessage());
+            }
+
+            public void compileWarning(CompileEvent e) {
+            }
+        });
+
+        compiler.setThreadCount(threads);
+        String[] results = compiler.compileAll();
+        assertEquals(3, compiler.getErrorCount());
+        return results;
+    }
 }
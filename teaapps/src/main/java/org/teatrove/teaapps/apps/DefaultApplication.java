@@ -17,10 +17,10 @@ package org.teatrove.teaapps.apps;
 
 import org.teatrove.teaapps.Context;
 import org.teatrove.teaapps.ContextConfig;
-import org.teatrove.teaservlet.Application;
 import org.teatrove.teaservlet.ApplicationConfig;
 import org.teatrove.teaservlet.ApplicationRequest;
 import org.teatrove.teaservlet.ApplicationResponse;
+import org.teatrove.teaservlet.SharedContextApplication;
 import org.teatrove.trove.util.PropertyMap;
 
 /**
@@ -29,10 +29,12 @@ import org.teatrove.trove.util.PropertyMap;
  * request.  The context class must contain a public no-arg default constructor.
  * If the given context class implements the {@link Context} interface, then
  * the context will be initialized with the application configuration.
+ * As the single instance is returned for every request, the context is
+ * declared as shared, and is bound once rather than for each request.
  * 
  * @author Scott Jappinen
  */
-public class DefaultApplication implements Application {
+public class DefaultApplication implements SharedContextApplication {
     
     private Object context;
 	private Class<?> contextClass;
@@ -94,6 +96,15 @@ public class DefaultApplication implements Application {
         return context;
     }
 
+    /**
+     * The single context instance is shared by all requests.
+     * 
+     * @return true
+     */
+    public boolean isContextShared() {
+        return true;
+    }
+
     /**
      * Get the context class associated with this application.
      * 
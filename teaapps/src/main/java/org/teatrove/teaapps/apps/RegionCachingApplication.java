@@ -0,0 +1,474 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.teaapps.apps;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+
+import org.teatrove.tea.runtime.Substitution;
+import org.teatrove.teaservlet.Application;
+import org.teatrove.teaservlet.ApplicationConfig;
+import org.teatrove.teaservlet.ApplicationRequest;
+import org.teatrove.teaservlet.ApplicationResponse;
+import org.teatrove.teaservlet.ApplicationResponse.DetachedData;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.ExpiringCache;
+import org.teatrove.trove.util.PropertyMap;
+
+/**
+ * The region caching application caches the output of regions of a
+ * template, such as navigation menus and footers, so that they do not have
+ * to be executed on every request.  A region is a {@link Substitution}
+ * block passed to the <code>cache</code> function:
+ * <br />
+ * <pre>
+ *     cache(60000) {
+ *         call navigation()
+ *     }
+ *
+ *     cache(60000, section) {
+ *         call footer(section)
+ *     }
+ * </pre>
+ *
+ * The region is executed with {@link ApplicationResponse#execDetached} and
+ * the detached output is kept for the given number of milliseconds.  Each
+ * region is identified by its location in the template, optionally combined
+ * with a key that distinguishes output that varies.  If compression is
+ * enabled, cached regions are compressed once and spliced directly into
+ * compressed responses.
+ * <p>
+ * Once a region expires, the first request to find it recomputes it while
+ * other requests continue to receive the stale output, so an expensive
+ * region is never recomputed by more than one request at a time.  Likewise,
+ * if a region is not cached yet, only one request computes it and the
+ * others wait for the result.
+ * <p>
+ * The cache is bounded by both the number of regions and their total size
+ * in bytes.  When either bound is exceeded, expired regions are discarded
+ * first, followed by the least recently used regions.  The following
+ * properties are supported:
+ * <ul>
+ * <li>maxRegions - maximum number of cached regions (default 1000)
+ * <li>maxSize - maximum total size of cached regions, in bytes
+ * (default 32MB)
+ * <li>compress - compression level for cached regions, 1 to 9, or 0 to
+ * cache regions uncompressed (default 6)
+ * <li>waitTimeout - maximum milliseconds a request waits for another
+ * request to compute a region before computing it too (default 10000)
+ * </ul>
+ *
+ * @see RegionCachingContext
+ */
+public class RegionCachingApplication implements Application {
+
+    private static final int DEFAULT_MAX_REGIONS = 1000;
+    private static final long DEFAULT_MAX_SIZE = 32L * 1024 * 1024;
+    private static final int DEFAULT_COMPRESSION = 6;
+    private static final int DEFAULT_WAIT_TIMEOUT = 10000;
+
+    private Log mLog;
+
+    private long mMaxSize;
+    private int mCompressionLevel;
+    private int mWaitTimeout;
+
+    private ExpiringCache<RegionKey, Region> mRegions;
+    private final ConcurrentMap<RegionKey, CountDownLatch> mPending =
+        new ConcurrentHashMap<RegionKey, CountDownLatch>();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mStaleHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * Default constructor.
+     */
+    public RegionCachingApplication() {
+        super();
+    }
+
+    /**
+     * Initializes the application.
+     *
+     * @param config an ApplicationConfig object containing config info
+     */
+    public void init(ApplicationConfig config) throws ServletException {
+        mLog = config.getLog();
+
+        PropertyMap props = config.getProperties();
+        int maxRegions = props.getInt("maxRegions", DEFAULT_MAX_REGIONS);
+        mMaxSize = Long.parseLong
+            (props.getString("maxSize", String.valueOf(DEFAULT_MAX_SIZE)));
+        mCompressionLevel = props.getInt("compress", DEFAULT_COMPRESSION);
+        mWaitTimeout = props.getInt("waitTimeout", DEFAULT_WAIT_TIMEOUT);
+
+        if (mCompressionLevel < 0 || mCompressionLevel > 9) {
+            mLog.warn("Invalid compression level: " + mCompressionLevel);
+            mCompressionLevel = DEFAULT_COMPRESSION;
+        }
+
+        mRegions = new ExpiringCache<RegionKey, Region>(maxRegions, mMaxSize);
+    }
+
+    /**
+     * Creates a context for the templates.
+     *
+     * @param request The user's http request
+     * @param response The user's http response
+     *
+     * @return The context for the templates
+     */
+    public Object createContext(ApplicationRequest request,
+                                ApplicationResponse response) {
+        return new RegionCachingContext(request, response);
+    }
+
+    /**
+     * Get the context type for this application.
+     *
+     * @return The context type for this application
+     *
+     * @see RegionCachingContext
+     */
+    public Class<?> getContextType() {
+        return RegionCachingContext.class;
+    }
+
+    /**
+     * Called before the application is closed down.
+     */
+    public void destroy() {
+        clear();
+    }
+
+    /**
+     * Discards all cached regions.
+     */
+    void clear() {
+        mRegions.clear();
+    }
+
+    /**
+     * The region caching context provides the functions for caching the
+     * output of substitution blocks.
+     */
+    public class RegionCachingContext {
+        private final ApplicationRequest mRequest;
+        private final ApplicationResponse mResponse;
+
+        /**
+         * Create a context associated with the given request and response.
+         *
+         * @param request The active request for this context
+         * @param response The active response for this context
+         */
+        public RegionCachingContext(ApplicationRequest request,
+                                    ApplicationResponse response) {
+            mRequest = request;
+            mResponse = response;
+        }
+
+        /**
+         * Output the cached output of the given substitution block, or
+         * execute it and cache its output for the given number of
+         * milliseconds.
+         * <br />
+         * <pre>
+         *     cache(60000) { 'expensive stuff here' }
+         * </pre>
+         *
+         * @param ttlMillis The number of milliseconds to cache the output,
+         *        or 0 to cache it until evicted
+         * @param s The substitution block of code
+         */
+        public void cache(long ttlMillis, Substitution s) throws Exception {
+            cache(ttlMillis, null, s);
+        }
+
+        /**
+         * Output the cached output of the given substitution block, or
+         * execute it and cache its output for the given number of
+         * milliseconds.  The key distinguishes output of the same block that
+         * varies, such as by locale or by section of the site.  Arrays may
+         * be used to combine several values into a key.
+         * <br />
+         * <pre>
+         *     cache(60000, #(section, locale)) { 'expensive stuff here' }
+         * </pre>
+         *
+         * @param ttlMillis The number of milliseconds to cache the output,
+         *        or 0 to cache it until evicted
+         * @param key The secondary key of the output, or null
+         * @param s The substitution block of code
+         */
+        public void cache(long ttlMillis, Object key, Substitution s)
+            throws Exception
+        {
+            RegionKey regionKey = new RegionKey(s.getIdentifier(), key);
+
+            ExpiringCache.Entry<Region> entry = mRegions.getEntry(regionKey);
+            if (entry != null) {
+                Region region = entry.getValue();
+                if (!entry.isExpired(System.currentTimeMillis())) {
+                    mHits.incrementAndGet();
+                    region.mData.playback(mRequest, mResponse);
+                    return;
+                }
+
+                if (region.mRefreshing.compareAndSet(false, true)) {
+                    // This request revalidates the region while other
+                    // requests are served the stale output.
+                    try {
+                        mMisses.incrementAndGet();
+                        compute(regionKey, ttlMillis, s);
+                    }
+                    finally {
+                        region.mRefreshing.set(false);
+                    }
+                }
+                else {
+                    mStaleHits.incrementAndGet();
+                    region.mData.playback(mRequest, mResponse);
+                }
+                return;
+            }
+
+            CountDownLatch latch = new CountDownLatch(1);
+            CountDownLatch existing = mPending.putIfAbsent(regionKey, latch);
+            if (existing == null) {
+                try {
+                    mMisses.incrementAndGet();
+                    compute(regionKey, ttlMillis, s);
+                }
+                finally {
+                    mPending.remove(regionKey, latch);
+                    latch.countDown();
+                }
+                return;
+            }
+
+            // Another request is computing this region, so wait for it.
+            if (existing.await(mWaitTimeout, TimeUnit.MILLISECONDS)) {
+                entry = mRegions.getEntry(regionKey);
+                if (entry != null) {
+                    mHits.incrementAndGet();
+                    entry.getValue().mData.playback(mRequest, mResponse);
+                    return;
+                }
+            }
+
+            // The other request failed or is taking too long, so execute
+            // the region without caching it.
+            mMisses.incrementAndGet();
+            s.substitute();
+        }
+
+        /**
+         * Execute the given substitution block every time the enclosing
+         * cached region is output, rather than caching its output.  Outside
+         * of a cached region, the block is simply executed.
+         * <p>
+         * The block is executed against the context of the request being
+         * served, but any template variables it refers to keep the values
+         * they had in the request that cached the region.  Values that vary
+         * by request must be obtained by calling functions within the block.
+         * <br />
+         * <pre>
+         *     cache(60000) {
+         *         'cached stuff here'
+         *         nocache() { 'Hello ' getRequest().remoteUser }
+         *     }
+         * </pre>
+         *
+         * @param s The substitution block of code
+         */
+        public void nocache(Substitution s) throws Exception {
+            if (!mResponse.insertCommand(new NoCacheCommand(s.detach()))) {
+                s.substitute();
+            }
+        }
+
+        /**
+         * Discards all cached regions.
+         */
+        public void clearRegionCache() {
+            clear();
+        }
+
+        /**
+         * Returns the current state of the region cache.
+         */
+        public RegionCacheInfo getRegionCacheInfo() {
+            return new RegionCacheInfo
+                (mRegions.size(), mRegions.getWeight(), mHits.get(),
+                 mStaleHits.get(), mMisses.get(),
+                 mRegions.getEvictionCount() +
+                 mRegions.getExpirationCount());
+        }
+
+        private void compute(RegionKey key, long ttlMillis, Substitution s)
+            throws Exception
+        {
+            DetachedData data = mResponse.execDetached(s);
+            if (mCompressionLevel > 0) {
+                data.compress(mCompressionLevel);
+            }
+
+            long start = mResponse.getResponseBuffer().getByteCount();
+            data.playback(mRequest, mResponse);
+            long size = mResponse.getResponseBuffer().getByteCount() - start;
+
+            if (size <= mMaxSize) {
+                mRegions.put(key, new Region(data), System.currentTimeMillis(),
+                             ttlMillis, size);
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the state of the region cache.
+     */
+    public static class RegionCacheInfo {
+        private final int mRegionCount;
+        private final long mByteCount;
+        private final long mHits;
+        private final long mStaleHits;
+        private final long mMisses;
+        private final long mEvictions;
+
+        RegionCacheInfo(int regionCount, long byteCount, long hits,
+                        long staleHits, long misses, long evictions) {
+            mRegionCount = regionCount;
+            mByteCount = byteCount;
+            mHits = hits;
+            mStaleHits = staleHits;
+            mMisses = misses;
+            mEvictions = evictions;
+        }
+
+        /** Returns the number of cached regions. */
+        public int getRegionCount() {
+            return mRegionCount;
+        }
+
+        /** Returns the total uncompressed size of cached regions. */
+        public long getByteCount() {
+            return mByteCount;
+        }
+
+        /** Returns the number of regions output from the cache. */
+        public long getHits() {
+            return mHits;
+        }
+
+        /**
+         * Returns the number of expired regions output from the cache while
+         * another request recomputed them.
+         */
+        public long getStaleHits() {
+            return mStaleHits;
+        }
+
+        /** Returns the number of regions computed. */
+        public long getMisses() {
+            return mMisses;
+        }
+
+        /** Returns the number of regions discarded to stay within bounds. */
+        public long getEvictions() {
+            return mEvictions;
+        }
+
+        public String toString() {
+            return "RegionCacheInfo[regions=" + mRegionCount +
+                ", bytes=" + mByteCount + ", hits=" + mHits +
+                ", staleHits=" + mStaleHits + ", misses=" + mMisses +
+                ", evictions=" + mEvictions + ']';
+        }
+    }
+
+    /**
+     * Identifies a region by the substitution block and secondary key.
+     */
+    private static class RegionKey {
+        private final Object mId;
+        private final Object mKey;
+        private final int mHashCode;
+
+        RegionKey(Object id, Object key) {
+            mId = id;
+            mKey = key;
+            mHashCode = id.hashCode() * 31 +
+                Arrays.deepHashCode(new Object[] { key });
+        }
+
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof RegionKey)) {
+                return false;
+            }
+            RegionKey other = (RegionKey) obj;
+            return mHashCode == other.mHashCode &&
+                mId.equals(other.mId) &&
+                Arrays.deepEquals(new Object[] { mKey },
+                                  new Object[] { other.mKey });
+        }
+    }
+
+    /**
+     * The cached output of a region.
+     */
+    private static class Region {
+        final DetachedData mData;
+        final AtomicBoolean mRefreshing = new AtomicBoolean();
+
+        Region(DetachedData data) {
+            mData = data;
+        }
+    }
+
+    /**
+     * Executes a substitution block each time a cached region is played
+     * back.  A new detached copy is executed each time, since several
+     * requests may play back the same region at once.
+     */
+    private static class NoCacheCommand implements ApplicationResponse.Command {
+        private final Substitution mSubstitution;
+
+        NoCacheCommand(Substitution s) {
+            mSubstitution = s;
+        }
+
+        public void execute(ApplicationRequest request,
+                            ApplicationResponse response) throws Exception {
+            mSubstitution.detach().substitute(response.getHttpContext());
+        }
+    }
+}
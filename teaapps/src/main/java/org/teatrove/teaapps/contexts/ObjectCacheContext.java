@@ -15,53 +15,292 @@
  */
 package org.teatrove.teaapps.contexts;
 
-import java.util.Map;
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.teatrove.tea.runtime.Substitution;
+import org.teatrove.teaapps.Context;
+import org.teatrove.teaapps.ContextConfig;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.ExpiringCache;
+import org.teatrove.trove.util.PropertyMap;
 
 /**
  * Custom Tea context that provides a simple and shared object cache in the
- * application. The context has a single shared cache with no boundaries or
- * constraints.
- * 
+ * application. The cache is bounded by a maximum number of entries, and
+ * objects may be given a time to live after which they are discarded. When
+ * the cache is full, expired objects are evicted first, followed by the
+ * least recently used objects.
+ * <p>
+ * The following configuration parameters are supported:
+ *
+ * <dl>
+ *   <dt>maxEntries</dt>
+ *   <dd>The maximum number of cached objects (default 10000)</dd>
+ *   <dt>defaultTTL</dt>
+ *   <dd>The number of milliseconds objects are cached for when no time to
+ *       live is given, or 0 to cache them until evicted (default 0)</dd>
+ *   <dt>loadTimeout</dt>
+ *   <dd>The maximum number of milliseconds to wait for another request to
+ *       load an object (default 10000)</dd>
+ *   <dt>management</dt>
+ *   <dd>Whether to register the cache with the platform MBean server
+ *       (default true)</dd>
+ * </dl>
+ *
  * @author Scott Jappinen
  */
-public class ObjectCacheContext {
+public class ObjectCacheContext implements Context {
+
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final int DEFAULT_LOAD_TIMEOUT = 10000;
+
+    private Log mLog;
+
+    private long mDefaultTTL;
+    private int mLoadTimeout = DEFAULT_LOAD_TIMEOUT;
+
+    private volatile ExpiringCache<String, Object> mObjectCache =
+        new ExpiringCache<String, Object>(DEFAULT_MAX_ENTRIES);
+    private final ConcurrentMap<String, CountDownLatch> mLoading =
+        new ConcurrentHashMap<String, CountDownLatch>();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mLoads = new AtomicLong();
+
+    private final Statistics mStatistics = new Statistics();
+
+    /**
+     * Default constructor.
+     */
+    public ObjectCacheContext() {
+        super();
+    }
+
+    /**
+     * Initialize this context instance with the configured bounds, and
+     * register it with the platform MBean server.
+     *
+     * @param config The context configuration
+     */
+    public void init(ContextConfig config) {
+        mLog = config.getLog();
+
+        PropertyMap properties = config.getProperties();
+        mObjectCache = new ExpiringCache<String, Object>
+            (properties.getInt("maxEntries", DEFAULT_MAX_ENTRIES));
+        mDefaultTTL = Long.parseLong(properties.getString("defaultTTL", "0"));
+        mLoadTimeout = properties.getInt("loadTimeout", DEFAULT_LOAD_TIMEOUT);
+
+        if (properties.getBoolean("management", true)) {
+            register(config.getName());
+        }
+    }
+
+    private void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName
+                ("org.teatrove.teaapps:type=ObjectCache,name=" +
+                 ObjectName.quote(String.valueOf(name)));
+
+            // Replace the cache of a previous instance of the application.
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean
+                (new StandardMBean(mStatistics, ObjectCacheMBean.class),
+                 objectName);
+        }
+        catch (Exception e) {
+            mLog.warn("Unable to register object cache MBean: " + name);
+            mLog.warn(e);
+        }
+    }
 
-	private Map<String, Object> mObjectCache = 
-	    new ConcurrentHashMap<String, Object>();
-	
 	/**
 	 * Get the object associated with the given key or <code>null</code> if it
-	 * does not exist.
-	 * 
+	 * does not exist or has expired.
+	 *
 	 * @param key The name of key associated with the cached object
-	 * 
+	 *
 	 * @return The associated object or <code>null</code>
 	 */
     public Object getCachedObject(String key) {
-        return mObjectCache.get(key);
+        Object value = lookup(key);
+        if (value == null) {
+            mMisses.incrementAndGet();
+        }
+        else {
+            mHits.incrementAndGet();
+        }
+        return value;
     }
-    
+
+    /**
+     * Get the object associated with the given key, or load it with the
+     * given substitution block if it does not exist or has expired. The
+     * block is expected to put the object into the cache with
+     * {@link #putCachedObject}. If several requests need the same object at
+     * once, only one of them executes the block and the others wait for it.
+     * <br />
+     * <pre>
+     *     value = getCachedObject('key') {
+     *         putCachedObject('key', loadExpensiveValue(), 60000)
+     *     }
+     * </pre>
+     *
+     * @param key The name of key associated with the cached object
+     * @param loader The substitution block that puts the object
+     *
+     * @return The associated object or <code>null</code> if the block did
+     *         not put an object
+     */
+    public Object getCachedObject(String key, Substitution loader)
+        throws Exception
+    {
+        Object value = getCachedObject(key);
+        if (value != null) {
+            return value;
+        }
+
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch existing = mLoading.putIfAbsent(key, latch);
+        if (existing == null) {
+            try {
+                mLoads.incrementAndGet();
+                loader.substitute();
+            }
+            finally {
+                mLoading.remove(key, latch);
+                latch.countDown();
+            }
+        }
+        else if (!existing.await(mLoadTimeout, TimeUnit.MILLISECONDS)) {
+            // The other request is taking too long, so load it too.
+            mLoads.incrementAndGet();
+            loader.substitute();
+        }
+
+        return lookup(key);
+    }
+
     /**
-     * Put the given object into the cache with the given key.
-     * 
+     * Put the given object into the cache with the given key. The object is
+     * cached for the configured default time to live.
+     *
      * @param key The name of the key to associated with the object
      * @param value The value to place in the cache
      */
     public void putCachedObject(String key, Object value) {
-        mObjectCache.put(key, value);
+        putCachedObject(key, value, mDefaultTTL);
     }
-    
+
+    /**
+     * Put the given object into the cache with the given key for the given
+     * number of milliseconds.
+     *
+     * @param key The name of the key to associated with the object
+     * @param value The value to place in the cache, or <code>null</code> to
+     *        remove the object
+     * @param ttlMillis The number of milliseconds to cache the object, or 0
+     *        to cache it until evicted
+     */
+    public void putCachedObject(String key, Object value, long ttlMillis) {
+        if (value == null) {
+            deleteCachedObject(key);
+            return;
+        }
+
+        mObjectCache.put(key, value, System.currentTimeMillis(), ttlMillis);
+    }
+
     /**
      * Remove the object from the cache for the given key.
-     * 
+     *
      * @param key The name of the key to remove from the cache
-     * 
+     *
      * @return The value associated with the key that was removed or
      *         <code>null</code> if the value did not exist
      */
     public Object deleteCachedObject(String key) {
-        return mObjectCache.remove(key);
+        ExpiringCache.Entry<Object> entry = mObjectCache.remove(key);
+        return entry == null ? null : entry.getValue();
     }
-}
 
+    /**
+     * Returns the size of the cache and counts of its hits, misses and
+     * evictions.
+     */
+    public ObjectCacheMBean getObjectCacheStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Returns the cached object without counting a hit or miss.
+     */
+    private Object lookup(String key) {
+        ExpiringCache.Entry<Object> entry =
+            mObjectCache.get(key, System.currentTimeMillis());
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Exposes the state of the cache to the admin pages and JMX.
+     */
+    private class Statistics implements ObjectCacheMBean {
+        public void clearCachedObjects() {
+            mObjectCache.clear();
+        }
+
+        public int getSize() {
+            return mObjectCache.size();
+        }
+
+        public int getMaxEntries() {
+            return mObjectCache.getMaxEntries();
+        }
+
+        public long getHitCount() {
+            return mHits.get();
+        }
+
+        public long getMissCount() {
+            return mMisses.get();
+        }
+
+        public double getHitRatio() {
+            long hits = mHits.get();
+            long total = hits + mMisses.get();
+            return total == 0 ? 0.0d : (double) hits / total;
+        }
+
+        public long getEvictionCount() {
+            return mObjectCache.getEvictionCount();
+        }
+
+        public long getExpirationCount() {
+            return mObjectCache.getExpirationCount();
+        }
+
+        public long getLoadCount() {
+            return mLoads.get();
+        }
+
+        public void resetCounts() {
+            mHits.set(0);
+            mMisses.set(0);
+            mLoads.set(0);
+            mObjectCache.resetCounts();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teatrove.teaapps.contexts;
+
+/**
+ * Management interface of the cache of an {@link ObjectCacheContext},
+ * registered with the platform MBean server for each configured cache.
+ */
+public interface ObjectCacheMBean {
+
+    /**
+     * Returns the number of objects currently cached.
+     */
+    public int getSize();
+
+    /**
+     * Returns the maximum number of objects cached before the least
+     * recently used objects are evicted.
+     */
+    public int getMaxEntries();
+
+    /**
+     * Returns the number of lookups that found a cached object.
+     */
+    public long getHitCount();
+
+    /**
+     * Returns the number of lookups that did not find a cached object.
+     */
+    public long getMissCount();
+
+    /**
+     * Returns the fraction of lookups that found a cached object.
+     */
+    public double getHitRatio();
+
+    /**
+     * Returns the number of objects evicted to stay within the maximum
+     * number of entries.
+     */
+    public long getEvictionCount();
+
+    /**
+     * Returns the number of objects discarded because they expired.
+     */
+    public long getExpirationCount();
+
+    /**
+     * Returns the number of objects loaded by substitution blocks.
+     */
+    public long getLoadCount();
+
+    /**
+     * Removes all objects from the cache.
+     */
+    public void clearCachedObjects();
+
+    /**
+     * Resets the hit, miss, eviction, expiration and load counts.
+     */
+    public void resetCounts();
+}
@@ -0,0 +1,440 @@
+package org.teatrove.teaapps.apps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.tea.runtime.Context;
+import org.teatrove.tea.runtime.Substitution;
+import org.teatrove.teaapps.apps.RegionCachingApplication.RegionCacheInfo;
+import org.teatrove.teaapps.apps.RegionCachingApplication.RegionCachingContext;
+import org.teatrove.teaservlet.ApplicationConfig;
+import org.teatrove.teaservlet.ApplicationRequest;
+import org.teatrove.teaservlet.ApplicationResponse;
+import org.teatrove.trove.io.CharToByteBuffer;
+import org.teatrove.trove.io.DefaultByteBuffer;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.PropertyMap;
+
+public class RegionCachingApplicationTest {
+
+    // The response whose context is executing on each thread.
+    private static final ThreadLocal<Response> cCurrent =
+        new ThreadLocal<Response>();
+
+    // Collects the output of detached executions, in place of the response.
+    private static final ThreadLocal<List<Object>> cDetached =
+        new ThreadLocal<List<Object>>();
+
+    private RegionCachingApplication application;
+
+    @Before
+    public void init() throws Exception {
+        init(new PropertyMap());
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        Block block = new Block("region");
+
+        assertEquals("region", new Response().cache(60000, null, block));
+        assertEquals("region", new Response().cache(60000, null, block));
+
+        assertEquals(1, block.mCount.get());
+        RegionCacheInfo info = getInfo();
+        assertEquals(1, info.getRegionCount());
+        assertEquals(1, info.getHits());
+        assertEquals(1, info.getMisses());
+    }
+
+    @Test
+    public void testKeys() throws Exception {
+        Block block = new Block("a");
+        assertEquals("a", new Response().cache(60000, "a", block));
+        block.mText = "b";
+        assertEquals("b", new Response().cache(60000, "b", block));
+        assertEquals("a", new Response().cache(60000, "a", block));
+
+        // Array keys are compared by their contents.
+        block.mText = "c";
+        assertEquals("c", new Response().cache
+                     (60000, new Object[] { "c", 1 }, block));
+        block.mText = "d";
+        assertEquals("c", new Response().cache
+                     (60000, new Object[] { "c", 1 }, block));
+
+        assertEquals(3, block.mCount.get());
+        assertEquals(3, getInfo().getRegionCount());
+    }
+
+    @Test
+    public void testByteCount() throws Exception {
+        // Only the output of the region counts towards its size, not what
+        // the response held before it.
+        Response response = new Response();
+        response.mBuffer.append("prefix ");
+        assertEquals("prefix region",
+                     response.cache(60000, null, new Block("region")));
+
+        assertEquals("region".length(), getInfo().getByteCount());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        PropertyMap properties = new PropertyMap();
+        properties.put("maxSize", "4");
+        init(properties);
+
+        Block block = new Block("region");
+        assertEquals("region", new Response().cache(60000, null, block));
+        assertEquals("region", new Response().cache(60000, null, block));
+
+        assertEquals(2, block.mCount.get());
+        assertEquals(0, getInfo().getRegionCount());
+        assertEquals(0, getInfo().getByteCount());
+    }
+
+    @Test
+    public void testSingleComputer() throws Exception {
+        Block block = new Block("region");
+        CountDownLatch gate = block.hold();
+
+        Caller first = new Caller(60000, block);
+        first.start();
+        block.mEntered.await(5, TimeUnit.SECONDS);
+
+        // Waits for the first request rather than computing the region too.
+        Caller second = new Caller(60000, block);
+        second.start();
+        Thread.sleep(100);
+        gate.countDown();
+
+        assertEquals("region", first.finish());
+        assertEquals("region", second.finish());
+        assertEquals(1, block.mCount.get());
+        assertEquals(1, getInfo().getMisses());
+        assertEquals(1, getInfo().getHits());
+    }
+
+    @Test
+    public void testWaitTimeout() throws Exception {
+        PropertyMap properties = new PropertyMap();
+        properties.put("waitTimeout", "50");
+        init(properties);
+
+        Block block = new Block("region");
+        CountDownLatch gate = block.hold();
+
+        Caller first = new Caller(60000, block);
+        first.start();
+        block.mEntered.await(5, TimeUnit.SECONDS);
+
+        // Gives up waiting and executes the region without caching it.
+        assertEquals("region", new Response().cache(60000, null, block));
+        assertEquals(2, block.mCount.get());
+
+        gate.countDown();
+        assertEquals("region", first.finish());
+        assertEquals(2, getInfo().getMisses());
+        assertEquals(1, getInfo().getRegionCount());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        Block block = new Block("old");
+        assertEquals("old", new Response().cache(100, null, block));
+        Thread.sleep(200);
+
+        block.mText = "new";
+        CountDownLatch gate = block.hold();
+        Caller first = new Caller(100, block);
+        first.start();
+        block.mEntered.await(5, TimeUnit.SECONDS);
+
+        // Served the expired output while the first request recomputes it.
+        assertEquals("old", new Response().cache(100, null, block));
+        assertEquals(1, getInfo().getStaleHits());
+
+        gate.countDown();
+        assertEquals("new", first.finish());
+        assertEquals(2, block.mCount.get());
+        assertEquals("new", new Response().cache(100, null, block));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        Block block = new Block("region");
+        block.mFailure = new IllegalStateException("failed");
+        try {
+            new Response().cache(60000, null, block);
+            fail();
+        }
+        catch (IllegalStateException e) {
+        }
+        assertEquals(0, getInfo().getRegionCount());
+
+        // The failed computation doesn't leave other requests waiting.
+        block.mFailure = null;
+        assertEquals("region", new Response().cache(60000, null, block));
+        assertEquals(1, getInfo().getRegionCount());
+    }
+
+    @Test
+    public void testNoCache() throws Exception {
+        final Block inner = new Block(" inner");
+        Block outer = new Block("outer") {
+            public void substitute() throws Exception {
+                super.substitute();
+                cCurrent.get().getContext().nocache(inner);
+            }
+        };
+
+        assertEquals("outer inner", new Response().cache(60000, null, outer));
+        assertEquals("outer inner", new Response().cache(60000, null, outer));
+        assertEquals(1, outer.mCount.get());
+        assertEquals(2, inner.mCount.get());
+
+        // Outside of a cached region, the block is simply executed.
+        Response response = new Response();
+        cCurrent.set(response);
+        try {
+            response.getContext().nocache(inner);
+        }
+        finally {
+            cCurrent.remove();
+        }
+        assertEquals(" inner", response.getOutput());
+        assertEquals(3, inner.mCount.get());
+    }
+
+    private void init(final PropertyMap properties) throws Exception {
+        final Log log = new Log("test", null);
+        ApplicationConfig config = (ApplicationConfig) Proxy.newProxyInstance
+            (ApplicationConfig.class.getClassLoader(),
+             new Class<?>[] { ApplicationConfig.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method method,
+                                      Object[] args) {
+                     if ("getLog".equals(method.getName())) {
+                         return log;
+                     }
+                     if ("getProperties".equals(method.getName())) {
+                         return properties;
+                     }
+                     return null;
+                 }
+             });
+
+        application = new RegionCachingApplication();
+        application.init(config);
+    }
+
+    private RegionCacheInfo getInfo() throws Exception {
+        return new Response().getContext().getRegionCacheInfo();
+    }
+
+    // ApplicationResponse.getResponseBuffer returns the deprecated
+    // teaservlet.io type.
+    @SuppressWarnings("deprecation")
+    private static CharToByteBuffer createBuffer() {
+        return new org.teatrove.teaservlet.io.DefaultCharToByteBuffer
+            (new DefaultByteBuffer());
+    }
+
+    private static void print(String text) throws IOException {
+        List<Object> detached = cDetached.get();
+        if (detached != null) {
+            detached.add(text);
+        }
+        else {
+            cCurrent.get().mBuffer.append(text);
+        }
+    }
+
+    /**
+     * Response that executes detached blocks by collecting their output and
+     * any inserted commands.
+     */
+    private class Response implements InvocationHandler {
+        final CharToByteBuffer mBuffer = createBuffer();
+        final ApplicationResponse mProxy =
+            (ApplicationResponse) Proxy.newProxyInstance
+            (ApplicationResponse.class.getClassLoader(),
+             new Class<?>[] { ApplicationResponse.class }, this);
+
+        RegionCachingContext getContext() {
+            return (RegionCachingContext)
+                application.createContext(null, mProxy);
+        }
+
+        String cache(long ttlMillis, Object key, Substitution s)
+            throws Exception
+        {
+            cCurrent.set(this);
+            try {
+                getContext().cache(ttlMillis, key, s);
+            }
+            finally {
+                cCurrent.remove();
+            }
+            return getOutput();
+        }
+
+        String getOutput() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            mBuffer.writeTo(out);
+            return out.toString("ISO-8859-1");
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws Exception
+        {
+            String name = method.getName();
+            if ("getResponseBuffer".equals(name)) {
+                return mBuffer;
+            }
+            if ("execDetached".equals(name)) {
+                List<Object> output = new ArrayList<Object>();
+                List<Object> saved = cDetached.get();
+                cDetached.set(output);
+                try {
+                    ((Substitution) args[0]).detach().substitute();
+                }
+                finally {
+                    cDetached.set(saved);
+                }
+                return new Data(output);
+            }
+            if ("insertCommand".equals(name)) {
+                List<Object> detached = cDetached.get();
+                if (detached == null) {
+                    return Boolean.FALSE;
+                }
+                detached.add(args[0]);
+                return Boolean.TRUE;
+            }
+            Class<?> type = method.getReturnType();
+            return type == boolean.class ? Boolean.FALSE : null;
+        }
+    }
+
+    private static class Data implements ApplicationResponse.DetachedData {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Object> mOutput;
+
+        Data(List<Object> output) {
+            mOutput = output;
+        }
+
+        public void playback(ApplicationRequest request,
+                             ApplicationResponse response) throws Exception {
+            for (Object item : mOutput) {
+                if (item instanceof ApplicationResponse.Command) {
+                    ((ApplicationResponse.Command) item)
+                        .execute(request, response);
+                }
+                else {
+                    response.getResponseBuffer().append((String) item);
+                }
+            }
+        }
+
+        public void compress() {
+        }
+
+        public void compress(int level) {
+        }
+    }
+
+    /**
+     * Block that prints its text and counts how often it is executed. A
+     * held block makes the next execution wait until released.
+     */
+    private static class Block implements Substitution {
+        final AtomicInteger mCount = new AtomicInteger();
+        final AtomicReference<CountDownLatch> mGate =
+            new AtomicReference<CountDownLatch>();
+        volatile CountDownLatch mEntered;
+        volatile String mText;
+        volatile RuntimeException mFailure;
+
+        Block(String text) {
+            mText = text;
+        }
+
+        CountDownLatch hold() {
+            mEntered = new CountDownLatch(1);
+            CountDownLatch gate = new CountDownLatch(1);
+            mGate.set(gate);
+            return gate;
+        }
+
+        public void substitute() throws Exception {
+            mCount.incrementAndGet();
+            CountDownLatch gate = mGate.getAndSet(null);
+            if (gate != null) {
+                mEntered.countDown();
+                gate.await(5, TimeUnit.SECONDS);
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            print(mText);
+        }
+
+        public void substitute(Context context) throws Exception {
+            substitute();
+        }
+
+        public Object getIdentifier() {
+            return this;
+        }
+
+        public Substitution detach() {
+            return this;
+        }
+    }
+
+    private class Caller extends Thread {
+        private final long mTtlMillis;
+        private final Block mBlock;
+        private volatile String mOutput;
+        private volatile Exception mError;
+
+        Caller(long ttlMillis, Block block) {
+            mTtlMillis = ttlMillis;
+            mBlock = block;
+        }
+
+        public void run() {
+            try {
+                mOutput = new Response().cache(mTtlMillis, null, mBlock);
+            }
+            catch (Exception e) {
+                mError = e;
+            }
+        }
+
+        String finish() throws Exception {
+            join(5000);
+            if (mError != null) {
+                throw mError;
+            }
+            return mOutput;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.teatrove.teaapps.contexts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+import org.teatrove.tea.runtime.Context;
+import org.teatrove.tea.runtime.Substitution;
+import org.teatrove.teaapps.ContextConfig;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.PropertyMap;
+
+public class ObjectCacheContextTest {
+
+    private static final String NAME = "ObjectCacheContextTest";
+
+    private final MBeanServer server =
+        ManagementFactory.getPlatformMBeanServer();
+
+    @After
+    public void cleanup() throws Exception {
+        ObjectName objectName = getObjectName();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void testLoadOnce() throws Exception {
+        ObjectCacheContext cache = createCache(new PropertyMap());
+        Loader loader = new Loader(cache, "key", "value");
+
+        assertEquals("value", cache.getCachedObject("key", loader));
+        assertEquals("value", cache.getCachedObject("key", loader));
+
+        assertEquals(1, loader.mCount.get());
+        ObjectCacheMBean stats = cache.getObjectCacheStatistics();
+        assertEquals(1, stats.getLoadCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+    }
+
+    @Test
+    public void testLoadNothing() throws Exception {
+        ObjectCacheContext cache = createCache(new PropertyMap());
+        Loader loader = new Loader(cache, "key", null);
+
+        assertNull(cache.getCachedObject("key", loader));
+        assertNull(cache.getCachedObject("key", loader));
+        assertEquals(2, loader.mCount.get());
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        ObjectCacheContext cache = createCache(new PropertyMap());
+        Loader first = new Loader(cache, "key", "first");
+        CountDownLatch gate = first.hold();
+        Getter getter = new Getter(cache, first);
+        getter.start();
+        first.mEntered.await(5, TimeUnit.SECONDS);
+
+        // Waits for the first loader rather than loading the object too.
+        Loader second = new Loader(cache, "key", "second");
+        Getter waiter = new Getter(cache, second);
+        waiter.start();
+        Thread.sleep(100);
+        gate.countDown();
+
+        assertEquals("first", getter.finish());
+        assertEquals("first", waiter.finish());
+        assertEquals(0, second.mCount.get());
+        assertEquals(1, cache.getObjectCacheStatistics().getLoadCount());
+    }
+
+    @Test
+    public void testLoadTimeout() throws Exception {
+        PropertyMap properties = new PropertyMap();
+        properties.put("loadTimeout", "50");
+        ObjectCacheContext cache = createCache(properties);
+
+        Loader first = new Loader(cache, "key", "first");
+        CountDownLatch gate = first.hold();
+        Getter getter = new Getter(cache, first);
+        getter.start();
+        first.mEntered.await(5, TimeUnit.SECONDS);
+
+        // Gives up waiting and loads the object itself.
+        Loader second = new Loader(cache, "key", "second");
+        assertEquals("second", cache.getCachedObject("key", second));
+
+        gate.countDown();
+        assertEquals("first", getter.finish());
+        assertEquals(2, cache.getObjectCacheStatistics().getLoadCount());
+    }
+
+    @Test
+    public void testLoadFailure() throws Exception {
+        ObjectCacheContext cache = createCache(new PropertyMap());
+        Loader loader = new Loader(cache, "key", "value");
+        loader.mFailure = new IllegalStateException("failed");
+        try {
+            cache.getCachedObject("key", loader);
+            fail();
+        }
+        catch (IllegalStateException e) {
+        }
+
+        // The failed load doesn't leave other requests waiting.
+        loader.mFailure = null;
+        assertEquals("value", cache.getCachedObject("key", loader));
+        assertEquals(2, loader.mCount.get());
+    }
+
+    @Test
+    public void testRegistration() throws Exception {
+        ObjectCacheContext cache = createCache(new PropertyMap());
+        cache.putCachedObject("key", "value");
+
+        ObjectName objectName = getObjectName();
+        assertTrue(server.isRegistered(objectName));
+        assertEquals(Integer.valueOf(1),
+                     server.getAttribute(objectName, "Size"));
+
+        // A new instance of the application replaces the registration.
+        createCache(new PropertyMap());
+        assertTrue(server.isRegistered(objectName));
+        assertEquals(Integer.valueOf(0),
+                     server.getAttribute(objectName, "Size"));
+
+        server.invoke(objectName, "clearCachedObjects", null, null);
+        assertEquals("value", cache.getCachedObject("key"));
+    }
+
+    @Test
+    public void testManagementDisabled() throws Exception {
+        PropertyMap properties = new PropertyMap();
+        properties.put("management", "false");
+        createCache(properties);
+
+        assertFalse(server.isRegistered(getObjectName()));
+    }
+
+    private ObjectCacheContext createCache(PropertyMap properties) {
+        ObjectCacheContext cache = new ObjectCacheContext();
+        cache.init(new ContextConfig
+                   (properties, new Log(NAME, null), NAME, null));
+        return cache;
+    }
+
+    private static ObjectName getObjectName() throws Exception {
+        return new ObjectName
+            ("org.teatrove.teaapps:type=ObjectCache,name=" +
+             ObjectName.quote(NAME));
+    }
+
+    /**
+     * Block that puts its value into the cache and counts how often it is
+     * executed. A held loader makes the next execution wait until released.
+     */
+    private static class Loader implements Substitution {
+        final ObjectCacheContext mCache;
+        final String mKey;
+        final Object mValue;
+        final AtomicInteger mCount = new AtomicInteger();
+        volatile CountDownLatch mEntered;
+        volatile CountDownLatch mGate;
+        volatile RuntimeException mFailure;
+
+        Loader(ObjectCacheContext cache, String key, Object value) {
+            mCache = cache;
+            mKey = key;
+            mValue = value;
+        }
+
+        CountDownLatch hold() {
+            mEntered = new CountDownLatch(1);
+            mGate = new CountDownLatch(1);
+            return mGate;
+        }
+
+        public void substitute() throws Exception {
+            mCount.incrementAndGet();
+            if (mGate != null) {
+                mEntered.countDown();
+                mGate.await(5, TimeUnit.SECONDS);
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            mCache.putCachedObject(mKey, mValue);
+        }
+
+        public void substitute(Context context) throws Exception {
+            substitute();
+        }
+
+        public Object getIdentifier() {
+            return this;
+        }
+
+        public Substitution detach() {
+            return this;
+        }
+    }
+
+    private static class Getter extends Thread {
+        private final ObjectCacheContext mCache;
+        private final Loader mLoader;
+        private volatile Object mValue;
+        private volatile Exception mError;
+
+        Getter(ObjectCacheContext cache, Loader loader) {
+            mCache = cache;
+            mLoader = loader;
+        }
+
+        public void run() {
+            try {
+                mValue = mCache.getCachedObject(mLoader.mKey, mLoader);
+            }
+            catch (Exception e) {
+                mError = e;
+            }
+        }
+
+        Object finish() throws Exception {
+            join(5000);
+            if (mError != null) {
+                throw mError;
+            }
+            return mValue;
+        }
+    }
+}
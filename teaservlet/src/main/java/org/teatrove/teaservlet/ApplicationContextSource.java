@@ -17,13 +17,15 @@
 package org.teatrove.teaservlet; 
 
 import org.teatrove.tea.engine.DynamicContextSource;
+import org.teatrove.tea.engine.SharedContextSource;
 
 /**
  * Allows an Application into masquerade as a ContextSource.
  * 
  * @author Jonathan Colwell
  */
-public class ApplicationContextSource implements DynamicContextSource {
+public class ApplicationContextSource
+    implements DynamicContextSource, SharedContextSource {
 
     private Application mApp;
     private boolean mContextTypeMayChange;
@@ -41,6 +43,16 @@ public class ApplicationContextSource implements DynamicContextSource {
         return mApp.getContextType();
     }
 
+    /**
+     * @return true if the application declared its context as shared, and
+     * its context type cannot change.
+     */
+    public boolean isContextShared() {
+        return !mContextTypeMayChange &&
+            (mApp instanceof SharedContextApplication) &&
+            ((SharedContextApplication) mApp).isContextShared();
+    }
+
     public Object createContext(Object param) throws Exception {
         RequestAndResponse rar;
         if (param != null) {
@@ -104,17 +104,17 @@ class ApplicationRequestImpl extends HttpServletRequestWrapper
             }
         }
 
-        String value = getHeader("Accept-Encoding");
-
-        if (value != null) {
-            if (value.indexOf("gzip") >= 0) {
+        Enumeration e = getHeaders("Accept-Encoding");
+        if (e == null) {
+            String value = getHeader("Accept-Encoding");
+            if (value != null && acceptsGzip(value)) {
                 mCompression = 2;
                 return true;
             }
-            Enumeration e = getHeaders("Accept-Encoding");
+        }
+        else {
             while (e.hasMoreElements()) {
-                value = (String)e.nextElement();
-                if ("gzip".equals(value)) {
+                if (acceptsGzip((String)e.nextElement())) {
                     mCompression = 2;
                     return true;
                 }
@@ -125,6 +125,56 @@ class ApplicationRequestImpl extends HttpServletRequestWrapper
         return false;
     }
 
+    /**
+     * Returns true if the given Accept-Encoding header value lists gzip, or
+     * x-gzip, without a quality value of zero.
+     */
+    static boolean acceptsGzip(String value) {
+        int start = 0;
+        while (start < value.length()) {
+            int end = value.indexOf(',', start);
+            if (end < 0) {
+                end = value.length();
+            }
+
+            String coding = value.substring(start, end);
+            String params = "";
+            int index = coding.indexOf(';');
+            if (index >= 0) {
+                params = coding.substring(index + 1);
+                coding = coding.substring(0, index);
+            }
+            coding = coding.trim();
+
+            if (coding.equalsIgnoreCase("gzip") ||
+                coding.equalsIgnoreCase("x-gzip")) {
+                return getQuality(params) > 0;
+            }
+
+            start = end + 1;
+        }
+
+        return false;
+    }
+
+    // Returns the "q" parameter of a header element, or 1 if none.
+    private static float getQuality(String params) {
+        int index = params.indexOf("q=");
+        if (index < 0) {
+            return 1;
+        }
+        int end = params.indexOf(';', index);
+        if (end < 0) {
+            end = params.length();
+        }
+        try {
+            return Float.parseFloat(params.substring(index + 2, end).trim());
+        }
+        catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
     public Map getApplicationContextTypes() {
         return mAppContextMap;
     }
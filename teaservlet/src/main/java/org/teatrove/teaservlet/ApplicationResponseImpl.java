@@ -23,6 +23,7 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.Locale;
 import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
@@ -32,6 +33,7 @@ import org.teatrove.trove.io.ByteData;
 import org.teatrove.trove.io.ByteBuffer;
 import org.teatrove.trove.io.DefaultByteBuffer;
 import org.teatrove.trove.io.ByteBufferOutputStream;
+import org.teatrove.trove.io.ChunkPool;
 import org.teatrove.trove.io.CharToByteBufferWriter;
 import org.teatrove.trove.log.Log;
 import org.teatrove.trove.util.Deflater;
@@ -43,6 +45,13 @@ import org.teatrove.tea.runtime.Substitution;
 /**
  * A HttpServletResponse wrapper that tracks whether a redirect or error will
  * be sent to the client.
+ * <p>
+ * Output is normally buffered until the template has finished, so that the
+ * content length can be set. When a stream threshold is given, the response
+ * is instead written to the client (using chunked transfer encoding) each
+ * time the buffered output reaches the threshold. Streaming only starts once
+ * the first threshold is reached, so a template that sends an error or
+ * redirect before that point behaves as if the response was fully buffered.
  *
  * @author Reece Wilton, Brian S O'Neill
  */
@@ -76,6 +85,88 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         out.write((byte)(i >> 24));
     }
 
+    // Size of the block that small writes are gathered into when no chunk
+    // pool is available.
+    private static final int BLOCK_SIZE = 4096;
+
+    // Set once no Deflater could be created, so that the failure is only
+    // logged once.
+    private static volatile boolean cDeflaterUnavailable;
+
+    /**
+     * Returns the entity tag of the GZIP compressed form of a response, which
+     * must differ from the entity tag of the uncompressed form.
+     */
+    static String compressedETag(String etag) {
+        if (etag.length() > 1 && etag.endsWith("\"")) {
+            return etag.substring(0, etag.length() - 1) + "-gz\"";
+        }
+        return etag + "-gz";
+    }
+
+    /**
+     * Returns the CRC-32 of two sequences of bytes joined together, given
+     * the CRC-32 of each and the length of the second. This allows the CRC
+     * of pre-compressed data to be computed once, rather than each time it
+     * is written.
+     */
+    static int combineCRC(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        // Apply length2 zero bytes to crc1, using a matrix of the CRC-32
+        // polynomial that is squared for each bit of the length.
+        int[] even = new int[32];
+        int[] odd = new int[32];
+
+        odd[0] = 0xedb88320;
+        int row = 1;
+        for (int n=1; n<32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        // Operators for two and then four zero bits.
+        squareMatrix(even, odd);
+        squareMatrix(odd, even);
+
+        do {
+            squareMatrix(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = timesMatrix(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+
+            squareMatrix(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = timesMatrix(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static int timesMatrix(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i=0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void squareMatrix(int[] square, int[] matrix) {
+        for (int n=0; n<32; n++) {
+            square[n] = timesMatrix(matrix, matrix[n]);
+        }
+    }
+
     protected final HttpServletResponse mResponse;
     protected final Log mLog;
     protected final CharToByteBuffer mBuffer;
@@ -93,6 +184,26 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
 
     private int mCompressedSegments;
 
+    // The entity tag set on the response, which is varied if the response
+    // is sent compressed.
+    private String mETag;
+
+    // The status set on the response, since a Not Modified response must
+    // not carry a content length.
+    private int mStatus = SC_OK;
+
+    // Set when the buffer draws its chunks from a pool, which it returns
+    // them to once the response is finished.
+    private final ChunkPool mChunkPool;
+
+    // Set when the response is streamed once the stream threshold is reached.
+    private StreamingBuffer mStreamBuffer;
+    // Set once streaming has started.
+    private OutputStream mStreamOut;
+    private Deflater mStreamDeflater;
+    private DeflaterOutputStream mStreamDeflaterOut;
+    private CRC32 mStreamCRC;
+
     ApplicationResponseImpl(HttpServletResponse response, 
                             TeaServletEngineImpl engine)
         throws IOException
@@ -104,8 +215,36 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
                             TeaServletEngineImpl engine,
                             ByteBuffer bb)
         throws IOException
+    {
+        this(response, engine, bb, 0);
+    }
+
+    /**
+     * @param streamThreshold when positive, the buffered output is written
+     * to the client each time at least this many bytes have been buffered
+     */
+    ApplicationResponseImpl(HttpServletResponse response, 
+                            TeaServletEngineImpl engine,
+                            ByteBuffer bb, int streamThreshold)
+        throws IOException
+    {
+        this(response, engine, bb, streamThreshold, null);
+    }
+
+    /**
+     * @param streamThreshold when positive, the buffered output is written
+     * to the client each time at least this many bytes have been buffered
+     * @param pool when not null, the pool that the buffer draws its chunks
+     * from, which the buffer is cleared into once the response is finished
+     */
+    ApplicationResponseImpl(HttpServletResponse response, 
+                            TeaServletEngineImpl engine,
+                            ByteBuffer bb, int streamThreshold,
+                            ChunkPool pool)
+        throws IOException
     {
         super(response);
+        mChunkPool = pool;
         mResponse = response;
         mTeaServletEngine = engine;
         mLog = mTeaServletEngine.getLog();
@@ -113,7 +252,10 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         if (encoding == null) {
             encoding = "ISO-8859-1";
         }
-        mBuffer = new FastCharToByteBuffer(bb, encoding);
+        if (streamThreshold > 0) {
+            bb = mStreamBuffer = new StreamingBuffer(bb, streamThreshold);
+        }
+        mBuffer = new FastCharToByteBuffer(bb, encoding, pool);
     }
     
     public ServletOutputStream getOutputStream() {
@@ -159,6 +301,31 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         }
     }
 
+    public void setHeader(String name, String value) {
+        if ("ETag".equalsIgnoreCase(name)) {
+            mETag = value;
+        }
+        super.setHeader(name, value);
+    }
+
+    public void addHeader(String name, String value) {
+        if ("ETag".equalsIgnoreCase(name)) {
+            mETag = value;
+        }
+        super.addHeader(name, value);
+    }
+
+    public void setStatus(int statusCode) {
+        mStatus = statusCode;
+        super.setStatus(statusCode);
+    }
+
+    @Deprecated
+    public void setStatus(int statusCode, String msg) {
+        mStatus = statusCode;
+        super.setStatus(statusCode, msg);
+    }
+
     public void setBufferSize(int size) {
         // Ignore.
     }
@@ -177,6 +344,12 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         if (mCompressedSegments != 0) {
             throw new IOException("cannot flush a compressed buffer");
         }
+
+        if (mStreamBuffer != null) {
+            mBuffer.drain();
+            mStreamBuffer.stream();
+            return;
+        }
         
         // marked the stream as having been previously flushed to avoid
         // attempting to compress the stream after the fact
@@ -186,7 +359,7 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         // data in the internal buffer to avoid duplicated data.
         ByteBuffer bytes = mBuffer;
         OutputStream out = super.getOutputStream();
-        bytes.writeTo(out);
+        writeBlocks(bytes, out);
         bytes.clear();
         
         super.flushBuffer();
@@ -197,7 +370,7 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
     }
 
     public boolean isCommitted() {
-        return false;
+        return mStreamOut != null;
     }
 
     public void reset() {
@@ -211,20 +384,40 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
     }
 
     public void sendError(int statusCode, String msg) throws IOException {
+        if (isStreaming("error " + statusCode)) {
+            return;
+        }
         mState |= 1;
         super.sendError(statusCode, msg);
     }
 
     public void sendError(int statusCode) throws IOException {
+        if (isStreaming("error " + statusCode)) {
+            return;
+        }
         mState |= 1;
         super.sendError(statusCode);
     }
 
     public void sendRedirect(String location) throws IOException {
+        if (isStreaming("redirect to " + location)) {
+            return;
+        }
         mState |= 1;
         super.sendRedirect(location);
     }
 
+    // Returns true if part of the response has already been streamed to the
+    // client, in which case an error or redirect can no longer be sent.
+    private boolean isStreaming(String action) {
+        if (mStreamOut == null) {
+            return false;
+        }
+        mLog.warn("Response already streamed to client, cannot send " +
+                  action);
+        return true;
+    }
+
     public boolean isRedirectOrError() {
         return (mState & 1) != 0;
     }
@@ -308,18 +501,37 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         long length = bytes.getByteCount();
 
         try {
+            if (mStreamOut != null) {
+                finishStream(length);
+                return;
+            }
+
+            if (isCompressible(length)) {
+
+                // Caches must not give a compressed response to clients
+                // that do not accept it, or the other way around.
+                addHeader("Vary", "Accept-Encoding");
+
+                if (mRequest != null && mRequest.isCompressionAccepted() &&
+                    finishCompressed(bytes, length, out)) {
+                    return;
+                }
+            }
+
             if (mCompressedSegments == 0 || length > 0xffffffffL) {
-                if (!mFlushed && length <= Integer.MAX_VALUE) {
+                if (!mFlushed && length <= Integer.MAX_VALUE &&
+                    mStatus != SC_NOT_MODIFIED) {
                     super.setContentLength((int)length);
                 }
-                bytes.writeTo(out);
+                writeBlocks(bytes, out);
                 return;
             }
             
             // Write out response using GZIP compressed encoding.
 
-            setHeader("Content-Encoding", "gzip");
+            setCompressed();
             
+            // Only counts the bytes, without reading them.
             LengthComputer lc =
                 new LengthComputer(mCompressedSegments * 2 + 1);
             bytes.writeTo(lc);
@@ -330,24 +542,41 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
             int contentLength = lc.getLength() + 10 + 5 + 8;
             super.setContentLength(contentLength);
 
-            // Write GZIP header.
-            out.write(GZIP_HEADER);
+            byte[] block = acquireBlock();
+            try {
+                BlockOut bout = new BlockOut(out, block);
 
-            // Write out GZIP blocks.
-            bytes.writeTo(new FinalOut(out, lc.mSegments));
+                // Write GZIP header.
+                bout.write(GZIP_HEADER);
 
-            // Write final blank block header.
-            out.write(FINAL_BLANK_HEADER);
+                // Write out GZIP blocks, computing the CRC as they are
+                // written.
+                FinalOut fout = new FinalOut(bout, lc.mSegments);
+                bytes.writeTo(fout);
 
-            // Write GZIP footer.
-            //   CRC-32 of uncompressed bytes.
-            writeInt(out, computeCRC(bytes));
-            //   Count of uncompressed bytes.
-            writeInt(out, (int)length);
+                // Write final blank block header.
+                bout.write(FINAL_BLANK_HEADER);
+
+                // Write GZIP footer.
+                //   CRC-32 of uncompressed bytes.
+                writeInt(bout, fout.getCRC());
+                //   Count of uncompressed bytes.
+                writeInt(bout, (int)length);
+
+                bout.drain();
+            }
+            finally {
+                releaseBlock(block);
+            }
         }
         finally {
             try {
                 bytes.reset();
+                if (mChunkPool != null) {
+                    // The output has been written, so the chunks can be
+                    // reused by other responses.
+                    mBuffer.clear();
+                }
             }
             catch (IOException e) {
                 mLog.warn(e);
@@ -355,6 +584,33 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         }
     }
 
+    /**
+     * Returns true if a response of the given length would be sent GZIP
+     * compressed when finished, in which case byte ranges of the
+     * uncompressed content cannot be served.
+     */
+    boolean willCompress(long length) {
+        return mStreamOut == null && !cDeflaterUnavailable &&
+            isCompressible(length) &&
+            mRequest != null && mRequest.isCompressionAccepted();
+    }
+
+    private boolean isCompressible(long length) {
+        return !mFlushed && length <= 0xffffffffL &&
+            mTeaServletEngine.isCompressible(getContentType(), length) &&
+            !containsHeader("Content-Encoding") &&
+            !containsHeader("Content-Range");
+    }
+
+    // Marks the response as GZIP compressed, which must not share its
+    // entity tag with the uncompressed form.
+    private void setCompressed() {
+        setHeader("Content-Encoding", "gzip");
+        if (mETag != null) {
+            setHeader("ETag", compressedETag(mETag));
+        }
+    }
+
     // Critical callback from the Engine
     void setRequestAndHttpContext(HttpContext context, 
                                   ApplicationRequest req) {
@@ -363,41 +619,178 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
     }
 
     // Called from DetachedResponseImpl.
-    void appendCompressed(ByteData compressed, ByteData original)
+    void appendCompressed(ByteData compressed, ByteData original, int crc)
         throws IOException
     {
+        if (mStreamBuffer != null) {
+            // Pre-compressed blocks can only be joined together when the
+            // entire response is known. A streamed response is compressed
+            // as it is written instead, if at all.
+            mBuffer.appendSurrogate(original);
+            return;
+        }
         mCompressedSegments++;
-        mBuffer.appendSurrogate(new CompressedData(compressed, original));
+        mBuffer.appendSurrogate
+            (new CompressedData(compressed, original, crc));
     }
 
-    private int computeCRC(ByteData bytes) throws IOException {
-        final CRC32 crc = new CRC32();
+    // Called when the first stream threshold is reached, or when the buffer
+    // is flushed while streaming is enabled.
+    private OutputStream startStream() throws IOException {
+        mFlushed = true;
 
-        OutputStream out = new OutputStream() {
-            public void write(int b) {
-                crc.update(b);
-            }
-                
-            public void write(byte[] b) {
-                crc.update(b, 0, b.length);
+        OutputStream out = super.getOutputStream();
+
+        if (mTeaServletEngine.isStreamingCompressionEnabled() &&
+            mRequest != null && mRequest.isCompressionAccepted()) {
+
+            Deflater d = getDeflater(Deflater.DEFAULT_COMPRESSION);
+            if (d != null) {
+                setCompressed();
+                out.write(GZIP_HEADER);
+
+                mStreamDeflater = d;
+                mStreamDeflaterOut = new DeflaterOutputStream(out, d, 512);
+                mStreamCRC = new CRC32();
+                out = new CheckedOutputStream(mStreamDeflaterOut, mStreamCRC);
             }
+        }
+
+        return mStreamOut = out;
+    }
+
+    // Writes the whole response GZIP compressed, with any pre-compressed
+    // segments joined in. Returns false if no deflater is available.
+    private boolean finishCompressed(ByteData bytes, long length,
+                                     OutputStream out)
+        throws IOException
+    {
+        Deflater d = getDeflater(mTeaServletEngine.getCompressionLevel());
+        if (d == null) {
+            return false;
+        }
+
+        // Compressed first, since the content length must be set before
+        // any of it is written.
+        ByteBuffer compressed = new DefaultByteBuffer(mChunkPool);
+        byte[] deflated = acquireBlock();
+        byte[] block = acquireBlock();
+        try {
+            OutputStream cout = new ByteBufferOutputStream(compressed);
+
+            // Write GZIP header.
+            cout.write(GZIP_HEADER);
+
+            DeflaterOutputStream dout =
+                new DeflaterOutputStream(cout, d, deflated);
+            SpliceOut sout = new SpliceOut(dout, cout, block);
+            bytes.writeTo(sout);
+            sout.drain();
+            dout.finish();
+
+            // Write GZIP footer.
+            //   CRC-32 of uncompressed bytes.
+            writeInt(cout, sout.getCRC());
+            //   Count of uncompressed bytes.
+            writeInt(cout, (int)length);
+
+            setCompressed();
+            super.setContentLength((int)compressed.getByteCount());
+            writeBlocks(compressed, out);
+        }
+        finally {
+            DeflaterPool.put(d);
+            releaseBlock(block);
+            releaseBlock(deflated);
+            compressed.clear();
+        }
+
+        return true;
+    }
+
+    // Returns a pooled deflater, or null if none is available. The first
+    // failure is logged, and responses are not compressed from then on.
+    private Deflater getDeflater(int level) {
+        if (cDeflaterUnavailable) {
+            return null;
+        }
 
-            public void write(byte[] b, int off, int len) {
-                crc.update(b, off, len);
+        try {
+            return DeflaterPool.get(level, true);
+        }
+        catch (LinkageError e) {
+            synchronized (ApplicationResponseImpl.class) {
+                if (cDeflaterUnavailable) {
+                    return null;
+                }
+                cDeflaterUnavailable = true;
             }
-        };
+            mLog.warn("Unable to compress responses: " + e);
+            return null;
+        }
+    }
+
+    // Writes the remaining buffered output of a streamed response.
+    private void finishStream(long length) throws IOException {
+        writeBlocks(mBuffer, mStreamOut);
+
+        Deflater d = mStreamDeflater;
+        if (d == null) {
+            return;
+        }
+
+        try {
+            mStreamDeflaterOut.finish();
+
+            // Write GZIP footer.
+            OutputStream out = super.getOutputStream();
+            //   CRC-32 of uncompressed bytes.
+            writeInt(out, (int)mStreamCRC.getValue());
+            //   Count of uncompressed bytes.
+            writeInt(out, (int)length);
+        }
+        finally {
+            mStreamDeflater = null;
+            DeflaterPool.put(d);
+        }
+    }
 
-        bytes.writeTo(out);
-        return (int)crc.getValue();
+    // Writes the given bytes with small pieces gathered into blocks, so
+    // that the container receives fewer and larger writes.
+    private void writeBlocks(ByteData bytes, OutputStream out)
+        throws IOException
+    {
+        byte[] block = acquireBlock();
+        try {
+            BlockOut bout = new BlockOut(out, block);
+            bytes.writeTo(bout);
+            bout.drain();
+        }
+        finally {
+            releaseBlock(block);
+        }
+    }
+
+    private byte[] acquireBlock() {
+        return mChunkPool == null ? new byte[BLOCK_SIZE] : mChunkPool.acquire();
+    }
+
+    private void releaseBlock(byte[] block) {
+        if (mChunkPool != null) {
+            mChunkPool.release(block);
+        }
     }
 
     private static class CompressedData implements ByteData {
         private final ByteData mCompressed;
         private final ByteData mOriginal;
+        // CRC-32 of the original bytes.
+        private final int mCRC;
 
-        CompressedData(ByteData compressed, ByteData original) {
+        CompressedData(ByteData compressed, ByteData original, int crc) {
             mCompressed = compressed;
             mOriginal = original;
+            mCRC = crc;
         }
 
         public long getByteCount() throws IOException {
@@ -406,9 +799,11 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
 
         public void writeTo(OutputStream out) throws IOException {
             if (out instanceof Segmented) {
-                ((Segmented)out).nextSegment(true);
+                Segmented seg = (Segmented)out;
+                seg.nextSegment(true);
+                seg.original(mCRC, mOriginal.getByteCount());
                 mCompressed.writeTo(out);
-                ((Segmented)out).nextSegment(false);
+                seg.nextSegment(false);
             }
             else {
                 mOriginal.writeTo(out);
@@ -420,8 +815,122 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         }
     }
 
+    /**
+     * Wraps the response buffer and writes its contents to the client each
+     * time the stream threshold is reached. Output is held back while
+     * capture buffers are registered, since clearing the buffer would also
+     * clear the captured output, and after a redirect or error was sent.
+     * Byte counts include the output already streamed.
+     */
+    private class StreamingBuffer implements ByteBuffer {
+        private final ByteBuffer mBytes;
+        private final int mThreshold;
+
+        private long mStreamed;
+        // Bytes appended since the output was last streamed, counted as
+        // they are appended rather than by walking the buffer.
+        private long mPending;
+        private int mCaptureCount;
+
+        StreamingBuffer(ByteBuffer bytes, int threshold) {
+            mBytes = bytes;
+            mThreshold = threshold;
+        }
+
+        public long getBaseByteCount() throws IOException {
+            return mStreamed + mBytes.getBaseByteCount();
+        }
+
+        public long getByteCount() throws IOException {
+            return mStreamed + mBytes.getByteCount();
+        }
+
+        /**
+         * Writes only the output that has not been streamed yet.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            mBytes.writeTo(out);
+        }
+
+        public void reset() throws IOException {
+            mBytes.reset();
+        }
+
+        public void clear() throws IOException {
+            mBytes.clear();
+            mPending = 0;
+        }
+
+        public void append(byte b) throws IOException {
+            mBytes.append(b);
+            mPending++;
+            streamIfPermitted();
+        }
+
+        public void append(byte[] bytes) throws IOException {
+            append(bytes, 0, bytes.length);
+        }
+
+        public void append(byte[] bytes, int offset, int length)
+            throws IOException
+        {
+            mBytes.append(bytes, offset, length);
+            mPending += length;
+            streamIfPermitted();
+        }
+
+        public void appendSurrogate(ByteData s) throws IOException {
+            if (s != null) {
+                mBytes.appendSurrogate(s);
+                mPending += s.getByteCount();
+                streamIfPermitted();
+            }
+        }
+
+        public void addCaptureBuffer(ByteBuffer buffer) throws IOException {
+            mBytes.addCaptureBuffer(buffer);
+            mCaptureCount++;
+        }
+
+        public void removeCaptureBuffer(ByteBuffer buffer)
+            throws IOException
+        {
+            mBytes.removeCaptureBuffer(buffer);
+            mCaptureCount--;
+        }
+
+        private void streamIfPermitted() throws IOException {
+            if (mPending >= mThreshold && mCaptureCount <= 0 && mState == 0) {
+                stream();
+            }
+        }
+
+        /**
+         * Writes the buffered output to the client and clears the buffer.
+         */
+        void stream() throws IOException {
+            OutputStream out = mStreamOut;
+            if (out == null) {
+                out = startStream();
+            }
+
+            mStreamed += mBytes.getByteCount();
+            writeBlocks(mBytes, out);
+            mBytes.reset();
+            mBytes.clear();
+            mPending = 0;
+
+            out.flush();
+            ApplicationResponseImpl.super.flushBuffer();
+        }
+    }
+
     private interface Segmented {
-        void nextSegment(boolean preCompressed);
+        void nextSegment(boolean preCompressed) throws IOException;
+
+        // Called for a pre-compressed segment with the CRC-32 and length of
+        // its original bytes.
+        void original(int crc, long length);
     }
 
     // Output is discarded, but is used to compute final content length of
@@ -459,6 +968,9 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
             mCurrentSegment = 0;
         }
 
+        public void original(int crc, long length) {
+        }
+
         int getLength() {
             int length = 0;
             for (int i=0; i<mSegCount; i++) {
@@ -476,9 +988,40 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
         }
     }
 
+    // Computes the CRC-32 of the original data of segmented output, from the
+    // uncompressed bytes written and the CRC of each pre-compressed segment.
+    private static abstract class CheckedOut extends OutputStream
+        implements Segmented
+    {
+        // CRC of all data before the current run of uncompressed data.
+        private int mCRC;
+        private final CRC32 mRunCRC = new CRC32();
+        private long mRunLength;
+
+        public void original(int crc, long length) {
+            mCRC = combineCRC(getCRC(), crc, length);
+            mRunCRC.reset();
+            mRunLength = 0;
+        }
+
+        int getCRC() {
+            return combineCRC(mCRC, (int)mRunCRC.getValue(), mRunLength);
+        }
+
+        void update(int b) {
+            mRunCRC.update(b);
+            mRunLength++;
+        }
+
+        void update(byte[] b, int off, int len) {
+            mRunCRC.update(b, off, len);
+            mRunLength += len;
+        }
+    }
+
     // Writes uncompressed and pre-compressed data joined together.
     // Uncompressed data is formed into blocks.
-    private static class FinalOut extends OutputStream implements Segmented {
+    private static class FinalOut extends CheckedOut {
         private OutputStream mFinOut;
         private int[] mSegments;
         private int mCursor;
@@ -500,6 +1043,7 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
             if (nextBlock(1) > 0) {
                 mFinOut.write(b);
                 mBlockLen--;
+                update(b);
             }
         }
 
@@ -518,6 +1062,7 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
                     break;
                 }
                 mFinOut.write(b, off, amt);
+                update(b, off, amt);
                 len -= amt;
                 off += amt;
                 mBlockLen -= amt;
@@ -554,4 +1099,108 @@ class ApplicationResponseImpl extends HttpServletResponseWrapper
             return blockLen < needed ? blockLen : needed;
         }
     }
+
+    // Deflates uncompressed data, and joins pre-compressed data in between.
+    // Each pre-compressed segment was fully flushed when it was compressed,
+    // so the deflater is fully flushed before it too.
+    private static class SpliceOut extends CheckedOut {
+        private final DeflaterOutputStream mDeflaterOut;
+        private final OutputStream mOut;
+        private final BlockOut mBlockOut;
+
+        private boolean mPreCompressed;
+
+        SpliceOut(DeflaterOutputStream dout, OutputStream out, byte[] block) {
+            mDeflaterOut = dout;
+            mOut = out;
+            mBlockOut = new BlockOut(dout, block);
+        }
+
+        public void write(int b) throws IOException {
+            if (mPreCompressed) {
+                mOut.write(b);
+            }
+            else {
+                mBlockOut.write(b);
+                update(b);
+            }
+        }
+
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mPreCompressed) {
+                mOut.write(b, off, len);
+            }
+            else {
+                mBlockOut.write(b, off, len);
+                update(b, off, len);
+            }
+        }
+
+        public void nextSegment(boolean preCompressed) throws IOException {
+            if (preCompressed && !mPreCompressed) {
+                drain();
+                mDeflaterOut.fullFlush();
+            }
+            mPreCompressed = preCompressed;
+        }
+
+        // Passes the gathered uncompressed bytes to the deflater.
+        void drain() throws IOException {
+            mBlockOut.drain();
+        }
+    }
+
+    // Gathers small writes into a block, and passes writes at least as
+    // large as the block straight through.
+    private static class BlockOut extends OutputStream {
+        private final OutputStream mOut;
+        private final byte[] mBlock;
+        private int mCount;
+
+        BlockOut(OutputStream out, byte[] block) {
+            mOut = out;
+            mBlock = block;
+        }
+
+        public void write(int b) throws IOException {
+            if (mCount >= mBlock.length) {
+                drain();
+            }
+            mBlock[mCount++] = (byte)b;
+        }
+
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= mBlock.length) {
+                drain();
+                mOut.write(b, off, len);
+                return;
+            }
+            if (len > mBlock.length - mCount) {
+                drain();
+            }
+            System.arraycopy(b, off, mBlock, mCount, len);
+            mCount += len;
+        }
+
+        public void flush() throws IOException {
+            drain();
+            mOut.flush();
+        }
+
+        // Writes the gathered bytes, without flushing.
+        void drain() throws IOException {
+            if (mCount > 0) {
+                mOut.write(mBlock, 0, mCount);
+                mCount = 0;
+            }
+        }
+    }
 }
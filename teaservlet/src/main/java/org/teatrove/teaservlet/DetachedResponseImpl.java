@@ -22,6 +22,8 @@ import java.io.Serializable;
 import java.util.Locale;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Cookie;
 
@@ -41,7 +43,10 @@ class DetachedResponseImpl extends ApplicationResponseImpl {
     // Minimum data size to compress.
     private static final int MINIMUM_SIZE = 100;
 
-    static ByteData compressByteData(ByteData original, int level) {
+    /**
+     * @param crc updated with the original bytes as they are compressed
+     */
+    static ByteData compressByteData(ByteData original, int level, CRC32 crc) {
         ByteBuffer compressed = new DefaultByteBuffer();
         OutputStream cout = new ByteBufferOutputStream(compressed);
 
@@ -53,7 +58,7 @@ class DetachedResponseImpl extends ApplicationResponseImpl {
             Deflater d = DeflaterPool.get(level, true);
             
             DeflaterOutputStream dout = new DeflaterOutputStream(cout, d, 512);
-            original.writeTo(dout);
+            original.writeTo(new CheckedOutputStream(dout, crc));
             dout.fullFlush();
 
             DeflaterPool.put(d);
@@ -303,9 +308,10 @@ class DetachedResponseImpl extends ApplicationResponseImpl {
                         ByteData original = ((AddByteData)command).mBytes;
                         try {
                             if (original.getByteCount() > 0) {
+                                CRC32 crc = new CRC32();
                                 command = new CompressedByteData
-                                    (compressByteData(original, level),
-                                     original);
+                                    (compressByteData(original, level, crc),
+                                     original, (int)crc.getValue());
                                 mCommands.set(i, command);
                             }
                         }
@@ -485,12 +491,18 @@ class DetachedResponseImpl extends ApplicationResponseImpl {
     }
 
     private static class CompressedByteData implements Command, Serializable {
+        private static final long serialVersionUID = 1L;
+
         private final ByteData mCompressed;
         private final ByteData mOriginal;
+        // CRC-32 of the original bytes, so that it need not be computed
+        // each time the compressed bytes are written.
+        private final int mCRC;
 
-        CompressedByteData(ByteData compressed, ByteData original) {
+        CompressedByteData(ByteData compressed, ByteData original, int crc) {
             mCompressed = compressed;
             mOriginal = original;
+            mCRC = crc;
         }
 
         public void execute(ApplicationRequest request,
@@ -500,7 +512,7 @@ class DetachedResponseImpl extends ApplicationResponseImpl {
                 try {
                     ApplicationResponseImpl impl =
                         (ApplicationResponseImpl)response;
-                    impl.appendCompressed(mCompressed, mOriginal);
+                    impl.appendCompressed(mCompressed, mOriginal, mCRC);
                     return;
                 }
                 catch (ClassCastException e) {
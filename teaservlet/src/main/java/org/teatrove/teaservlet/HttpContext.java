@@ -25,6 +25,7 @@ import java.util.List;
 import javax.servlet.http.Cookie;
 
 import org.teatrove.tea.runtime.Context;
+import org.teatrove.tea.runtime.EncodedLiteral;
 import org.teatrove.tea.runtime.OutputReceiver;
 import org.teatrove.tea.runtime.Substitution;
 
@@ -36,6 +37,18 @@ import org.teatrove.tea.runtime.Substitution;
  */
 public interface HttpContext extends Context {
 
+    /**
+     * Receives the static text of a template, which is appended to the
+     * output as bytes when it was converted to the output encoding in
+     * advance.
+     * <p>
+     * NOTE:  This method should <b>not</b> be called directly within a
+     * template.
+     *
+     * @hidden
+     */
+    public void print(EncodedLiteral literal) throws Exception;
+
     /**
      * Gets an object that contains all the request information from the
      * client.
@@ -277,6 +290,37 @@ public interface HttpContext extends Context {
      */    
     public String readURL(String URL, String encoding) throws IOException;
 
+    /**
+     * Starts reading the contents of the given URLs concurrently, without
+     * waiting for them. A later call to {@link readURL} or {@link insertURL}
+     * with one of these URLs uses the prefetched contents instead of making
+     * another request, waiting for them if they haven't arrived yet. Each
+     * request times out according to the {@link setURLTimeout URL timeout}
+     * in effect when it was prefetched.
+     *
+     * @param URLs the resource URLs
+     */
+    public void prefetchURLs(String[] URLs);
+
+    /**
+     * Reads and returns the contents of the given URLs, requesting them
+     * concurrently. The contents are returned in the same order as the URLs,
+     * and any URL that does not exist or cannot be read has an empty string.
+     *
+     * @param URLs the resource URLs
+     */
+    public String[] readURLs(String[] URLs);
+
+    /**
+     * Reads and returns the contents of the given URLs, requesting them
+     * concurrently. The contents are returned in the same order as the URLs,
+     * and any URL that does not exist or cannot be read has an empty string.
+     *
+     * @param URLs the resource URLs
+     * @param encoding character encoding
+     */
+    public String[] readURLs(String[] URLs, String encoding);
+
     /**
      * This function allows calling out of Tea to other view technologies (like JSP)
      * It is not intended to replace the <b>call<b> keyword and will cause an error if 
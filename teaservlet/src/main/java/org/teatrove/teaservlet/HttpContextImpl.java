@@ -30,6 +30,17 @@ import java.net.UnknownHostException;
 import java.util.AbstractList;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
@@ -39,6 +50,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import javax.servlet.http.HttpSession;
 
+import org.teatrove.tea.runtime.EncodedLiteral;
 import org.teatrove.tea.runtime.OutputReceiver;
 import org.teatrove.tea.runtime.Substitution;
 import org.teatrove.teaservlet.management.HttpContextManagement;
@@ -61,6 +73,19 @@ implements HttpContext {
 
     private static final int FILE_SPILLOVER = 65000;
 
+    // Most threads reading prefetched URLs at once, shared by all requests.
+    private static final int MAX_PREFETCH_THREADS = 64;
+
+    // Runs prefetched URL requests. When all the threads are busy, requests
+    // are made by the thread prefetching them instead, just as if they were
+    // read in turn.
+    private static final ThreadPoolExecutor cPrefetchExecutor =
+        new ThreadPoolExecutor(0, MAX_PREFETCH_THREADS,
+                               60, TimeUnit.SECONDS,
+                               new SynchronousQueue<Runnable>(),
+                               new PrefetchThreadFactory(),
+                               new ThreadPoolExecutor.CallerRunsPolicy());
+
     protected final ServletContext mServletContext;
 
     protected final Log mLog;
@@ -85,6 +110,9 @@ implements HttpContext {
     
     private HttpContextManagement mHttpContextMBean;  
 
+    // Maps URLs passed to prefetchURLs to the Prefetches not yet read.
+    private Map<String, Prefetch> mPrefetches;
+
     /**
      * Constructs the HttpContext which provides HTTP-specific template
      * functions.
@@ -169,6 +197,49 @@ implements HttpContext {
         }
     }
 
+    /**
+     * This method is called when the template outputs static text. The
+     * bytes of the text are appended to the internal CharToByteBuffer if
+     * they were converted to its encoding in advance.
+     *
+     * @param literal the static text to output
+     *
+     * @hidden
+     */
+    public final void print(EncodedLiteral literal) throws Exception {
+        if ((mOutputOverridePermitted || mBuffer == null) 
+            && mOutputReceiver != null) { 
+            mOutputReceiver.print(literal.toString());
+        }
+        else if (mBuffer != null) {
+            byte[] bytes = literal.getBytes(mBuffer.getEncoding());
+            if (bytes != null) {
+                mBuffer.append(bytes);
+            }
+            else {
+                mBuffer.append(literal.toString());
+            }
+        }
+    }
+
+    /**
+     * Appends the characters of a printed number directly to the internal
+     * CharToByteBuffer, so that printing numbers creates no strings.
+     *
+     * @hidden
+     */
+    protected void printChars(char[] chars, int offset, int length)
+        throws Exception
+    {
+        if ((mOutputOverridePermitted || mBuffer == null)
+            && mOutputReceiver != null) {
+            mOutputReceiver.print(new String(chars, offset, length));
+        }
+        else if (mBuffer != null) {
+            mBuffer.append(chars, offset, length);
+        }
+    }
+
     public void overrideOutput(boolean overridePermitted) {
         mOutputOverridePermitted = overridePermitted;
     }
@@ -415,6 +486,15 @@ implements HttpContext {
         // immediately. Not all resources report a content length, and
         // I can't lock the resource to guarantee the length remains fixed.
 
+        Prefetch prefetch = removePrefetch(url);
+        if (prefetch != null) {
+            byte[] data = prefetch.get();
+            if (data != null) {
+                mBuffer.append(data, 0, data.length);
+            }
+            return;
+        }
+
         try {
             HttpResource resource = HttpResource.get(absoluteURL(url));
             HttpClient.Response response = resource.getResponse(mURLTimeout);
@@ -455,6 +535,11 @@ implements HttpContext {
         if (url == null) {
             return "";
         }
+
+        Prefetch prefetch = removePrefetch(url);
+        if (prefetch != null) {
+            return prefetch.read(encoding);
+        }
         
         // Add the URL to the mBean if it's configured.
         if (mHttpContextMBean != null) {
@@ -488,10 +573,84 @@ implements HttpContext {
         return "";
     }
 
+    public void prefetchURLs(String[] urls) {
+        if (urls == null) {
+            return;
+        }
+
+        if (mPrefetches == null) {
+            mPrefetches = new HashMap<String, Prefetch>();
+        }
+
+        for (int i = 0; i < urls.length; i++) {
+            String url = urls[i];
+            if (url != null && !mPrefetches.containsKey(url)) {
+                mPrefetches.put(url, prefetch(url));
+            }
+        }
+    }
+
+    public String[] readURLs(String[] urls) {
+        return readURLs(urls, "iso-8859-1");
+    }
+
+    public String[] readURLs(String[] urls, String encoding) {
+        if (urls == null) {
+            return new String[0];
+        }
+
+        // Start all the requests before waiting on any of them.
+        Prefetch[] prefetches = new Prefetch[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            String url = urls[i];
+            if (url != null) {
+                Prefetch prefetch = removePrefetch(url);
+                prefetches[i] = (prefetch != null) ? prefetch : prefetch(url);
+            }
+        }
+
+        String[] results = new String[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            results[i] = (prefetches[i] == null) ?
+                "" : prefetches[i].read(encoding);
+        }
+        return results;
+    }
+
     public void setURLTimeout(long timeout) {
         mURLTimeout = timeout;
     }
 
+    private Prefetch removePrefetch(String url) {
+        return (mPrefetches == null) ? null : mPrefetches.remove(url);
+    }
+
+    /**
+     * Starts reading the given URL on a prefetch thread.
+     */
+    private Prefetch prefetch(String url) {
+        // Add the URL to the mBean if it's configured.
+        if (mHttpContextMBean != null) {
+            mHttpContextMBean.addReadUrl(url);
+        }
+
+        URL absolute = null;
+        try {
+            // Resolve relative URLs now, since the request may not be
+            // accessed by other threads.
+            absolute = absoluteURL(url);
+        }
+        catch (MalformedURLException e) {
+            mLog.warn(e);
+        }
+
+        Prefetch prefetch = new Prefetch(url, absolute, mURLTimeout);
+        if (absolute != null) {
+            prefetch.start();
+        }
+        return prefetch;
+    }
+
     private URL absoluteURL(String path) throws MalformedURLException {
         int colonIndex = path.indexOf(':');
         if (colonIndex > 0) {
@@ -577,6 +736,143 @@ implements HttpContext {
     }
 
 
+    /**
+     * The contents of a URL being read on a prefetch thread. As with
+     * readURL, the timeout applies to each step of the request, so the
+     * contents are waited for until the request makes no progress for that
+     * long. A timeout that isn't positive waits for as long as the request
+     * takes.
+     */
+    private class Prefetch implements Callable<byte[]> {
+        private final String mURL;
+        private final URL mAbsoluteURL;
+        private final long mTimeout;
+        private Future<byte[]> mFuture;
+        // Time that the request last made progress, in milliseconds.
+        private volatile long mProgress;
+
+        Prefetch(String url, URL absoluteURL, long timeout) {
+            mURL = url;
+            mAbsoluteURL = absoluteURL;
+            mTimeout = timeout;
+            mProgress = System.currentTimeMillis();
+        }
+
+        void start() {
+            mFuture = cPrefetchExecutor.submit(this);
+        }
+
+        /**
+         * Reads the contents of the URL, returning null if it doesn't
+         * exist.
+         */
+        public byte[] call() throws IOException {
+            HttpResource resource = HttpResource.get(mAbsoluteURL);
+            HttpClient.Response response = resource.getResponse(mTimeout);
+            if (response == null) {
+                return null;
+            }
+            mProgress = System.currentTimeMillis();
+
+            Integer contentLength =
+                response.getHeaders().getInteger("Content-Length");
+
+            ByteArrayOutputStream out;
+            if (contentLength == null || contentLength.intValue() < 0 ||
+                contentLength.intValue() > FILE_SPILLOVER) {
+                out = new ByteArrayOutputStream(1024);
+            }
+            else {
+                out = new ByteArrayOutputStream(contentLength.intValue());
+            }
+
+            InputStream in = response.getInputStream();
+            try {
+                byte[] buffer = new byte[1024];
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                    mProgress = System.currentTimeMillis();
+                }
+            }
+            finally {
+                in.close();
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * Waits for the contents, returning null if they couldn't be read.
+         */
+        byte[] get() {
+            if (mFuture == null) {
+                return null;
+            }
+
+            try {
+                if (mTimeout <= 0) {
+                    return mFuture.get();
+                }
+
+                while (true) {
+                    long wait =
+                        mProgress + mTimeout - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new TimeoutException();
+                    }
+                    try {
+                        return mFuture.get(wait, TimeUnit.MILLISECONDS);
+                    }
+                    catch (TimeoutException e) {
+                        // Keep waiting if the request made progress.
+                    }
+                }
+            }
+            catch (TimeoutException e) {
+                mFuture.cancel(true);
+                mLog.warn("Read timeout expired: " + mTimeout + ", " + mURL);
+            }
+            catch (InterruptedException e) {
+                mFuture.cancel(true);
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (!(cause instanceof UnknownHostException)) {
+                    mLog.warn(cause);
+                }
+            }
+
+            return null;
+        }
+
+        String read(String encoding) {
+            byte[] data = get();
+            if (data == null) {
+                return "";
+            }
+
+            try {
+                return new String(data, encoding);
+            }
+            catch (UnsupportedEncodingException e) {
+                mLog.warn(e);
+                return "";
+            }
+        }
+    }
+
+    private static class PrefetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread
+                (r, "HttpContext prefetch " + mThreadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
     private static class Request implements HttpContext.Request {
 
         private final HttpServletRequest mRequest;
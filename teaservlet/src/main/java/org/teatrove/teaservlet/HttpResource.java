@@ -19,57 +19,131 @@ package org.teatrove.teaservlet;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import org.teatrove.teaservlet.management.HttpContextManagement;
 import org.teatrove.trove.net.*;
 import org.teatrove.trove.util.*;
 import org.teatrove.trove.log.*;
 
 /**
  * Very simple HTTP connection implementation, suitable for use by
- * HttpContextImpl.
+ * HttpContextImpl. Requests are made with HTTP/1.1, and connections are kept
+ * alive in a bounded pool per host address, so that repeated requests to the
+ * same host don't each pay for a new connection.
  *
  * @author Brian S O'Neill
  */
 class HttpResource {
     // Default is 10,000 milliseconds.
-    private static long DEFAULT_TIMEOUT = 10000;
-
-    // Maps HostPorts to SocketFactories.
-    private static Map cSocketFactories;
+    private static final long DEFAULT_TIMEOUT = 10000;
+
+    // Most host addresses that connections are pooled for. Pools for the
+    // least recently used hosts are closed beyond this.
+    private static final int MAX_HOSTS = Integer.getInteger
+        ("org.teatrove.teaservlet.HttpResource.MAX_HOSTS", 10).intValue();
+
+    // Most idle connections kept per host address.
+    private static final int MAX_POOL_SIZE = Integer.getInteger
+        ("org.teatrove.teaservlet.HttpResource.MAX_POOL_SIZE", 32).intValue();
+
+    // Idle connections are closed after 15,000 milliseconds, before most
+    // servers time them out.
+    private static final long MAX_IDLE_TIME = Long.getLong
+        ("org.teatrove.teaservlet.HttpResource.MAX_IDLE_TIME", 15000)
+        .longValue();
+
+    private static final String PROTOCOL = "HTTP/1.1";
+
+    // Maps HostPorts to ConnectionPools, least recently used first.
+    private static final Map<HostPort, ConnectionPool> cConnectionPools =
+        new LinkedHashMap<HostPort, ConnectionPool>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry
+                (Map.Entry<HostPort, ConnectionPool> eldest)
+            {
+                if (size() > MAX_HOSTS) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
 
     // Maps URLs to HttpResources.
-    private static Map cHttpResources;
+    private static ConcurrentCache<URL, HttpResource> cHttpResources;
+
+    // Evicts idle connections from pools that are not being polled.
+    private static Timer cReaper;
 
     static {
-        cSocketFactories = new Cache(10);
-        cHttpResources = new Cache(100);
+        cHttpResources = new ConcurrentCache<URL, HttpResource>(100);
     }
 
     public static HttpResource get(URL url) {
-        synchronized (cHttpResources) {
-            HttpResource res = (HttpResource)cHttpResources.get(url);
-            if (res == null) {
-                HostPort key = (HostPort)Utils.intern(new HostPort(url));
-
-                SocketFactory factory =
-                    (SocketFactory)cSocketFactories.get(key);
-                if (factory == null) {
-                    String[] hosts = {key.mHost};
-                    int[] ports = {key.mPort};
-                    factory = new MultiPooledSocketFactory
-                        (hosts, ports, DEFAULT_TIMEOUT);
-                    cSocketFactories.put(key, factory);
-                }
+        HttpResource res = cHttpResources.get(url);
+        if (res == null) {
+            HostPort key = (HostPort)Utils.intern(new HostPort(url));
+            res = new HttpResource(key, url.getFile(), getConnectionPool(key));
+            HttpResource existing = cHttpResources.putIfAbsent(url, res);
+            if (existing != null) {
+                res = existing;
+            }
+        }
+        return res;
+    }
 
-                res = new HttpResource(key, url.getFile(), factory);
-                cHttpResources.put(url, res);
+    private static ConnectionPool getConnectionPool(HostPort key) {
+        synchronized (cConnectionPools) {
+            ConnectionPool pool = cConnectionPools.get(key);
+            if (pool == null) {
+                String[] hosts = {key.mHost};
+                int[] ports = {key.mPort};
+                pool = new ConnectionPool(hosts, ports, DEFAULT_TIMEOUT);
+                cConnectionPools.put(key, pool);
+                startReaper();
             }
-            return res;
+            return pool;
+        }
+    }
+
+    // Caller must hold the cConnectionPools lock.
+    private static void startReaper() {
+        if (cReaper != null || MAX_IDLE_TIME <= 0) {
+            return;
+        }
+
+        long period = Math.max(1000, MAX_IDLE_TIME / 2);
+        cReaper = new Timer("HttpResource reaper", true);
+        cReaper.schedule(new TimerTask() {
+            public void run() {
+                ConnectionPool[] pools;
+                synchronized (cConnectionPools) {
+                    pools = cConnectionPools.values().toArray
+                        (new ConnectionPool[cConnectionPools.size()]);
+                }
+                for (int i = 0; i < pools.length; i++) {
+                    pools[i].evictIdle();
+                }
+            }
+        }, period, period);
+    }
+
+    private static boolean isOK(HttpClient.Response response) {
+        close(response);
+        return response.getStatusCode() == 200;
+    }
+
+    private static void close(HttpClient.Response response) {
+        try {
+            response.getInputStream().close();
+        }
+        catch (IOException e) {
         }
     }
 
     private HostPort mHostPort;
     private String mURI;
-    private SocketFactory mFactory;
+    private volatile ConnectionPool mPool;
 
     // 0 = HEAD might be supported
     // 1 = HEAD is supported
@@ -77,19 +151,30 @@ class HttpResource {
     private int mHeadState;
 
     private HttpResource(HostPort hostPort, String uri,
-                         SocketFactory factory) {
+                         ConnectionPool pool) {
         mHostPort = hostPort;
         mURI = uri;
-        mFactory = factory;
+        mPool = pool;
+    }
+
+    /**
+     * Returns the pool for this resource's host, switching to the current
+     * one if the pool this resource was created with has since been closed.
+     */
+    private SocketFactory getFactory() {
+        ConnectionPool pool = mPool;
+        if (pool.isClosed()) {
+            mPool = pool = getConnectionPool(mHostPort);
+        }
+        return pool;
     }
 
     public boolean exists() throws IOException {
-        return exists(mFactory.getDefaultTimeout());
+        return exists(getFactory().getDefaultTimeout());
     }
 
     public boolean exists(long timeout) throws IOException {
-        HttpClient client = new HttpClient(mFactory, timeout);
-        client.setURI(mURI);
+        HttpClient client = createClient(timeout);
 
         if (mHeadState == 0) {
             client.setMethod("HEAD");
@@ -130,14 +215,14 @@ class HttpResource {
                     }
                     mURI = response.getHeaders().getString("Location");
                     client.setURI(mURI);
-                    return client.getResponse().getStatusCode() == 200;
+                    return isOK(client.getResponse());
 
                 case 302: // Moved Temporarily
                     if (mHeadState == 0) {
                         mHeadState = 1;
                     }
                     client.setURI(response.getHeaders().getString("Location"));
-                    return client.getResponse().getStatusCode() == 200;
+                    return isOK(client.getResponse());
 
                 case 501: // Not Implemented
                     break;
@@ -189,15 +274,14 @@ class HttpResource {
      * @return null if no data
      */
     public HttpClient.Response getResponse() throws IOException {
-        return getResponse(mFactory.getDefaultTimeout());
+        return getResponse(getFactory().getDefaultTimeout());
     }
 
     /**
      * @return null if no data
      */
     public HttpClient.Response getResponse(long timeout) throws IOException {
-        HttpClient client = new HttpClient(mFactory, timeout);
-        client.setURI(mURI);
+        HttpClient client = createClient(timeout);
         client.setPersistent(true);
 
         HttpClient.Response response = client.getResponse();
@@ -215,9 +299,11 @@ class HttpResource {
             return response;
 
         case 404: // Not Found
+            close(response);
             return null;
 
         case 301: // Moved Permanently
+            close(response);
             mURI = response.getHeaders().getString("Location");
             client.setURI(mURI);
             response = client.getResponse();
@@ -226,10 +312,12 @@ class HttpResource {
                 return response;
             }
             else {
+                close(response);
                 return null;
             }
 
         case 302: // Moved Temporarily
+            close(response);
             client.setURI(response.getHeaders().getString("Location"));
             response = client.getResponse();
             statusCode = response.getStatusCode();
@@ -237,15 +325,114 @@ class HttpResource {
                 return response;
             }
             else {
+                close(response);
                 return null;
             }
         }
 
+        close(response);
         throw new IOException
             ("Response from " + mHostPort + mURI + ": " +
              statusCode + ' ' + response.getStatusMessage());
     }
 
+    private HttpClient createClient(long timeout) {
+        HttpClient client = new HttpClient(getFactory(), timeout);
+        client.setProtocol(PROTOCOL);
+        client.setURI(mURI);
+        // Required by HTTP/1.1.
+        client.setHeader("Host", mHostPort.mPort == 80 ?
+                         mHostPort.mHost : mHostPort.toString());
+        return client;
+    }
+
+    /**
+     * Creates a bounded pool of connections for each address of the host,
+     * registered with {@link HttpContextManagement} for monitoring. The pools
+     * are closed when their address is no longer resolved, or when this
+     * ConnectionPool is closed.
+     */
+    private static class ConnectionPool extends MultiPooledSocketFactory {
+        // Maps the factories added for each address to the pools they wrap.
+        // Not initialized here, since createSocketFactory is first called
+        // from the super constructor.
+        private Map<SocketFactory, PooledSocketFactory> mPools;
+        private boolean mClosed;
+
+        public ConnectionPool(String[] hosts, int[] ports, long timeout) {
+            super(hosts, ports, timeout);
+        }
+
+        protected SocketFactory createSocketFactory(InetAddress address,
+                                                    int port,
+                                                    InetAddress localAddr,
+                                                    int localPort,
+                                                    long timeout)
+        {
+            PooledSocketFactory pool = new PooledSocketFactory
+                (new PlainSocketFactory
+                 (address, port, localAddr, localPort, timeout),
+                 timeout, MAX_POOL_SIZE, MAX_IDLE_TIME);
+
+            HttpContextManagement.addConnectionPool
+                (address.getHostAddress() + ':' + port, pool);
+
+            SocketFactory factory = new LazySocketFactory(pool);
+
+            synchronized (this) {
+                if (mPools == null) {
+                    mPools = new HashMap<SocketFactory, PooledSocketFactory>();
+                }
+                mPools.put(factory, pool);
+                if (mClosed) {
+                    pool.close();
+                }
+            }
+
+            return factory;
+        }
+
+        public void removeSocketFactory(SocketFactory factory) {
+            super.removeSocketFactory(factory);
+            PooledSocketFactory pool;
+            synchronized (this) {
+                pool = mPools == null ? null : mPools.remove(factory);
+            }
+            if (pool != null) {
+                pool.close();
+            }
+        }
+
+        public void evictIdle() {
+            PooledSocketFactory[] pools = getPools();
+            for (int i = 0; i < pools.length; i++) {
+                pools[i].evictIdle();
+            }
+        }
+
+        public void close() {
+            synchronized (this) {
+                mClosed = true;
+            }
+            PooledSocketFactory[] pools = getPools();
+            for (int i = 0; i < pools.length; i++) {
+                pools[i].close();
+            }
+        }
+
+        public synchronized boolean isClosed() {
+            return mClosed;
+        }
+
+        private synchronized PooledSocketFactory[] getPools() {
+            if (mPools == null) {
+                return new PooledSocketFactory[0];
+            }
+            return mPools.values().toArray
+                (new PooledSocketFactory[mPools.size()]);
+        }
+    }
+
     private static class HostPort {
         public final String mHost;
         public final int mPort;
@@ -0,0 +1,89 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.teaservlet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.teatrove.tea.engine.TemplateSource;
+import org.teatrove.tea.runtime.TemplateLoader;
+
+/**
+ * Remembers the names of templates that could not be found in a template
+ * source, so that repeated requests for missing templates do not have to
+ * search for the template class each time. A cache is only valid for the
+ * templates that were loaded when it was created. Once the templates are
+ * reloaded, the cache no longer applies and a new one must be created.
+ * <p>
+ * The number of names is bounded. When the limit is reached, the cache is
+ * cleared and starts over.
+ */
+class MissingTemplateCache {
+    private final TemplateSource mSource;
+    private final TemplateLoader mLoader;
+    private final int mMaxSize;
+
+    private final ConcurrentMap<String, Boolean> mMissing;
+    private final AtomicInteger mSize;
+
+    /**
+     * @param source the template source that templates are found in
+     * @param maxSize maximum number of missing template names to remember
+     */
+    public MissingTemplateCache(TemplateSource source, int maxSize) {
+        mSource = source;
+        mLoader = source.getTemplateLoader();
+        mMaxSize = maxSize;
+        mMissing = new ConcurrentHashMap<String, Boolean>();
+        mSize = new AtomicInteger();
+    }
+
+    /**
+     * Returns true if this cache applies to the templates currently loaded
+     * by the given template source.
+     */
+    public boolean isValidFor(TemplateSource source) {
+        return mSource == source && mLoader == source.getTemplateLoader();
+    }
+
+    /**
+     * Returns true if the given template is known to be missing.
+     */
+    public boolean isMissing(String name) {
+        return mMissing.containsKey(name);
+    }
+
+    /**
+     * Records that the given template could not be found.
+     */
+    public void addMissing(String name) {
+        if (mMissing.putIfAbsent(name, Boolean.TRUE) == null &&
+            mSize.incrementAndGet() > mMaxSize) {
+            mMissing.clear();
+            mMissing.put(name, Boolean.TRUE);
+            mSize.set(1);
+        }
+    }
+
+    /**
+     * Returns the number of missing template names currently remembered.
+     */
+    public int size() {
+        return mMissing.size();
+    }
+}
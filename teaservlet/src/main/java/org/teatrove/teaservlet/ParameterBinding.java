@@ -0,0 +1,388 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.teaservlet;
+
+import java.lang.reflect.Array;
+
+import org.teatrove.tea.engine.Template;
+
+/**
+ * Fills in the parameters of a template from the parameters of a request.
+ * A binding is built once per template, choosing a converter for each
+ * parameter type up front, so that a request only reads and converts the
+ * values. Array parameters of the common types are created directly instead
+ * of through reflection.
+ * <p>
+ * A binding only applies to the template it was built for. Once a template
+ * is reloaded, a new binding must be built.
+ *
+ * @see TeaServlet#convertParameter
+ */
+class ParameterBinding {
+    private static final Object[] NO_PARAMS = new Object[0];
+
+    private static final Converter STRING = new Converter() {
+        Object convert(String value) {
+            return value;
+        }
+
+        Object[] newArray(int length) {
+            return new String[length];
+        }
+    };
+
+    private static final Converter BOOLEAN = new Converter() {
+        Object convert(String value) {
+            return value.length() > 0 ? Boolean.valueOf("true".equals(value))
+                : null;
+        }
+
+        Object[] newArray(int length) {
+            return new Boolean[length];
+        }
+    };
+
+    private static final Converter INTEGER = new Converter() {
+        Object convert(String value) {
+            return parseInteger(value);
+        }
+
+        Object[] newArray(int length) {
+            return new Integer[length];
+        }
+    };
+
+    private static final Converter LONG = new Converter() {
+        Object convert(String value) {
+            return parseLong(value);
+        }
+
+        Object[] newArray(int length) {
+            return new Long[length];
+        }
+    };
+
+    private static final Converter FLOAT = new Converter() {
+        Object convert(String value) {
+            try {
+                return new Float(value);
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        Object[] newArray(int length) {
+            return new Float[length];
+        }
+    };
+
+    private static final Converter DOUBLE = new Converter() {
+        Object convert(String value) {
+            return parseDouble(value);
+        }
+
+        Object[] newArray(int length) {
+            return new Double[length];
+        }
+    };
+
+    private static final Converter NUMBER = new Converter() {
+        Object convert(String value) {
+            return parseNumber(value);
+        }
+
+        Object[] newArray(int length) {
+            return new Number[length];
+        }
+    };
+
+    private static final Converter OBJECT = new Converter() {
+        Object convert(String value) {
+            Number number = parseNumber(value);
+            return number != null ? number : value;
+        }
+
+        Object[] newArray(int length) {
+            return new Object[length];
+        }
+    };
+
+    /**
+     * Builds a binding for the given template.
+     *
+     * @param template the template to bind the parameters of
+     * @param servlet the servlet that converts the parameters if its
+     * convertParameter method is overridden, or null to use the standard
+     * conversions
+     */
+    public static ParameterBinding forTemplate(Template template,
+                                               TeaServlet servlet) {
+        Class<?>[] types = template.getParameterTypes();
+        String[] names = template.getParameterNames();
+
+        boolean[] arrays = new boolean[types.length];
+        Converter[] converters = new Converter[types.length];
+        for (int i=0; i<types.length; i++) {
+            if (names[i] == null) {
+                continue;
+            }
+
+            Class<?> type = types[i];
+            if (type.isArray()) {
+                arrays[i] = true;
+                type = type.getComponentType();
+            }
+
+            if (type == String.class) {
+                converters[i] = STRING;
+            }
+            else if (servlet != null) {
+                converters[i] = new ServletConverter(servlet, type);
+            }
+            else {
+                converters[i] = getConverter(type);
+            }
+        }
+
+        return new ParameterBinding(template, names, arrays, converters);
+    }
+
+    /**
+     * Returns true if the given servlet overrides convertParameter, in which
+     * case its conversions must be used instead of the standard ones.
+     */
+    public static boolean isConversionOverridden(TeaServlet servlet) {
+        for (Class<?> clazz = servlet.getClass();
+             clazz != TeaServlet.class; clazz = clazz.getSuperclass()) {
+
+            try {
+                clazz.getDeclaredMethod
+                    ("convertParameter", String.class, Class.class);
+                return true;
+            }
+            catch (NoSuchMethodException e) {
+            }
+        }
+        return false;
+    }
+
+    private static Converter getConverter(Class<?> type) {
+        if (type == Boolean.class) {
+            return BOOLEAN;
+        }
+        else if (type == Integer.class) {
+            return INTEGER;
+        }
+        else if (type == Long.class) {
+            return LONG;
+        }
+        else if (type == Float.class) {
+            return FLOAT;
+        }
+        else if (type == Double.class) {
+            return DOUBLE;
+        }
+        else if (type == Number.class) {
+            return NUMBER;
+        }
+        else if (type == Object.class) {
+            return OBJECT;
+        }
+        else {
+            return new NullConverter(type);
+        }
+    }
+
+    private static Integer parseInteger(String value) {
+        try {
+            return new Integer(value);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long parseLong(String value) {
+        try {
+            return new Long(value);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Double parseDouble(String value) {
+        try {
+            return new Double(value);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Number parseNumber(String value) {
+        Number number = parseInteger(value);
+        if (number == null) {
+            number = parseLong(value);
+            if (number == null) {
+                number = parseDouble(value);
+            }
+        }
+        return number;
+    }
+
+    private final Template mTemplate;
+    private final String[] mNames;
+    private final boolean[] mArrays;
+    // Null for parameters that have no name and are never bound.
+    private final Converter[] mConverters;
+
+    private ParameterBinding(Template template, String[] names,
+                             boolean[] arrays, Converter[] converters) {
+        mTemplate = template;
+        mNames = names;
+        mArrays = arrays;
+        mConverters = converters;
+    }
+
+    /**
+     * Returns the template this binding was built for.
+     */
+    public Template getTemplate() {
+        return mTemplate;
+    }
+
+    /**
+     * Returns the parameters to pass to the template for the given request.
+     */
+    public Object[] bind(ApplicationRequest request) {
+        int count = mConverters.length;
+        if (count == 0) {
+            return NO_PARAMS;
+        }
+
+        Object[] params = new Object[count];
+        for (int i=0; i<count; i++) {
+            Converter converter = mConverters[i];
+            if (converter == null) {
+                continue;
+            }
+
+            if (!mArrays[i]) {
+                String value = request.getParameter(mNames[i]);
+                if (value != null) {
+                    params[i] = converter == STRING ? value
+                        : converter.convert(value);
+                }
+            }
+            else {
+                String[] values = request.getParameterValues(mNames[i]);
+                if (values == null || converter == STRING) {
+                    params[i] = values;
+                }
+                else {
+                    params[i] = converter.convertAll(values);
+                }
+            }
+        }
+
+        return params;
+    }
+
+    private static abstract class Converter {
+        /**
+         * Converts a non-null request parameter, returning null if it cannot
+         * be converted.
+         */
+        abstract Object convert(String value);
+
+        /**
+         * Creates an array of the converted type.
+         */
+        abstract Object[] newArray(int length);
+
+        Object convertAll(String[] values) {
+            Object[] converted = newArray(values.length);
+            for (int i=0; i<values.length; i++) {
+                converted[i] = convert(values[i]);
+            }
+            return converted;
+        }
+    }
+
+    /**
+     * Converter for types that have no standard conversion, which are always
+     * bound as null.
+     */
+    private static class NullConverter extends Converter {
+        private final Class<?> mType;
+
+        NullConverter(Class<?> type) {
+            mType = type;
+        }
+
+        Object convert(String value) {
+            return null;
+        }
+
+        Object[] newArray(int length) {
+            return null;
+        }
+
+        Object convertAll(String[] values) {
+            // Elements of primitive arrays cannot be set to null, and fail
+            // the same as they would have when converted reflectively.
+            Object converted = Array.newInstance(mType, values.length);
+            if (mType.isPrimitive()) {
+                for (int i=0; i<values.length; i++) {
+                    Array.set(converted, i, null);
+                }
+            }
+            return converted;
+        }
+    }
+
+    /**
+     * Converter that calls upon a servlet that overrides convertParameter.
+     */
+    private static class ServletConverter extends Converter {
+        private final TeaServlet mServlet;
+        private final Class<?> mType;
+
+        ServletConverter(TeaServlet servlet, Class<?> type) {
+            mServlet = servlet;
+            mType = type;
+        }
+
+        Object convert(String value) {
+            return mServlet.convertParameter(value, mType);
+        }
+
+        Object[] newArray(int length) {
+            return null;
+        }
+
+        Object convertAll(String[] values) {
+            Object converted = Array.newInstance(mType, values.length);
+            for (int i=0; i<values.length; i++) {
+                Array.set(converted, i, convert(values[i]));
+            }
+            return converted;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.teaservlet;
+
+/**
+ * An Application that may declare its context as shared. A shared context is
+ * thread-safe and does not use the request or response, so a single instance
+ * may be used by all requests. Its createContext method is then called only
+ * once, with a null request and response, and the context is bound to the
+ * merged context of every request. Contexts of other applications are still
+ * created for each request, when first called upon.
+ * <p>
+ * Stateless utility contexts, such as string or math functions, are good
+ * candidates for sharing.
+ */
+public interface SharedContextApplication extends Application {
+
+    /**
+     * Returns true if the context created by this application may be created
+     * once and shared by all requests.
+     */
+    public boolean isContextShared();
+}
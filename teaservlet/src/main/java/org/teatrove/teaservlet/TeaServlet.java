@@ -17,11 +17,16 @@
 package org.teatrove.teaservlet;
 
 import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.lang.reflect.Array;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -29,7 +34,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.StringTokenizer;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
@@ -48,9 +56,13 @@ import org.teatrove.tea.log.TeaLogEvent;
 import org.teatrove.tea.log.TeaLogListener;
 import org.teatrove.tea.runtime.TemplateLoader;
 import org.teatrove.teaservlet.assets.Asset;
+import org.teatrove.teaservlet.assets.AssetEngine;
 import org.teatrove.teaservlet.stats.TeaServletRequestStats;
 import org.teatrove.teaservlet.stats.TemplateStats;
 import org.teatrove.teaservlet.util.FilteredServletContext;
+import org.teatrove.trove.io.ArrayByteData;
+import org.teatrove.trove.io.ByteData;
+import org.teatrove.trove.log.AsyncLogListener;
 import org.teatrove.trove.log.Log;
 import org.teatrove.trove.log.LogEvent;
 import org.teatrove.trove.log.LogListener;
@@ -92,6 +104,9 @@ import org.teatrove.trove.util.resources.ResourceFactory;
  * <li>log.warn - turns on/off log warning messages (boolean)
  * <li>log.error - turns on/off log error messages (boolean)
  * <li>log.max - the max log lines to keep in memory
+ * <li>log.async - when true, the servlet log writes to the servlet context from a separate thread (boolean)
+ * <li>log.async.capacity - the max log events waiting to be written when log.async is true (default 8192)
+ * <li>log.async.block - when true, logging waits for room if log.async.capacity is reached, otherwise events are dropped (boolean)
  * <li>applications.[name].class - the application class (required)
  * <li>applications.[name].init.* - prefix for application specific initialization parameters
  * <li>applications.[name].log.enabled - turns on/off application log (boolean)
@@ -109,7 +124,6 @@ public class TeaServlet extends HttpServlet {
  
     private static final long serialVersionUID = 1L;
 
-    private static final Object[] NO_PARAMS = new Object[0];
     private static final boolean DEBUG = false;
     private static final String ENGINE_ATTR =
         "org.teatrove.teaservlet.TeaServletEngine";
@@ -124,6 +138,7 @@ public class TeaServlet extends HttpServlet {
     private Log mLog;
     /** Captured log events that were likely also written to a log file. */
     private List<LogEvent> mLogEvents;
+    private AsyncLogListener mAsyncLogListener;
 
     private PropertyMap mProperties;
     private PropertyMap mSubstitutions;
@@ -145,6 +160,12 @@ public class TeaServlet extends HttpServlet {
     private TeaServletStatusListener mTemplateListener;
     
     private Future<Boolean> mInitializer;
+
+    /** Parameter bindings of the templates last invoked, by template name. */
+    private final ConcurrentMap<String, ParameterBinding> mBindings =
+        new ConcurrentHashMap<String, ParameterBinding>();
+    private final boolean mConversionOverridden =
+        ParameterBinding.isConversionOverridden(this);
     
     /**
      * Initializes the TeaServlet. Creates the logger and loads the user's
@@ -285,6 +306,9 @@ public class TeaServlet extends HttpServlet {
             mEngine.destroy();
         }
         mLog.info("Destroying TeaServlet");
+        if (mAsyncLogListener != null) {
+            mAsyncLogListener.close();
+        }
         super.destroy();
     }
 
@@ -571,25 +595,37 @@ public class TeaServlet extends HttpServlet {
             if (mLog == null) {
                 mLog = new Log(getServletName(), null);
                 
-                mLog.addLogListener(new LogListener() {
-                        public void logMessage(LogEvent e) {
-                            String message = e.getMessage();
-                            if (message != null) {
-                                context.log(message);
-                            }
+                LogListener listener = new LogListener() {
+                    public void logMessage(LogEvent e) {
+                        String message = e.getMessage();
+                        if (message != null) {
+                            context.log(message);
+                        }
+                    }
+                    
+                    public void logException(LogEvent e) {
+                        String message = e.getMessage();
+                        Throwable t = e.getException();
+                        if (t == null) {
+                            context.log(message);
                         }
-                        
-                        public void logException(LogEvent e) {
-                            String message = e.getMessage();
-                            Throwable t = e.getException();
-                            if (t == null) {
-                                context.log(message);
-                            }
-                            else {
-                                context.log(message, t);
-                            }
+                        else {
+                            context.log(message, t);
                         }
-                    });
+                    }
+                };
+
+                if (mProperties.getBoolean("log.async", false)) {
+                    mAsyncLogListener = new AsyncLogListener
+                    (
+                        listener, 
+                        mProperties.getInt("log.async.capacity", 8192),
+                        mProperties.getBoolean("log.async.block", false)
+                    );
+                    listener = mAsyncLogListener;
+                }
+
+                mLog.addLogListener(listener);
             }
         }
 
@@ -875,7 +911,9 @@ public class TeaServlet extends HttpServlet {
         }
 
         // check for valid asset
-        Asset asset = getEngine().getAssetEngine().getAsset(requestURI);
+        AssetEngine assets = getEngine().getAssetEngine();
+        Asset asset = 
+            assets.getAsset(requestURI, appRequest.isCompressionAccepted());
         if (asset == null) {
             return false;
         }
@@ -883,13 +921,97 @@ public class TeaServlet extends HttpServlet {
         // set mime type
         appResponse.setContentType(asset.getMimeType());
         
-        // write contents
-        int read = -1;
-        byte[] contents = new byte[1024];
-        InputStream input = asset.getInputStream();
-        ServletOutputStream output = appResponse.getOutputStream();
-        while ((read = input.read(contents)) >= 0) {
-            output.write(contents, 0, read);
+        // mark precompressed assets, which are not compressed again
+        String encoding = asset.getContentEncoding();
+        if (encoding != null) {
+            appResponse.setHeader("Content-Encoding", encoding);
+            appResponse.addHeader("Vary", "Accept-Encoding");
+        }
+        
+        // stream assets that are not described
+        if (!asset.isDescribed()) {
+            int read = -1;
+            byte[] contents = new byte[4096];
+            InputStream input = asset.getInputStream();
+            ServletOutputStream output = appResponse.getOutputStream();
+            try {
+                while ((read = input.read(contents)) >= 0) {
+                    output.write(contents, 0, read);
+                }
+            }
+            finally {
+                input.close();
+            }
+            
+            appResponse.finish();
+            return true;
+        }
+        
+        // set caching headers
+        String etag = asset.getETag();
+        long lastModified = asset.getLastModified();
+        long length = asset.getLength();
+        appResponse.setHeader("ETag", etag);
+        appResponse.setDateHeader("Last-Modified", lastModified);
+        if (assets.getMaxAge() >= 0) {
+            appResponse.setHeader("Cache-Control", 
+                                  "max-age=" + assets.getMaxAge());
+        }
+        
+        // whole responses compressed on the fly carry a varied entity tag,
+        // and byte ranges of the uncompressed content cannot be served
+        boolean compressed = encoding == null &&
+            appResponse instanceof ApplicationResponseImpl &&
+            ((ApplicationResponseImpl) appResponse).willCompress(length);
+        if (!compressed) {
+            appResponse.setHeader("Accept-Ranges", "bytes");
+        }
+        
+        // answer conditional requests for unchanged assets
+        String currentTag = compressed ? 
+            ApplicationResponseImpl.compressedETag(etag) : etag;
+        if (isNotModified(appRequest, currentTag, lastModified)) {
+            if (compressed) {
+                appResponse.setHeader("ETag", currentTag);
+                appResponse.addHeader("Vary", "Accept-Encoding");
+            }
+            appResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            appResponse.finish();
+            return true;
+        }
+        
+        // check for a single byte range
+        long offset = 0;
+        String range = appRequest.getHeader("Range");
+        if (range != null && !compressed &&
+            isRangeCurrent(appRequest, etag, lastModified)) {
+            
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                // unsatisfiable range
+                appResponse.setHeader("Content-Range", "bytes */" + length);
+                appResponse.sendError(
+                    HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return true;
+            }
+            else if (bounds.length == 2) {
+                offset = bounds[0];
+                appResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                appResponse.setHeader("Content-Range", "bytes " + offset + 
+                    '-' + (bounds[1] - 1) + '/' + length);
+                length = bounds[1] - offset;
+            }
+        }
+        
+        // write contents without copying them into the response buffer
+        byte[] contents = asset.getContents();
+        if (contents != null) {
+            appResponse.getResponseBuffer().appendSurrogate(
+                new ArrayByteData(contents, (int) offset, (int) length));
+        }
+        else {
+            appResponse.getResponseBuffer().appendSurrogate(
+                new FileRegion(asset.getFile(), offset, length));
         }
 
         // complete response
@@ -899,6 +1021,177 @@ public class TeaServlet extends HttpServlet {
         return true;
     }
 
+    /**
+     * Check if the client has the current version of an asset, based on the
+     * If-None-Match header, or else the If-Modified-Since header.
+     */
+    static boolean isNotModified(ApplicationRequest request,
+                                 String etag, long lastModified) {
+        
+        String match = request.getHeader("If-None-Match");
+        if (match != null) {
+            return matchesETag(match, etag);
+        }
+        
+        try {
+            long since = request.getDateHeader("If-Modified-Since");
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        }
+        catch (IllegalArgumentException exception) {
+            return false;
+        }
+    }
+    
+    /**
+     * Check if a byte range applies to the current version of an asset,
+     * based on the If-Range header, if any.
+     */
+    static boolean isRangeCurrent(ApplicationRequest request,
+                                  String etag, long lastModified) {
+        
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        else if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(etag);
+        }
+        
+        try {
+            long since = request.getDateHeader("If-Range");
+            return lastModified / 1000 <= since / 1000;
+        }
+        catch (IllegalArgumentException exception) {
+            return false;
+        }
+    }
+    
+    static boolean matchesETag(String header, String etag) {
+        StringTokenizer tokens = new StringTokenizer(header, ",");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken().trim();
+            if (token.startsWith("W/")) {
+                token = token.substring(2);
+            }
+            if (token.equals("*") || token.equals(etag)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Parse a Range header of a single byte range, returning the start and
+     * end (exclusive) of the range, an empty array if the header does not
+     * select a single byte range, or null if the range is unsatisfiable.
+     */
+    static long[] parseRange(String range, long length) {
+        range = range.trim();
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        
+        int index = range.indexOf('-');
+        if (index < 0) {
+            return new long[0];
+        }
+        
+        String first = range.substring(6, index).trim();
+        String last = range.substring(index + 1).trim();
+        try {
+            long start, end;
+            if (first.length() == 0) {
+                // suffix of the given length
+                long suffix = parseBytePosition(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length;
+            }
+            else {
+                start = parseBytePosition(first);
+                if (last.length() == 0) {
+                    end = length;
+                }
+                else {
+                    long lastByte = parseBytePosition(last);
+                    if (lastByte < start) {
+                        // invalid, so ignore
+                        return new long[0];
+                    }
+                    end = Math.min(length, lastByte + 1);
+                }
+            }
+            
+            if (start >= length || end <= start) {
+                return null;
+            }
+            
+            return new long[] { start, end };
+        }
+        catch (NumberFormatException exception) {
+            return new long[0];
+        }
+    }
+
+    /**
+     * Parse a byte position of a Range header, which unlike Long.parseLong
+     * does not accept a sign.
+     */
+    private static long parseBytePosition(String value) {
+        if (value.length() == 0 || !Character.isDigit(value.charAt(0))) {
+            throw new NumberFormatException(value);
+        }
+        return Long.parseLong(value);
+    }
+
+    /**
+     * A region of an asset file, which is transferred from the file channel
+     * when the response is written.
+     */
+    private static class FileRegion implements ByteData {
+        private final File mFile;
+        private final long mOffset;
+        private final long mLength;
+        
+        FileRegion(File file, long offset, long length) {
+            mFile = file;
+            mOffset = offset;
+            mLength = length;
+        }
+        
+        public long getByteCount() {
+            return mLength;
+        }
+        
+        public void writeTo(OutputStream out) throws IOException {
+            FileInputStream input = new FileInputStream(mFile);
+            try {
+                FileChannel channel = input.getChannel();
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = mOffset;
+                long remaining = mLength;
+                while (remaining > 0) {
+                    long amount = channel.transferTo(position, remaining, target);
+                    if (amount <= 0) {
+                        // file was truncated
+                        throw new IOException("asset file changed: " + mFile);
+                    }
+                    position += amount;
+                    remaining -= amount;
+                }
+            }
+            finally {
+                input.close();
+            }
+        }
+        
+        public void reset() {
+        }
+    }
+
     /**
      * Creates a transaction from the provided request and response and 
      * then processes that transaction by executing the target template.
@@ -948,50 +1241,7 @@ public class TeaServlet extends HttpServlet {
 	            }
 
 	            // Fill in the parameters to pass to the template.
-	            Class<?>[] paramTypes = template.getParameterTypes();
-	            if (paramTypes.length == 0) {
-	                params = NO_PARAMS;
-	            }
-	            else {
-	                params = new Object[paramTypes.length];
-	                String[] paramNames = template.getParameterNames();
-	                for (int i=0; i<paramNames.length; i++) {
-	                    String paramName = paramNames[i];
-	                    if (paramName == null) {
-	                        continue;
-	                    }
-	                
-	                    Class<?> paramType = paramTypes[i];
-	                
-	                    if (!paramType.isArray()) {
-	                        String value = appRequest.getParameter(paramName);
-	                        if (value == null || paramType == String.class) {
-	                            params[i] = value;
-	                        }
-	                        else {
-	                            params[i] = convertParameter(value, paramType);
-	                        }
-	                    }
-	                    else {
-	                        String[] values =
-	                            appRequest.getParameterValues(paramName);
-	                        if (values == null || paramType == String[].class) {
-	                            params[i] = values;
-	                        }
-	                        else {
-	                            paramType = paramType.getComponentType();
-	                            Object converted =
-	                                Array.newInstance(paramType, values.length);
-	                            params[i] = converted;
-	                            for (int j=0; j<values.length; j++) {
-	                                Array.set
-	                                    (converted, j,
-	                                     convertParameter(values[j], paramType));
-	                            }
-	                        }
-	                    }
-	                }
-	            }
+	            params = getParameterBinding(template).bind(appRequest);
 	
 	            startTime = System.currentTimeMillis();
 	            try {
@@ -1130,6 +1380,22 @@ public class TeaServlet extends HttpServlet {
         log.info(title + " version " + version);
     }
 
+    /**
+     * Returns the binding of request parameters to the parameters of the
+     * given template, building it if the template was not invoked before or
+     * has since been reloaded.
+     */
+    private ParameterBinding getParameterBinding(Template template) {
+        String name = template.getName();
+        ParameterBinding binding = mBindings.get(name);
+        if (binding == null || binding.getTemplate() != template) {
+            binding = ParameterBinding.forTemplate
+                (template, mConversionOverridden ? this : null);
+            mBindings.put(name, binding);
+        }
+        return binding;
+    }
+
     /**
      * Converts the given HTTP parameter value to the requested type so that
      * it can be passed directly as a template parameter. This method is called
@@ -1139,6 +1405,9 @@ public class TeaServlet extends HttpServlet {
      * in which case this method is called not to create the array, but rather
      * to convert any elements put into the array.
      *
+     * <p>Unless this method is overridden, the same conversions are chosen
+     * once per template and applied without calling this method.
+     *
      * <p>This implementation supports converting parameters of the following
      * types, and returns null for all others. If a conversion fails, null
      * is returned.
@@ -121,12 +121,7 @@ public class TeaServletContextSource extends MergedContextSource {
             }
             else {
                 return getConstructor().newInstance(new Object[] {
-                    new TSContextFactory(param), 
-                    new MergedClass.InvocationEventObserver() {
-                        public void invokedEvent(String caller, String callee, long elapsedTime) { }
-                        public long currentTime() { return 0L; }
-
-                    }});
+                    new TSContextFactory(param), NO_OBSERVER });
             }
         }
         catch (Exception ex) {
@@ -135,6 +130,14 @@ public class TeaServletContextSource extends MergedContextSource {
         }
     }
 
+    /**
+     * Creates shared contexts of the type the merged context was built for.
+     */
+    protected Object createSharedContext(int index) throws Exception {
+        return mDynSources[index].createContext(getContextsInOrder()[index],
+                                                null);
+    }
+
     private class TSContextFactory implements MergedClass.InstanceFactory {
         private final Object mContextParameter;
 
@@ -144,6 +147,9 @@ public class TeaServletContextSource extends MergedContextSource {
 
         public Object getInstance(int i) {
             try {
+                if (isContextShared(i)) {
+                    return getSharedContext(i);
+                }
                 return mDynSources[i].createContext(getContextsInOrder()[i], 
                                                     mContextParameter);
             }
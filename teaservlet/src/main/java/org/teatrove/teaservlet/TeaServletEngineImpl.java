@@ -38,8 +38,11 @@ import org.teatrove.tea.engine.TemplateSource;
 import org.teatrove.teaservlet.assets.AssetEngine;
 import org.teatrove.teaservlet.management.HttpContextManagement;
 import org.teatrove.teaservlet.management.HttpContextManagementMBean;
+import org.teatrove.trove.io.ChunkPool;
+import org.teatrove.trove.io.DefaultByteBuffer;
 import org.teatrove.trove.log.Log;
 import org.teatrove.trove.log.LogEvent;
+import org.teatrove.trove.util.Deflater;
 import org.teatrove.trove.util.PropertyMap;
 import org.teatrove.trove.util.StatusEvent;
 import org.teatrove.trove.util.StatusListener;
@@ -75,6 +78,25 @@ public class TeaServletEngineImpl implements TeaServletEngine {
     private boolean mInitialized;
     private Exception mInitializationException;
 
+    // names of templates known to be missing from the current templates
+    private volatile MissingTemplateCache mMissingTemplates;
+    private int mMissingTemplatesSize;
+
+    // settings for streaming responses to the client as they are written
+    private boolean mStreamingEnabled;
+    private String[] mStreamingTemplates;
+    private int mStreamingThreshold;
+    private boolean mStreamingCompression;
+
+    // chunks that response buffers are drawn from, or null if not pooled
+    private ChunkPool mChunkPool;
+
+    // settings for compressing whole responses
+    private boolean mCompressionEnabled;
+    private int mCompressionThreshold;
+    private int mCompressionLevel;
+    private String[] mCompressionTypes;
+
     protected void compileTemplates() {
         compileTemplates(null);
     }
@@ -128,6 +150,8 @@ public class TeaServletEngineImpl implements TeaServletEngine {
             setPluginContext(plug);
             setAssetEngine(servletContext, properties);
             setProfilingEnabled(properties);
+            setMissingTemplatesSize(properties);
+            setResponseSettings(properties);
             mApplicationDepot = new ApplicationDepot(this);
             
             // Initialize the HttpContext JMX angent
@@ -212,6 +236,163 @@ public class TeaServletEngineImpl implements TeaServletEngine {
         return mProperties;
     }
 
+    private void setMissingTemplatesSize(PropertyMap properties) {
+        mMissingTemplatesSize = 
+            properties.getInt("template.missing.cacheSize", 1000);
+    }
+
+    /**
+     * Applies the settings of how responses are streamed, buffered and
+     * compressed.
+     */
+    void setResponseSettings(PropertyMap properties) {
+        setStreaming(properties);
+        setChunkPool(properties);
+        setCompression(properties);
+    }
+
+    private void setStreaming(PropertyMap properties) {
+        mStreamingEnabled =
+            properties.getBoolean("response.streaming.enabled", false);
+        mStreamingThreshold =
+            properties.getInt("response.streaming.threshold", 8192);
+        mStreamingCompression =
+            properties.getBoolean("response.streaming.compress", false);
+
+        String templates = properties.getString("response.streaming.templates");
+        if (templates != null && templates.trim().length() > 0) {
+            mStreamingTemplates = templates.trim().split("[\\s,;]+");
+        }
+        else {
+            mStreamingTemplates = null;
+        }
+    }
+
+    private void setChunkPool(PropertyMap properties) {
+        int chunkSize = properties.getInt("response.buffer.chunkSize", 4096);
+        if (chunkSize <= 0) {
+            mChunkPool = null;
+            return;
+        }
+        mChunkPool = new ChunkPool
+            (chunkSize,
+             properties.getInt("response.buffer.threadChunks", 16),
+             properties.getInt("response.buffer.sharedChunks", 1024));
+    }
+
+    private void setCompression(PropertyMap properties) {
+        mCompressionEnabled =
+            properties.getBoolean("response.compress.enabled", false);
+        mCompressionThreshold =
+            properties.getInt("response.compress.threshold", 1024);
+        mCompressionLevel = properties.getInt
+            ("response.compress.level", Deflater.DEFAULT_COMPRESSION);
+
+        String types = properties.getString
+            ("response.compress.types",
+             "text/*, application/javascript, application/x-javascript, " +
+             "application/json, application/xml, application/xhtml+xml, " +
+             "image/svg+xml");
+        mCompressionTypes = types.trim().toLowerCase().split("[\\s,;]+");
+    }
+
+    /**
+     * Returns true if a buffered response of the given content type and
+     * length is GZIP compressed for clients that accept it. Compression
+     * applies when "response.compress.enabled" is set, to responses of at
+     * least "response.compress.threshold" bytes whose content type is
+     * listed in "response.compress.types". A listed type ending in '*'
+     * matches all types starting with the name.
+     */
+    boolean isCompressible(String contentType, long length) {
+        if (!mCompressionEnabled || length < mCompressionThreshold ||
+            contentType == null) {
+            return false;
+        }
+
+        int index = contentType.indexOf(';');
+        if (index >= 0) {
+            contentType = contentType.substring(0, index);
+        }
+        contentType = contentType.trim().toLowerCase();
+
+        String[] types = mCompressionTypes;
+        for (int i = 0; i < types.length; i++) {
+            String type = types[i];
+            if (type.endsWith("*")) {
+                if (contentType.startsWith
+                    (type.substring(0, type.length() - 1))) {
+                    return true;
+                }
+            }
+            else if (contentType.equals(type)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the level that whole responses are compressed with.
+     */
+    int getCompressionLevel() {
+        return mCompressionLevel;
+    }
+
+    /**
+     * Returns the pool that response buffers draw their chunks from, or null
+     * if "response.buffer.chunkSize" is zero and chunks are not pooled.
+     */
+    ChunkPool getChunkPool() {
+        return mChunkPool;
+    }
+
+    /**
+     * Returns the number of buffered bytes at which the output of the given
+     * template is streamed to the client, or zero if the output is fully
+     * buffered. Streaming applies to all templates when
+     * "response.streaming.enabled" is set, or to the templates listed in
+     * "response.streaming.templates". A listed name ending in '*' matches
+     * all templates starting with the name.
+     */
+    int getStreamingThreshold(Template template) {
+        if (template == null || mStreamingThreshold <= 0) {
+            return 0;
+        }
+
+        if (mStreamingEnabled) {
+            return mStreamingThreshold;
+        }
+
+        String[] names = mStreamingTemplates;
+        if (names != null) {
+            String templateName = template.getName();
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i];
+                if (name.endsWith("*")) {
+                    if (templateName.startsWith
+                        (name.substring(0, name.length() - 1))) {
+                        return mStreamingThreshold;
+                    }
+                }
+                else if (templateName.equals(name)) {
+                    return mStreamingThreshold;
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns true if streamed responses are GZIP compressed for clients
+     * that accept it.
+     */
+    boolean isStreamingCompressionEnabled() {
+        return mStreamingCompression;
+    }
+
     private void setProperties(PropertyMap properties) {
         mProperties = properties;
     }
@@ -290,7 +471,10 @@ public class TeaServletEngineImpl implements TeaServletEngine {
 
             // Wrap the user's http response.
             ApplicationResponse appResponse =
-                new ApplicationResponseImpl(response, this);
+                new ApplicationResponseImpl(response, this,
+                                            new DefaultByteBuffer(mChunkPool),
+                                            getStreamingThreshold(template),
+                                            mChunkPool);
 
 
             ApplicationRequest appRequest =
@@ -401,6 +585,7 @@ public class TeaServletEngineImpl implements TeaServletEngine {
         synchronized(this) {
             mApplicationDepot.setContextSource(contextSource);
             mTemplateSource = templateSrc;
+            mMissingTemplates = null;
         }
 
         // Return the compilation results
@@ -489,16 +674,12 @@ public class TeaServletEngineImpl implements TeaServletEngine {
             }
             String name = uri.replace('/', '.');
 
+            MissingTemplateCache missing = getMissingTemplates(templateSrc);
+
             // Look up template if not trying to use default.
             if (!useDefault) {
                 // Find template that matches the uri
-                try {
-                    template = templateSrc.getTemplate(name);
-                }
-                catch (ClassNotFoundException e) {
-                    mLog.debug("Can't find template \"" + name + "\": " + e);
-                    template = null;
-                }
+                template = lookupTemplate(name, templateSrc, missing);
             }
 
             // Use default if no template found so far.
@@ -515,29 +696,24 @@ public class TeaServletEngineImpl implements TeaServletEngine {
                             + tsTsrc.getDefaultTemplateName();
                     }
                 }
-                try {
-                    template = tsTsrc.getTemplate(name);
-
-                    // Redirect if no slash on end of URI.
-                    if (template != null && !useDefault) {
-                        StringBuffer location =
-                            new StringBuffer(request.getRequestURI());
-                        int length = location.length();
-                        if (length == 0
-                            || location.charAt(length - 1) != '/') {
-                            location.append('/');
-                        }
-                        String query = request.getQueryString();
-                        if (query != null) {
-                            location.append('?').append(query);
-                        }
-                        response.setStatus(response.SC_MOVED_PERMANENTLY);
-                        response.sendRedirect(location.toString());
+
+                template = lookupTemplate(name, tsTsrc, missing);
+
+                // Redirect if no slash on end of URI.
+                if (template != null && !useDefault) {
+                    StringBuffer location =
+                        new StringBuffer(request.getRequestURI());
+                    int length = location.length();
+                    if (length == 0
+                        || location.charAt(length - 1) != '/') {
+                        location.append('/');
                     }
-                }
-                catch (ClassNotFoundException e) {
-                    mLog.debug("Can't find default template \"" +
-                               name + "\": " + e);
+                    String query = request.getQueryString();
+                    if (query != null) {
+                        location.append('?').append(query);
+                    }
+                    response.setStatus(response.SC_MOVED_PERMANENTLY);
+                    response.sendRedirect(location.toString());
                 }
             }
         }
@@ -565,6 +741,54 @@ public class TeaServletEngineImpl implements TeaServletEngine {
         return template;
     }
 
+    /**
+     * Returns the template with the given name or null if the template does
+     * not exist. Names of missing templates are remembered, so that the
+     * template source is not searched again until the templates are
+     * reloaded.
+     */
+    private Template lookupTemplate(String name,
+                                    TemplateSource templateSrc,
+                                    MissingTemplateCache missing)
+        throws NoSuchMethodException {
+
+        if (missing != null && missing.isMissing(name)) {
+            return null;
+        }
+
+        try {
+            return templateSrc.getTemplate(name);
+        }
+        catch (ClassNotFoundException e) {
+            mLog.debug("Can't find template \"" + name + "\": " + e);
+            if (missing != null) {
+                missing.addMissing(name);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cache of missing template names for the templates currently
+     * loaded by the given template source or null if caching is disabled or
+     * no templates are loaded yet.
+     */
+    MissingTemplateCache getMissingTemplates(TemplateSource templateSrc) {
+        if (mMissingTemplatesSize <= 0 ||
+            templateSrc.getTemplateLoader() == null) {
+            return null;
+        }
+
+        MissingTemplateCache missing = mMissingTemplates;
+        if (missing == null || !missing.isValidFor(templateSrc)) {
+            missing = new MissingTemplateCache
+                (templateSrc, mMissingTemplatesSize);
+            mMissingTemplates = missing;
+        }
+
+        return missing;
+    }
+
     /**
      * Lets external classes use the HttpContext for their own, possibly
      * malicious purposes.
@@ -1,23 +1,140 @@
 package org.teatrove.teaservlet.assets;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * An asset found by the {@link AssetEngine}. An asset is either opened for a
+ * single request, in which case only its input stream is available, or is
+ * described by the engine, in which case its length, last modified time and
+ * entity tag are known, and it may be shared by requests. A described asset
+ * is backed by either its contents, when small enough to hold in memory, or
+ * by its file.
+ */
 public class Asset {
 
     private String path;
     private String mimeType;
     private InputStream input;
-    
+    private String contentEncoding;
+
+    private File file;
+    private byte[] contents;
+    private long length = -1;
+    private long lastModified = -1;
+    private String etag;
+
+    // when the asset was last found to be current
+    private volatile long checked;
+
     public Asset(String path, String mimeType, InputStream input) {
+        this(path, mimeType, input, null);
+    }
+
+    /**
+     * @param contentEncoding the encoding of the input, such as "gzip" for
+     *        a precompressed asset, or null if not encoded
+     */
+    public Asset(String path, String mimeType, InputStream input,
+                 String contentEncoding) {
+        this(path, mimeType, input, contentEncoding, null);
+    }
+
+    /**
+     * @param file the file the input was opened from, or null if the asset
+     *        is not a file
+     */
+    public Asset(String path, String mimeType, InputStream input,
+                 String contentEncoding, File file) {
         this.path = path;
         this.mimeType = mimeType;
         this.input = input;
+        this.contentEncoding = contentEncoding;
+        this.file = file;
+    }
+
+    /**
+     * Create a described asset that may be shared by requests.
+     *
+     * @param contents the contents of the asset, or null to read the file
+     * @param file the file of the asset, or null if the contents are given
+     * @param length the length of the asset in bytes
+     * @param lastModified the time the asset was last modified
+     * @param etag the entity tag of the asset
+     * @param checked the time the asset was found to be current
+     */
+    public Asset(String path, String mimeType, String contentEncoding,
+                 byte[] contents, File file, long length, long lastModified,
+                 String etag, long checked) {
+        this(path, mimeType, null, contentEncoding, file);
+        this.contents = contents;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.etag = etag;
+        this.checked = checked;
     }
-    
+
     public String getPath() { return this.path; }
     public String getMimeType() { return this.mimeType; }
-    public InputStream getInputStream() { return this.input; }
-    
+    public String getContentEncoding() { return this.contentEncoding; }
+
+    /**
+     * Get the file of this asset, or null if the asset is not a file.
+     */
+    public File getFile() { return this.file; }
+
+    /**
+     * Get the contents of this asset if held in memory, or null otherwise.
+     * The returned array must not be modified.
+     */
+    public byte[] getContents() { return this.contents; }
+
+    /**
+     * Get the length of this asset in bytes, or -1 if unknown.
+     */
+    public long getLength() { return this.length; }
+
+    /**
+     * Get the time this asset was last modified, or -1 if unknown.
+     */
+    public long getLastModified() { return this.lastModified; }
+
+    /**
+     * Get the entity tag of this asset, or null if unknown.
+     */
+    public String getETag() { return this.etag; }
+
+    /**
+     * Check if this asset is described and may be shared by requests.
+     */
+    public boolean isDescribed() { return this.input == null; }
+
+    long getChecked() { return this.checked; }
+    void setChecked(long checked) { this.checked = checked; }
+
+    /**
+     * Get a stream of the contents of this asset. A described asset opens a
+     * new stream each time, and returns null if its file can no longer be
+     * read.
+     */
+    public InputStream getInputStream() {
+        if (this.input != null) {
+            return this.input;
+        }
+        else if (this.contents != null) {
+            return new ByteArrayInputStream(this.contents);
+        }
+        else if (this.file != null) {
+            try { return new FileInputStream(this.file); }
+            catch (IOException ioe) { return null; }
+        }
+
+        return null;
+    }
+
     @Override
     public String toString() {
         return this.path + " [" + this.mimeType + "]";
@@ -1,5 +1,10 @@
 package org.teatrove.teaservlet.assets;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -8,11 +13,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.WeakHashMap;
+import java.util.zip.CRC32;
 
 import javax.servlet.ServletContext;
 
 import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.ConcurrentCache;
+import org.teatrove.trove.util.ExpiringCache;
 import org.teatrove.trove.util.PropertyMap;
 
 public class AssetEngine {
@@ -21,9 +28,20 @@ public class AssetEngine {
     private ServletContext context;
     
     private List<AssetLoader> loaders;
+    private boolean precompressed;
     
-    private WeakHashMap<String, AssetLoader> assets = 
-        new WeakHashMap<String, AssetLoader>();
+    // described assets by path, prefixed with "gzip:" for precompressed
+    private ConcurrentCache<String, Asset> described;
+    private int maxCachedSize;
+    private long checkInterval;
+    private long timeToLive;
+    private int maxAge;
+    
+    // loaders by path, or negative entries if not found
+    private ResolutionCache<AssetLoader> resolved;
+    private int resolveEntries;
+    private long resolveTimeToLive;
+    private long negativeTimeToLive;
     
     public AssetEngine(ServletContext context) {
         this.context = context;
@@ -41,6 +59,25 @@ public class AssetEngine {
         // save log
         this.log = log;
         
+        // check if precompressed variants of assets are served
+        this.precompressed = properties.getBoolean("precompressed", true);
+        
+        // configure the cache of described assets
+        PropertyMap cacheProps = properties.subMap("cache");
+        this.maxCachedSize = cacheProps.getInt("maxSize", 65536);
+        this.checkInterval = cacheProps.getInt("checkInterval", 1000);
+        this.timeToLive = cacheProps.getInt("ttl", 60000);
+        this.described = new ConcurrentCache<String, Asset>(
+            cacheProps.getInt("entries", 1000));
+        this.maxAge = properties.getInt("maxAge", -1);
+        
+        // configure the cache of resolved paths
+        PropertyMap resolveProps = cacheProps.subMap("resolve");
+        this.resolveEntries = resolveProps.getInt("entries", 10000);
+        this.resolveTimeToLive = resolveProps.getInt("ttl", 60000);
+        this.negativeTimeToLive = resolveProps.getInt("negativeTtl", 10000);
+        this.resolved = new ResolutionCache<AssetLoader>(this.resolveEntries);
+        
         // create loaders
         this.loaders = new ArrayList<AssetLoader>();
         
@@ -67,13 +104,78 @@ public class AssetEngine {
         // add default loader
         if (!factories.isEmpty()) {
             log.debug("creating default asset loader");
-            String basePath = properties.getString("basePath");
-            this.loaders.add(new AssetLoader("Default", basePath,
-                                             factories, mimeTypes));
+            String basePath = properties.getString("basePath", "");
+            AssetLoader loader = 
+                new AssetLoader("Default", basePath, factories, mimeTypes);
+            loader.init(log, this.resolveEntries, this.resolveTimeToLive);
+            this.loaders.add(loader);
         }
     }
     
     public Asset getAsset(String path) {
+        return getAsset(path, false);
+    }
+    
+    /**
+     * Get the asset at the given path from the first loader that provides
+     * it. If compressed is set and "precompressed" assets are enabled (the
+     * default), a precompressed variant of the asset at the path with a
+     * ".gz" suffix is returned in place of the asset when present, with a
+     * content encoding of "gzip".
+     * 
+     * @param path the path of the asset
+     * @param compressed whether the client accepts a gzip encoded asset
+     * 
+     * @return the asset or <code>null</code> if not found
+     */
+    public Asset getAsset(String path, boolean compressed) {
+        
+        // serve precompressed variants only if enabled
+        compressed = compressed && this.precompressed;
+        
+        // check for a current described asset
+        long now = System.currentTimeMillis();
+        String key = (compressed ? "gzip:".concat(path) : path);
+        Asset asset = this.described.get(key);
+        if (asset != null && isCurrent(asset, now)) {
+            return asset;
+        }
+        
+        // otherwise, find and describe the asset
+        asset = findAsset(path, compressed);
+        if (asset == null) {
+            this.described.remove(key);
+            return null;
+        }
+        
+        asset = describeAsset(asset, now);
+        if (asset == null) {
+            return null;
+        }
+        else if (asset.isDescribed()) {
+            this.described.put(key, asset);
+        }
+        
+        return asset;
+    }
+    
+    /**
+     * Get the cache of which loader provides each path, including paths that
+     * were not found, along with its hit and miss counts.
+     */
+    public ResolutionCache<AssetLoader> getResolutionCache() {
+        return this.resolved;
+    }
+    
+    /**
+     * Get the number of seconds that clients may cache assets for, or -1 if
+     * not configured with "maxAge".
+     */
+    public int getMaxAge() {
+        return this.maxAge;
+    }
+    
+    protected Asset findAsset(String path, boolean compressed) {
         
         // validate configuration
         if (this.loaders == null) {
@@ -88,19 +190,31 @@ public class AssetEngine {
             log.debug("searching for asset '" + path + "' within: " + loaders);
         }
         
-        // check if previously cached for better efficiency
-        AssetLoader cached = this.assets.get(path);
-        if (cached != null) {
-            return cached.getAsset(path);
+        // check if previously resolved for better efficiency
+        long now = System.currentTimeMillis();
+        String key = (compressed ? "gzip:".concat(path) : path);
+        ExpiringCache.Entry<AssetLoader> entry = this.resolved.get(key, now);
+        if (entry != null) {
+            if (entry.getValue() == null) {
+                return null;
+            }
+            
+            Asset asset = entry.getValue().getAsset(path, compressed);
+            if (asset != null) {
+                return asset;
+            }
+            
+            // no longer provided, so resolve again
+            this.resolved.remove(key);
         }
         
         // lookup the asset in each loader (first one wins)
         Asset asset = null;
         for (AssetLoader loader : this.loaders) {
-            asset = loader.getAsset(path);
+            asset = loader.getAsset(path, compressed);
             if (asset != null) {
                 // cache loader if found for better efficiency
-                this.assets.put(path, loader);
+                this.resolved.put(key, loader, now, this.resolveTimeToLive);
                 
                 // return matching asset
                 return asset;
@@ -111,10 +225,140 @@ public class AssetEngine {
             log.debug("asset not found: ".concat(path));
         }
 
-        // none found
+        // none found, so avoid searching again for a while
+        if (this.negativeTimeToLive > 0) {
+            this.resolved.put(key, null, now, this.negativeTimeToLive);
+        }
         return null;
     }
     
+    /**
+     * Check if the given described asset is still current. File assets are
+     * current until their file changes, which is checked at most once every
+     * "cache.checkInterval" milliseconds. Other assets are current for
+     * "cache.ttl" milliseconds.
+     */
+    protected boolean isCurrent(Asset asset, long now) {
+        long elapsed = now - asset.getChecked();
+        File file = asset.getFile();
+        if (file == null) {
+            return elapsed < this.timeToLive;
+        }
+        
+        if (elapsed < this.checkInterval) {
+            return true;
+        }
+        
+        if (file.lastModified() != asset.getLastModified() ||
+            file.length() != asset.getLength()) {
+            return false;
+        }
+        
+        asset.setChecked(now);
+        return true;
+    }
+    
+    /**
+     * Describe the given found asset so that it may be shared by requests.
+     * File assets are described by their file, and their contents are held in
+     * memory if no larger than "cache.maxSize" bytes. Other assets are read
+     * into memory, but are returned undescribed if larger than that. Returns
+     * null if the asset cannot be read.
+     */
+    protected Asset describeAsset(Asset asset, long now) {
+        InputStream input = asset.getInputStream();
+        File file = asset.getFile();
+        
+        byte[] contents = null;
+        long length;
+        long lastModified;
+        long version;
+        
+        try {
+            if (file != null) {
+                length = file.length();
+                lastModified = file.lastModified();
+                version = lastModified;
+                if (length <= this.maxCachedSize) {
+                    contents = readContents(input, (int) length + 1);
+                    if (contents != null && contents.length != length) {
+                        // changed while reading
+                        contents = null;
+                    }
+                }
+                input.close();
+            }
+            else {
+                contents = readContents(input, this.maxCachedSize + 1);
+                if (contents == null || contents.length > this.maxCachedSize) {
+                    // too large, so stream the remainder after the read part
+                    if (contents != null) {
+                        input = new SequenceInputStream(
+                            new ByteArrayInputStream(contents), input);
+                    }
+                    return new Asset(asset.getPath(), asset.getMimeType(),
+                                     input, asset.getContentEncoding());
+                }
+                input.close();
+                
+                CRC32 crc = new CRC32();
+                crc.update(contents);
+                length = contents.length;
+                lastModified = now - (now % 1000);
+                version = crc.getValue();
+            }
+        }
+        catch (IOException ioe) {
+            log.warn("unable to read asset: ".concat(asset.getPath()));
+            log.warn(ioe);
+            try { input.close(); }
+            catch (IOException closeException) { /* ignore */ }
+            return null;
+        }
+        
+        // tag by length and version, and distinguish precompressed variants
+        String encoding = asset.getContentEncoding();
+        String etag = '"' + Long.toHexString(length) + '-' + 
+            Long.toHexString(version) + 
+            (encoding == null ? "" : "-".concat(encoding)) + '"';
+        
+        return new Asset(asset.getPath(), asset.getMimeType(), encoding,
+                         contents, file, length, lastModified, etag, now);
+    }
+    
+    /**
+     * Read up to the given number of bytes from the given stream, or null if
+     * no more than zero bytes may be read.
+     */
+    private static byte[] readContents(InputStream input, int limit)
+        throws IOException {
+        
+        if (limit <= 0) {
+            return null;
+        }
+        
+        byte[] buffer = new byte[Math.min(limit, 8192)];
+        int count = 0;
+        int read;
+        while (count < limit &&
+               (read = input.read(buffer, count, buffer.length - count)) > 0) {
+            count += read;
+            if (count == buffer.length && count < limit) {
+                byte[] expanded = new byte[Math.min(limit, count * 2)];
+                System.arraycopy(buffer, 0, expanded, 0, count);
+                buffer = expanded;
+            }
+        }
+        
+        if (count == buffer.length) {
+            return buffer;
+        }
+        
+        byte[] contents = new byte[count];
+        System.arraycopy(buffer, 0, contents, 0, count);
+        return contents;
+    }
+    
     @SuppressWarnings("unchecked")
     protected Map<String, String> loadMimeTypes(PropertyMap props, 
         Map<String, String> defaultMimeTypes) {
@@ -177,7 +421,7 @@ public class AssetEngine {
             log.debug("creating asset loader: ".concat(name));
             AssetLoader loader =
                 new AssetLoader(name, basePath, factories, mimeTypes);
-            loader.init(log);
+            loader.init(log, this.resolveEntries, this.resolveTimeToLive);
             return loader;
         }
         
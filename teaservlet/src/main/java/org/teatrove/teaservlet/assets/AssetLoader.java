@@ -1,14 +1,15 @@
 package org.teatrove.teaservlet.assets;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
 
 import org.teatrove.trove.log.Log;
 import org.teatrove.trove.log.Syslog;
+import org.teatrove.trove.util.ExpiringCache;
 
 public class AssetLoader {
 
@@ -18,8 +19,9 @@ public class AssetLoader {
     private List<AssetFactory> factories;
     private Map<String, String> mimeTypes;
     
-    private WeakHashMap<String, AssetFactory> assets = 
-        new WeakHashMap<String, AssetFactory>();
+    private ResolutionCache<AssetFactory> assets = 
+        new ResolutionCache<AssetFactory>(1000);
+    private long timeToLive;
     
     public AssetLoader() {
         this(null, "");
@@ -35,7 +37,7 @@ public class AssetLoader {
                        Map<String, String> mimeTypes) {
         
         this.name = name;
-        this.basePath = basePath;
+        this.basePath = (basePath == null ? "" : basePath);
         this.factories = factories;
         this.mimeTypes = mimeTypes;
     }
@@ -44,6 +46,30 @@ public class AssetLoader {
         this.log = log;
     }
     
+    /**
+     * Initialize this loader with a cache of which factory provides each
+     * path. Paths provided by file and URL factories are resolved again
+     * after the given time to live, since their assets may be removed, as
+     * are precompressed variants that were not found.
+     * 
+     * @param log the log to write to
+     * @param maxEntries the maximum number of cached paths
+     * @param timeToLive the number of milliseconds file and URL paths are
+     *        cached for, or 0 to cache them until evicted
+     */
+    public void init(Log log, int maxEntries, long timeToLive) {
+        this.log = log;
+        this.assets = new ResolutionCache<AssetFactory>(maxEntries);
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * Get the cache of which factory provides each path.
+     */
+    public ResolutionCache<AssetFactory> getResolutionCache() {
+        return this.assets;
+    }
+    
     @Override
     public String toString() {
         return this.name + "(" + this.basePath + ") [" + mimeTypes + "] [" +
@@ -59,6 +85,20 @@ public class AssetLoader {
     }
     
     public Asset getAsset(String path) {
+        return getAsset(path, false);
+    }
+    
+    /**
+     * Get the asset at the given path. If compressed is set, a precompressed
+     * variant of the asset at the path with a ".gz" suffix is returned in
+     * place of the asset, if the factory that provides the asset has one.
+     * 
+     * @param path the path of the asset
+     * @param compressed whether the client accepts a gzip encoded asset
+     * 
+     * @return the asset or <code>null</code> if not found
+     */
+    public Asset getAsset(String path, boolean compressed) {
         // validate base path exists
         if (basePath != null && !basePath.isEmpty() && 
             !path.startsWith(basePath)) {
@@ -86,33 +126,105 @@ public class AssetLoader {
             log.debug("searching for resource '" + path + "' in " + this);
         }
         
+        // prefer a precompressed variant, which is cached under its own path
+        // so that clients that do not accept gzip never resolve to it
+        long now = System.currentTimeMillis();
+        Resolved resolved = null;
+        String encoding = null;
+        if (compressed) {
+            resolved = resolve(path.concat(".gz"), now, true);
+            if (resolved != null) { encoding = "gzip"; }
+        }
+        if (resolved == null) {
+            resolved = resolve(path, now, false);
+        }
+        
+        // verify input found
+        if (resolved == null) {
+            return null;
+        }
+        
+        // include the file of file based assets
+        File file = null;
+        if (resolved.factory instanceof FileAssetFactory) {
+            file = ((FileAssetFactory) resolved.factory).getFile(resolved.path);
+        }
+        
+        // return found resource
+        return new Asset(path, mimeType, resolved.input, encoding, file);
+    }
+    
+    /**
+     * Open the asset at the given path from the factory cached for the path,
+     * or else from the first factory that provides it.
+     * 
+     * @param path the path to open
+     * @param now the current time in milliseconds
+     * @param negative whether to cache the path as not found, so that
+     *        factories are not searched again for it until it expires
+     * 
+     * @return the resolved asset or <code>null</code> if not found
+     */
+    private Resolved resolve(String path, long now, boolean negative) {
         // check if cached for better efficiency
-        InputStream input = null;
-        AssetFactory cached = this.assets.get(path);
-        if (cached != null) {
-            input = cached.getAsset(path);
+        ExpiringCache.Entry<AssetFactory> entry = this.assets.get(path, now);
+        if (entry != null) {
+            if (entry.getValue() == null) {
+                return null;
+            }
+            
+            AssetFactory factory = entry.getValue();
+            InputStream input = factory.getAsset(path);
+            if (input != null) {
+                return new Resolved(path, factory, input);
+            }
+            
+            // resolve again if no longer provided
+            this.assets.remove(path);
         }
         
         // otherwise, find first valid factory
-        else {
-            for (AssetFactory factory : factories) {
-                input = factory.getAsset(path);
-                if (input != null) {
-                    // cache for better efficiency
-                    this.assets.put(path, factory);
-                    
-                    // break out of loop (factory found)
-                    break; 
-                }
+        for (AssetFactory factory : factories) {
+            InputStream input = factory.getAsset(path);
+            if (input != null) {
+                // cache for better efficiency
+                this.assets.put(path, factory, now, getTimeToLive(factory));
+                return new Resolved(path, factory, input);
             }
         }
         
-        // verify input found
-        if (input == null) {
-            return null;
+        if (negative) {
+            this.assets.put(path, null, now, this.timeToLive);
+        }
+        return null;
+    }
+    
+    /**
+     * Get the number of milliseconds a path provided by the given factory is
+     * cached for, or 0 if it does not expire. Only files and URLs expire, as
+     * classpath and web application resources do not change.
+     */
+    protected long getTimeToLive(AssetFactory factory) {
+        if (factory instanceof FileAssetFactory || 
+            factory instanceof UrlAssetFactory) {
+            return this.timeToLive;
         }
         
-        // return found resource
-        return new Asset(path, mimeType, input);
+        return 0;
+    }
+    
+    /**
+     * An opened asset along with the path and factory it was resolved from.
+     */
+    private static class Resolved {
+        final String path;
+        final AssetFactory factory;
+        final InputStream input;
+        
+        Resolved(String path, AssetFactory factory, InputStream input) {
+            this.path = path;
+            this.factory = factory;
+            this.input = input;
+        }
     }
 }
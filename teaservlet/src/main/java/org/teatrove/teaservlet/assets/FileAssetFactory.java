@@ -53,6 +53,30 @@ public class FileAssetFactory extends AbstractAssetFactory {
     
     @Override
     public InputStream getAsset(String path) {
+        // lookup the file
+        File file = getFile(path);
+        if (file == null) {
+            return null;
+        }
+        
+        // return input stream for file
+        try { return new FileInputStream(file); }
+        catch (IOException ioe) {
+            log.error("unable to retrieve asset: ".concat(path));
+            log.error(ioe);
+            return null;
+        }
+    }
+    
+    /**
+     * Get the file of the asset at the given path, or null if the file does
+     * not exist or is not within the directory of this factory.
+     * 
+     * @param path the path of the asset
+     * 
+     * @return the file or <code>null</code> if not found
+     */
+    public File getFile(String path) {
         // validate path
         path = validatePath(path);
 
@@ -80,8 +104,8 @@ public class FileAssetFactory extends AbstractAssetFactory {
                 return null;
             }
             
-            // return input stream for file
-            return new FileInputStream(file);
+            // return the valid file
+            return file;
         }
         catch (IOException ioe) {
             log.error("unable to retrieve asset: ".concat(path));
@@ -0,0 +1,116 @@
+package org.teatrove.teaservlet.assets;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.teatrove.trove.util.ExpiringCache;
+
+/**
+ * A thread-safe cache of where asset paths were resolved, such as the loader
+ * or factory that provides the asset at a path. Paths that could not be
+ * resolved are cached as negative entries, so that misses do not search
+ * every loader again. Entries may expire, so that they are resolved again
+ * after the underlying files or resources may have changed. When the cache
+ * is full, expired entries are evicted first, followed by the least recently
+ * used.
+ *
+ * @param <V> the type that paths resolve to
+ */
+public class ResolutionCache<V> {
+
+    private final ExpiringCache<String, V> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of cached paths
+     */
+    public ResolutionCache(int maxEntries) {
+        this.entries = new ExpiringCache<String, V>(maxEntries);
+    }
+
+    /**
+     * Get the entry for the given path, or null if the path is not cached or
+     * its entry has expired. An entry with a null value is returned for a
+     * path that was cached as not found.
+     *
+     * @param path the path to lookup
+     * @param now the current time in milliseconds
+     *
+     * @return the entry or <code>null</code> if the path must be resolved
+     */
+    public ExpiringCache.Entry<V> get(String path, long now) {
+        ExpiringCache.Entry<V> entry = this.entries.get(path, now);
+        if (entry == null) {
+            this.misses.incrementAndGet();
+        }
+        else if (entry.getValue() == null) {
+            this.negativeHits.incrementAndGet();
+        }
+        else {
+            this.hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Cache where the given path was resolved to.
+     *
+     * @param path the resolved path
+     * @param value what the path resolved to, or null if not found
+     * @param now the current time in milliseconds
+     * @param ttl the number of milliseconds the entry is valid for, or 0 if
+     *        the entry does not expire
+     */
+    public void put(String path, V value, long now, long ttl) {
+        this.entries.put(path, value, now, ttl);
+    }
+
+    /**
+     * Remove the entry of the given path, so that it is resolved again.
+     */
+    public void remove(String path) {
+        this.entries.remove(path);
+    }
+
+    public void clear() {
+        this.entries.clear();
+    }
+
+    public int getSize() { return this.entries.size(); }
+    public int getMaxEntries() { return this.entries.getMaxEntries(); }
+    public long getHitCount() { return this.hits.get(); }
+    public long getNegativeHitCount() { return this.negativeHits.get(); }
+    public long getMissCount() { return this.misses.get(); }
+    public long getExpirationCount() {
+        return this.entries.getExpirationCount();
+    }
+    public long getEvictionCount() { return this.entries.getEvictionCount(); }
+
+    /**
+     * Get the ratio of lookups, including negative hits, that did not need
+     * the path to be resolved again.
+     */
+    public double getHitRatio() {
+        long found = this.hits.get() + this.negativeHits.get();
+        long total = found + this.misses.get();
+        return (total == 0 ? 0.0d : (double) found / total);
+    }
+
+    public void resetCounts() {
+        this.hits.set(0);
+        this.negativeHits.set(0);
+        this.misses.set(0);
+        this.entries.resetCounts();
+    }
+
+    @Override
+    public String toString() {
+        return "ResolutionCache[size=" + getSize() +
+            ", hits=" + getHitCount() +
+            ", negativeHits=" + getNegativeHitCount() +
+            ", misses=" + getMissCount() +
+            ", evictions=" + getEvictionCount() + "]";
+    }
+}
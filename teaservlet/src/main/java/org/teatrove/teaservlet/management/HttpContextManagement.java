@@ -18,10 +18,12 @@ package org.teatrove.teaservlet.management;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
-import org.teatrove.trove.util.Cache;
+import org.teatrove.trove.net.PooledSocketFactory;
+import org.teatrove.trove.util.ConcurrentCache;
 
 /**
  * 
@@ -35,7 +37,12 @@ public class HttpContextManagement implements HttpContextManagementMBean {
     //
     
     private static HttpContextManagement __Instance; 
-    private static Cache __UrlMap;
+    private static ConcurrentCache<String, AtomicLong> __UrlMap;
+
+    // Maps the connection pools used by readURL to the addresses they
+    // connect to. Pools are dropped once no longer in use.
+    private static final Map<PooledSocketFactory, String> __ConnectionPools =
+        new WeakHashMap<PooledSocketFactory, String>();
     
     //
     // Private fields
@@ -60,12 +67,25 @@ public class HttpContextManagement implements HttpContextManagementMBean {
         return __Instance;
     }
 
+    /**
+     * Registers a connection pool to be listed by listConnectionPools.
+     *
+     * @param address The address the pool connects to.
+     * @param pool The connection pool.
+     */
+    public static void addConnectionPool(String address,
+                                         PooledSocketFactory pool) {
+        synchronized (__ConnectionPools) {
+            __ConnectionPools.put(pool, address);
+        }
+    }
+
     //
     // Private constructors
     //
     
     private HttpContextManagement(int cacheSize) {
-        __UrlMap = new Cache(cacheSize);
+        __UrlMap = new ConcurrentCache<String, AtomicLong>(cacheSize);
         readUrlLoggingEnabled = true;
     }
     
@@ -86,18 +106,46 @@ public class HttpContextManagement implements HttpContextManagementMBean {
     }
     
     public String[] listRequestedUrls() {
-        ArrayList result = new ArrayList();
-        Set urlKeySet = __UrlMap.keySet();
+        ArrayList<String> result = new ArrayList<String>();
+        Iterator<Map.Entry<String, AtomicLong>> it =
+            __UrlMap.entrySet().iterator();
         
-        for (Iterator it = urlKeySet.iterator(); it.hasNext();) {
-            String url = (String)it.next();
-            AtomicLong count = (AtomicLong)__UrlMap.get(url);
+        while (it.hasNext()) {
+            Map.Entry<String, AtomicLong> entry = it.next();
             
-            String displayString = url + " : " + count.toString(); 
+            String displayString = entry.getKey() + " : " + entry.getValue(); 
             result.add(displayString);
         }
         
-        return (String[]) result.toArray(new String[result.size()]);
+        return result.toArray(new String[result.size()]);
+    }
+    
+    public String[] listConnectionPools() {
+        ArrayList<String> result = new ArrayList<String>();
+        synchronized (__ConnectionPools) {
+            Iterator<Map.Entry<PooledSocketFactory, String>> it =
+                __ConnectionPools.entrySet().iterator();
+
+            while (it.hasNext()) {
+                Map.Entry<PooledSocketFactory, String> entry = it.next();
+                PooledSocketFactory pool = entry.getKey();
+                if (pool.isClosed()) {
+                    // Lingers until collected, but is no longer in use.
+                    continue;
+                }
+
+                String displayString = entry.getValue() +
+                    " : available=" + pool.getAvailableCount() +
+                    ", created=" + pool.getCreatedCount() +
+                    ", reused=" + pool.getReusedCount() +
+                    ", recycled=" + pool.getRecycledCount() +
+                    ", evicted=" + pool.getEvictedCount() +
+                    ", discarded=" + pool.getDiscardedCount();
+                result.add(displayString);
+            }
+        }
+
+        return result.toArray(new String[result.size()]);
     }
     
     /**
@@ -126,21 +174,17 @@ public class HttpContextManagement implements HttpContextManagementMBean {
         }
 
         //
-        // Because Cache doesn't take advantage of the underlying concurrentMap, this code either has to (1)introduce 
-        // sync block to synchronize addReadUrl requests which would negatively impact all templates calling addReadUrl
-        // or (2) accept potential race condition during the first add call on the same Url. This implementation takes
-        // (2) approach as this feature is more for reporting and hence not worth the performance degradation . Also, 
-        // once the first record is added to the map, the race condition no longer exists due to the use of atomic 
-        // variable.
-        //        
-        
-        AtomicLong count = (AtomicLong)__UrlMap.get(filteredUrl);
+        // Add the count with putIfAbsent, so concurrent first requests for
+        // the same URL are all counted.
+        //
+
+        AtomicLong count = __UrlMap.get(filteredUrl);
         if (count == null) {
-            count = new AtomicLong(1);
-            __UrlMap.put(filteredUrl, count);
+            count = __UrlMap.putIfAbsent(filteredUrl, new AtomicLong(1));
+            if (count == null) {
+                return;
+            }
         }
-        else {
-            count.incrementAndGet();
-        }        
+        count.incrementAndGet();
     }
 }
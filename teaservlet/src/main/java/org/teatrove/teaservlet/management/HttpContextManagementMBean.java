@@ -33,4 +33,10 @@ public interface HttpContextManagementMBean  {
      * Clear the readUrl log.
      */
     public void clearReadUrlLog();
+
+    /**
+     * Returns a list of the connection pools used by readURL, one per host
+     * address, with counts of the connections created and reused.
+     */
+    public String[] listConnectionPools();
 }
@@ -16,8 +16,6 @@
 
 package org.teatrove.teaservlet.stats;
 
-import java.util.Arrays;
-
 /**
  * This class represents a compressed statistical representation
  * of many requests to a template for a given interval.
@@ -105,56 +103,27 @@ public class AggregateInterval implements Cloneable {
 		stats.variance = ds / data.length;
 	}
 
+	/**
+	 * Computes the median, quartiles and whiskers from a histogram of the
+	 * data rather than by sorting it. The histogram is kept with the stats
+	 * so that percentiles can later be computed across intervals.
+	 */
 	protected void calculatePercentile(AggregateStats stats, long[] data) {
-		int depthOfMedian = 0;
-		
-		Arrays.sort(data);
-		if ((data.length & 1) == 0) { // even
-			depthOfMedian = (data.length / 2) - 1;
-			stats.median = (data[depthOfMedian] + data[depthOfMedian + 1]) / 2.0f;
-		} else {
-			if (data.length >= 3) {
-				depthOfMedian = ((data.length + 1) / 2) - 1;
-				stats.median = data[depthOfMedian];
-			} else if (data.length == 1) {
-				stats.median = data[0];
-			}
+		LogHistogram histogram = LogHistogram.of(data);
+		stats.histogram = histogram;
+		if (histogram.getCount() == 0) {
+			return;
 		}
-
-		//System.out.println("data.length: " + data.length);
-		//System.out.println("depthOfMedian: " + depthOfMedian);
 		
-		if (depthOfMedian > 0) {
-			if ((depthOfMedian & 1) == 0) {
-				int depthOfForth = (depthOfMedian + 1) / 2;
-				int upperQuartileDepth = depthOfMedian + depthOfForth;
-				//System.out.println("depthOfForth: " + depthOfForth);
-				//System.out.println("upperQuartileDepth: " + upperQuartileDepth);
-				
-				stats.lowerQuartile = 0.5f * (data[depthOfForth] + data[depthOfForth + 1]);
-				stats.upperQuartile = 0.5f * (data[upperQuartileDepth] + data[upperQuartileDepth + 1]);	
-				
-				float fourthSpread = stats.upperQuartile - stats.lowerQuartile;
-				stats.lowerWhisker = stats.lowerQuartile - (1.5f * fourthSpread);
-				if (stats.lowerWhisker < stats.min) stats.lowerWhisker = stats.min;
-				stats.upperWhisker = stats.upperQuartile + (1.5f * fourthSpread);
-				if (stats.upperWhisker > stats.max) stats.upperWhisker = stats.max;
-			} else {
-				int depthOfForth = ((depthOfMedian + 1) / 2);
-				int upperQuartileDepth = depthOfMedian + depthOfForth;
-				//System.out.println("depthOfForth: " + depthOfForth);
-				//System.out.println("upperQuartileDepth: " + upperQuartileDepth);
-				
-				stats.lowerQuartile = 0.5f * (data[depthOfForth - 1] + data[depthOfForth]);
-				stats.upperQuartile = 0.5f * (data[upperQuartileDepth - 1] + data[upperQuartileDepth]);	
-				
-				float fourthSpread = stats.upperQuartile - stats.lowerQuartile;
-				stats.lowerWhisker = stats.lowerQuartile - (1.5f * fourthSpread);
-				if (stats.lowerWhisker < stats.min) stats.lowerWhisker = stats.min;
-				stats.upperWhisker = stats.upperQuartile + (1.5f * fourthSpread);
-				if (stats.upperWhisker > stats.max) stats.upperWhisker = stats.max;
-			}
-		}
+		stats.median = histogram.getMedian();
+		stats.lowerQuartile = histogram.getValueAtPercentile(25.0d);
+		stats.upperQuartile = histogram.getValueAtPercentile(75.0d);
+		
+		float fourthSpread = stats.upperQuartile - stats.lowerQuartile;
+		stats.lowerWhisker = stats.lowerQuartile - (1.5f * fourthSpread);
+		if (stats.lowerWhisker < stats.min) stats.lowerWhisker = stats.min;
+		stats.upperWhisker = stats.upperQuartile + (1.5f * fourthSpread);
+		if (stats.upperWhisker > stats.max) stats.upperWhisker = stats.max;
 	}
 	
     public double getDurationStressMeasure() {
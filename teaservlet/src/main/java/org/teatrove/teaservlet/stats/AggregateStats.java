@@ -32,6 +32,7 @@ public class AggregateStats implements Cloneable {
 	protected float lowerQuartile = -1.0f;
 	protected float upperWhisker = -1.0f;
 	protected float lowerWhisker = -1.0f;
+	protected LogHistogram histogram = null;
 
 	/**
 	 * <p>
@@ -306,6 +307,49 @@ public class AggregateStats implements Cloneable {
 		return lowerWhisker;
 	}
 
+	/**
+	 * Returns the histogram of the data, from which the median, quartiles
+	 * and any other percentile are derived. Histograms of several intervals
+	 * may be merged to find percentiles across all of them.
+	 *
+	 * @return the histogram, or null if no data.
+	 */
+	public LogHistogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * Returns the value that the given percentage of the data is less than
+	 * or equal to.
+	 *
+	 * @param percentile the percentile, from 0 to 100.
+	 * @return the value at the percentile, or -1 if no data.
+	 */
+	public long getPercentile(double percentile) {
+		return histogram == null ? -1 : histogram.getValueAtPercentile(percentile);
+	}
+
+	/**
+	 * Returns the 90th percentile of the data.
+	 */
+	public long getPercentile90() {
+		return getPercentile(90.0d);
+	}
+
+	/**
+	 * Returns the 99th percentile of the data.
+	 */
+	public long getPercentile99() {
+		return getPercentile(99.0d);
+	}
+
+	/**
+	 * Returns the 99.9th percentile of the data.
+	 */
+	public long getPercentile999() {
+		return getPercentile(99.9d);
+	}
+
 	/**
 	 * Returns a deep clone of this object.
 	 */
@@ -321,6 +365,7 @@ public class AggregateStats implements Cloneable {
 		result.lowerQuartile = this.lowerQuartile;
 		result.upperWhisker = this.upperWhisker;
 		result.lowerWhisker = this.lowerWhisker;
+		result.histogram = this.histogram;
 		return result;
 	}
 	
@@ -338,5 +383,6 @@ public class AggregateStats implements Cloneable {
 		lowerQuartile = -1.0f;
 		upperWhisker = -1.0f;
 		lowerWhisker = -1.0f;
+		histogram = null;
 	}
 }
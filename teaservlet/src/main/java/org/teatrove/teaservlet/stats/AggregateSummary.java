@@ -33,6 +33,7 @@ public class AggregateSummary {
 	protected float averageLowerQuartile = -1.0f;
 	protected float averageUpperWhisker = -1.0f;
 	protected float averageLowerWhisker = -1.0f;
+	protected LogHistogram histogram = null;
 	
 	public long getN() {
 		return n;
@@ -87,11 +88,52 @@ public class AggregateSummary {
 		return averageLowerWhisker;
 	}
 	
+	/**
+	 * Returns the histogram of all the data in the summarized intervals.
+	 * Unlike the averaged statistics, percentiles computed from the
+	 * histogram are accurate across all intervals.
+	 *
+	 * @return the merged histogram, or null if unavailable.
+	 */
+	public LogHistogram getHistogram() {
+		return histogram;
+	}
+	
+	/**
+	 * Returns the value that the given percentage of the data in all the
+	 * summarized intervals is less than or equal to.
+	 *
+	 * @param percentile the percentile, from 0 to 100.
+	 * @return the value at the percentile, or -1 if no data.
+	 */
+	public long getPercentile(double percentile) {
+		return histogram == null ? -1 : histogram.getValueAtPercentile(percentile);
+	}
+	
+	public long getMedian() {
+		return getPercentile(50.0d);
+	}
+	
+	public long getPercentile90() {
+		return getPercentile(90.0d);
+	}
+	
+	public long getPercentile99() {
+		return getPercentile(99.0d);
+	}
+	
+	public long getPercentile999() {
+		return getPercentile(99.9d);
+	}
+	
 	public static AggregateSummary getDurationAggregateSummary(AggregateInterval[] intervals) {
 		AggregateSummary result = null;
 		if (intervals != null && intervals.length > 0) {
 			result = new AggregateSummary();
+			LogHistogram[] histograms = new LogHistogram[intervals.length];
+			int index = 0;
 			for (AggregateInterval interval: intervals) {
+				histograms[index++] = interval.durationStats.histogram;
 				result.n += interval.sampleSize;
 				AggregateStats stats = interval.durationStats;
 				if (stats.min < result.min) result.min = stats.min;
@@ -111,6 +153,7 @@ public class AggregateSummary {
 			result.averageLowerQuartile /= intervals.length;
 			result.averageUpperWhisker /= intervals.length;
 			result.averageLowerWhisker /= intervals.length;
+			result.histogram = LogHistogram.merge(histograms);
 		}
 		return result;
 	}
@@ -127,6 +170,7 @@ public class AggregateSummary {
 		result.averageLowerQuartile = this.averageLowerQuartile;
 		result.averageUpperWhisker = this.averageUpperWhisker;
 		result.averageLowerWhisker = this.averageLowerWhisker;
+		result.histogram = this.histogram;
 		return result;
 	}
 	
@@ -142,6 +186,7 @@ public class AggregateSummary {
 		averageLowerQuartile = -1.0f;
 		averageUpperWhisker = -1.0f;
 		averageLowerWhisker = -1.0f;
+		histogram = null;
 	}
 	
 }
@@ -0,0 +1,387 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.teaservlet.stats;
+
+import java.util.Arrays;
+
+/**
+ * An immutable histogram of non-negative values, such as durations or
+ * content lengths, that counts values in logarithmic buckets. Values below
+ * 64 are counted exactly. Larger values are counted in buckets whose width
+ * is at most 1/32 of the values they hold, so any percentile is reported
+ * within about 3% of its true value, no matter how many values were
+ * counted. Only buckets that hold values are stored.
+ * <p>
+ * Histograms are mergeable, so percentiles over any number of aggregate
+ * intervals can be computed from the interval histograms without keeping
+ * the raw data. Use {@link LogHistogramRecorder} to count values from many
+ * threads at once.
+ */
+public class LogHistogram {
+
+	// Number of bits of precision kept for each value.
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** Values larger than this are counted as this value. */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	/** Total number of buckets needed to count values up to MAX_VALUE. */
+	static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+	private static final LogHistogram EMPTY =
+		new LogHistogram(new int[0], new long[0], 0L, 0L, 0L);
+
+	/**
+	 * Returns the bucket that the given value is counted in.
+	 */
+	static int bucketIndex(long value) {
+		if (value <= 0) {
+			return 0;
+		}
+		if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		if (shift <= 0) {
+			return (int) value;
+		}
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the lowest value counted in the given bucket.
+	 */
+	static long lowestValue(int index) {
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		if (shift <= 0) {
+			return index;
+		}
+		return ((long) (index - (shift << SUB_BUCKET_BITS))) << shift;
+	}
+
+	/**
+	 * Returns the highest value counted in the given bucket.
+	 */
+	static long highestValue(int index) {
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		if (shift <= 0) {
+			return index;
+		}
+		return lowestValue(index) + (1L << shift) - 1;
+	}
+
+	/**
+	 * Returns a histogram of the given values.
+	 */
+	public static LogHistogram of(long[] values) {
+		if (values == null || values.length == 0) {
+			return EMPTY;
+		}
+
+		int[] indexes = new int[values.length];
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < values.length; i++) {
+			long value = clamp(values[i]);
+			indexes[i] = bucketIndex(value);
+			if (value < min) {
+				min = value;
+			}
+			if (value > max) {
+				max = value;
+			}
+		}
+		Arrays.sort(indexes);
+
+		int size = 0;
+		long[] counts = new long[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			if (size > 0 && indexes[size - 1] == indexes[i]) {
+				counts[size - 1]++;
+			} else {
+				indexes[size] = indexes[i];
+				counts[size++] = 1;
+			}
+		}
+
+		return new LogHistogram(trim(indexes, size), trim(counts, size),
+								values.length, min, max);
+	}
+
+	/**
+	 * Returns a histogram of all the values counted by the given
+	 * histograms. Null histograms are ignored.
+	 */
+	public static LogHistogram merge(LogHistogram[] histograms) {
+		long[] counts = null;
+		long total = 0;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+
+		if (histograms != null) {
+			for (LogHistogram histogram : histograms) {
+				if (histogram == null || histogram.mTotalCount == 0) {
+					continue;
+				}
+				if (counts == null) {
+					counts = new long[BUCKET_COUNT];
+				}
+				int[] indexes = histogram.mIndexes;
+				for (int i = 0; i < indexes.length; i++) {
+					counts[indexes[i]] += histogram.mCounts[i];
+				}
+				total += histogram.mTotalCount;
+				if (histogram.mMin < min) {
+					min = histogram.mMin;
+				}
+				if (histogram.mMax > max) {
+					max = histogram.mMax;
+				}
+			}
+		}
+
+		if (counts == null) {
+			return EMPTY;
+		}
+		return fromCounts(counts, total, min, max);
+	}
+
+	/**
+	 * Creates a histogram from counts indexed by bucket.
+	 */
+	static LogHistogram fromCounts(long[] counts, long total,
+								   long min, long max) {
+		int size = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				size++;
+			}
+		}
+		if (size == 0) {
+			return EMPTY;
+		}
+
+		int[] indexes = new int[size];
+		long[] bucketCounts = new long[size];
+		int j = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				indexes[j] = i;
+				bucketCounts[j++] = counts[i];
+			}
+		}
+
+		if (min > max) {
+			// Values were counted before the min and max were updated, so
+			// use the bounds of the buckets instead.
+			min = lowestValue(indexes[0]);
+			max = highestValue(indexes[size - 1]);
+		}
+
+		return new LogHistogram(indexes, bucketCounts, total, min, max);
+	}
+
+	static long clamp(long value) {
+		return value < 0 ? 0 : (value > MAX_VALUE ? MAX_VALUE : value);
+	}
+
+	private static int[] trim(int[] array, int size) {
+		if (array.length == size) {
+			return array;
+		}
+		int[] result = new int[size];
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+
+	private static long[] trim(long[] array, int size) {
+		if (array.length == size) {
+			return array;
+		}
+		long[] result = new long[size];
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+
+	// Sorted indexes of buckets holding values, and their counts.
+	private final int[] mIndexes;
+	private final long[] mCounts;
+
+	private final long mTotalCount;
+	private final long mMin;
+	private final long mMax;
+
+	private LogHistogram(int[] indexes, long[] counts, long totalCount,
+						 long min, long max) {
+		mIndexes = indexes;
+		mCounts = counts;
+		mTotalCount = totalCount;
+		mMin = min;
+		mMax = max;
+	}
+
+	/**
+	 * Returns a histogram of the values counted by this histogram and the
+	 * given one.
+	 */
+	public LogHistogram merge(LogHistogram other) {
+		return merge(new LogHistogram[] { this, other });
+	}
+
+	/**
+	 * Returns the number of values counted.
+	 *
+	 * @return the total count.
+	 */
+	public long getCount() {
+		return mTotalCount;
+	}
+
+	/**
+	 * Returns the smallest value counted, or -1 if none.
+	 *
+	 * @return the min value.
+	 */
+	public long getMin() {
+		return mTotalCount == 0 ? -1 : mMin;
+	}
+
+	/**
+	 * Returns the largest value counted, or -1 if none.
+	 *
+	 * @return the max value.
+	 */
+	public long getMax() {
+		return mTotalCount == 0 ? -1 : mMax;
+	}
+
+	/**
+	 * Returns the approximate mean of the values counted, or -1 if none.
+	 *
+	 * @return the mean value.
+	 */
+	public double getMean() {
+		if (mTotalCount == 0) {
+			return -1.0d;
+		}
+		double sum = 0.0d;
+		for (int i = 0; i < mIndexes.length; i++) {
+			int index = mIndexes[i];
+			double mid = (lowestValue(index) + highestValue(index)) / 2.0d;
+			sum += mid * mCounts[i];
+		}
+		return sum / mTotalCount;
+	}
+
+	/**
+	 * Returns the value that the given percentage of counted values are
+	 * less than or equal to, or -1 if no values were counted. The highest
+	 * value of the bucket holding the percentile is returned, so the
+	 * percentile is never under-reported.
+	 *
+	 * @param percentile the percentile, from 0 to 100.
+	 * @return the value at the percentile.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (mTotalCount == 0) {
+			return -1;
+		}
+		if (percentile <= 0.0d) {
+			return mMin;
+		}
+		if (percentile >= 100.0d) {
+			return mMax;
+		}
+
+		long rank = (long) Math.ceil((percentile / 100.0d) * mTotalCount);
+		if (rank < 1) {
+			rank = 1;
+		}
+
+		long seen = 0;
+		for (int i = 0; i < mIndexes.length; i++) {
+			seen += mCounts[i];
+			if (seen >= rank) {
+				long value = highestValue(mIndexes[i]);
+				if (value > mMax) {
+					value = mMax;
+				}
+				if (value < mMin) {
+					value = mMin;
+				}
+				return value;
+			}
+		}
+		return mMax;
+	}
+
+	/**
+	 * Returns the 50th percentile.
+	 */
+	public long getMedian() {
+		return getValueAtPercentile(50.0d);
+	}
+
+	/**
+	 * Returns the 90th percentile.
+	 */
+	public long getPercentile90() {
+		return getValueAtPercentile(90.0d);
+	}
+
+	/**
+	 * Returns the 99th percentile.
+	 */
+	public long getPercentile99() {
+		return getValueAtPercentile(99.0d);
+	}
+
+	/**
+	 * Returns the 99.9th percentile.
+	 */
+	public long getPercentile999() {
+		return getValueAtPercentile(99.9d);
+	}
+
+	/**
+	 * Returns the lowest value of each bucket holding values, in order.
+	 * Together with {@link #getBucketCounts} this gives the distribution
+	 * of the values.
+	 */
+	public long[] getBucketValues() {
+		long[] values = new long[mIndexes.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = lowestValue(mIndexes[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the number of values in each bucket returned by
+	 * {@link #getBucketValues}.
+	 */
+	public long[] getBucketCounts() {
+		return mCounts.clone();
+	}
+
+	public String toString() {
+		return "LogHistogram[count=" + mTotalCount +
+			", min=" + getMin() + ", median=" + getMedian() +
+			", p99=" + getPercentile99() + ", max=" + getMax() + ']';
+	}
+}
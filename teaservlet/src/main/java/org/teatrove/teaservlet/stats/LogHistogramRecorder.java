@@ -0,0 +1,112 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.teaservlet.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts values into the logarithmic buckets of a {@link LogHistogram}
+ * from many threads at once, without locking. Buckets are allocated in
+ * groups the first time a value falls into them, so memory use is bounded
+ * by the range of values recorded rather than by the number of values.
+ */
+public class LogHistogramRecorder {
+
+	private static final int GROUP_COUNT =
+		(LogHistogram.BUCKET_COUNT + LogHistogram.SUB_BUCKET_COUNT - 1) /
+		LogHistogram.SUB_BUCKET_COUNT;
+
+	private final AtomicReferenceArray<AtomicLongArray> mGroups;
+	private final AtomicLong mMin;
+	private final AtomicLong mMax;
+
+	public LogHistogramRecorder() {
+		mGroups = new AtomicReferenceArray<AtomicLongArray>(GROUP_COUNT);
+		mMin = new AtomicLong(Long.MAX_VALUE);
+		mMax = new AtomicLong(Long.MIN_VALUE);
+	}
+
+	/**
+	 * Counts a value. Negative values are counted as zero and values larger
+	 * than {@link LogHistogram#MAX_VALUE} are counted as the max value.
+	 */
+	public void record(long value) {
+		value = LogHistogram.clamp(value);
+		int index = LogHistogram.bucketIndex(value);
+		int group = index >>> LogHistogram.SUB_BUCKET_BITS;
+
+		AtomicLongArray counts = mGroups.get(group);
+		if (counts == null) {
+			counts = new AtomicLongArray(LogHistogram.SUB_BUCKET_COUNT);
+			if (!mGroups.compareAndSet(group, null, counts)) {
+				counts = mGroups.get(group);
+			}
+		}
+		counts.incrementAndGet(index & (LogHistogram.SUB_BUCKET_COUNT - 1));
+
+		// The min and max rarely change once values have been recorded, so
+		// these are usually just reads.
+		long current;
+		while (value < (current = mMin.get())) {
+			if (mMin.compareAndSet(current, value)) {
+				break;
+			}
+		}
+		while (value > (current = mMax.get())) {
+			if (mMax.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns a histogram of the values recorded so far. Values that are
+	 * recorded while the histogram is created may or may not be included.
+	 */
+	public LogHistogram getHistogram() {
+		long[] counts = new long[LogHistogram.BUCKET_COUNT];
+		long total = 0;
+		for (int group = 0; group < GROUP_COUNT; group++) {
+			AtomicLongArray groupCounts = mGroups.get(group);
+			if (groupCounts == null) {
+				continue;
+			}
+			int base = group << LogHistogram.SUB_BUCKET_BITS;
+			for (int i = 0; i < LogHistogram.SUB_BUCKET_COUNT; i++) {
+				if (base + i < counts.length) {
+					long count = groupCounts.get(i);
+					counts[base + i] = count;
+					total += count;
+				}
+			}
+		}
+		return LogHistogram.fromCounts(counts, total, mMin.get(), mMax.get());
+	}
+
+	/**
+	 * Discards all recorded values.
+	 */
+	public void reset() {
+		for (int group = 0; group < GROUP_COUNT; group++) {
+			mGroups.set(group, null);
+		}
+		mMin.set(Long.MAX_VALUE);
+		mMax.set(Long.MIN_VALUE);
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.teaservlet.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long value that is updated by many threads at once. Updates are spread
+ * over several stripes, selected by thread, so that concurrent updates
+ * rarely touch the same memory. The stripes are combined when the value is
+ * read, so reads are more expensive than updates.
+ */
+class StripedLong {
+    // Number of longs between stripes, to keep each stripe on its own
+    // cache line.
+    private static final int PADDING = 8;
+
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        int target = Runtime.getRuntime().availableProcessors() * 2;
+        while (stripes < target && stripes < 64) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray mStripes;
+
+    StripedLong() {
+        mStripes = new AtomicLongArray(STRIPES * PADDING);
+    }
+
+    /**
+     * Adds to the value.
+     */
+    public void add(long amount) {
+        mStripes.getAndAdd(stripe(), amount);
+    }
+
+    /**
+     * Updates the maximum value, which is read with {@link #max}.
+     */
+    public void updateMax(long value) {
+        int index = stripe();
+        long current;
+        while (value > (current = mStripes.get(index))) {
+            if (mStripes.compareAndSet(index, current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of all stripes.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += mStripes.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the largest value of all stripes.
+     */
+    public long max() {
+        long max = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            long value = mStripes.get(i * PADDING);
+            if (value > max) {
+                max = value;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Sets all stripes to zero.
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes.set(i * PADDING, 0L);
+        }
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return ((int) (id ^ (id >>> 32)) & (STRIPES - 1)) * PADDING;
+    }
+}
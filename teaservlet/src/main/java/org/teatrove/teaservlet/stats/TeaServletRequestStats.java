@@ -18,6 +18,7 @@ package org.teatrove.teaservlet.stats;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.Collection;
 
 import org.teatrove.trove.util.PropertyMap;
@@ -37,7 +38,7 @@ public class TeaServletRequestStats {
 	public static final int DEFAULT_AGGREGATE_WINDOW_SIZE = 50;
 
     private static TeaServletRequestStats mInstance = null;
-    private Map<String, TemplateStats> mStatsMap = new ConcurrentHashMap<String, TemplateStats>(100);
+    private volatile ConcurrentMap<String, TemplateStats> mStatsMap = new ConcurrentHashMap<String, TemplateStats>(100);
 
     private int mRawWindowSize = DEFAULT_RAW_WINDOW_SIZE;
     private int mAggregateWindowSize = DEFAULT_AGGREGATE_WINDOW_SIZE;
@@ -47,7 +48,7 @@ public class TeaServletRequestStats {
      * 
      * @return the tea servlet request stats.
      */
-    public static TeaServletRequestStats getInstance() {
+    public static synchronized TeaServletRequestStats getInstance() {
         if (mInstance == null)
             mInstance = new TeaServletRequestStats();
         return mInstance;
@@ -77,10 +78,14 @@ public class TeaServletRequestStats {
      * @return the template stats
      */
     public TemplateStats getStats(String fullTemplateName) {
-        TemplateStats stats = (TemplateStats) mStatsMap.get(fullTemplateName);
+        ConcurrentMap<String, TemplateStats> statsMap = mStatsMap;
+        TemplateStats stats = statsMap.get(fullTemplateName);
         if (stats == null) {
             stats = new TemplateStats(fullTemplateName, mRawWindowSize, mAggregateWindowSize);
-            mStatsMap.put(fullTemplateName, stats);
+            TemplateStats existing = statsMap.putIfAbsent(fullTemplateName, stats);
+            if (existing != null) {
+                stats = existing;
+            }
         }
         return stats;
     }
@@ -113,12 +118,7 @@ public class TeaServletRequestStats {
      */
     public void log(String fullTemplateName, long startTime, long stopTime, long contentLength, Object[] params) {
     	//System.out.println(fullTemplateName + ", " + (stopTime-startTime) + ", " + contentLength);
-        TemplateStats stats = (TemplateStats) mStatsMap.get(fullTemplateName);
-        if (stats == null) {
-            stats = new TemplateStats(fullTemplateName, mRawWindowSize, mAggregateWindowSize);
-            mStatsMap.put(fullTemplateName, stats);
-        }
-        stats.log(startTime, stopTime, contentLength, params);
+        getStats(fullTemplateName).log(startTime, stopTime, contentLength, params);
     }
 
     /**
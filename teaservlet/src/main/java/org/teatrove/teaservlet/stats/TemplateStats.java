@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class keeps track of time series performance data for templates.
@@ -42,6 +43,17 @@ import java.util.concurrent.atomic.AtomicLong;
  * In both cases for raw data and the aggregate intervals when the window
  * size is reached the newest data overwrites the oldest data.
  * 
+ * Logging a request does not lock. Counters are striped across threads and
+ * combined when read, and each request claims its own slot in the raw data
+ * queue. Only the request that fills the last slot of the queue locks, in
+ * order to compute the next aggregate interval.
+ * 
+ * For that reason the counters and raw data are no longer kept in the
+ * protected fields mServicedCount, mCumulativeServiceTime,
+ * mPeakServiceDuration, mRawData and mCurrentRawIndex. Subclasses that used
+ * those fields must read the values through getServicedCount,
+ * getCumulativeServiceTime, getPeakServiceDuration and getRawData instead.
+ * 
  * @author Scott Jappinen
  */
 public class TemplateStats {
@@ -52,15 +64,17 @@ public class TemplateStats {
 	
     private AtomicLong mServicing = new AtomicLong(0L);
 	
-	protected long mPeakServiceDuration = 0L;
-	protected long mCumulativeServiceTime = 0L;
-	protected long mServicedCount = 0L;
+	private final StripedLong mPeakServiceDuration = new StripedLong();
+	private final StripedLong mCumulativeServiceTime = new StripedLong();
+	private final StripedLong mServicedCount = new StripedLong();
+	
+	private final LogHistogramRecorder mDurations = new LogHistogramRecorder();
+	private final LogHistogramRecorder mContentLengths = new LogHistogramRecorder();
 	
 	protected int mRawWindowSize = 0;
 	protected int mAggregateWindowSize = 0;
 	
-	protected int mCurrentRawIndex = 0;
-	protected RawData[] mRawData;
+	private volatile RawWindow mRawWindow;
 	
 	protected int mCurrentAggregateIndex = 0;
 	protected AggregateInterval[] mAggregateIntervals = null;
@@ -82,9 +96,7 @@ public class TemplateStats {
 			this.templatePath = "";
 		}
 		this.mRawWindowSize = rawWindowSize;
-		mRawData = new RawData[rawWindowSize];
-		for (int i=0; i < mRawData.length; i++) 
-			mRawData[i] = new RawData();
+		mRawWindow = new RawWindow(rawWindowSize);
 		
 		this.mAggregateWindowSize = aggregateWindowSize;
 		mAggregateIntervals = new AggregateInterval[aggregateWindowSize];
@@ -101,32 +113,53 @@ public class TemplateStats {
 	 * @param contentLength
 	 * @param params
 	 */
-	public synchronized void log(long startTime, long stopTime, long contentLength, Object[] params) {
+	public void log(long startTime, long stopTime, long contentLength, Object[] params) {
 		long elapsedTime = (stopTime - startTime);
-		mRawData[mCurrentRawIndex].set(startTime, stopTime, contentLength);
-		mCumulativeServiceTime += elapsedTime;
-        if (elapsedTime > mPeakServiceDuration) {
-        	mPeakServiceDuration = elapsedTime;
-        }
-        mServicedCount++;
-		if (mCurrentRawIndex == mRawWindowSize - 1) {
-			long aggregateStartTime = -1;
-			if (mCurrentAggregateIndex == 0) {
-				if (mAggregateIntervals[mAggregateIntervals.length - 1].getStartTime() != -1) {
-					aggregateStartTime = mAggregateIntervals[mAggregateIntervals.length - 1].getEndTime() + 1;
-				}
-			} else {
-				aggregateStartTime = mAggregateIntervals[mCurrentAggregateIndex - 1].getEndTime() + 1;
-			}
-			mAggregateIntervals[mCurrentAggregateIndex].compute(mRawData, aggregateStartTime, -1);
-			if (mCurrentAggregateIndex == mAggregateWindowSize - 1) {
-				mCurrentAggregateIndex = 0;
-			} else {
-				mCurrentAggregateIndex++;
+		mCumulativeServiceTime.add(elapsedTime);
+		mPeakServiceDuration.updateMax(elapsedTime);
+		mServicedCount.add(1L);
+		mDurations.record(elapsedTime);
+		mContentLengths.record(contentLength);
+		
+		RawData data = new RawData();
+		data.set(startTime, stopTime, contentLength);
+		
+		RawWindow window = mRawWindow;
+		int index = window.add(data);
+		if (index == window.size() - 1) {
+			aggregate(window);
+		}
+	}
+	
+	/**
+	 * Computes the next aggregate interval from a full raw data queue.
+	 * Requests that claimed a slot in the queue but have not stored their
+	 * data yet may be left out of the interval.
+	 */
+	private synchronized void aggregate(RawWindow window) {
+		if (window != mRawWindow) {
+			// Reset since the request was logged.
+			return;
+		}
+		
+		RawData[] rawData = window.snapshot(0, window.size());
+		if (rawData == null) {
+			return;
+		}
+		
+		long aggregateStartTime = -1;
+		if (mCurrentAggregateIndex == 0) {
+			if (mAggregateIntervals[mAggregateIntervals.length - 1].getStartTime() != -1) {
+				aggregateStartTime = mAggregateIntervals[mAggregateIntervals.length - 1].getEndTime() + 1;
 			}
-			mCurrentRawIndex = 0;
 		} else {
-			mCurrentRawIndex++;
+			aggregateStartTime = mAggregateIntervals[mCurrentAggregateIndex - 1].getEndTime() + 1;
+		}
+		mAggregateIntervals[mCurrentAggregateIndex].compute(rawData, aggregateStartTime, -1);
+		if (mCurrentAggregateIndex == mAggregateWindowSize - 1) {
+			mCurrentAggregateIndex = 0;
+		} else {
+			mCurrentAggregateIndex++;
 		}
 	}
 	
@@ -166,7 +199,7 @@ public class TemplateStats {
 	 * @return the service count.
 	 */
     public long getServicedCount() { 
-    	return mServicedCount;
+    	return mServicedCount.sum();
     }
 
     /**
@@ -176,7 +209,7 @@ public class TemplateStats {
      * @return the cumulative service time.
      */
     public long getCumulativeServiceTime() {
-    	return mCumulativeServiceTime; 
+    	return mCumulativeServiceTime.sum(); 
     }
     
     //public long getRecordedDuration() {
@@ -194,8 +227,10 @@ public class TemplateStats {
      * @return the average service duration.
      */
     public double getAverageServiceDuration() { 
-        return mServicedCount == 0L ? (double) mCumulativeServiceTime : 
-            (mCumulativeServiceTime / (mServicedCount * 1.0d));
+        long servicedCount = mServicedCount.sum();
+        long cumulativeServiceTime = mCumulativeServiceTime.sum();
+        return servicedCount == 0L ? (double) cumulativeServiceTime : 
+            (cumulativeServiceTime / (servicedCount * 1.0d));
     }
 
     /**
@@ -204,7 +239,7 @@ public class TemplateStats {
      * @return the peak service duration as a double.
      */
     public double getPeakServiceDurationAsDouble() {
-    	return mPeakServiceDuration * 1.0d;
+    	return mPeakServiceDuration.max() * 1.0d;
     }
 
     /**
@@ -213,7 +248,28 @@ public class TemplateStats {
      * @return the peak service duration
      */
     public long getPeakServiceDuration() {
-    	return mPeakServiceDuration;
+    	return mPeakServiceDuration.max();
+    }
+
+    /**
+     * Returns a histogram of the durations of all requests since system
+     * start or reset. Use it for percentiles, such as the 99th percentile
+     * duration, that must take every request into account.
+     * 
+     * @return the duration histogram.
+     */
+    public LogHistogram getDurationHistogram() {
+    	return mDurations.getHistogram();
+    }
+
+    /**
+     * Returns a histogram of the content lengths of all requests since
+     * system start or reset.
+     * 
+     * @return the content length histogram.
+     */
+    public LogHistogram getContentLengthHistogram() {
+    	return mContentLengths.getHistogram();
     }
 
     /**
@@ -243,37 +299,20 @@ public class TemplateStats {
 	 * 
 	 * @return the raw data
 	 */
-	public synchronized RawData[] getRawData() {
-		//return rawData;
-		RawData[] result = null;
-		// put things back in order
-		//System.out.println("current raw index: " + mCurrentRawIndex + ", " + mRawData);
-		if (mCurrentRawIndex == 0) {
-			if (mRawData[0].startTime == -1) { // case 1 - empty
-				result = null;
-			} else { // case 2 full
-				result = mRawData.clone();
-			}
-		} else if (mCurrentRawIndex > 0) {
-			// case 2 - not empty - not full
-			if (mRawData[mCurrentRawIndex].startTime == -1) {
-				result = new RawData[mCurrentRawIndex];
-				for (int i=0; i < result.length; i++) {
-					result[i] = mRawData[i].clone();
-				}
-			} else { // case 3 - full & wrapping
-				result = new RawData[mRawData.length];
-				int j=0;
-				for (int i=mCurrentRawIndex; i < mRawData.length; i++) {
-					result[j++] = mRawData[i].clone();
-				}
-				
-				for (int i=0; i < mCurrentRawIndex; i++) {
-					result[j++] = mRawData[i].clone();
-				}
-			}
+	public RawData[] getRawData() {
+		RawWindow window = mRawWindow;
+		long sequence = window.sequence();
+		if (sequence <= 0) { // empty
+			return null;
 		}
-		return result;
+		
+		int size = window.size();
+		if (sequence < size) { // not full
+			return window.snapshot(0, (int) sequence);
+		}
+		
+		// full & wrapping, so put things back in order
+		return window.snapshot((int) (sequence % size), size);
 	}
 	
 	/**
@@ -633,9 +672,7 @@ public class TemplateStats {
     }
     
     public synchronized void reset() {
-		mRawData = new RawData[mRawWindowSize];
-		for (int i=0; i < mRawData.length; i++) 
-			mRawData[i] = new RawData();
+		mRawWindow = new RawWindow(mRawWindowSize);
 		
 		mAggregateIntervals = new AggregateInterval[mAggregateWindowSize];
 		for (int i=0; i < mAggregateIntervals.length; i++) 
@@ -643,11 +680,63 @@ public class TemplateStats {
 		
 		mMilestones = new ArrayList<Milestone>();
 		
-		mPeakServiceDuration = 0L;
-		mCumulativeServiceTime = 0L;
-		mServicedCount = 0L;
+		mPeakServiceDuration.reset();
+		mCumulativeServiceTime.reset();
+		mServicedCount.reset();
+		mDurations.reset();
+		mContentLengths.reset();
 		
-		mCurrentRawIndex = 0;
 		mCurrentAggregateIndex = 0;
     }
+    
+    /**
+     * Circular queue of raw data. Each logged request claims the next slot
+     * by incrementing a sequence, so requests never wait on each other.
+     */
+    private static class RawWindow {
+    	private final AtomicReferenceArray<RawData> mData;
+    	private final AtomicLong mSequence = new AtomicLong(0L);
+    	
+    	RawWindow(int size) {
+    		mData = new AtomicReferenceArray<RawData>(size);
+    	}
+    	
+    	int size() {
+    		return mData.length();
+    	}
+    	
+    	/**
+    	 * Returns the number of slots claimed so far.
+    	 */
+    	long sequence() {
+    		return mSequence.get();
+    	}
+    	
+    	/**
+    	 * Stores the data in the next slot and returns its index.
+    	 */
+    	int add(RawData data) {
+    		int index = (int) (mSequence.getAndIncrement() % mData.length());
+    		mData.set(index, data);
+    		return index;
+    	}
+    	
+    	/**
+    	 * Returns copies of the data in the given number of slots, starting
+    	 * at the given index and wrapping around. Slots that have been
+    	 * claimed but not yet stored are skipped.
+    	 */
+    	RawData[] snapshot(int start, int count) {
+    		int size = mData.length();
+    		List<RawData> result = new ArrayList<RawData>(count);
+    		for (int i=0; i < count; i++) {
+    			RawData data = mData.get((start + i) % size);
+    			if (data != null) {
+    				result.add(data.clone());
+    			}
+    		}
+    		return result.isEmpty() ? null : 
+    			result.toArray(new RawData[result.size()]);
+    	}
+    }
 }
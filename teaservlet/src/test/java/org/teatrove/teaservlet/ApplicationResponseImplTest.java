@@ -0,0 +1,424 @@
+package org.teatrove.teaservlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.trove.io.ByteData;
+import org.teatrove.trove.io.DefaultByteBuffer;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.Deflater;
+import org.teatrove.trove.util.PropertyMap;
+
+public class ApplicationResponseImplTest {
+
+    private TeaServletEngineImpl engine;
+    private MockHttpServletResponse servletResponse;
+
+    @Before
+    public void init() {
+        servletResponse = new MockHttpServletResponse();
+    }
+
+    @Test
+    public void testCompressedResponse() throws Exception {
+        createEngine(true);
+        ApplicationResponseImpl response = createResponse(true);
+        String text = createText(20000);
+        response.getResponseBuffer().append(text);
+        response.finish();
+
+        assertEquals("gzip", servletResponse.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", servletResponse.getHeader("Vary"));
+        assertEquals(servletResponse.getBytes().length,
+                     servletResponse.getContentLength());
+        assertTrue(servletResponse.getBytes().length < text.length() / 2);
+        assertEquals(text, gunzip(servletResponse.getBytes()));
+    }
+
+    @Test
+    public void testNotAccepted() throws Exception {
+        createEngine(true);
+        ApplicationResponseImpl response = createResponse(false);
+        String text = createText(20000);
+        response.getResponseBuffer().append(text);
+        response.finish();
+
+        assertNull(servletResponse.getHeader("Content-Encoding"));
+        assertEquals(text, new String(servletResponse.getBytes(), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testSplicedSegments() throws Exception {
+        // Compressing the whole response splices pre-compressed segments
+        // in between the deflated output.
+        createEngine(true);
+        assertEquals(expectedSegments(), gunzip(finishSegments()));
+        assertEquals("gzip", servletResponse.getHeader("Content-Encoding"));
+        assertEquals(servletResponse.getBytes().length,
+                     servletResponse.getContentLength());
+    }
+
+    @Test
+    public void testJoinedSegments() throws Exception {
+        // Without compressing the whole response, pre-compressed segments
+        // are joined with stored blocks of the uncompressed output.
+        createEngine(false);
+        assertEquals(expectedSegments(), gunzip(finishSegments()));
+        assertEquals("gzip", servletResponse.getHeader("Content-Encoding"));
+        assertEquals(servletResponse.getBytes().length,
+                     servletResponse.getContentLength());
+    }
+
+    @Test
+    public void testCombineCRC() throws Exception {
+        byte[] data = createText(10000).getBytes("ISO-8859-1");
+        int[] splits = { 0, 1, 100, 4096, 9999, 10000 };
+        for (int i = 0; i < splits.length; i++) {
+            int split = splits[i];
+            int crc1 = crc(data, 0, split);
+            int crc2 = crc(data, split, data.length - split);
+            assertEquals(crc(data, 0, data.length),
+                         ApplicationResponseImpl.combineCRC
+                         (crc1, crc2, data.length - split));
+        }
+    }
+
+    @Test
+    public void testCompressByteData() throws Exception {
+        // Pre-compressed segments end on a byte boundary without a final
+        // block, so that they can be joined to other blocks.
+        byte[] data = createText(10000).getBytes("ISO-8859-1");
+        DefaultByteBuffer original = new DefaultByteBuffer();
+        original.append(data);
+        CRC32 crc = new CRC32();
+        ByteData compressed = DetachedResponseImpl.compressByteData
+            (original, Deflater.DEFAULT_COMPRESSION, crc);
+        assertEquals(crc(data, 0, data.length), (int) crc.getValue());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        compressed.writeTo(bytes);
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(bytes.toByteArray());
+        byte[] inflated = new byte[data.length + 1];
+        assertEquals(data.length, inflater.inflate(inflated));
+        assertFalse(inflater.finished());
+        assertArrayEquals(data, Arrays.copyOf(inflated, data.length));
+    }
+
+    @Test
+    public void testCompressedETag() throws Exception {
+        createEngine(true);
+        ApplicationResponseImpl response = createResponse(true);
+        response.setHeader("ETag", "\"abc\"");
+        assertTrue(response.willCompress(20000));
+        response.getResponseBuffer().append(createText(20000));
+        response.finish();
+        assertEquals("\"abc-gz\"", servletResponse.getHeader("ETag"));
+
+        response = createResponse(false);
+        response.setHeader("ETag", "\"abc\"");
+        assertFalse(response.willCompress(20000));
+        response.getResponseBuffer().append(createText(20000));
+        response.finish();
+        assertEquals("\"abc\"", servletResponse.getHeader("ETag"));
+
+        assertEquals("W/\"abc-gz\"",
+                     ApplicationResponseImpl.compressedETag("W/\"abc\""));
+        assertEquals("abc-gz", ApplicationResponseImpl.compressedETag("abc"));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        // A Not Modified response has no body, so it must not claim one
+        // with a content length.
+        createEngine(true);
+        ApplicationResponseImpl response = createResponse(true);
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        response.finish();
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED,
+                     servletResponse.getStatus());
+        assertEquals(-1, servletResponse.getContentLength());
+        assertEquals(0, servletResponse.getBytes().length);
+
+        // other empty responses still send their length
+        servletResponse.reset();
+        response = createResponse(true);
+        response.finish();
+        assertEquals(0, servletResponse.getContentLength());
+    }
+
+    @Test
+    public void testStreamingThreshold() throws Exception {
+        createEngine(false);
+        ApplicationResponseImpl response = createResponse(true, 4096);
+        byte[] text = createText(10000).getBytes("ISO-8859-1");
+
+        // output is held back until the threshold is reached
+        response.getResponseBuffer().append(text, 0, 3000);
+        assertEquals(0, servletResponse.getBytes().length);
+        assertFalse(response.isCommitted());
+
+        response.getResponseBuffer().append(text, 3000, 2000);
+        assertEquals(5000, servletResponse.getBytes().length);
+        assertTrue(response.isCommitted());
+        assertTrue(servletResponse.isCommitted());
+
+        response.getResponseBuffer().append(text, 5000, 5000);
+        response.finish();
+        assertArrayEquals(text, servletResponse.getBytes());
+        assertEquals(-1, servletResponse.getContentLength());
+        assertNull(servletResponse.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testStreamingSurrogate() throws Exception {
+        createEngine(false);
+        ApplicationResponseImpl response = createResponse(true, 4096);
+        String text = createText(6000);
+        DefaultByteBuffer surrogate = new DefaultByteBuffer();
+        surrogate.append(text.getBytes("ISO-8859-1"));
+
+        response.getResponseBuffer().append("before ");
+        response.getResponseBuffer().appendSurrogate(surrogate);
+        assertEquals(6007, servletResponse.getBytes().length);
+
+        response.getResponseBuffer().append(" after");
+        response.finish();
+        assertEquals("before " + text + " after",
+                     new String(servletResponse.getBytes(), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testStreamingErrorBeforeThreshold() throws Exception {
+        createEngine(false);
+        ApplicationResponseImpl response = createResponse(true, 4096);
+        response.getResponseBuffer().append(createText(1000));
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+        // nothing was streamed, so the error is sent as if fully buffered
+        assertTrue(response.isRedirectOrError());
+        assertEquals(HttpServletResponse.SC_NOT_FOUND,
+                     servletResponse.getStatus());
+        response.getResponseBuffer().append(createText(10000));
+        assertEquals(0, servletResponse.getBytes().length);
+    }
+
+    @Test
+    public void testStreamingErrorAfterThreshold() throws Exception {
+        createEngine(false);
+        ApplicationResponseImpl response = createResponse(true, 4096);
+        String text = createText(5000);
+        response.getResponseBuffer().append(text);
+
+        // once output has been streamed, errors and redirects are ignored
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        response.sendRedirect("/elsewhere");
+        assertFalse(response.isRedirectOrError());
+        assertEquals(HttpServletResponse.SC_OK, servletResponse.getStatus());
+        assertNull(servletResponse.getHeader("Location"));
+
+        response.finish();
+        assertEquals(text,
+                     new String(servletResponse.getBytes(), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testStreamingCaptureBuffer() throws Exception {
+        createEngine(false);
+        ApplicationResponseImpl response = createResponse(true, 4096);
+        byte[] text = createText(10000).getBytes("ISO-8859-1");
+
+        // captured output cannot be streamed, since streaming clears it
+        DefaultByteBuffer capture = new DefaultByteBuffer();
+        response.getResponseBuffer().addCaptureBuffer(capture);
+        response.getResponseBuffer().append(text, 0, 8000);
+        assertEquals(0, servletResponse.getBytes().length);
+        response.getResponseBuffer().removeCaptureBuffer(capture);
+        assertEquals(8000, capture.getByteCount());
+
+        response.getResponseBuffer().append(text, 8000, 2000);
+        assertEquals(10000, servletResponse.getBytes().length);
+        response.finish();
+        assertArrayEquals(text, servletResponse.getBytes());
+    }
+
+    @Test
+    public void testStreamingCompressed() throws Exception {
+        PropertyMap properties = new PropertyMap();
+        properties.put("response.streaming.compress", "true");
+        createEngine(properties);
+        ApplicationResponseImpl response = createResponse(true, 4096);
+        String text = createText(20000);
+
+        response.getResponseBuffer().append(text.substring(0, 5000));
+        response.flushBuffer();
+        assertEquals("gzip", servletResponse.getHeader("Content-Encoding"));
+
+        // each streamed part is flushed, so that the client can inflate the
+        // output received so far
+        byte[] partial = servletResponse.getBytes();
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(partial, 10, partial.length - 10);
+        byte[] inflated = new byte[5000];
+        assertEquals(5000, inflater.inflate(inflated));
+        assertEquals(text.substring(0, 5000),
+                     new String(inflated, "ISO-8859-1"));
+
+        response.getResponseBuffer().append(text.substring(5000));
+        response.finish();
+        assertEquals(-1, servletResponse.getContentLength());
+        assertEquals(text, gunzip(servletResponse.getBytes()));
+    }
+
+    @Test
+    public void testStreamingNotAccepted() throws Exception {
+        PropertyMap properties = new PropertyMap();
+        properties.put("response.streaming.compress", "true");
+        createEngine(properties);
+        ApplicationResponseImpl response = createResponse(false, 4096);
+        String text = createText(20000);
+        response.getResponseBuffer().append(text);
+        response.finish();
+
+        assertNull(servletResponse.getHeader("Content-Encoding"));
+        assertEquals(text,
+                     new String(servletResponse.getBytes(), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(ApplicationRequestImpl.acceptsGzip("gzip"));
+        assertTrue(ApplicationRequestImpl.acceptsGzip("gzip, deflate"));
+        assertTrue(ApplicationRequestImpl.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(ApplicationRequestImpl.acceptsGzip("x-gzip"));
+        assertTrue(ApplicationRequestImpl.acceptsGzip("gzip;q=bad"));
+        assertFalse(ApplicationRequestImpl.acceptsGzip(""));
+        assertFalse(ApplicationRequestImpl.acceptsGzip("deflate, br"));
+        assertFalse(ApplicationRequestImpl.acceptsGzip("gzip;q=0"));
+        assertFalse(ApplicationRequestImpl.acceptsGzip("gzip;q=0.0, br"));
+        assertFalse(ApplicationRequestImpl.acceptsGzip("gzipped"));
+    }
+
+    private byte[] finishSegments() throws Exception {
+        ApplicationResponseImpl response = createResponse(true);
+        response.getResponseBuffer().append(createText(3000));
+        appendCompressed(response, "pre-compressed " + createText(5000));
+        response.getResponseBuffer().append("between");
+        appendCompressed(response, "short");
+        response.getResponseBuffer().append(createText(2000));
+        response.finish();
+        return servletResponse.getBytes();
+    }
+
+    private String expectedSegments() {
+        return createText(3000) + "pre-compressed " + createText(5000) +
+            "between" + "short" + createText(2000);
+    }
+
+    private void appendCompressed(ApplicationResponseImpl response,
+                                  String text) throws IOException {
+        DefaultByteBuffer original = new DefaultByteBuffer();
+        original.append(text.getBytes("ISO-8859-1"));
+        CRC32 crc = new CRC32();
+        ByteData compressed = DetachedResponseImpl.compressByteData
+            (original, Deflater.DEFAULT_COMPRESSION, crc);
+        response.appendCompressed(compressed, original, (int) crc.getValue());
+    }
+
+    private void createEngine(boolean compress) {
+        PropertyMap properties = new PropertyMap();
+        properties.put("response.compress.enabled", String.valueOf(compress));
+        createEngine(properties);
+    }
+
+    // TeaServletEngineImpl.getPlugins returns a raw Map.
+    @SuppressWarnings("unchecked")
+    private void createEngine(PropertyMap properties) {
+        final Log log = new Log("test", null);
+        engine = new TeaServletEngineImpl() {
+            public Log getLog() {
+                return log;
+            }
+        };
+        engine.setResponseSettings(properties);
+    }
+
+    private ApplicationResponseImpl createResponse(boolean gzip)
+        throws IOException
+    {
+        return createResponse(gzip, 0);
+    }
+
+    private ApplicationResponseImpl createResponse(final boolean gzip,
+                                                   int streamThreshold)
+        throws IOException
+    {
+        ApplicationRequest request = (ApplicationRequest) Proxy.newProxyInstance
+            (ApplicationRequest.class.getClassLoader(),
+             new Class<?>[] { ApplicationRequest.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method method,
+                                      Object[] args) {
+                     if ("isCompressionAccepted".equals(method.getName())) {
+                         return Boolean.valueOf(gzip);
+                     }
+                     Class<?> type = method.getReturnType();
+                     return type == boolean.class ? Boolean.FALSE : null;
+                 }
+             });
+
+        ApplicationResponseImpl response = new ApplicationResponseImpl
+            (servletResponse, engine,
+             new DefaultByteBuffer(engine.getChunkPool()), streamThreshold,
+             engine.getChunkPool());
+        response.setRequestAndHttpContext(null, request);
+        response.setContentType("text/html");
+        return response;
+    }
+
+    private static int crc(byte[] data, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        return (int) crc.getValue();
+    }
+
+    private static String createText(int length) {
+        StringBuilder b = new StringBuilder(length);
+        for (int i = 0; b.length() < length; i++) {
+            b.append("<tr><td>").append(i).append("</td></tr>\n");
+        }
+        b.setLength(length);
+        return b.toString();
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int amt;
+        while ((amt = in.read(buf)) > 0) {
+            out.write(buf, 0, amt);
+        }
+        return out.toString("ISO-8859-1");
+    }
+}
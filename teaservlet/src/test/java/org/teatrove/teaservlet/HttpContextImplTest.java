@@ -0,0 +1,156 @@
+package org.teatrove.teaservlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.trove.log.Log;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpContextImplTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private String base;
+    private ConcurrentMap<String, AtomicInteger> requests;
+    private HttpContextImpl context;
+
+    @Before
+    public void init() throws IOException {
+        requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new Handler());
+        // Serve requests concurrently, as they are made.
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        context = new HttpContextImpl
+            (null, new Log("test", null), null, null, null, null, null);
+    }
+
+    @After
+    public void cleanup() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPrefetchHit() throws Exception {
+        context.prefetchURLs(new String[] { base + "/a", base + "/b" });
+        assertEquals("a", context.readURL(base + "/a"));
+        assertEquals("b", context.readURL(base + "/b"));
+        assertEquals(1, requestCount("/a"));
+        assertEquals(1, requestCount("/b"));
+
+        // A prefetch is only read once, after which the URL is read again.
+        assertEquals("a", context.readURL(base + "/a"));
+        assertEquals(2, requestCount("/a"));
+    }
+
+    @Test
+    public void testReadURLsOrder() throws Exception {
+        // The slower URLs finish last, but are returned in order.
+        String[] results = context.readURLs(new String[] {
+            base + "/delay/300/c", base + "/delay/100/d", null, base + "/e"
+        });
+        assertArrayEquals(new String[] { "c", "d", "", "e" }, results);
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+        String[] results = context.readURLs(new String[] {
+            base + "/missing", base + "/error", "http://127.0.0.1:1/",
+            "bad:\u0000url", base + "/f"
+        });
+        assertArrayEquals(new String[] { "", "", "", "", "f" }, results);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        context.setURLTimeout(200);
+        assertArrayEquals(new String[] { "" },
+            context.readURLs(new String[] { base + "/delay/1000/g" }));
+
+        // The timeout applies to each step, not to the whole request.
+        assertArrayEquals(new String[] { "hhhhhh" },
+            context.readURLs(new String[] { base + "/drip/h" }));
+    }
+
+    @Test
+    public void testNoTimeout() throws Exception {
+        // A timeout that isn't positive waits for the whole request.
+        context.setURLTimeout(-1);
+        assertArrayEquals(new String[] { "i" },
+            context.readURLs(new String[] { base + "/delay/300/i" }));
+    }
+
+    private int requestCount(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Responds with the last part of the path, after waiting for any
+     * given delay. "/drip/" paths send the response slowly, in parts.
+     */
+    private class Handler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            AtomicInteger count = new AtomicInteger();
+            AtomicInteger existing = requests.putIfAbsent(path, count);
+            (existing == null ? count : existing).incrementAndGet();
+
+            try {
+                if (path.equals("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                }
+                else if (path.equals("/error")) {
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                else if (path.startsWith("/drip/")) {
+                    exchange.sendResponseHeaders(200, 0);
+                    OutputStream out = exchange.getResponseBody();
+                    for (int i = 0; i < 6; i++) {
+                        out.write(path.charAt(path.length() - 1));
+                        out.flush();
+                        Thread.sleep(100);
+                    }
+                    out.close();
+                }
+                else {
+                    if (path.startsWith("/delay/")) {
+                        int end = path.indexOf('/', 7);
+                        Thread.sleep(Long.parseLong(path.substring(7, end)));
+                    }
+                    byte[] body = path.substring
+                        (path.lastIndexOf('/') + 1).getBytes("ISO-8859-1");
+                    exchange.sendResponseHeaders(200, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.teatrove.teaservlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+import org.teatrove.tea.engine.TemplateSource;
+import org.teatrove.tea.runtime.TemplateLoader;
+
+public class MissingTemplateCacheTest {
+
+    private TemplateLoader loader = new TemplateLoader();
+
+    @Test
+    public void testMissing() {
+        MissingTemplateCache cache =
+            new MissingTemplateCache(createSource(), 10);
+        assertFalse(cache.isMissing("a"));
+
+        cache.addMissing("a");
+        cache.addMissing("a");
+        assertTrue(cache.isMissing("a"));
+        assertFalse(cache.isMissing("b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testMaxSize() {
+        MissingTemplateCache cache =
+            new MissingTemplateCache(createSource(), 3);
+        cache.addMissing("a");
+        cache.addMissing("b");
+        cache.addMissing("c");
+        cache.addMissing("c");
+        assertEquals(3, cache.size());
+
+        // Starts over once full.
+        cache.addMissing("d");
+        assertEquals(1, cache.size());
+        assertTrue(cache.isMissing("d"));
+        assertFalse(cache.isMissing("a"));
+    }
+
+    @Test
+    public void testValidFor() {
+        TemplateSource source = createSource();
+        MissingTemplateCache cache = new MissingTemplateCache(source, 10);
+        assertTrue(cache.isValidFor(source));
+        assertFalse(cache.isValidFor(createSource()));
+
+        // Reloading the templates replaces the loader.
+        loader = new TemplateLoader();
+        assertFalse(cache.isValidFor(source));
+    }
+
+    private TemplateSource createSource() {
+        return (TemplateSource) Proxy.newProxyInstance
+            (TemplateSource.class.getClassLoader(),
+             new Class<?>[] { TemplateSource.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method method,
+                                      Object[] args) {
+                     if ("getTemplateLoader".equals(method.getName())) {
+                         return loader;
+                     }
+                     return null;
+                 }
+             });
+    }
+}
@@ -0,0 +1,216 @@
+package org.teatrove.teaservlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet response that keeps its output and headers, so that responses
+ * can be finished and checked without a servlet container.
+ */
+public class MockHttpServletResponse implements HttpServletResponse {
+    private final Map<String, String> mHeaders = new HashMap<String, String>();
+    private final CapturingOutputStream mOut = new CapturingOutputStream();
+
+    private String mContentType;
+    private String mCharacterEncoding = "ISO-8859-1";
+    private int mContentLength = -1;
+    private int mStatus = SC_OK;
+    private boolean mCommitted;
+    private Locale mLocale = Locale.getDefault();
+
+    /**
+     * Returns the bytes written since the last reset.
+     */
+    public byte[] getBytes() {
+        return mOut.toByteArray();
+    }
+
+    public String getHeader(String name) {
+        return mHeaders.get(name.toLowerCase());
+    }
+
+    public int getContentLength() {
+        return mContentLength;
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    // ServletResponse methods
+
+    public String getCharacterEncoding() {
+        return mCharacterEncoding;
+    }
+
+    public String getContentType() {
+        return mContentType;
+    }
+
+    public ServletOutputStream getOutputStream() {
+        return mOut;
+    }
+
+    public PrintWriter getWriter() throws IOException {
+        return new PrintWriter
+            (new OutputStreamWriter(mOut, mCharacterEncoding));
+    }
+
+    public void setCharacterEncoding(String charset) {
+        mCharacterEncoding = charset;
+    }
+
+    public void setContentLength(int len) {
+        mContentLength = len;
+    }
+
+    public void setContentType(String type) {
+        mContentType = type;
+    }
+
+    public void setBufferSize(int size) {
+    }
+
+    public int getBufferSize() {
+        return 0;
+    }
+
+    public void flushBuffer() {
+        mCommitted = true;
+    }
+
+    public void resetBuffer() {
+        mOut.reset();
+    }
+
+    public boolean isCommitted() {
+        return mCommitted;
+    }
+
+    public void reset() {
+        mHeaders.clear();
+        mOut.reset();
+        mContentType = null;
+        mContentLength = -1;
+        mStatus = SC_OK;
+        mCommitted = false;
+    }
+
+    public void setLocale(Locale locale) {
+        mLocale = locale;
+    }
+
+    public Locale getLocale() {
+        return mLocale;
+    }
+
+    // HttpServletResponse methods
+
+    public void addCookie(Cookie cookie) {
+    }
+
+    public boolean containsHeader(String name) {
+        return mHeaders.containsKey(name.toLowerCase());
+    }
+
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    /** @deprecated */
+    @Deprecated
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    /** @deprecated */
+    @Deprecated
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    public void sendError(int sc, String msg) {
+        mStatus = sc;
+        mCommitted = true;
+    }
+
+    public void sendError(int sc) {
+        sendError(sc, null);
+    }
+
+    public void sendRedirect(String location) {
+        mStatus = SC_FOUND;
+        setHeader("Location", location);
+        mCommitted = true;
+    }
+
+    public void setDateHeader(String name, long date) {
+        setHeader(name, String.valueOf(date));
+    }
+
+    public void addDateHeader(String name, long date) {
+        addHeader(name, String.valueOf(date));
+    }
+
+    public void setHeader(String name, String value) {
+        mHeaders.put(name.toLowerCase(), value);
+    }
+
+    public void addHeader(String name, String value) {
+        String key = name.toLowerCase();
+        String existing = mHeaders.get(key);
+        mHeaders.put(key, existing == null ? value : existing + ", " + value);
+    }
+
+    public void setIntHeader(String name, int value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    public void addIntHeader(String name, int value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    public void setStatus(int sc) {
+        mStatus = sc;
+    }
+
+    /** @deprecated */
+    @Deprecated
+    public void setStatus(int sc, String msg) {
+        mStatus = sc;
+    }
+
+    private static class CapturingOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream mBytes =
+            new ByteArrayOutputStream();
+
+        public void write(int b) {
+            mBytes.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) {
+            mBytes.write(b, off, len);
+        }
+
+        byte[] toByteArray() {
+            return mBytes.toByteArray();
+        }
+
+        void reset() {
+            mBytes.reset();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package org.teatrove.teaservlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.teatrove.tea.engine.Template;
+
+public class ParameterBindingTest {
+
+    private static final Class<?>[] SCALAR_TYPES = {
+        String.class, Boolean.class, Integer.class, Long.class, Float.class,
+        Double.class, Number.class, Object.class, Date.class, int.class
+    };
+
+    private static final String[] VALUES = {
+        "", "true", "false", "yes", "12", "-7", "99999999999",
+        "99999999999999999999", "1.5", "1e3", "NaN", "abc", " 12"
+    };
+
+    @Test
+    public void testScalars() {
+        for (int i = 0; i < VALUES.length; i++) {
+            Map<String, String[]> params = new HashMap<String, String[]>();
+            String[] names = new String[SCALAR_TYPES.length];
+            for (int j = 0; j < names.length; j++) {
+                names[j] = "p" + j;
+                params.put(names[j], new String[] { VALUES[i] });
+            }
+            assertBinding(createTemplate(names, SCALAR_TYPES), params);
+        }
+    }
+
+    @Test
+    public void testConversionFailures() {
+        String[] names = { "i", "l", "f", "d", "n", "o", "b" };
+        Class<?>[] types = {
+            Integer.class, Long.class, Float.class, Double.class,
+            Number.class, Object.class, Boolean.class
+        };
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("i", new String[] { "99999999999" });
+        params.put("l", new String[] { "1.5" });
+        params.put("f", new String[] { "abc" });
+        params.put("d", new String[] { "" });
+        params.put("n", new String[] { "abc" });
+        params.put("o", new String[] { "abc" });
+        params.put("b", new String[] { "" });
+
+        Object[] bound = bind(createTemplate(names, types), params);
+        assertArrayEquals
+            (new Object[] { null, null, null, null, null, "abc", null },
+             bound);
+        assertArrayEquals(bindAsBefore(createTemplate(names, types),
+                                       params, new TeaServlet()), bound);
+    }
+
+    @Test
+    public void testArrays() {
+        Class<?>[] types = new Class<?>[SCALAR_TYPES.length - 1];
+        String[] names = new String[types.length];
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        for (int i = 0; i < types.length; i++) {
+            types[i] = Array.newInstance(SCALAR_TYPES[i], 0).getClass();
+            names[i] = "p" + i;
+            params.put(names[i], VALUES);
+        }
+        assertBinding(createTemplate(names, types), params);
+
+        params.put("p0", new String[0]);
+        params.put("p2", new String[0]);
+        assertBinding(createTemplate(names, types), params);
+    }
+
+    @Test
+    public void testPrimitiveArray() {
+        // Elements of primitive arrays cannot be converted, and fail as
+        // they did when set reflectively.
+        Template template = createTemplate
+            (new String[] { "a" }, new Class<?>[] { int[].class });
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("a", new String[] { "1" });
+        try {
+            bind(template, params);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+        }
+        try {
+            bindAsBefore(template, params, new TeaServlet());
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+        }
+
+        params.put("a", new String[0]);
+        assertBinding(template, params);
+    }
+
+    @Test
+    public void testMissing() {
+        String[] names = { "s", null, "i", "a", "b" };
+        Class<?>[] types = {
+            String.class, Integer.class, Integer.class, String[].class,
+            Integer[].class
+        };
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        assertArrayEquals(new Object[5],
+                          bind(createTemplate(names, types), params));
+
+        // Parameters without a name are never bound.
+        params.put("null", new String[] { "1" });
+        assertBinding(createTemplate(names, types), params);
+    }
+
+    @Test
+    public void testNoParameters() {
+        Template template = createTemplate(new String[0], new Class<?>[0]);
+        assertEquals(0, bind(template, new HashMap<String, String[]>())
+                     .length);
+    }
+
+    @Test
+    public void testOverriddenConversion() {
+        TeaServlet servlet = new TeaServlet() {
+            private static final long serialVersionUID = 1L;
+
+            protected Object convertParameter(String value, Class<?> type) {
+                return type == Integer.class ?
+                    Integer.valueOf(value.length()) : null;
+            }
+        };
+        assertTrue(ParameterBinding.isConversionOverridden(servlet));
+        assertFalse(ParameterBinding.isConversionOverridden
+                    (new TeaServlet()));
+
+        String[] names = { "s", "i", "a", "d" };
+        Class<?>[] types = {
+            String.class, Integer.class, Integer[].class, Date.class
+        };
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put("s", new String[] { "abc" });
+        params.put("i", new String[] { "abc" });
+        params.put("a", new String[] { "a", "ab" });
+        params.put("d", new String[] { "abc" });
+
+        Template template = createTemplate(names, types);
+        Object[] bound = ParameterBinding.forTemplate(template, servlet)
+            .bind(createRequest(params));
+        assertArrayEquals(new Object[] {
+            "abc", Integer.valueOf(3),
+            new Integer[] { Integer.valueOf(1), Integer.valueOf(2) }, null
+        }, bound);
+        assertArrayEquals(bindAsBefore(template, params, servlet), bound);
+    }
+
+    @Test
+    public void testGetTemplate() {
+        Template template = createTemplate(new String[0], new Class<?>[0]);
+        assertSame(template,
+                   ParameterBinding.forTemplate(template, null).getTemplate());
+    }
+
+    /**
+     * Asserts that the standard binding converts parameters to the same
+     * values and array types as TeaServlet did before bindings were built.
+     */
+    private static void assertBinding(Template template,
+                                      Map<String, String[]> params) {
+        Object[] expected = bindAsBefore(template, params, new TeaServlet());
+        Object[] actual = bind(template, params);
+        assertArrayEquals(expected, actual);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] == null) {
+                assertNull(actual[i]);
+            }
+            else {
+                assertSame(expected[i].getClass(), actual[i].getClass());
+            }
+        }
+    }
+
+    private static Object[] bind(Template template,
+                                 Map<String, String[]> params) {
+        return ParameterBinding.forTemplate(template, null)
+            .bind(createRequest(params));
+    }
+
+    /**
+     * Fills in the template parameters the way TeaServlet did before
+     * bindings were built, converting each value with convertParameter.
+     */
+    private static Object[] bindAsBefore(Template template,
+                                         Map<String, String[]> params,
+                                         TeaServlet servlet) {
+        ApplicationRequest request = createRequest(params);
+        Class<?>[] paramTypes = template.getParameterTypes();
+        Object[] result = new Object[paramTypes.length];
+        String[] paramNames = template.getParameterNames();
+        for (int i=0; i<paramNames.length; i++) {
+            String paramName = paramNames[i];
+            if (paramName == null) {
+                continue;
+            }
+
+            Class<?> paramType = paramTypes[i];
+
+            if (!paramType.isArray()) {
+                String value = request.getParameter(paramName);
+                if (value == null || paramType == String.class) {
+                    result[i] = value;
+                }
+                else {
+                    result[i] = servlet.convertParameter(value, paramType);
+                }
+            }
+            else {
+                String[] values = request.getParameterValues(paramName);
+                if (values == null || paramType == String[].class) {
+                    result[i] = values;
+                }
+                else {
+                    paramType = paramType.getComponentType();
+                    Object converted =
+                        Array.newInstance(paramType, values.length);
+                    result[i] = converted;
+                    for (int j=0; j<values.length; j++) {
+                        Array.set(converted, j,
+                                  servlet.convertParameter(values[j],
+                                                           paramType));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Template createTemplate(final String[] names,
+                                           final Class<?>[] types) {
+        return (Template) Proxy.newProxyInstance
+            (Template.class.getClassLoader(),
+             new Class<?>[] { Template.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method method,
+                                      Object[] args) {
+                     String name = method.getName();
+                     if ("getParameterNames".equals(name)) {
+                         return names;
+                     }
+                     if ("getParameterTypes".equals(name)) {
+                         return types;
+                     }
+                     return null;
+                 }
+             });
+    }
+
+    private static ApplicationRequest createRequest
+        (final Map<String, String[]> params)
+    {
+        return (ApplicationRequest) Proxy.newProxyInstance
+            (ApplicationRequest.class.getClassLoader(),
+             new Class<?>[] { ApplicationRequest.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method method,
+                                      Object[] args) {
+                     String name = method.getName();
+                     if ("getParameterValues".equals(name)) {
+                         return params.get(args[0]);
+                     }
+                     if ("getParameter".equals(name)) {
+                         String[] values = params.get(args[0]);
+                         return values == null || values.length == 0 ?
+                             null : values[0];
+                     }
+                     Class<?> type = method.getReturnType();
+                     return type == boolean.class ? Boolean.FALSE : null;
+                 }
+             });
+    }
+}
@@ -0,0 +1,174 @@
+package org.teatrove.teaservlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.tea.engine.TemplateSource;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.PropertyMap;
+
+public class TeaServletEngineImplTest {
+
+    private File dir;
+    private TeaServletEngineImpl engine;
+
+    @Before
+    public void init() throws Exception {
+        dir = File.createTempFile("templates", "");
+        dir.delete();
+        dir.mkdirs();
+
+        writeTemplate("hello", "hello");
+        writeTemplate("dir.index", "dir index");
+    }
+
+    @After
+    public void cleanup() {
+        if (engine != null) {
+            engine.destroy();
+        }
+        delete(dir);
+    }
+
+    @Test
+    public void testFindTemplate() throws Exception {
+        startEngine(new PropertyMap());
+
+        assertEquals("hello", engine.findTemplate("/hello", null, null)
+                     .getName());
+        assertEquals("dir.index", engine.findTemplate("/dir/", null, null)
+                     .getName());
+
+        MissingTemplateCache missing =
+            engine.getMissingTemplates(engine.getTemplateSource());
+        assertEquals(0, missing.size());
+    }
+
+    @Test
+    public void testMissingTemplate() throws Exception {
+        startEngine(new PropertyMap());
+
+        assertNull(engine.findTemplate("/missing", null, null));
+
+        // Both the template and its default template are remembered.
+        TemplateSource source = engine.getTemplateSource();
+        MissingTemplateCache missing = engine.getMissingTemplates(source);
+        assertTrue(missing.isMissing("missing"));
+        assertTrue(missing.isMissing("missing.index"));
+        assertEquals(2, missing.size());
+
+        assertNull(engine.findTemplate("/missing", null, null));
+        assertSame(missing, engine.getMissingTemplates(source));
+        assertEquals(2, missing.size());
+    }
+
+    @Test
+    public void testMissingDefaultTemplate() throws Exception {
+        startEngine(new PropertyMap());
+
+        // Only the default template is looked up for a directory.
+        assertNull(engine.findTemplate("/nodir/", null, null));
+
+        MissingTemplateCache missing =
+            engine.getMissingTemplates(engine.getTemplateSource());
+        assertTrue(missing.isMissing("nodir.index"));
+        assertFalse(missing.isMissing("nodir"));
+        assertEquals(1, missing.size());
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception {
+        PropertyMap properties = new PropertyMap();
+        properties.put("template.missing.cacheSize", "0");
+        startEngine(properties);
+
+        assertNull(engine.findTemplate("/missing", null, null));
+        assertNull(engine.getMissingTemplates(engine.getTemplateSource()));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        startEngine(new PropertyMap());
+
+        assertNull(engine.findTemplate("/late", null, null));
+        TemplateSource source = engine.getTemplateSource();
+        MissingTemplateCache missing = engine.getMissingTemplates(source);
+        assertTrue(missing.isMissing("late"));
+
+        // Templates added since are found once reloaded.
+        writeTemplate("late", "late");
+        engine.reloadContextAndTemplates(true);
+
+        TemplateSource reloaded = engine.getTemplateSource();
+        assertNotSame(source, reloaded);
+        assertFalse(missing.isValidFor(reloaded));
+        assertNotNull(engine.findTemplate("/late", null, null));
+        assertFalse(engine.getMissingTemplates(reloaded).isMissing("late"));
+    }
+
+    private void startEngine(PropertyMap properties) throws Exception {
+        properties.put("template.path", "file:" + dir.getPath());
+        properties.put("template.default", "index");
+
+        ServletContext context = (ServletContext) Proxy.newProxyInstance
+            (ServletContext.class.getClassLoader(),
+             new Class<?>[] { ServletContext.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method method,
+                                      Object[] args) {
+                     if ("getAttribute".equals(method.getName())) {
+                         // The container's temporary directory.
+                         return dir;
+                     }
+                     return null;
+                 }
+             });
+
+        engine = new TeaServletEngineImpl();
+        engine.startEngine(properties, context, "test",
+                           new Log("test", null), null, null);
+    }
+
+    private void writeTemplate(String name, String text) throws IOException {
+        File file = new File(dir, name.replace('.', '/') + ".tea");
+        file.getParentFile().mkdirs();
+
+        String simpleName = name.substring(name.lastIndexOf('.') + 1);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(("<% template " + simpleName + "() %>" + text)
+                      .getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                delete(files[i]);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,194 @@
+package org.teatrove.teaservlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TeaServletTest {
+
+    private static final String ETAG = "\"abc\"";
+    private static final long LAST_MODIFIED = 1300000000000L;
+
+    @Test
+    public void testParseRange() {
+        assertRange(0, 100, "bytes=0-99", 1000);
+        assertRange(0, 1000, "bytes=0-", 1000);
+        assertRange(500, 1000, " bytes=500-1999 ", 1000);
+        assertRange(999, 1000, "bytes=999-999", 1000);
+        assertRange(10, 21, "bytes= 10 - 20", 1000);
+    }
+
+    @Test
+    public void testParseSuffixRange() {
+        assertRange(900, 1000, "bytes=-100", 1000);
+        assertRange(0, 1000, "bytes=-5000", 1000);
+        assertRange(999, 1000, "bytes=-1", 1000);
+
+        // an empty suffix selects nothing
+        assertNull(TeaServlet.parseRange("bytes=-0", 1000));
+    }
+
+    @Test
+    public void testParseUnsatisfiableRange() {
+        assertNull(TeaServlet.parseRange("bytes=1000-", 1000));
+        assertNull(TeaServlet.parseRange("bytes=5000-6000", 1000));
+        assertNull(TeaServlet.parseRange("bytes=-100", 0));
+    }
+
+    @Test
+    public void testParseMultipartRange() {
+        // only single ranges are served, so the whole asset is sent instead
+        assertIgnored("bytes=0-99,200-299");
+        assertIgnored("bytes=0-99, -100");
+    }
+
+    @Test
+    public void testParseMalformedRange() {
+        assertIgnored("");
+        assertIgnored("bytes");
+        assertIgnored("bytes=");
+        assertIgnored("bytes=-");
+        assertIgnored("bytes=100");
+        assertIgnored("bytes=abc-def");
+        assertIgnored("bytes=10-5");
+        assertIgnored("bytes=--5");
+        assertIgnored("bytes=+5-10");
+        assertIgnored("bytes=5-+10");
+        assertIgnored("bytes=5--10");
+        assertIgnored("bytes=99999999999999999999-");
+        assertIgnored("items=0-99");
+    }
+
+    @Test
+    public void testNotModifiedETag() {
+        assertTrue(TeaServlet.isNotModified
+                   (request("If-None-Match", ETAG), ETAG, LAST_MODIFIED));
+        assertTrue(TeaServlet.isNotModified
+                   (request("If-None-Match", "\"x\", W/\"abc\""),
+                    ETAG, LAST_MODIFIED));
+        assertTrue(TeaServlet.isNotModified
+                   (request("If-None-Match", "*"), ETAG, LAST_MODIFIED));
+        assertFalse(TeaServlet.isNotModified
+                    (request("If-None-Match", "\"abcd\""),
+                     ETAG, LAST_MODIFIED));
+        assertFalse(TeaServlet.isNotModified
+                    (request("If-None-Match", ""), ETAG, LAST_MODIFIED));
+
+        // If-None-Match takes precedence over If-Modified-Since
+        assertFalse(TeaServlet.isNotModified
+                    (request("If-None-Match", "\"x\"",
+                             "If-Modified-Since", date(LAST_MODIFIED)),
+                     ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testNotModifiedSince() {
+        assertTrue(TeaServlet.isNotModified
+                   (request("If-Modified-Since", date(LAST_MODIFIED)),
+                    ETAG, LAST_MODIFIED + 999));
+        assertTrue(TeaServlet.isNotModified
+                   (request("If-Modified-Since", date(LAST_MODIFIED + 5000)),
+                    ETAG, LAST_MODIFIED));
+        assertFalse(TeaServlet.isNotModified
+                    (request("If-Modified-Since", date(LAST_MODIFIED)),
+                     ETAG, LAST_MODIFIED + 1000));
+        assertFalse(TeaServlet.isNotModified
+                    (request("If-Modified-Since", "not a date"),
+                     ETAG, LAST_MODIFIED));
+        assertFalse(TeaServlet.isNotModified
+                    (request(), ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testRangeCurrent() {
+        assertTrue(TeaServlet.isRangeCurrent
+                   (request(), ETAG, LAST_MODIFIED));
+        assertTrue(TeaServlet.isRangeCurrent
+                   (request("If-Range", ETAG), ETAG, LAST_MODIFIED));
+        assertFalse(TeaServlet.isRangeCurrent
+                    (request("If-Range", "\"old\""), ETAG, LAST_MODIFIED));
+        assertTrue(TeaServlet.isRangeCurrent
+                   (request("If-Range", date(LAST_MODIFIED)),
+                    ETAG, LAST_MODIFIED));
+        assertFalse(TeaServlet.isRangeCurrent
+                    (request("If-Range", date(LAST_MODIFIED - 1000)),
+                     ETAG, LAST_MODIFIED));
+        assertFalse(TeaServlet.isRangeCurrent
+                    (request("If-Range", "not a date"), ETAG, LAST_MODIFIED));
+    }
+
+    private static void assertRange(long start, long end, String range,
+                                    long length) {
+        assertArrayEquals(new long[] { start, end },
+                          TeaServlet.parseRange(range, length));
+    }
+
+    private static void assertIgnored(String range) {
+        assertEquals(range, 0, TeaServlet.parseRange(range, 1000).length);
+    }
+
+    private static String date(long time) {
+        return format().format(new Date(time));
+    }
+
+    private static SimpleDateFormat format() {
+        SimpleDateFormat format = new SimpleDateFormat
+            ("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    /**
+     * Creates a request with the given header names and values, which
+     * parses date headers as a servlet container does.
+     */
+    private static ApplicationRequest request(String... headers) {
+        final Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < headers.length; i += 2) {
+            map.put(headers[i], headers[i + 1]);
+        }
+
+        return (ApplicationRequest) Proxy.newProxyInstance
+            (ApplicationRequest.class.getClassLoader(),
+             new Class<?>[] { ApplicationRequest.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method method,
+                                      Object[] args) {
+                     String name = method.getName();
+                     if ("getHeader".equals(name)) {
+                         return map.get(args[0]);
+                     }
+                     if ("getDateHeader".equals(name)) {
+                         String value = map.get(args[0]);
+                         if (value == null) {
+                             return Long.valueOf(-1);
+                         }
+                         try {
+                             return Long.valueOf
+                                 (format().parse(value).getTime());
+                         }
+                         catch (ParseException e) {
+                             throw new IllegalArgumentException(value);
+                         }
+                     }
+                     Class<?> type = method.getReturnType();
+                     return type == boolean.class ? Boolean.FALSE : null;
+                 }
+             });
+    }
+}
@@ -0,0 +1,133 @@
+package org.teatrove.teaservlet.assets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.PropertyMap;
+
+public class AssetEngineTest {
+
+    private File directory;
+
+    @Before
+    public void init() throws Exception {
+        this.directory = File.createTempFile("assets", "");
+        this.directory.delete();
+        this.directory.mkdirs();
+    }
+
+    @After
+    public void cleanup() {
+        AssetLoaderTest.delete(this.directory);
+    }
+
+    @Test
+    public void testResolveHitAndMiss() throws Exception {
+        AssetLoaderTest.write(new File(this.directory, "app.js"), "app");
+        AssetEngine engine = createEngine(60000, 60000);
+        ResolutionCache<AssetLoader> cache = engine.getResolutionCache();
+
+        assertEquals("app", AssetLoaderTest.read(
+            engine.findAsset("/app.js", false)));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        assertEquals("app", AssetLoaderTest.read(
+            engine.findAsset("/app.js", false)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Described assets are served without resolving the path again.
+        assertEquals("app", new String(
+            engine.getAsset("/app.js").getContents(), "ISO-8859-1"));
+        engine.getAsset("/app.js");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testNegativeEntries() throws Exception {
+        AssetEngine engine = createEngine(60000, 50);
+        ResolutionCache<AssetLoader> cache = engine.getResolutionCache();
+
+        assertNull(engine.getAsset("/app.js"));
+        assertNull(engine.getAsset("/app.js"));
+        assertEquals(1, cache.getNegativeHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // A new asset is not found until the negative entry expires.
+        AssetLoaderTest.write(new File(this.directory, "app.js"), "app");
+        assertNull(engine.getAsset("/app.js"));
+
+        Thread.sleep(100);
+        assertEquals("app", new String(
+            engine.getAsset("/app.js").getContents(), "ISO-8859-1"));
+        assertEquals(2, cache.getNegativeHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testNegativeEntriesDisabled() throws Exception {
+        AssetEngine engine = createEngine(60000, 0);
+        assertNull(engine.getAsset("/app.js"));
+
+        AssetLoaderTest.write(new File(this.directory, "app.js"), "app");
+        assertEquals("app", new String(
+            engine.getAsset("/app.js").getContents(), "ISO-8859-1"));
+        assertEquals(0, engine.getResolutionCache().getNegativeHitCount());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        AssetLoaderTest.write(new File(this.directory, "app.js"), "app");
+        AssetEngine engine = createEngine(50, 60000);
+        ResolutionCache<AssetLoader> cache = engine.getResolutionCache();
+        AssetLoaderTest.read(engine.findAsset("/app.js", false));
+
+        // Resolved again once the cached loader expires.
+        Thread.sleep(100);
+        AssetLoaderTest.read(engine.findAsset("/app.js", false));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getExpirationCount());
+    }
+
+    @Test
+    public void testNoLongerProvided() throws Exception {
+        File file = new File(this.directory, "app.js");
+        AssetLoaderTest.write(file, "app");
+        AssetEngine engine = createEngine(60000, 60000);
+        ResolutionCache<AssetLoader> cache = engine.getResolutionCache();
+        AssetLoaderTest.read(engine.findAsset("/app.js", false));
+
+        // The cached loader no longer provides it, so it is resolved again
+        // and then cached as not found.
+        file.delete();
+        assertNull(engine.findAsset("/app.js", false));
+        assertNull(engine.findAsset("/app.js", false));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getNegativeHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    private AssetEngine createEngine(long timeToLive, long negativeTimeToLive)
+        throws Exception {
+
+        PropertyMap properties = new PropertyMap();
+        properties.put("path", "file:" + this.directory.getPath());
+        properties.put("mimeTypes.js", "text/javascript");
+        properties.put("cache.resolve.ttl", String.valueOf(timeToLive));
+        properties.put("cache.resolve.negativeTtl",
+                       String.valueOf(negativeTimeToLive));
+
+        AssetEngine engine = new AssetEngine(null);
+        engine.init(new Log("test", null), properties);
+        return engine;
+    }
+}
@@ -0,0 +1,254 @@
+package org.teatrove.teaservlet.assets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.trove.log.Log;
+import org.teatrove.trove.util.PropertyMap;
+
+public class AssetLoaderTest {
+
+    private Log log = new Log("test", null);
+    private File directory;
+
+    @Before
+    public void init() throws Exception {
+        this.directory = File.createTempFile("assets", "");
+        this.directory.delete();
+        this.directory.mkdirs();
+    }
+
+    @After
+    public void cleanup() {
+        delete(this.directory);
+    }
+
+    @Test
+    public void testResolveHitAndMiss() throws Exception {
+        Factory first = new Factory();
+        Factory second = new Factory();
+        second.put("app.js", "second");
+        AssetLoader loader = createLoader(60000, first, second);
+
+        assertEquals("second", read(loader.getAsset("/app.js")));
+        assertEquals(1, first.lookups);
+        assertEquals(1, second.lookups);
+
+        // Cached, so only the factory that provided it is asked again.
+        assertEquals("second", read(loader.getAsset("/app.js")));
+        assertEquals(1, first.lookups);
+        assertEquals(2, second.lookups);
+
+        ResolutionCache<AssetFactory> cache = loader.getResolutionCache();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertSame(second, cache.get("/app.js", 0).getValue());
+    }
+
+    @Test
+    public void testNoLongerProvided() throws Exception {
+        Factory first = new Factory();
+        Factory second = new Factory();
+        first.put("app.js", "first");
+        second.put("app.js", "second");
+        AssetLoader loader = createLoader(60000, first, second);
+        assertEquals("first", read(loader.getAsset("/app.js")));
+
+        // Resolved again when the cached factory no longer provides it.
+        first.remove("app.js");
+        assertEquals("second", read(loader.getAsset("/app.js")));
+        assertSame(second,
+                   loader.getResolutionCache().get("/app.js", 0).getValue());
+
+        second.remove("app.js");
+        assertNull(loader.getAsset("/app.js"));
+        assertNull(loader.getResolutionCache().get("/app.js", 0));
+    }
+
+    @Test
+    public void testNegativeEntries() throws Exception {
+        Factory factory = new Factory();
+        factory.put("app.js", "plain");
+        AssetLoader loader = createLoader(60000, factory);
+
+        // The missing precompressed variant is cached as not found.
+        Asset asset = loader.getAsset("/app.js", true);
+        assertNull(asset.getContentEncoding());
+        assertEquals("plain", read(asset));
+        assertEquals(2, factory.lookups);
+
+        asset = loader.getAsset("/app.js", true);
+        assertEquals("plain", read(asset));
+        assertEquals(3, factory.lookups);
+        assertEquals(1, loader.getResolutionCache().getNegativeHitCount());
+
+        // Missing assets themselves are not cached as not found.
+        assertNull(loader.getAsset("/missing.js"));
+        assertNull(loader.getAsset("/missing.js"));
+        assertEquals(5, factory.lookups);
+        assertEquals(2, loader.getResolutionCache().getSize());
+    }
+
+    @Test
+    public void testPrecompressed() throws Exception {
+        Factory factory = new Factory();
+        factory.put("app.js", "plain");
+        factory.put("app.js.gz", "gzip");
+        AssetLoader loader = createLoader(60000, factory);
+
+        Asset asset = loader.getAsset("/app.js", true);
+        assertEquals("gzip", asset.getContentEncoding());
+        assertEquals("gzip", read(asset));
+
+        // Clients that do not accept gzip never resolve to the variant.
+        asset = loader.getAsset("/app.js", false);
+        assertNull(asset.getContentEncoding());
+        assertEquals("plain", read(asset));
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        FileAssetFactory files = new FileAssetFactory(this.directory);
+        files.init(this.log, new PropertyMap());
+        Factory factory = new Factory();
+        factory.put("app.js", "classpath");
+        AssetLoader loader = createLoader(50, files, factory);
+
+        assertEquals("classpath", read(loader.getAsset("/app.js", true)));
+
+        // New files are not found until the negative entry expires.
+        write(new File(this.directory, "app.js"), "file");
+        write(new File(this.directory, "app.js.gz"), "gzip");
+        assertEquals("classpath", read(loader.getAsset("/app.js", true)));
+
+        // Paths provided by factories that do not change never expire,
+        // so only the precompressed variant is resolved to the new file.
+        Thread.sleep(100);
+        assertEquals("classpath", read(loader.getAsset("/app.js", false)));
+
+        Asset asset = loader.getAsset("/app.js", true);
+        assertEquals("gzip", asset.getContentEncoding());
+        assertEquals("gzip", read(asset));
+    }
+
+    @Test
+    public void testFileTimeToLive() throws Exception {
+        FileAssetFactory files = new FileAssetFactory(this.directory);
+        files.init(this.log, new PropertyMap());
+        Factory factory = new Factory();
+        factory.put("app.js", "classpath");
+        AssetLoader loader = createLoader(50, files, factory);
+
+        File file = new File(this.directory, "app.js");
+        write(file, "file");
+        Asset asset = loader.getAsset("/app.js");
+        assertEquals(file, asset.getFile());
+        assertEquals("file", read(asset));
+
+        // Cached file paths are resolved again once they expire.
+        Thread.sleep(100);
+        assertEquals("file", read(loader.getAsset("/app.js")));
+        assertEquals(1, loader.getResolutionCache().getExpirationCount());
+        assertEquals(2, loader.getResolutionCache().getMissCount());
+        assertEquals(0, factory.lookups);
+    }
+
+    private AssetLoader createLoader(long timeToLive,
+                                     AssetFactory... factories) {
+        List<AssetFactory> list = new ArrayList<AssetFactory>();
+        for (AssetFactory factory : factories) {
+            list.add(factory);
+        }
+
+        Map<String, String> mimeTypes = new HashMap<String, String>();
+        mimeTypes.put("js", "text/javascript");
+
+        AssetLoader loader = new AssetLoader("test", "", list, mimeTypes);
+        loader.init(this.log, 100, timeToLive);
+        return loader;
+    }
+
+    static String read(Asset asset) throws IOException {
+        InputStream input = asset.getInputStream();
+        try {
+            StringBuilder buffer = new StringBuilder();
+            int ch;
+            while ((ch = input.read()) >= 0) {
+                buffer.append((char) ch);
+            }
+            return buffer.toString();
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    static void write(File file, String contents) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(contents.getBytes("ISO-8859-1"));
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Factory of assets held in memory that counts how often it is asked
+     * for an asset.
+     */
+    static class Factory extends AbstractAssetFactory {
+        private final Map<String, String> assets =
+            new HashMap<String, String>();
+        int lookups;
+
+        void put(String path, String contents) {
+            this.assets.put(path, contents);
+        }
+
+        void remove(String path) {
+            this.assets.remove(path);
+        }
+
+        @Override
+        public InputStream getAsset(String path) {
+            this.lookups++;
+            String contents = this.assets.get(validatePath(path));
+            if (contents == null) {
+                return null;
+            }
+
+            try {
+                return new ByteArrayInputStream(
+                    contents.getBytes("ISO-8859-1"));
+            }
+            catch (IOException ioe) {
+                throw new IllegalStateException(ioe);
+            }
+        }
+    }
+}
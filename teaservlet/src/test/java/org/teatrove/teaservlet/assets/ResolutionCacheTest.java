@@ -0,0 +1,71 @@
+package org.teatrove.teaservlet.assets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.teatrove.trove.util.ExpiringCache;
+
+public class ResolutionCacheTest {
+
+    @Test
+    public void testHitAndMiss() {
+        ResolutionCache<String> cache = new ResolutionCache<String>(10);
+        assertNull(cache.get("/a.js", 0));
+
+        cache.put("/a.js", "loader", 0, 0);
+        ExpiringCache.Entry<String> entry = cache.get("/a.js", 1000);
+        assertEquals("loader", entry.getValue());
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getNegativeHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5d, cache.getHitRatio(), 0.0d);
+    }
+
+    @Test
+    public void testNegativeEntry() {
+        ResolutionCache<String> cache = new ResolutionCache<String>(10);
+        cache.put("/missing.js", null, 0, 0);
+
+        // A path that was not found is cached with a null value.
+        ExpiringCache.Entry<String> entry = cache.get("/missing.js", 0);
+        assertNull(entry.getValue());
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getNegativeHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(1.0d, cache.getHitRatio(), 0.0d);
+    }
+
+    @Test
+    public void testTimeToLive() {
+        ResolutionCache<String> cache = new ResolutionCache<String>(10);
+        cache.put("/a.js", "loader", 0, 100);
+        cache.put("/missing.js", null, 0, 100);
+        assertEquals("loader", cache.get("/a.js", 99).getValue());
+        assertNull(cache.get("/missing.js", 99).getValue());
+
+        // Expired entries must be resolved again.
+        assertNull(cache.get("/a.js", 100));
+        assertNull(cache.get("/missing.js", 100));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getExpirationCount());
+    }
+
+    @Test
+    public void testRemove() {
+        ResolutionCache<String> cache = new ResolutionCache<String>(10);
+        cache.put("/a.js", "loader", 0, 0);
+        cache.remove("/a.js");
+        assertNull(cache.get("/a.js", 0));
+        assertEquals(0, cache.getSize());
+
+        cache.put("/a.js", "loader", 0, 0);
+        cache.get("/a.js", 0);
+        cache.resetCounts();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0.0d, cache.getHitRatio(), 0.0d);
+    }
+}
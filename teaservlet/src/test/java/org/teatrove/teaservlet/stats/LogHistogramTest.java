@@ -0,0 +1,176 @@
+package org.teatrove.teaservlet.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        long previous = -1;
+        for (int index = 0; index < LogHistogram.BUCKET_COUNT; index++) {
+            long low = LogHistogram.lowestValue(index);
+            long high = LogHistogram.highestValue(index);
+
+            // buckets are contiguous, and at most 1/32 as wide as their values
+            assertEquals(previous + 1, low);
+            assertTrue(high - low + 1 <= Math.max(1, low / 32));
+            assertEquals(index, LogHistogram.bucketIndex(low));
+            assertEquals(index, LogHistogram.bucketIndex(high));
+            previous = high;
+        }
+        assertEquals(LogHistogram.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        long[] values = new long[64];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        LogHistogram histogram = LogHistogram.of(values);
+        assertEquals(64, histogram.getCount());
+        assertEquals(31, histogram.getMedian());
+        assertEquals(63, histogram.getMax());
+        assertArrayEquals(values, histogram.getBucketValues());
+        assertEquals(31.5d, histogram.getMean(), 0.0d);
+    }
+
+    @Test
+    public void testPercentiles() {
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i + 1;
+        }
+        LogHistogram histogram = LogHistogram.of(shuffle(values));
+
+        assertEquals(1, histogram.getMin());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(1, histogram.getValueAtPercentile(0.0d));
+        assertEquals(100000, histogram.getValueAtPercentile(100.0d));
+        assertPercentile(50000, histogram.getMedian());
+        assertPercentile(90000, histogram.getPercentile90());
+        assertPercentile(99000, histogram.getPercentile99());
+        assertPercentile(99900, histogram.getPercentile999());
+        assertEquals(50000.5d, histogram.getMean(), 50000.5d * 0.03d);
+    }
+
+    @Test
+    public void testEmpty() {
+        LogHistogram[] empties = {
+            LogHistogram.of(null),
+            LogHistogram.of(new long[0]),
+            LogHistogram.merge((LogHistogram[]) null),
+            LogHistogram.merge(new LogHistogram[] { null, null }),
+            new LogHistogramRecorder().getHistogram()
+        };
+        for (LogHistogram histogram : empties) {
+            assertEquals(0, histogram.getCount());
+            assertEquals(-1, histogram.getMin());
+            assertEquals(-1, histogram.getMax());
+            assertEquals(-1, histogram.getMedian());
+            assertEquals(-1.0d, histogram.getMean(), 0.0d);
+            assertEquals(0, histogram.getBucketValues().length);
+        }
+    }
+
+    @Test
+    public void testClamp() {
+        LogHistogram histogram = LogHistogram.of
+            (new long[] { -5, Long.MAX_VALUE });
+        assertEquals(0, histogram.getMin());
+        assertEquals(LogHistogram.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(1);
+        long[] all = new long[3000];
+        LogHistogram[] parts = new LogHistogram[3];
+        for (int p = 0; p < parts.length; p++) {
+            long[] values = new long[1000];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = all[p * 1000 + i] =
+                    (long) Math.abs(random.nextGaussian() * 1000000);
+            }
+            parts[p] = LogHistogram.of(values);
+        }
+
+        LogHistogram expected = LogHistogram.of(all);
+        assertSameCounts(expected, LogHistogram.merge(parts));
+        assertSameCounts(expected, parts[0].merge(parts[1]).merge(parts[2]));
+        assertSameCounts(expected, LogHistogram.merge(new LogHistogram[] {
+            null, parts[0], LogHistogram.of(null), parts[1], parts[2]
+        }));
+    }
+
+    @Test
+    public void testRecorder() throws Exception {
+        final LogHistogramRecorder recorder = new LogHistogramRecorder();
+        final long[] values = new long[40000];
+        Random random = new Random(2);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.abs(random.nextGaussian() * 50000);
+        }
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = offset; i < values.length; i += 4) {
+                        recorder.record(values[i]);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+
+        assertSameCounts(LogHistogram.of(values), recorder.getHistogram());
+
+        recorder.reset();
+        assertEquals(0, recorder.getHistogram().getCount());
+        recorder.record(-1);
+        recorder.record(7);
+        LogHistogram histogram = recorder.getHistogram();
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(7, histogram.getMax());
+    }
+
+    private static void assertPercentile(long expected, long actual) {
+        // never under-reported, and within the bucket precision
+        assertTrue(actual + " < " + expected, actual >= expected);
+        assertTrue(actual + " > " + expected, actual <= expected * 1.03d);
+    }
+
+    private static void assertSameCounts(LogHistogram expected,
+                                         LogHistogram actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertArrayEquals(expected.getBucketValues(),
+                          actual.getBucketValues());
+        assertArrayEquals(expected.getBucketCounts(),
+                          actual.getBucketCounts());
+    }
+
+    private static long[] shuffle(long[] values) {
+        Random random = new Random(3);
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,116 @@
+package org.teatrove.teaservlet.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class TemplateStatsTest {
+
+    @Test
+    public void testCounters() {
+        TemplateStats stats = new TemplateStats("a.b.test", 10, 5);
+        assertEquals("test", stats.getTemplateName());
+        assertEquals("a.b", stats.getTemplatePath());
+        assertEquals(0.0d, stats.getAverageServiceDuration(), 0.0d);
+
+        stats.log(100, 110, 1000, null);
+        stats.log(200, 250, 2000, null);
+        stats.log(300, 330, 3000, null);
+
+        assertEquals(3, stats.getServicedCount());
+        assertEquals(90, stats.getCumulativeServiceTime());
+        assertEquals(50, stats.getPeakServiceDuration());
+        assertEquals(30.0d, stats.getAverageServiceDuration(), 0.0d);
+        assertEquals(3, stats.getDurationHistogram().getCount());
+
+        stats.reset();
+        assertEquals(0, stats.getServicedCount());
+        assertEquals(0, stats.getCumulativeServiceTime());
+        assertEquals(0, stats.getPeakServiceDuration());
+        assertNull(stats.getRawData());
+        assertNull(stats.getAggregateIntervals());
+    }
+
+    @Test
+    public void testRawData() {
+        TemplateStats stats = new TemplateStats("test", 4, 5);
+        assertNull(stats.getRawData());
+
+        // not full
+        for (int i = 0; i < 3; i++) {
+            stats.log(i * 100, i * 100 + i, i, null);
+        }
+        assertStartTimes(stats.getRawData(), 0, 3);
+
+        // full and wrapping, oldest first
+        for (int i = 3; i < 6; i++) {
+            stats.log(i * 100, i * 100 + i, i, null);
+        }
+        assertStartTimes(stats.getRawData(), 2, 4);
+        assertEquals(5, stats.getRawData()[3].getDuration());
+        assertEquals(5, stats.getRawData()[3].getContentLength());
+    }
+
+    @Test
+    public void testAggregateIntervals() {
+        TemplateStats stats = new TemplateStats("test", 4, 2);
+        for (int i = 0; i < 3; i++) {
+            stats.log(i * 100, i * 100 + 10, 0, null);
+        }
+        assertNull(stats.getAggregateIntervals());
+
+        // filling the raw data aggregates it
+        stats.log(300, 310, 0, null);
+        AggregateInterval[] intervals = stats.getAggregateIntervals();
+        assertEquals(1, intervals.length);
+        assertEquals(4, intervals[0].getSampleSize());
+
+        // the oldest intervals are replaced, and returned first
+        for (int i = 4; i < 12; i++) {
+            stats.log(i * 100, i * 100 + 10, 0, null);
+        }
+        intervals = stats.getAggregateIntervals();
+        assertEquals(2, intervals.length);
+        assertEquals(4, intervals[0].getSampleSize());
+        assertEquals(4, intervals[1].getSampleSize());
+        assertEquals(intervals[0].getEndTime() + 1,
+                     intervals[1].getStartTime());
+    }
+
+    @Test
+    public void testConcurrentLog() throws Exception {
+        final TemplateStats stats = new TemplateStats("test", 50, 10);
+        final int perThread = 10000;
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long duration = t + 1;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        stats.log(i, i + duration, 10, null);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+
+        assertEquals(4 * perThread, stats.getServicedCount());
+        assertEquals((1 + 2 + 3 + 4) * perThread,
+                     stats.getCumulativeServiceTime());
+        assertEquals(4, stats.getPeakServiceDuration());
+        assertEquals(50, stats.getRawData().length);
+        assertEquals(10, stats.getAggregateIntervals().length);
+    }
+
+    private static void assertStartTimes(RawData[] data, int first, int count) {
+        assertEquals(count, data.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals((first + i) * 100, data[i].getStartTime());
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.trove.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of fixed size byte arrays that buffers can use as chunk storage
+ * instead of allocating new arrays for every chunk. Each thread keeps a
+ * small slab of released chunks that it can reuse without contention, and
+ * chunks that do not fit in the slab are kept in a shared pool that all
+ * threads draw from. Chunks beyond the capacity of both are left to the
+ * garbage collector.
+ * <p>
+ * A chunk must only be released once nothing refers to its contents
+ * anymore, since it will be handed out again and overwritten.
+ *
+ * @see DefaultByteBuffer#DefaultByteBuffer(ChunkPool)
+ */
+public class ChunkPool {
+    private final int mChunkSize;
+    private final int mMaxThreadChunks;
+    private final int mMaxSharedChunks;
+
+    private final ThreadLocal<Slab> mSlabs;
+    private final Queue<byte[]> mShared;
+    private final AtomicInteger mSharedCount;
+
+    private final AtomicLong mAllocatedCount;
+    private final AtomicLong mReusedCount;
+
+    /**
+     * @param chunkSize size of each chunk, in bytes
+     * @param maxThreadChunks maximum number of released chunks kept by each
+     * thread
+     * @param maxSharedChunks maximum number of released chunks kept in the
+     * pool shared by all threads
+     * @throws IllegalArgumentException if chunkSize is not positive or the
+     * maximums are negative
+     */
+    public ChunkPool(int chunkSize, int maxThreadChunks, int maxSharedChunks) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException
+                ("Chunk size must be positive: " + chunkSize);
+        }
+        if (maxThreadChunks < 0 || maxSharedChunks < 0) {
+            throw new IllegalArgumentException
+                ("Maximum chunk counts must not be negative");
+        }
+
+        mChunkSize = chunkSize;
+        mMaxThreadChunks = maxThreadChunks;
+        mMaxSharedChunks = maxSharedChunks;
+
+        mSlabs = new ThreadLocal<Slab>() {
+            protected Slab initialValue() {
+                return new Slab(mMaxThreadChunks);
+            }
+        };
+        mShared = new ConcurrentLinkedQueue<byte[]>();
+        mSharedCount = new AtomicInteger();
+
+        mAllocatedCount = new AtomicLong();
+        mReusedCount = new AtomicLong();
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * Returns a chunk of getChunkSize bytes, reusing a released chunk if
+     * one is available. The contents of a reused chunk are not cleared.
+     */
+    public byte[] acquire() {
+        byte[] chunk = mMaxThreadChunks == 0 ? null : mSlabs.get().pop();
+        if (chunk == null && mSharedCount.get() > 0) {
+            chunk = mShared.poll();
+            if (chunk != null) {
+                mSharedCount.decrementAndGet();
+            }
+        }
+
+        if (chunk == null) {
+            mAllocatedCount.incrementAndGet();
+            return new byte[mChunkSize];
+        }
+
+        mReusedCount.incrementAndGet();
+        return chunk;
+    }
+
+    /**
+     * Returns a chunk to this pool so that it can be acquired again. Arrays
+     * that were not acquired from a pool with the same chunk size are
+     * ignored.
+     */
+    public void release(byte[] chunk) {
+        if (chunk == null || chunk.length != mChunkSize) {
+            return;
+        }
+
+        if (mMaxThreadChunks > 0 && mSlabs.get().push(chunk)) {
+            return;
+        }
+
+        if (mSharedCount.incrementAndGet() <= mMaxSharedChunks) {
+            mShared.offer(chunk);
+        }
+        else {
+            mSharedCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of chunks that had to be allocated because no
+     * released chunk was available.
+     */
+    public long getAllocatedCount() {
+        return mAllocatedCount.get();
+    }
+
+    /**
+     * Returns the number of times a released chunk was acquired again.
+     */
+    public long getReusedCount() {
+        return mReusedCount.get();
+    }
+
+    /**
+     * Returns the number of released chunks held in the shared pool.
+     */
+    public int getSharedCount() {
+        return mSharedCount.get();
+    }
+
+    public String toString() {
+        return "ChunkPool[chunkSize=" + mChunkSize +
+            ", allocated=" + getAllocatedCount() +
+            ", reused=" + getReusedCount() +
+            ", shared=" + getSharedCount() + ']';
+    }
+
+    /**
+     * Released chunks kept by one thread.
+     */
+    private static class Slab {
+        private final byte[][] mChunks;
+        private int mCount;
+
+        Slab(int capacity) {
+            mChunks = new byte[capacity][];
+        }
+
+        byte[] pop() {
+            if (mCount == 0) {
+                return null;
+            }
+            byte[] chunk = mChunks[--mCount];
+            mChunks[mCount] = null;
+            return chunk;
+        }
+
+        boolean push(byte[] chunk) {
+            if (mCount >= mChunks.length) {
+                return false;
+            }
+            mChunks[mCount++] = chunk;
+            return true;
+        }
+    }
+}
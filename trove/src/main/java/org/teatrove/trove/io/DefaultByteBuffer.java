@@ -23,7 +23,11 @@ import java.util.List;
 import java.util.ArrayList;
 
 /**
- * A ByteBuffer implementation that keeps byte data in memory.
+ * A ByteBuffer implementation that keeps byte data in memory. Data is kept
+ * in chunks, which can be drawn from a {@link ChunkPool}. A pooled buffer
+ * returns its chunks to the pool when it is cleared, so it must not be
+ * cleared while its data may still be written out, such as when it was
+ * appended as a surrogate to another buffer.
  *
  * @author Brian S O'Neill
  */
@@ -32,8 +36,13 @@ public class DefaultByteBuffer implements ByteBuffer, Serializable {
 
     private static final int BUFFER_SIZE = 512;
 
+    private final int mChunkSize;
+    private final transient ChunkPool mPool;
+
     // A List of ByteData instances.
     private List<ByteData> mChunks;
+    // Chunks acquired from mPool, returned when cleared.
+    private transient List<byte[]> mPooledChunks;
 
     private byte[] mBuffer;
     private int mCursor;
@@ -43,6 +52,26 @@ public class DefaultByteBuffer implements ByteBuffer, Serializable {
     private List<ByteBuffer> mCaptureBuffers;
 
     public DefaultByteBuffer() {
+        mChunkSize = BUFFER_SIZE;
+        mPool = null;
+        init();
+    }
+
+    /**
+     * Creates a buffer that draws its chunks from the given pool, and
+     * returns them when cleared.
+     *
+     * @param pool the pool of chunks, or null to allocate chunks
+     */
+    public DefaultByteBuffer(ChunkPool pool) {
+        if (pool == null) {
+            mChunkSize = BUFFER_SIZE;
+        }
+        else {
+            mChunkSize = pool.getChunkSize();
+            mPooledChunks = new ArrayList<byte[]>();
+        }
+        mPool = pool;
         init();
     }
     
@@ -93,13 +122,13 @@ public class DefaultByteBuffer implements ByteBuffer, Serializable {
         }
 
         if (mBuffer == null) {
-            mBuffer = new byte[BUFFER_SIZE];
+            mBuffer = newChunk();
             mCursor = 0;
         }
         else if (mCursor >= mBuffer.length) {
             mChunks.add(new ArrayByteData(mBuffer));
-            mBaseCount += BUFFER_SIZE;
-            mBuffer = new byte[BUFFER_SIZE];
+            mBaseCount += mBuffer.length;
+            mBuffer = newChunk();
             mCursor = 0;
         }
 
@@ -123,7 +152,7 @@ public class DefaultByteBuffer implements ByteBuffer, Serializable {
 
         while (length > 0) {
             if (mBuffer == null) {
-                if (length >= BUFFER_SIZE) {
+                if (length >= mChunkSize && mPool == null) {
                     byte[] copy = new byte[length];
                     System.arraycopy(bytes, offset, copy, 0, length);
                     mChunks.add(new ArrayByteData(copy));
@@ -131,11 +160,11 @@ public class DefaultByteBuffer implements ByteBuffer, Serializable {
                     return;
                 }
                 
-                mBuffer = new byte[BUFFER_SIZE];
+                mBuffer = newChunk();
                 mCursor = 0;
             }
             
-            int available = BUFFER_SIZE - mCursor;
+            int available = mBuffer.length - mCursor;
             
             if (length <= available) {
                 System.arraycopy(bytes, offset, mBuffer, mCursor, length);
@@ -145,7 +174,7 @@ public class DefaultByteBuffer implements ByteBuffer, Serializable {
             
             System.arraycopy(bytes, offset, mBuffer, mCursor, available);
             mChunks.add(new ArrayByteData(mBuffer));
-            mBaseCount += BUFFER_SIZE;
+            mBaseCount += mBuffer.length;
             mBuffer = null;
             offset += available;
             length -= available;
@@ -204,6 +233,16 @@ public class DefaultByteBuffer implements ByteBuffer, Serializable {
     }
     
     public void clear() throws IOException {
+        List<byte[]> pooled;
+        if ((pooled = mPooledChunks) != null) {
+            int size = pooled.size();
+            for (int i=0; i<size; i++) {
+                mPool.release(pooled.get(i));
+            }
+            pooled.clear();
+            mChunks.clear();
+        }
+
         init();
         
         int size;
@@ -220,6 +259,17 @@ public class DefaultByteBuffer implements ByteBuffer, Serializable {
         mCursor = 0;
         mBaseCount = 0;
         mBuffer = null;
-        mChunks = new ArrayList<ByteData>(100);
+        if (mChunks == null || mPooledChunks == null) {
+            mChunks = new ArrayList<ByteData>(100);
+        }
+    }
+
+    private byte[] newChunk() {
+        if (mPooledChunks == null) {
+            return new byte[mChunkSize];
+        }
+        byte[] chunk = mPool.acquire();
+        mPooledChunks.add(chunk);
+        return chunk;
     }
 }
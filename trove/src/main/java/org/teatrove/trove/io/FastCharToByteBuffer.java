@@ -48,9 +48,9 @@ public class FastCharToByteBuffer implements CharToByteBuffer, Serializable {
     }
 
     private ByteBuffer mBuffer;
+    private transient ChunkPool mPool;
 
     private transient byte[] mTempBytes;
-    private transient char[] mTempChars;
 
     private CharToByteBuffer mSlowConvertor;
 
@@ -67,7 +67,20 @@ public class FastCharToByteBuffer implements CharToByteBuffer, Serializable {
      * is not called.
      */    
     public FastCharToByteBuffer(ByteBuffer buffer, String defaultEncoding) {
+        this(buffer, defaultEncoding, null);
+    }
+
+    /**
+     * @param buffer Buffer that receives the characters converted to bytes.
+     * @param defaultEncoding Default character encoding to use if setEncoding
+     * is not called.
+     * @param pool Pool to draw the conversion buffer from, which is returned
+     * when this buffer is cleared, or null to allocate it.
+     */    
+    public FastCharToByteBuffer(ByteBuffer buffer, String defaultEncoding,
+                                ChunkPool pool) {
         mBuffer = buffer;
+        mPool = pool;
         try {
             setEncoding(defaultEncoding);
         }
@@ -141,9 +154,12 @@ public class FastCharToByteBuffer implements CharToByteBuffer, Serializable {
     }
 
     public void append(char c) throws IOException {
-        char[] chars = getTempChars();
-        chars[0] = c;
-        append(chars, 0, 1);
+        if (mSlowConvertor != null) {
+            mSlowConvertor.append(c);
+            return;
+        }
+
+        mBuffer.append((byte)c);
     }
 
     public void append(char[] chars) throws IOException {
@@ -175,19 +191,21 @@ public class FastCharToByteBuffer implements CharToByteBuffer, Serializable {
             return;
         }
 
-        char[] tempChars = getTempChars();
-        int bufLen = tempChars.length;
+        byte[] tempBytes = getTempBytes();
+        int bufLen = tempBytes.length;
+        int bi = 0;
+        int climit = offset + length;
 
-        while (length >= bufLen) {
-            str.getChars(offset, offset + bufLen, tempChars, 0);
-            offset += bufLen;
-            length -= bufLen;
-            appendFast(tempChars, 0, bufLen);
+        for (int ci = offset; ci < climit; ci++) {
+            tempBytes[bi++] = (byte)str.charAt(ci);
+            if (bi >= bufLen) {
+                mBuffer.append(tempBytes, 0, bufLen);
+                bi = 0;
+            }
         }
 
-        if (length > 0) {
-            str.getChars(offset, offset + length, tempChars, 0);
-            appendFast(tempChars, 0, length);
+        if (bi > 0) {
+            mBuffer.append(tempBytes, 0, bi);
         }
     }
 
@@ -200,6 +218,10 @@ public class FastCharToByteBuffer implements CharToByteBuffer, Serializable {
         if (mSlowConvertor != null) {
             mSlowConvertor.clear();
         }
+        if (mPool != null && mTempBytes != null) {
+            mPool.release(mTempBytes);
+            mTempBytes = null;
+        }
     }
     
     public void drain() throws IOException {
@@ -231,15 +253,9 @@ public class FastCharToByteBuffer implements CharToByteBuffer, Serializable {
 
     private byte[] getTempBytes() {
         if (mTempBytes == null) {
-            mTempBytes = new byte[TEMP_BUF_LEN];
+            mTempBytes = mPool != null ?
+                mPool.acquire() : new byte[TEMP_BUF_LEN];
         }
         return mTempBytes;
     }
-
-    private char[] getTempChars() {
-        if (mTempChars == null) {
-            mTempChars = new char[TEMP_BUF_LEN];
-        }
-        return mTempChars;
-    }
 }
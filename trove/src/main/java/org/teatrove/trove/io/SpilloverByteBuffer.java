@@ -44,8 +44,20 @@ public class SpilloverByteBuffer implements ByteBuffer {
      * @param group a group that can be shared among many SpilloverByteBuffers
      */
     public SpilloverByteBuffer(Group group) {
+        this(group, null);
+    }
+
+    /**
+     * Create a SpilloverByteBuffer against a Group, which keeps its data in
+     * chunks drawn from the given pool until it spills over. The chunks are
+     * returned to the pool when this buffer spills over or is cleared.
+     *
+     * @param group a group that can be shared among many SpilloverByteBuffers
+     * @param pool the pool of chunks, or null to allocate chunks
+     */
+    public SpilloverByteBuffer(Group group, ChunkPool pool) {
         mGroup = group;
-        mLocalBuffer = new DefaultByteBuffer();
+        mLocalBuffer = new DefaultByteBuffer(pool);
     }
 
     public long getBaseByteCount() throws IOException {
@@ -173,7 +185,11 @@ public class SpilloverByteBuffer implements ByteBuffer {
     }
     
     public void clear() throws IOException {
-        mLocalBuffer.clear();
+        if (mLocalBuffer != null) {
+            long count = mLocalBuffer.getBaseByteCount();
+            mLocalBuffer.clear();
+            mGroup.adjustLevel(-count);
+        }
         if (mSpillover != null) {
             mSpillover.clear();
         }
@@ -202,6 +218,7 @@ public class SpilloverByteBuffer implements ByteBuffer {
         mLocalBuffer.writeTo(new ByteBufferOutputStream(mSpillover));
 
         long count = mLocalBuffer.getBaseByteCount();
+        mLocalBuffer.clear();
         mLocalBuffer = null;
         mGroup.adjustLevel(-count);
     }
@@ -0,0 +1,298 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.trove.log;
+
+import java.io.Flushable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncLogListener is a LogListener that passes LogEvents to another
+ * listener on a separate thread, so that the threads that log do not wait
+ * on the listener writing them out. Events are queued in a bounded buffer
+ * that logging threads add to without locking. The writer thread passes the
+ * queued events along in batches, and if the listener is {@link Flushable},
+ * such as a {@link LogScribe} with auto flush disabled, flushes it once per
+ * batch instead of once per event.
+ * <p>
+ * When the buffer is full, events are either dropped and counted, or the
+ * logging thread waits for room in the buffer. After events are dropped, a
+ * warning with the number dropped is passed along with the next batch.
+ * <p>
+ * Events are only passed along as plain LogListener messages and
+ * exceptions, and the listener is called by the writer thread only.
+ *
+ * <pre>
+ * LogScribe scribe = new LogScribe(writer);
+ * scribe.setAutoFlushEnabled(false);
+ * log.addLogListener(new AsyncLogListener(scribe, 8192, false));
+ * </pre>
+ */
+public class AsyncLogListener implements LogListener {
+    // Most events passed to the listener between flushes.
+    private static final int MAX_BATCH = 1024;
+
+    private static final int MESSAGE = 0;
+    private static final int EXCEPTION = 1;
+
+    private static int cThreadNumber;
+
+    private static synchronized int nextThreadNumber() {
+        return cThreadNumber++;
+    }
+
+    private final LogListener mListener;
+    private final boolean mBlock;
+
+    private final AtomicReferenceArray<Entry> mBuffer;
+    private final int mMask;
+
+    // Sequence of the next entry to claim, shared by the logging threads.
+    private final AtomicLong mTail = new AtomicLong();
+    // Sequence of the next entry to pass along, only set by the writer.
+    private volatile long mHead;
+
+    private final AtomicLong mDropped = new AtomicLong();
+    private long mDroppedReported;
+
+    private final Thread mWriter;
+    private volatile boolean mWaiting;
+    private volatile boolean mClosed;
+
+    /**
+     * @param listener the listener to pass the events to
+     * @param capacity the most events that may be queued, rounded up to a
+     * power of two
+     * @param block when true, threads wait for room when the buffer is full,
+     * otherwise the events are dropped
+     */
+    public AsyncLogListener(LogListener listener, int capacity,
+                            boolean block) {
+        if (listener == null) {
+            throw new IllegalArgumentException("No listener");
+        }
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException
+                ("Capacity out of range: " + capacity);
+        }
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        mListener = listener;
+        mBlock = block;
+        mBuffer = new AtomicReferenceArray<Entry>(size);
+        mMask = size - 1;
+
+        mWriter = new Thread(new Runnable() {
+            public void run() {
+                writeEvents();
+            }
+        }, "AsyncLogListener-" + nextThreadNumber());
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    public void logMessage(LogEvent e) {
+        enqueue(e, MESSAGE);
+    }
+
+    public void logException(LogEvent e) {
+        enqueue(e, EXCEPTION);
+    }
+
+    /**
+     * Returns the listener that the events are passed to.
+     */
+    public LogListener getLogListener() {
+        return mListener;
+    }
+
+    /**
+     * Returns the most events that may be queued.
+     */
+    public int getCapacity() {
+        return mBuffer.length();
+    }
+
+    /**
+     * Returns the number of events queued and not yet passed along.
+     */
+    public int getPendingCount() {
+        return (int) Math.max(0, mTail.get() - mHead);
+    }
+
+    /**
+     * Returns the number of events that were dropped because the buffer was
+     * full.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Returns true if threads wait for room when the buffer is full, or
+     * false if the events are dropped.
+     */
+    public boolean isBlocking() {
+        return mBlock;
+    }
+
+    /**
+     * Passes along the queued events and stops the writer thread. Events
+     * logged afterwards are dropped.
+     */
+    public void close() {
+        mClosed = true;
+        LockSupport.unpark(mWriter);
+        try {
+            mWriter.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(LogEvent e, int kind) {
+        // Resolve the thread name now, while the logging thread is known.
+        e.getThreadName();
+        Entry entry = new Entry(e, kind);
+
+        int capacity = mBuffer.length();
+        long tail;
+        while (true) {
+            if (mClosed) {
+                mDropped.incrementAndGet();
+                return;
+            }
+
+            tail = mTail.get();
+            if (tail - mHead >= capacity) {
+                if (!mBlock) {
+                    mDropped.incrementAndGet();
+                    return;
+                }
+                wakeWriter();
+                LockSupport.parkNanos(100000L);
+            }
+            else if (mTail.compareAndSet(tail, tail + 1)) {
+                break;
+            }
+        }
+
+        mBuffer.set((int) tail & mMask, entry);
+        if (mWaiting) {
+            wakeWriter();
+        }
+    }
+
+    private void wakeWriter() {
+        LockSupport.unpark(mWriter);
+    }
+
+    private void writeEvents() {
+        while (true) {
+            long head = mHead;
+            int index = (int) head & mMask;
+            Entry entry = mBuffer.get(index);
+
+            if (entry == null) {
+                if (head != mTail.get()) {
+                    // Claimed, but not yet set by the logging thread.
+                    Thread.yield();
+                    continue;
+                }
+
+                if (mClosed) {
+                    return;
+                }
+
+                mWaiting = true;
+                if (mBuffer.get(index) == null && !mClosed) {
+                    LockSupport.park(this);
+                }
+                mWaiting = false;
+                continue;
+            }
+
+            int count = 0;
+            LogEvent last = null;
+            do {
+                mBuffer.set(index, null);
+                mHead = ++head;
+                last = entry.mEvent;
+                dispatch(entry);
+                index = (int) head & mMask;
+            } while (++count < MAX_BATCH &&
+                     (entry = mBuffer.get(index)) != null);
+
+            reportDropped(last);
+            flush();
+        }
+    }
+
+    private void dispatch(Entry entry) {
+        try {
+            if (entry.mKind == EXCEPTION) {
+                mListener.logException(entry.mEvent);
+            }
+            else {
+                mListener.logMessage(entry.mEvent);
+            }
+        }
+        catch (Throwable e) {
+            // Keep the writer thread alive, or logging threads would block
+            // or drop every event from then on.
+            e.printStackTrace();
+        }
+    }
+
+    private void reportDropped(LogEvent last) {
+        long dropped = mDropped.get();
+        if (dropped != mDroppedReported && last != null) {
+            String message = "Dropped " + (dropped - mDroppedReported) +
+                " log events because the log buffer was full";
+            mDroppedReported = dropped;
+            dispatch(new Entry(new LogEvent
+                (last.getLogSource(), LogEvent.WARN_TYPE, message), MESSAGE));
+        }
+    }
+
+    private void flush() {
+        if (mListener instanceof Flushable) {
+            try {
+                ((Flushable) mListener).flush();
+            }
+            catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class Entry {
+        final LogEvent mEvent;
+        final int mKind;
+
+        Entry(LogEvent event, int kind) {
+            mEvent = event;
+            mKind = kind;
+        }
+    }
+}
@@ -42,13 +42,14 @@ import org.teatrove.trove.util.FastDateFormat;
  *
  * @author Brian S O'Neill
  */
-public class LogScribe implements LogListener {
+public class LogScribe implements LogListener, Flushable {
     private PrintWriter mWriter;
     private DateFormat mSlowFormat;
     private FastDateFormat mFastFormat;
 
     private boolean mShowThread = true;
     private boolean mShowSourceName = true;
+    private boolean mAutoFlush = true;
 
     public LogScribe(PrintWriter writer) {
         this(writer, (FastDateFormat)null);
@@ -86,7 +87,9 @@ public class LogScribe implements LogListener {
             synchronized (mWriter) {
                 mWriter.print(createPrepend(e));
                 mWriter.println(message);
-                mWriter.flush();
+                if (mAutoFlush) {
+                    mWriter.flush();
+                }
             }
         }
     }
@@ -101,11 +104,35 @@ public class LogScribe implements LogListener {
             synchronized (mWriter) {
                 mWriter.print(createPrepend(e));
                 t.printStackTrace(mWriter);
-                mWriter.flush();
+                if (mAutoFlush) {
+                    mWriter.flush();
+                }
             }
         }
     }
 
+    /**
+     * Flushes the messages written since auto flush was disabled.
+     */
+    public void flush() {
+        synchronized (mWriter) {
+            mWriter.flush();
+        }
+    }
+
+    /**
+     * Flushing the writer after each message is on by default. Turn it off
+     * when messages are written in batches, such as by an
+     * {@link AsyncLogListener}, which flushes after each batch instead.
+     */
+    public boolean isAutoFlushEnabled() {
+        return mAutoFlush;
+    }
+
+    public void setAutoFlushEnabled(boolean enabled) {
+        mAutoFlush = enabled;
+    }
+
     /**
      * The showing of the event thread name is on by default.
      */
@@ -31,8 +31,17 @@ import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.ProtocolException;
 import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
 
 /**
+ * Simple HTTP client that gets its connections from a {@link SocketFactory}.
+ * When the factory pools connections, they are reused for later requests if
+ * the response allows it: an HTTP/1.1 response to an HTTP/1.1 request that
+ * doesn't ask to close the connection, or any response with a
+ * "Connection: Keep-Alive" header. Chunked response bodies are decoded, so
+ * the connection can be reused once the last chunk has been read.
  *
  * @author Brian S O'Neill
  */
@@ -99,7 +108,8 @@ public class HttpClient {
     }
 
     /**
-     * Set the HTTP protocol string, which defaults to "HTTP/1.0".
+     * Set the HTTP protocol string, which defaults to "HTTP/1.0". HTTP/1.1
+     * requests must also set the "Host" header.
      *
      * @return 'this', so that addtional calls may be chained together
      */
@@ -301,7 +311,7 @@ public class HttpClient {
             return null;
         }
 
-        return new Response(socket, mMethod, in, buf, line);
+        return new Response(socket, mMethod, mProtocol, in, buf, line);
     }
 
     private void writePostData(OutputStream out, PostData postData)
@@ -366,19 +376,22 @@ public class HttpClient {
     public class Response {
         private final CheckedSocket mSocket;
         private final String mRequestMethod;
+        private final String mRequestProtocol;
         private final InputStream mRawIn;
 
+        private String mProtocol;
         private int mStatusCode;
         private String mStatusMessage;
         private HttpHeaderMap mHeaders;
 
         private InputStream mIn;
 
-        Response(CheckedSocket socket, String method,
+        Response(CheckedSocket socket, String method, String protocol,
                  InputStream in, char[] buf, String line) throws IOException
         {
             mSocket = socket;
             mRequestMethod = method;
+            mRequestProtocol = protocol;
             mRawIn = in;
             nextResponse(buf, line);
         }
@@ -394,6 +407,13 @@ public class HttpClient {
         }
 
 
+        /**
+         * Returns the protocol of the server's response, such as "HTTP/1.1".
+         */
+        public String getProtocol() {
+            return mProtocol;
+        }
+
         /**
          * Returns the server's status code, 200 for OK, 404 for not found,
          * etc.
@@ -459,29 +479,66 @@ public class HttpClient {
             while (nextResponse()) {
             }
 
+            if ("HEAD".equals(mRequestMethod) ||
+                mStatusCode == 204 || mStatusCode == 304) {
+
+                return mIn = new ResponseInput
+                    (mSocket, mRawIn, isPersistent() ? 0 : -1);
+            }
+
+            String encoding = mHeaders.getString("Transfer-Encoding");
+            if (encoding != null && !"identity".equalsIgnoreCase(encoding)) {
+                return mIn = new ChunkedInput
+                    (mSocket, mRawIn, isPersistent());
+            }
+
             // Used for controlling persistent connections.
-            int contentLength;
-            if ("Keep-Alive".equalsIgnoreCase
-                (mHeaders.getString("Connection"))) {
+            int contentLength = -1;
+            if (isPersistent()) {
+                Integer i = mHeaders.getInteger("Content-Length");
+                if (i != null) {
+                    contentLength = i.intValue();
+                }
+            }
+
+            return mIn = new ResponseInput(mSocket, mRawIn, contentLength);
+        }
 
-                if ("HEAD".equals(mRequestMethod)) {
-                    contentLength = 0;
+        /**
+         * Returns true if the connection may be reused once the response
+         * body has been read.
+         */
+        private boolean isPersistent() {
+            // The Connection header is a list of tokens, and may be repeated.
+            Object value = mHeaders.get("Connection");
+            List<?> values = (value instanceof List) ?
+                (List<?>) value : Collections.singletonList(value);
+
+            boolean keepAlive = false;
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) == null) {
+                    continue;
                 }
-                else {
-                    Integer i = mHeaders.getInteger("Content-Length");
-                    if (i != null) {
-                        contentLength = i.intValue();
+                StringTokenizer st =
+                    new StringTokenizer(values.get(i).toString(), ",");
+                while (st.hasMoreTokens()) {
+                    String token = st.nextToken().trim();
+                    if ("Close".equalsIgnoreCase(token)) {
+                        return false;
                     }
-                    else {
-                        contentLength = -1;
+                    if ("Keep-Alive".equalsIgnoreCase(token)) {
+                        keepAlive = true;
                     }
                 }
             }
-            else {
-                contentLength = -1;
+
+            if (keepAlive) {
+                return true;
             }
 
-            return mIn = new ResponseInput(mSocket, mRawIn, contentLength);
+            // HTTP/1.1 connections are persistent unless told otherwise.
+            return "HTTP/1.1".equals(mProtocol) &&
+                "HTTP/1.1".equals(mRequestProtocol);
         }
 
         private void nextResponse(char[] buf, String line) throws IOException {
@@ -510,6 +567,7 @@ public class HttpClient {
                 throw new ProtocolException("Invalid HTTP response: " + line);
             }
 
+            mProtocol = line.substring(0, space);
             mStatusCode = statusCode;
             mStatusMessage = statusMessage;
             mHeaders = new HttpHeaderMap();
@@ -663,4 +721,164 @@ public class HttpClient {
             }
         }
     }
+
+    /**
+     * Decodes a response body sent with chunked transfer encoding.
+     */
+    private class ChunkedInput extends InputStream {
+        private CheckedSocket mSocket;
+        private final InputStream mIn;
+        private final boolean mPersistent;
+        private final char[] mBuf = new char[100];
+
+        // Bytes left in the current chunk, or -1 before the first chunk.
+        private int mChunkLength = -1;
+        private boolean mDone;
+
+        /**
+         * @param persistent when true, the connection is recycled once the
+         * last chunk and trailers are read, otherwise it is closed
+         */
+        public ChunkedInput(CheckedSocket socket,
+                            InputStream in, boolean persistent)
+        {
+            mSocket = socket;
+            mIn = in;
+            mPersistent = persistent;
+        }
+
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            int b = mIn.read();
+            if (b < 0) {
+                close();
+                throw new ProtocolException("Truncated chunked response");
+            }
+            mChunkLength--;
+            return b;
+        }
+
+        public int read(byte[] b) throws IOException {
+            return read(b, 0, b.length);
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+
+            if (len > mChunkLength) {
+                len = mChunkLength;
+            }
+
+            len = mIn.read(b, off, len);
+            if (len <= 0) {
+                close();
+                throw new ProtocolException("Truncated chunked response");
+            }
+            mChunkLength -= len;
+            return len;
+        }
+
+        public long skip(long n) throws IOException {
+            if (n <= 0 || !nextChunk()) {
+                return 0;
+            }
+
+            if (n > mChunkLength) {
+                n = mChunkLength;
+            }
+
+            n = mIn.skip(n);
+            mChunkLength -= n;
+            return n;
+        }
+
+        public int available() throws IOException {
+            if (mDone || mChunkLength <= 0) {
+                return 0;
+            }
+            try {
+                return Math.min(mChunkLength, mIn.available());
+            }
+            catch (SocketException se) {
+                return 0;
+            }
+        }
+
+        public void close() throws IOException {
+            mDone = true;
+            if (mSocket != null) {
+                mSocket = null;
+                mIn.close();
+            }
+        }
+
+        /**
+         * Moves to the next chunk if the current one has been read, and
+         * returns false once the last chunk has been read.
+         */
+        private boolean nextChunk() throws IOException {
+            if (mDone) {
+                return false;
+            }
+            if (mChunkLength > 0) {
+                return true;
+            }
+
+            if (mChunkLength == 0) {
+                // End of the chunk data.
+                HttpUtils.readLine(mIn, mBuf);
+            }
+
+            String line = HttpUtils.readLine(mIn, mBuf);
+            if (line == null) {
+                close();
+                throw new ProtocolException("Truncated chunked response");
+            }
+
+            int end = line.indexOf(';');
+            if (end >= 0) {
+                line = line.substring(0, end);
+            }
+
+            try {
+                mChunkLength = Integer.parseInt(line.trim(), 16);
+            }
+            catch (NumberFormatException e) {
+                close();
+                throw new ProtocolException("Invalid chunk size: " + line);
+            }
+
+            if (mChunkLength < 0) {
+                close();
+                throw new ProtocolException("Invalid chunk size: " + line);
+            }
+
+            if (mChunkLength == 0) {
+                // Last chunk, followed by optional trailers.
+                new HttpHeaderMap().readFrom(mIn, mBuf);
+                mDone = true;
+                if (mSocket != null) {
+                    CheckedSocket s = mSocket;
+                    mSocket = null;
+                    if (mPersistent) {
+                        mFactory.recycleSocket(s);
+                    }
+                    else {
+                        mIn.close();
+                    }
+                }
+                return false;
+            }
+
+            return true;
+        }
+    }
 }
@@ -19,21 +19,40 @@ package org.teatrove.trove.net;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Socket factory implementation that pools connections to one wrapped socket
  * factory. Sessions are ignored on all requests. Consider wrapping with a
  * {@link LazySocketFactory} for automatic checking against pooled connections
  * that may have been closed.
+ * <p>
+ * The most recently recycled connection is reused first. A pool may be
+ * limited in size, in which case sockets recycled into a full pool are
+ * closed, and pooled sockets may be given a maximum idle time, after which
+ * they are closed rather than reused. Idle sockets are evicted as the pool
+ * is polled, or by calling {@link #evictIdle}. Pooled sockets with unread
+ * input are never reused.
  *
  * @author Brian S O'Neill
  */
 public class PooledSocketFactory implements SocketFactory {
     private final SocketFactory mFactory;
     private final long mTimeout;
+    private final int mMaxPoolSize;
+    private final long mMaxIdleTime;
 
-    // Stack of Sockets.
-    private final Stack mPool = new Stack();
+    // List of PoolEntries, most recently recycled first.
+    private final LinkedList<PoolEntry> mPool = new LinkedList<PoolEntry>();
+
+    private final AtomicLong mCreatedCount = new AtomicLong();
+    private final AtomicLong mReusedCount = new AtomicLong();
+    private final AtomicLong mRecycledCount = new AtomicLong();
+    private final AtomicLong mEvictedCount = new AtomicLong();
+    private final AtomicLong mDiscardedCount = new AtomicLong();
+
+    // Guarded by mPool.
+    private boolean mClosed;
 
     private CheckedSocket.ExceptionListener mListener;
 
@@ -41,13 +60,34 @@ public class PooledSocketFactory implements SocketFactory {
         this(factory, factory.getDefaultTimeout());
     }
 
+    /**
+     * @param maxPoolSize maximum number of idle sockets to pool
+     */
     public PooledSocketFactory(SocketFactory factory, int maxPoolSize) {
-		this(factory);
-	}
+        this(factory, factory.getDefaultTimeout(), maxPoolSize, 0);
+    }
 
     public PooledSocketFactory(SocketFactory factory, long timeout) {
+        this(factory, timeout, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * @param timeout default timeout for creating sockets
+     * @param maxPoolSize maximum number of idle sockets to pool
+     * @param maxIdleTime maximum milliseconds a socket may sit in the pool
+     * before being closed; zero or negative for no limit
+     */
+    public PooledSocketFactory(SocketFactory factory, long timeout,
+                               int maxPoolSize, long maxIdleTime) {
+        if (maxPoolSize < 0) {
+            throw new IllegalArgumentException
+                ("Pool size is negative: " + maxPoolSize);
+        }
+
         mFactory = factory;
         mTimeout = timeout;
+        mMaxPoolSize = maxPoolSize;
+        mMaxIdleTime = maxIdleTime;
 
         mListener = new CheckedSocket.ExceptionListener() {
             public void exceptionOccurred(CheckedSocket s,
@@ -88,7 +128,9 @@ public class PooledSocketFactory implements SocketFactory {
     public CheckedSocket createSocket(long timeout)
         throws ConnectException, SocketException
     {
-        return new PooledSocket(mFactory.createSocket(timeout));
+        CheckedSocket socket = mFactory.createSocket(timeout);
+        mCreatedCount.incrementAndGet();
+        return new PooledSocket(socket);
     }
 
     public CheckedSocket createSocket(Object session, long timeout)
@@ -112,13 +154,17 @@ public class PooledSocketFactory implements SocketFactory {
     public CheckedSocket getSocket(long timeout)
         throws ConnectException, SocketException
     {
-        synchronized (mPool) {
-            if (mPool.size() > 0) {
-                return new PooledSocket((SocketFace)mPool.pop());
+        SocketFace s;
+        while ((s = poll()) != null) {
+            if (isReusable(s)) {
+                mReusedCount.incrementAndGet();
+                return new PooledSocket(s);
             }
+            mDiscardedCount.incrementAndGet();
+            close(s);
         }
 
-        return new PooledSocket(mFactory.createSocket(timeout));
+        return createSocket(timeout);
     }
 
     public CheckedSocket getSocket(Object session, long timeout)
@@ -138,7 +184,7 @@ public class PooledSocketFactory implements SocketFactory {
                     psock.removeExceptionListener(mListener);
                     SocketFace s = psock.recycle();
                     if (s != null) {
-                        mPool.push(s);
+                        push(s);
                     }
                     return;
                 }
@@ -152,17 +198,185 @@ public class PooledSocketFactory implements SocketFactory {
     public void clear() {
         synchronized (mPool) {
             while (mPool.size() > 0) {
-                try {
-                    ((SocketFace)mPool.pop()).close();
-                }
-                catch (IOException e) {
+                close(mPool.removeFirst().mSocket);
+            }
+        }
+    }
+
+    /**
+     * Closes all the pooled sockets, and closes sockets recycled from then
+     * on instead of pooling them. New sockets can still be created, but they
+     * are never reused.
+     */
+    public void close() {
+        synchronized (mPool) {
+            mClosed = true;
+            clear();
+        }
+    }
+
+    /**
+     * Returns true if {@link #close} has been called.
+     */
+    public boolean isClosed() {
+        synchronized (mPool) {
+            return mClosed;
+        }
+    }
+
+    /**
+     * Closes the pooled sockets that have been idle for longer than the
+     * maximum idle time. Sockets are otherwise only evicted when the pool is
+     * polled, so call this periodically on pools that may go unused.
+     */
+    public void evictIdle() {
+        if (mMaxIdleTime <= 0) {
+            return;
+        }
+
+        List<SocketFace> expired = null;
+
+        synchronized (mPool) {
+            long expiry = System.currentTimeMillis() - mMaxIdleTime;
+            while (mPool.size() > 0 && mPool.getLast().mRecycled < expiry) {
+                if (expired == null) {
+                    expired = new ArrayList<SocketFace>();
                 }
+                expired.add(mPool.removeLast().mSocket);
+            }
+        }
+
+        if (expired != null) {
+            mEvictedCount.addAndGet(expired.size());
+            for (int i = 0; i < expired.size(); i++) {
+                close(expired.get(i));
             }
         }
     }
 
     public int getAvailableCount() {
-        return mPool.size();
+        synchronized (mPool) {
+            return mPool.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of idle sockets that are pooled.
+     */
+    public int getMaxPoolSize() {
+        return mMaxPoolSize;
+    }
+
+    /**
+     * Returns the maximum milliseconds a socket may sit in the pool, or zero
+     * or negative if there is no limit.
+     */
+    public long getMaxIdleTime() {
+        return mMaxIdleTime;
+    }
+
+    /**
+     * Returns the number of sockets created by the wrapped factory.
+     */
+    public long getCreatedCount() {
+        return mCreatedCount.get();
+    }
+
+    /**
+     * Returns the number of times a pooled socket was reused.
+     */
+    public long getReusedCount() {
+        return mReusedCount.get();
+    }
+
+    /**
+     * Returns the number of sockets put back into the pool.
+     */
+    public long getRecycledCount() {
+        return mRecycledCount.get();
+    }
+
+    /**
+     * Returns the number of pooled sockets closed because they were idle for
+     * too long.
+     */
+    public long getEvictedCount() {
+        return mEvictedCount.get();
+    }
+
+    /**
+     * Returns the number of sockets closed instead of pooled or reused,
+     * because the pool was full or closed, or the socket had unread input.
+     */
+    public long getDiscardedCount() {
+        return mDiscardedCount.get();
+    }
+
+    public String toString() {
+        return "PooledSocketFactory[" + getInetAddressAndPort() +
+            ", available=" + getAvailableCount() +
+            ", created=" + getCreatedCount() +
+            ", reused=" + getReusedCount() +
+            ", recycled=" + getRecycledCount() +
+            ", evicted=" + getEvictedCount() +
+            ", discarded=" + getDiscardedCount() + "]";
+    }
+
+    /**
+     * Removes the most recently recycled socket from the pool, closing any
+     * that have been idle for too long.
+     */
+    private SocketFace poll() {
+        evictIdle();
+
+        synchronized (mPool) {
+            return mPool.size() > 0 ? mPool.removeFirst().mSocket : null;
+        }
+    }
+
+    private void push(SocketFace s) {
+        synchronized (mPool) {
+            if (!mClosed && mPool.size() < mMaxPoolSize) {
+                mPool.addFirst(new PoolEntry(s));
+                mRecycledCount.incrementAndGet();
+                return;
+            }
+        }
+
+        mDiscardedCount.incrementAndGet();
+        close(s);
+    }
+
+    /**
+     * A pooled socket with input waiting is either out of sync with the
+     * server, or the server has sent something unsolicited, like a timeout
+     * response, before closing it.
+     */
+    private static boolean isReusable(SocketFace s) {
+        try {
+            return s.getInputStream().available() == 0;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void close(SocketFace s) {
+        try {
+            s.close();
+        }
+        catch (IOException e) {
+        }
+    }
+
+    private static class PoolEntry {
+        final SocketFace mSocket;
+        final long mRecycled;
+
+        PoolEntry(SocketFace socket) {
+            mSocket = socket;
+            mRecycled = System.currentTimeMillis();
+        }
     }
 
     /**
@@ -32,8 +32,8 @@ public class SocketConnector {
     private static final int CONNECT_THREAD_MAX = 5;
 
     // Maps address:port pairs to ThreadPools for connecting.
-    private static Map mConnectors =
-        Collections.synchronizedMap(new SoftHashMap());
+    private static ConcurrentCache<Object, ThreadPool> mConnectors =
+        new ConcurrentCache<Object, ThreadPool>(0);
 
     /**
      * @param host Remote host to connect to
@@ -157,23 +157,23 @@ public class SocketConnector {
     }
 
     private static ThreadPool getNewThreadPool(Object key, ThreadPool old) {
-        synchronized (mConnectors) {
-            if (mConnectors.get(key) == old) {
-                mConnectors.remove(key);
-            }
-            return getThreadPool(key);
-        }
+        mConnectors.remove(key, old);
+        return getThreadPool(key);
     }
 
     private static ThreadPool getThreadPool(Object key) {
-        ThreadPool pool;
-        synchronized (mConnectors) {
-            pool = (ThreadPool)mConnectors.get(key);
-            if (pool == null) {
-                pool = new ThreadPool
-                    ("SocketConnector[" + key + ']', CONNECT_THREAD_MAX);
-                pool.setIdleTimeout(10000);
-                mConnectors.put(key, pool);
+        ThreadPool pool = mConnectors.get(key);
+        if (pool == null) {
+            // Pools are thread groups, so only create one per key rather
+            // than discard the losers of a race.
+            synchronized (mConnectors) {
+                pool = mConnectors.get(key);
+                if (pool == null) {
+                    pool = new ThreadPool
+                        ("SocketConnector[" + key + ']', CONNECT_THREAD_MAX);
+                    pool.setIdleTimeout(10000);
+                    mConnectors.put(key, pool);
+                }
             }
         }
         return pool;
@@ -22,7 +22,8 @@ package org.teatrove.trove.util;
  * but calling "containsKey" or "containsValue" will not.
  * <p>
  * Like its base class, Cache is not thread-safe and must be wrapped with
- * Collections.synchronizedMap to be made thread-safe.
+ * Collections.synchronizedMap to be made thread-safe. {@link ConcurrentCache}
+ * offers the same guarantees without locking.
  *
  * @author Brian S O'Neill
  */
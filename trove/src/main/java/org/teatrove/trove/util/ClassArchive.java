@@ -0,0 +1,393 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.trove.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A single file that packs the class files of a directory, so that a
+ * {@link ClassInjector} can load them without opening and reading each
+ * class file. The archive starts with an index of the packed classes,
+ * followed by their bytecode, and is memory-mapped when opened.
+ * <p>
+ * The index records the length and last modified time of each class file,
+ * which {@link #update update} compares without reading the class files. A
+ * class file rewritten within the timestamp granularity of the file system
+ * may keep its length and time, so the index also records the CRC-32 of the
+ * class files modified that close to when the archive was written, and only
+ * those class files are read to compare their CRCs. Class files that are
+ * known to have been rewritten, such as by a compiler, can also be passed to
+ * update.
+ *
+ * @see ClassInjector#setClassArchive
+ */
+public class ClassArchive {
+    private static final int MAGIC = 0x54434152;
+    private static final int VERSION = 3;
+
+    // Coarsest last modified time resolution of common file systems, which
+    // is two seconds on FAT.
+    private static final long TIME_GRANULARITY = 2000;
+
+    /**
+     * Opens the archive for the given directory, first writing it if it is
+     * missing or does not match the class files in the directory.
+     *
+     * @param file the archive file
+     * @param rootClassDir the directory of the packed class files
+     */
+    public static ClassArchive update(File file, File rootClassDir)
+        throws IOException
+    {
+        return update(file, rootClassDir, null);
+    }
+
+    /**
+     * Opens the archive for the given directory, first writing it if it is
+     * missing, does not match the class files in the directory, or packs
+     * any of the given changed class files.
+     *
+     * @param file the archive file
+     * @param rootClassDir the directory of the packed class files
+     * @param changed paths of class files that were rewritten since the
+     * archive may have been written, relative to the directory, separated by
+     * '/' and without the ".class" extension; may be null
+     */
+    public static ClassArchive update(File file, File rootClassDir,
+                                      Collection<String> changed)
+        throws IOException
+    {
+        long scanTime = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<Entry>();
+        gatherEntries(rootClassDir, "", entries);
+
+        if (file.exists()) {
+            try {
+                ClassArchive archive = open(file);
+                if (archive.matches(entries, changed)) {
+                    return archive;
+                }
+            }
+            catch (IOException e) {
+                // Corrupt archive, so write it again.
+            }
+        }
+
+        write(file, entries, scanTime);
+        return open(file);
+    }
+
+    /**
+     * Opens an existing archive.
+     *
+     * @throws IOException if the archive cannot be read or is corrupt
+     */
+    public static ClassArchive open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map
+                (FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        finally {
+            raf.close();
+        }
+
+        try {
+            return new ClassArchive(file, buffer);
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Class archive is truncated: " + file);
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IOException("Class archive is corrupt: " + file);
+        }
+    }
+
+    private static void gatherEntries(File dir, String prefix,
+                                      List<Entry> entries) {
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            File file = files[i];
+            String name = file.getName();
+            if (file.isDirectory()) {
+                gatherEntries(file, prefix + name + '/', entries);
+            }
+            else if (name.endsWith(".class")) {
+                name = prefix + name.substring(0, name.length() - 6);
+                entries.add(new Entry(name, file, file.lastModified(),
+                                      (int) file.length()));
+            }
+        }
+    }
+
+    /**
+     * Writes the archive to a temporary file that then replaces it, so that
+     * an archive that is already open remains intact.
+     */
+    private static void write(File file, List<Entry> entries, long scanTime)
+        throws IOException
+    {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream
+            (new BufferedOutputStream(new FileOutputStream(tempFile), 8192));
+        try {
+            byte[][] names = new byte[entries.size()][];
+            int indexLength = 20;
+            for (int i = 0; i < names.length; i++) {
+                names[i] = entries.get(i).mName.getBytes("UTF-8");
+                indexLength += 2 + names[i].length + 20;
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(scanTime);
+            out.writeInt(names.length);
+            int offset = indexLength;
+            for (int i = 0; i < names.length; i++) {
+                Entry entry = entries.get(i);
+                out.writeShort(names[i].length);
+                out.write(names[i]);
+                out.writeLong(entry.mLastModified);
+                out.writeInt(offset);
+                out.writeInt(entry.mLength);
+                out.writeInt(isRecent(entry, scanTime) ? entry.getCRC() : 0);
+                offset += entry.mLength;
+            }
+
+            byte[] buffer = new byte[8192];
+            for (int i = 0; i < names.length; i++) {
+                Entry entry = entries.get(i);
+                InputStream in = new FileInputStream(entry.mFile);
+                try {
+                    int remaining = entry.mLength;
+                    while (remaining > 0) {
+                        int amt = in.read
+                            (buffer, 0, Math.min(remaining, buffer.length));
+                        if (amt < 0) {
+                            throw new IOException
+                                ("Class file changed while packing: " +
+                                 entry.mFile);
+                        }
+                        out.write(buffer, 0, amt);
+                        remaining -= amt;
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            out.close();
+            tempFile.delete();
+            throw e;
+        }
+        out.close();
+
+        if (!tempFile.renameTo(file)) {
+            // Some platforms cannot rename over an existing file, and cannot
+            // delete one that is still mapped either.
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Unable to replace class archive: " +
+                                      file);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the class file was modified so close to the scan
+     * time that it may have been rewritten afterwards without changing its
+     * last modified time.
+     */
+    private static boolean isRecent(Entry entry, long scanTime) {
+        return entry.mLastModified > scanTime - TIME_GRANULARITY;
+    }
+
+    private final File mFile;
+    private final ByteBuffer mBuffer;
+    private final long mScanTime;
+    private final Map<String, Entry> mEntries;
+
+    private ClassArchive(File file, ByteBuffer buffer) throws IOException {
+        mFile = file;
+        mBuffer = buffer;
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a class archive: " + file);
+        }
+
+        mScanTime = buffer.getLong();
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 22) {
+            throw new IOException("Class archive is corrupt: " + file);
+        }
+
+        mEntries = new HashMap<String, Entry>(count * 2);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[buffer.getShort() & 0xffff];
+            buffer.get(name);
+            long lastModified = buffer.getLong();
+            int offset = buffer.getInt();
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            if (offset < 0 || length < 0 ||
+                offset > buffer.limit() - length) {
+                throw new IOException("Class archive is corrupt: " + file);
+            }
+
+            Entry entry = new Entry
+                (new String(name, "UTF-8"), null, lastModified, length);
+            entry.mOffset = offset;
+            entry.mCRC = crc;
+            entry.mHasCRC = true;
+            mEntries.put(entry.mName, entry);
+        }
+    }
+
+    /**
+     * Returns the archive file.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Returns the number of packed classes.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the bytecode of a packed class, or null if the class is not in
+     * this archive. The returned buffer is positioned at the start of the
+     * bytecode and its limit is at the end.
+     *
+     * @param path the path of the class file relative to the directory,
+     * separated by '/' and without the ".class" extension
+     */
+    public ByteBuffer getBytecode(String path) {
+        Entry entry = mEntries.get(path);
+        if (entry == null) {
+            return null;
+        }
+
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.limit(entry.mOffset + entry.mLength);
+        buffer.position(entry.mOffset);
+        return buffer;
+    }
+
+    private boolean matches(List<Entry> entries, Collection<String> changed)
+        throws IOException
+    {
+        if (entries.size() != mEntries.size()) {
+            return false;
+        }
+
+        if (changed != null) {
+            for (String name : changed) {
+                if (mEntries.containsKey(name)) {
+                    return false;
+                }
+            }
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            Entry packed = mEntries.get(entry.mName);
+            if (packed == null || packed.mLength != entry.mLength ||
+                packed.mLastModified != entry.mLastModified) {
+                return false;
+            }
+        }
+
+        // Only read the class files that may have been rewritten without
+        // changing their times, once nothing else has changed.
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (isRecent(entry, mScanTime) &&
+                mEntries.get(entry.mName).getCRC() != entry.getCRC()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public String toString() {
+        return "ClassArchive[" + mFile + ", classes=" + size() + "]";
+    }
+
+    private static class Entry {
+        final String mName;
+        final File mFile;
+        final long mLastModified;
+        final int mLength;
+        int mOffset;
+        int mCRC;
+        boolean mHasCRC;
+
+        Entry(String name, File file, long lastModified, int length) {
+            mName = name;
+            mFile = file;
+            mLastModified = lastModified;
+            mLength = length;
+        }
+
+        /**
+         * Returns the CRC-32 of the class file, reading it the first time.
+         */
+        int getCRC() throws IOException {
+            if (!mHasCRC) {
+                CRC32 crc = new CRC32();
+                InputStream in = new FileInputStream(mFile);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int amt;
+                    while ((amt = in.read(buffer)) > 0) {
+                        crc.update(buffer, 0, amt);
+                    }
+                }
+                finally {
+                    in.close();
+                }
+                mCRC = (int) crc.getValue();
+                mHasCRC = true;
+            }
+            return mCRC;
+        }
+    }
+}
@@ -27,7 +27,11 @@ import java.lang.ref.*;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -37,11 +41,19 @@ import java.util.zip.GZIPOutputStream;
  * from the parent ClassLoader, which is the ClassLoader that loaded this
  * class. If a directory is passed in, the ClassInjector looks there for 
  * non-injected class files before asking the parent ClassLoader for a class.
+ * <p>
+ * Classes are loaded in parallel, locking only the name of the class being
+ * loaded. The injector is also registered as parallel capable, so that the
+ * VM does not lock the whole injector either.
  *
  * @author Brian S O'Neill
  */
 public class ClassInjector extends ClassLoader {
-    
+
+    static {
+        registerAsParallelCapable();
+    }
+
     @SuppressWarnings("unchecked")
     private static Map<ClassLoader, Reference<ClassInjector>> cShared = 
         new NullKeyMap(new IdentityMap());
@@ -87,6 +99,13 @@ public class ClassInjector extends ClassLoader {
 
     private URLStreamHandler mFaker;
 
+    // Packed class files, searched before the root class directories.
+    private volatile ClassArchive mArchive;
+
+    // Locks of the class names being loaded from the archive or directories.
+    private final ConcurrentMap<String, Object> mLoadLocks =
+        new ConcurrentHashMap<String, Object>();
+
     /**
      * Construct a ClassInjector that uses the ClassLoader that loaded this
      * class as a parent, and it has no root class directory or root package.
@@ -208,6 +227,32 @@ public class ClassInjector extends ClassLoader {
         }
     }
 
+    /**
+     * Returns the directories to look for non-injected classes in, or null
+     * if none.
+     */
+    public File[] getRootClassDirs() {
+        return (mRootClassDirs == null) ? null : mRootClassDirs.clone();
+    }
+
+    /**
+     * Set the archive of packed class files to load non-injected classes
+     * from. The archive is searched before the root class directories, and
+     * must have been packed from the first one.
+     *
+     * @param archive the archive, or null to only use the directories
+     */
+    public void setClassArchive(ClassArchive archive) {
+        mArchive = archive;
+    }
+
+    /**
+     * Returns the archive of packed class files, or null if none.
+     */
+    public ClassArchive getClassArchive() {
+        return mArchive;
+    }
+
     public URL getResource(String name) {
 
         if (mGZippedBytecode != null) {
@@ -237,26 +282,28 @@ public class ClassInjector extends ClassLoader {
         Class<?> clazz = findLoadedClass(name);
 
         if (clazz == null) {
-            synchronized (this) {
-                clazz = findLoadedClass(name);
-
-                if (clazz == null) {
-                    clazz = loadFromFile(name);
+            if (isLocalClass(name)) {
+                synchronized (getLoadLock(name)) {
+                    clazz = findLoadedClass(name);
 
                     if (clazz == null) {
-                        if (mSuperLoader != null) {
-                            clazz = mSuperLoader.loadClass(name);
-                        }
-                        else {
-                            clazz = findSystemClass(name);
-                        }
-
-                        if (clazz == null) {
-                            throw new ClassNotFoundException(name);
-                        }
+                        clazz = loadFromFile(name);
                     }
                 }
             }
+
+            if (clazz == null) {
+                if (mSuperLoader != null) {
+                    clazz = mSuperLoader.loadClass(name);
+                }
+                else {
+                    clazz = findSystemClass(name);
+                }
+
+                if (clazz == null) {
+                    throw new ClassNotFoundException(name);
+                }
+            }
         }
 
         if (resolve) {
@@ -266,6 +313,34 @@ public class ClassInjector extends ClassLoader {
         return clazz;
     }
 
+    /**
+     * Returns the lock to hold while loading or defining the named class.
+     * Classes of other names may be loaded at the same time.
+     */
+    protected Object getLoadLock(String name) {
+        Object lock = mLoadLocks.get(name);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = mLoadLocks.putIfAbsent(name, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Returns true if the named class may be in the archive or root class
+     * directories. Other classes are delegated to the parent without
+     * locking.
+     */
+    private boolean isLocalClass(String name) {
+        if (mRootClassDirs == null && mArchive == null) {
+            return false;
+        }
+        return mRootPackage == null || name.startsWith(mRootPackage);
+    }
+
     protected void define(String name, byte[] data) {
         defineClass(name, data, 0, data.length);
         if (mGZippedBytecode != null) {
@@ -284,10 +359,6 @@ public class ClassInjector extends ClassLoader {
     }
 
     private Class<?> loadFromFile(String name) throws ClassNotFoundException {
-        if (mRootClassDirs == null) {
-            return null;
-        }
-
         String fileName = name;
 
         if (mRootPackage != null) {
@@ -299,6 +370,23 @@ public class ClassInjector extends ClassLoader {
             }
         }
 
+        ClassArchive archive = mArchive;
+        if (archive != null) {
+            ByteBuffer bytecode = archive.getBytecode(fileName.replace('.', '/'));
+            if (bytecode != null) {
+                try {
+                    return defineClass(name, bytecode, (ProtectionDomain) null);
+                }
+                catch (Throwable ex) {
+                    throw new ClassNotFoundException(ex.getMessage(), ex);
+                }
+            }
+        }
+
+        if (mRootClassDirs == null) {
+            return null;
+        }
+
         fileName = fileName.replace('.', File.separatorChar);
         ClassNotFoundException error = null;
 
@@ -360,10 +448,12 @@ public class ClassInjector extends ClassLoader {
         }
 
         public void close() {
-            synchronized (mDefined) {
-                if (mDefined.get(mName) == null) {
-                    define(mName, toByteArray());
-                    mDefined.put(mName, mName);
+            synchronized (getLoadLock(mName)) {
+                synchronized (mDefined) {
+                    if (mDefined.get(mName) == null) {
+                        define(mName, toByteArray());
+                        mDefined.put(mName, mName);
+                    }
                 }
             }
         }
@@ -0,0 +1,377 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.trove.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe replacement for {@link Cache}. Values are softly referenced,
+ * so the garbage collector may clear them when memory is low, except for
+ * the most recently used values, which are guaranteed to stay in the cache.
+ * Calling "get", "put" or "putIfAbsent" marks a value as recently used, but
+ * calling "containsKey" or iterating over the cache does not.
+ * <p>
+ * Unlike Cache, no locks are acquired when reading or writing. Recently used
+ * values are held in a ring of hard references that is written without
+ * locking, and a value already in the recent half of the ring is not written
+ * again, so frequent reads of the same key do not contend with each other.
+ * <p>
+ * Null keys are not supported, but null values are.
+ *
+ * @see Cache
+ */
+public class ConcurrentCache<K, V> extends AbstractMap<K, V>
+    implements ConcurrentMap<K, V>
+{
+    private static final Object NULL = new Object();
+
+    private final ConcurrentHashMap<K, Value<K>> mMap;
+    private final ReferenceQueue<Object> mQueue;
+
+    private final int mMaxRecent;
+    // Hard references to recently used values. Twice as large as mMaxRecent
+    // so that the mMaxRecent most recently used values are always in it.
+    private final AtomicReferenceArray<Object> mRecent;
+    private final AtomicLong mRecentCount;
+
+    private final AtomicLong mClearedCount;
+
+    /**
+     * Construct a ConcurrentCache with an amount of recently used entries
+     * that are guaranteed to always be in the cache.
+     *
+     * @param maxRecent maximum amount of recently used entries guaranteed to
+     * be in the cache. If zero, all values may be cleared, as with
+     * {@link SoftHashMap}.
+     * @throws IllegalArgumentException if maxRecent is negative
+     */
+    public ConcurrentCache(int maxRecent) {
+        if (maxRecent < 0) {
+            throw new IllegalArgumentException
+                ("Max recent must not be negative: " + maxRecent);
+        }
+        mMap = new ConcurrentHashMap<K, Value<K>>();
+        mQueue = new ReferenceQueue<Object>();
+        mMaxRecent = maxRecent;
+        mRecent = maxRecent == 0 ? null :
+            new AtomicReferenceArray<Object>(maxRecent * 2);
+        mRecentCount = new AtomicLong();
+        mClearedCount = new AtomicLong();
+    }
+
+    public int getMaxRecent() {
+        return mMaxRecent;
+    }
+
+    /**
+     * Returns the number of values that have been cleared by the garbage
+     * collector since this cache was created. If this count grows quickly,
+     * the cache holds more than memory allows, and maxRecent is the number
+     * of entries the cache can be relied upon to hold.
+     */
+    public long getClearedCount() {
+        return mClearedCount.get();
+    }
+
+    public V get(Object key) {
+        Value<K> value = mMap.get(key);
+        if (value == null) {
+            return null;
+        }
+        Object obj = value.get();
+        if (obj == null) {
+            cleared(value);
+            return null;
+        }
+        recentlyUsed(value, obj);
+        return unmask(obj);
+    }
+
+    public boolean containsKey(Object key) {
+        Value<K> value = mMap.get(key);
+        return value != null && value.get() != null;
+    }
+
+    public V put(K key, V value) {
+        purge();
+        Object obj = mask(value);
+        Value<K> newValue = new Value<K>(key, obj, mQueue);
+        recentlyUsed(newValue, obj);
+        return valueOf(mMap.put(key, newValue));
+    }
+
+    public V putIfAbsent(K key, V value) {
+        purge();
+        Object obj = mask(value);
+        Value<K> newValue = new Value<K>(key, obj, mQueue);
+        while (true) {
+            Value<K> existing = mMap.putIfAbsent(key, newValue);
+            if (existing == null) {
+                recentlyUsed(newValue, obj);
+                return null;
+            }
+            Object existingObj = existing.get();
+            if (existingObj != null) {
+                recentlyUsed(existing, existingObj);
+                return unmask(existingObj);
+            }
+            // Existing value was cleared, so replace it.
+            if (mMap.replace(key, existing, newValue)) {
+                mClearedCount.incrementAndGet();
+                recentlyUsed(newValue, obj);
+                return null;
+            }
+        }
+    }
+
+    public V remove(Object key) {
+        return valueOf(mMap.remove(key));
+    }
+
+    public boolean remove(Object key, Object value) {
+        Value<K> existing = mMap.get(key);
+        if (existing == null) {
+            return false;
+        }
+        Object obj = existing.get();
+        if (obj == null || !eq(unmask(obj), value)) {
+            return false;
+        }
+        return mMap.remove(key, existing);
+    }
+
+    public boolean replace(K key, V oldValue, V newValue) {
+        Value<K> existing = mMap.get(key);
+        if (existing == null) {
+            return false;
+        }
+        Object obj = existing.get();
+        if (obj == null || !eq(unmask(obj), oldValue)) {
+            return false;
+        }
+        Object newObj = mask(newValue);
+        Value<K> replacement = new Value<K>(key, newObj, mQueue);
+        if (mMap.replace(key, existing, replacement)) {
+            recentlyUsed(replacement, newObj);
+            return true;
+        }
+        return false;
+    }
+
+    public V replace(K key, V value) {
+        Object obj = mask(value);
+        Value<K> replacement = new Value<K>(key, obj, mQueue);
+        Value<K> existing;
+        while ((existing = mMap.get(key)) != null) {
+            if (mMap.replace(key, existing, replacement)) {
+                recentlyUsed(replacement, obj);
+                return valueOf(existing);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of entries in this cache, which may include values
+     * that were cleared but not yet removed.
+     */
+    public int size() {
+        purge();
+        return mMap.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        mMap.clear();
+        if (mRecent != null) {
+            for (int i = mRecent.length(); --i >= 0; ) {
+                mRecent.set(i, null);
+            }
+        }
+        purge();
+    }
+
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            public int size() {
+                return ConcurrentCache.this.size();
+            }
+
+            public void clear() {
+                ConcurrentCache.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Clears and enqueues the values that are only softly referenced, as the
+     * garbage collector does when memory is low. Only used by tests.
+     */
+    void clearSoftValues() {
+        Map<Object, Object> recent = new IdentityHashMap<Object, Object>();
+        if (mRecent != null) {
+            for (int i = mRecent.length(); --i >= 0; ) {
+                Object obj = mRecent.get(i);
+                if (obj != null) {
+                    recent.put(obj, obj);
+                }
+            }
+        }
+        for (Value<K> value : mMap.values()) {
+            Object obj = value.get();
+            if (obj != null && !recent.containsKey(obj)) {
+                value.clear();
+                value.enqueue();
+            }
+        }
+    }
+
+    /**
+     * Holds a hard reference to the given value in the ring of recently
+     * used values, unless it was added recently enough that it is still
+     * guaranteed to be there.
+     */
+    private void recentlyUsed(Value<K> value, Object obj) {
+        if (mRecent == null) {
+            return;
+        }
+        long count = mRecentCount.get();
+        if (value.mRecorded >= 0 && count - value.mRecorded < mMaxRecent) {
+            return;
+        }
+        count = mRecentCount.getAndIncrement();
+        value.mRecorded = count;
+        mRecent.set((int) (count % mRecent.length()), obj);
+    }
+
+    /**
+     * Removes entries whose values were cleared by the garbage collector.
+     */
+    @SuppressWarnings("unchecked")
+    private void purge() {
+        Value<K> value;
+        while ((value = (Value<K>) mQueue.poll()) != null) {
+            cleared(value);
+        }
+    }
+
+    private void cleared(Value<K> value) {
+        if (mMap.remove(value.mKey, value)) {
+            mClearedCount.incrementAndGet();
+        }
+    }
+
+    private V valueOf(Value<K> value) {
+        if (value == null) {
+            return null;
+        }
+        return unmask(value.get());
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V unmask(Object obj) {
+        return obj == NULL ? null : (V) obj;
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static class Value<K> extends SoftReference<Object> {
+        final K mKey;
+        // Position in the ring of recently used values, or -1 if never.
+        volatile long mRecorded = -1;
+
+        Value(K key, Object value, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            mKey = key;
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final Iterator<Map.Entry<K, Value<K>>> mIterator =
+            mMap.entrySet().iterator();
+
+        private Map.Entry<K, V> mNext;
+        private K mLastKey;
+
+        public boolean hasNext() {
+            while (mNext == null && mIterator.hasNext()) {
+                Map.Entry<K, Value<K>> entry = mIterator.next();
+                Object obj = entry.getValue().get();
+                if (obj != null) {
+                    mNext = new Entry(entry.getKey(), unmask(obj));
+                }
+            }
+            return mNext != null;
+        }
+
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> next = mNext;
+            mNext = null;
+            mLastKey = next.getKey();
+            return next;
+        }
+
+        public void remove() {
+            if (mLastKey == null) {
+                throw new IllegalStateException();
+            }
+            ConcurrentCache.this.remove(mLastKey);
+            mLastKey = null;
+        }
+    }
+
+    private class Entry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        Entry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
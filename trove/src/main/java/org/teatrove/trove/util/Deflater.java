@@ -18,8 +18,10 @@ package org.teatrove.trove.util;
 
 /**
  * A zlib deflater interface that matches {@link java.util.zip.Deflater},
- * except additional flush operations are supported. This class requires native
- * code support and looks for a library named "org.teatrove_trove_util_Deflater".
+ * except additional flush operations are supported. This class looks for a
+ * native library named "org.teatrove_trove_util_Deflater". If the library
+ * cannot be loaded, {@link java.util.zip.Deflater} is used instead, which
+ * supports the same flush operations.
  *
  * @author Brian S O'Neill
  * @version
@@ -41,13 +43,26 @@ public class Deflater {
         FULL_FLUSH = 3,
         FINISH = 4;
 
+    // True if the native library was loaded.
+    private static final boolean cNative;
+
     static {
-        System.loadLibrary("org.teatrove_trove_util_Deflater");
-        initIDs();
+        boolean loaded;
+        try {
+            System.loadLibrary("org.teatrove_trove_util_Deflater");
+            initIDs();
+            loaded = true;
+        }
+        catch (LinkageError e) {
+            loaded = false;
+        }
+        cNative = loaded;
     }
 
     // Pointer to strm used by native deflate functions.
     private long mStream;
+    // Used instead when the native library isn't loaded.
+    private java.util.zip.Deflater mJavaDeflater;
     private boolean mNoWrap;
 
     private int mStrategy;
@@ -62,7 +77,12 @@ public class Deflater {
     private int mInputLength;
 
     public Deflater(int level, boolean nowrap) {
-        mStream = init(DEFAULT_STRATEGY, level, nowrap);
+        if (cNative) {
+            mStream = init(DEFAULT_STRATEGY, level, nowrap);
+        }
+        else {
+            mJavaDeflater = new java.util.zip.Deflater(level, nowrap);
+        }
         mStrategy = DEFAULT_STRATEGY;
         mLevel = level;
         mNoWrap = nowrap;
@@ -82,37 +102,52 @@ public class Deflater {
 
     public synchronized void setInput(byte[] b, int off, int len) {
         boundsCheck(b, off, len);
+        if (mJavaDeflater != null) {
+            mJavaDeflater.setInput(b, off, len);
+            return;
+        }
         mInputLength = len;
         mInputOffset = off;
         mInputBuf = b;
     }
     
     public synchronized void setInput(byte[] b) {
-        mInputLength = b.length;
-        mInputOffset = 0;
-        mInputBuf = b;
+        setInput(b, 0, b.length);
     }
     
     public synchronized void setDictionary(byte[] b, int off, int len) {
         boundsCheck(b, off, len);
+        if (mJavaDeflater != null) {
+            mJavaDeflater.setDictionary(b, off, len);
+            return;
+        }
         setDictionary(mStream, b, off, len);
     }
     
     public synchronized void setDictionary(byte[] b) {
-        setDictionary(mStream, b, 0, b.length);
+        setDictionary(b, 0, b.length);
     }
 
     public synchronized void setStrategy(int strategy) {
+        if (mJavaDeflater != null) {
+            mJavaDeflater.setStrategy(strategy);
+        }
         mStrategy = strategy;
         mSetParams = true;
     }
     
     public synchronized void setLevel(int level) {
+        if (mJavaDeflater != null) {
+            mJavaDeflater.setLevel(level);
+        }
         mLevel = level;
         mSetParams = true;
     }
 
-    public boolean needsInput() {
+    public synchronized boolean needsInput() {
+        if (mJavaDeflater != null) {
+            return mJavaDeflater.needsInput();
+        }
         return mInputLength <= 0;
     }
 
@@ -138,11 +173,17 @@ public class Deflater {
      * contents of the input buffer. Deflate must be called to get the final
      * compressed bytes.
      */
-    public void finish() {
+    public synchronized void finish() {
         mFlushOption = FINISH;
+        if (mJavaDeflater != null) {
+            mJavaDeflater.finish();
+        }
     }
 
     public synchronized boolean finished() {
+        if (mJavaDeflater != null) {
+            return mJavaDeflater.finished();
+        }
         return mFinished;
     }
 
@@ -156,9 +197,17 @@ public class Deflater {
     }
 
     private synchronized int deflate0(byte[] b, int off, int len) {
-        int amt = deflate(mStream, mFlushOption, mSetParams,
+        int amt;
+        if (mJavaDeflater != null) {
+            // Finishing is signalled by calling finish instead.
+            int flush = (mFlushOption == FINISH) ? NO_FLUSH : mFlushOption;
+            amt = mJavaDeflater.deflate(b, off, len, flush);
+        }
+        else {
+            amt = deflate(mStream, mFlushOption, mSetParams,
                           mInputBuf, mInputOffset, mInputLength,
                           b, off, len);
+        }
         if (amt < len) {
             if (mFlushOption == SYNC_FLUSH || mFlushOption == FULL_FLUSH) {
                 mFlushOption = NO_FLUSH;
@@ -168,14 +217,23 @@ public class Deflater {
     }
 
     public synchronized int getAdler() {
+        if (mJavaDeflater != null) {
+            return mJavaDeflater.getAdler();
+        }
         return getAdler(mStream);
     }
 
     public synchronized int getTotalIn() {
+        if (mJavaDeflater != null) {
+            return mJavaDeflater.getTotalIn();
+        }
         return getTotalIn(mStream);
     }
 
     public synchronized int getTotalOut() {
+        if (mJavaDeflater != null) {
+            return mJavaDeflater.getTotalOut();
+        }
         return getTotalOut(mStream);
     }
 
@@ -184,10 +242,18 @@ public class Deflater {
         mFlushOption = NO_FLUSH;
         mInputBuf = null;
         mInputLength = 0;
+        if (mJavaDeflater != null) {
+            mJavaDeflater.reset();
+            return;
+        }
         reset(mStream);
     }
 
     public synchronized void end() {
+        if (mJavaDeflater != null) {
+            mJavaDeflater.end();
+            return;
+        }
         end(mStream);
     }
 
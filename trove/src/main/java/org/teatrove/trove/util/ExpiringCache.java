@@ -0,0 +1,361 @@
+/*
+ *  Copyright 1997-2011 teatrove.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.teatrove.trove.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache bounded by a number of entries and, optionally, by a
+ * total weight, such as a size in bytes. Each entry may be given a time to
+ * live, after which it is expired. When a bound is exceeded, expired entries
+ * are evicted first, followed by the least recently used, until the cache
+ * is back within 90% of its bounds.
+ * <p>
+ * Unlike {@link ConcurrentCache}, values are strongly referenced, and
+ * whether an entry is kept depends only on its time to live and on the
+ * bounds. Expired entries are still returned by {@link #getEntry}, so that
+ * a stale value may be used while a new one is computed.
+ * <p>
+ * Null keys are not supported, but null values are, such as to cache that
+ * nothing was found. The cache counts expirations and evictions, while
+ * hits and misses are left to the caller, which knows what counts as one.
+ *
+ * @see ConcurrentCache
+ */
+public class ExpiringCache<K, V> {
+    private final ConcurrentMap<K, Entry<V>> mMap;
+    private final int mMaxEntries;
+    private final long mMaxWeight;
+
+    private final AtomicInteger mSize;
+    private final AtomicLong mWeight;
+    private final AtomicBoolean mEvicting;
+
+    private final AtomicLong mExpirations;
+    private final AtomicLong mEvictions;
+
+    /**
+     * Construct an ExpiringCache bounded only by a number of entries.
+     *
+     * @param maxEntries maximum amount of entries in the cache
+     * @throws IllegalArgumentException if maxEntries is not positive
+     */
+    public ExpiringCache(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE);
+    }
+
+    /**
+     * Construct an ExpiringCache bounded by a number of entries and by the
+     * total weight of the entries.
+     *
+     * @param maxEntries maximum amount of entries in the cache
+     * @param maxWeight maximum total weight of the entries in the cache
+     * @throws IllegalArgumentException if either bound is not positive
+     */
+    public ExpiringCache(int maxEntries, long maxWeight) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException
+                ("Max entries must be positive: " + maxEntries);
+        }
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException
+                ("Max weight must be positive: " + maxWeight);
+        }
+        mMap = new ConcurrentHashMap<K, Entry<V>>();
+        mMaxEntries = maxEntries;
+        mMaxWeight = maxWeight;
+        mSize = new AtomicInteger();
+        mWeight = new AtomicLong();
+        mEvicting = new AtomicBoolean();
+        mExpirations = new AtomicLong();
+        mEvictions = new AtomicLong();
+    }
+
+    /**
+     * Returns the unexpired entry for the given key, marking it as recently
+     * used, or null if there is none. An expired entry is removed.
+     *
+     * @param now the current time in milliseconds
+     */
+    public Entry<V> get(K key, long now) {
+        Entry<V> entry = mMap.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(now)) {
+            if (remove(key, entry)) {
+                mExpirations.incrementAndGet();
+            }
+            return null;
+        }
+        entry.mLastAccess = System.nanoTime();
+        return entry;
+    }
+
+    /**
+     * Returns the entry for the given key, marking it as recently used, or
+     * null if there is none. The entry is returned even if it has expired.
+     */
+    public Entry<V> getEntry(K key) {
+        Entry<V> entry = mMap.get(key);
+        if (entry != null) {
+            entry.mLastAccess = System.nanoTime();
+        }
+        return entry;
+    }
+
+    /**
+     * Puts an entry of no weight into the cache, replacing any entry for
+     * the same key.
+     *
+     * @param now the current time in milliseconds
+     * @param ttl milliseconds until the entry expires, or zero if it only
+     * leaves the cache when evicted
+     */
+    public void put(K key, V value, long now, long ttl) {
+        put(key, value, now, ttl, 0);
+    }
+
+    /**
+     * Puts an entry into the cache, replacing any entry for the same key.
+     * If a bound of the cache is then exceeded, entries are evicted.
+     *
+     * @param now the current time in milliseconds
+     * @param ttl milliseconds until the entry expires, or zero if it only
+     * leaves the cache when evicted
+     * @param weight weight of the entry, counted against the maximum weight
+     */
+    public void put(K key, V value, long now, long ttl, long weight) {
+        long expires = ttl > 0 ? now + ttl : Long.MAX_VALUE;
+        Entry<V> old = mMap.put(key, new Entry<V>(value, expires, weight));
+        if (old == null) {
+            mSize.incrementAndGet();
+            mWeight.addAndGet(weight);
+        }
+        else {
+            mWeight.addAndGet(weight - old.mWeight);
+        }
+
+        if (mSize.get() > mMaxEntries || mWeight.get() > mMaxWeight) {
+            evict(now);
+        }
+    }
+
+    /**
+     * Removes the entry for the given key, returning it, or null if there
+     * was none.
+     */
+    public Entry<V> remove(K key) {
+        Entry<V> entry = mMap.remove(key);
+        if (entry != null) {
+            removed(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the given entry for the given key, if it has not been
+     * replaced or removed already.
+     *
+     * @return true if the entry was removed
+     */
+    public boolean remove(K key, Entry<V> entry) {
+        if (mMap.remove(key, entry)) {
+            removed(entry);
+            return true;
+        }
+        return false;
+    }
+
+    public void clear() {
+        for (K key : mMap.keySet()) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Returns a view of the keys in the cache, including those of expired
+     * entries.
+     */
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(mMap.keySet());
+    }
+
+    public int size() {
+        return mSize.get();
+    }
+
+    public long getWeight() {
+        return mWeight.get();
+    }
+
+    public int getMaxEntries() {
+        return mMaxEntries;
+    }
+
+    public long getMaxWeight() {
+        return mMaxWeight;
+    }
+
+    /**
+     * Returns the number of entries removed because they expired.
+     */
+    public long getExpirationCount() {
+        return mExpirations.get();
+    }
+
+    /**
+     * Returns the number of unexpired entries removed to stay within the
+     * bounds of the cache.
+     */
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    public void resetCounts() {
+        mExpirations.set(0);
+        mEvictions.set(0);
+    }
+
+    public String toString() {
+        return "ExpiringCache[size=" + size() + ", weight=" + getWeight() +
+            ", expirations=" + getExpirationCount() +
+            ", evictions=" + getEvictionCount() + ']';
+    }
+
+    private void removed(Entry<V> entry) {
+        mSize.decrementAndGet();
+        mWeight.addAndGet(-entry.mWeight);
+    }
+
+    /**
+     * Evicts entries until the cache is within 90% of its bounds. Only one
+     * thread evicts at a time, and others skip eviction while it does.
+     */
+    private void evict(long now) {
+        if (!mEvicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            // Snapshot the access times, since they change while sorting.
+            List<Candidate<K, V>> candidates =
+                new ArrayList<Candidate<K, V>>(mSize.get());
+            for (Map.Entry<K, Entry<V>> e : mMap.entrySet()) {
+                candidates.add
+                    (new Candidate<K, V>(e.getKey(), e.getValue(), now));
+            }
+            Collections.sort(candidates);
+
+            int sizeTarget = (int) (mMaxEntries * 0.9);
+            long weightTarget = (long) (mMaxWeight * 0.9);
+
+            for (Candidate<K, V> candidate : candidates) {
+                if (mSize.get() <= sizeTarget &&
+                    mWeight.get() <= weightTarget) {
+                    break;
+                }
+                if (remove(candidate.mKey, candidate.mEntry)) {
+                    if (candidate.mExpired) {
+                        mExpirations.incrementAndGet();
+                    }
+                    else {
+                        mEvictions.incrementAndGet();
+                    }
+                }
+            }
+        }
+        finally {
+            mEvicting.set(false);
+        }
+    }
+
+    /**
+     * A cached value with its expiration time and weight.
+     */
+    public static class Entry<V> {
+        final V mValue;
+        final long mExpires;
+        final long mWeight;
+        // From System.nanoTime, to order accesses within a millisecond.
+        volatile long mLastAccess;
+
+        Entry(V value, long expires, long weight) {
+            mValue = value;
+            mExpires = expires;
+            mWeight = weight;
+            mLastAccess = System.nanoTime();
+        }
+
+        public V getValue() {
+            return mValue;
+        }
+
+        /**
+         * Returns the time in milliseconds that the entry expires at, or
+         * Long.MAX_VALUE if it does not expire.
+         */
+        public long getExpires() {
+            return mExpires;
+        }
+
+        public long getWeight() {
+            return mWeight;
+        }
+
+        public boolean isExpired(long now) {
+            return now >= mExpires;
+        }
+    }
+
+    /**
+     * An entry considered for eviction. Expired entries sort first,
+     * followed by the least recently used.
+     */
+    private static class Candidate<K, V>
+        implements Comparable<Candidate<K, V>>
+    {
+        final K mKey;
+        final Entry<V> mEntry;
+        final boolean mExpired;
+        final long mLastAccess;
+
+        Candidate(K key, Entry<V> entry, long now) {
+            mKey = key;
+            mEntry = entry;
+            mExpired = entry.isExpired(now);
+            mLastAccess = entry.mLastAccess;
+        }
+
+        public int compareTo(Candidate<K, V> other) {
+            if (mExpired != other.mExpired) {
+                return mExpired ? -1 : 1;
+            }
+            long diff = mLastAccess - other.mLastAccess;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+}
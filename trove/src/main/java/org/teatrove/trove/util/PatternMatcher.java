@@ -32,72 +32,19 @@ public abstract class PatternMatcher {
     private static final int[] NO_POSITIONS = new int[0];
 
     // Maps pattern sets to auto-generated classes.
-    private static Map cPatternMatcherClasses = new SoftHashMap();
+    private static ConcurrentCache<Object, Class<?>> cPatternMatcherClasses =
+        new ConcurrentCache<Object, Class<?>>(0);
 
-    public static synchronized PatternMatcher forPatterns(Map patternMap) {
+    public static PatternMatcher forPatterns(Map patternMap) {
         Maker maker = new Maker(patternMap);
-        Class clazz = (Class)cPatternMatcherClasses.get(maker.getKey());
+        Class<?> clazz = cPatternMatcherClasses.get(maker.getKey());
 
         if (clazz == null) {
-            Class patternMatcherClass = PatternMatcher.class;
-
-            ClassInjector injector = ClassInjector.getInstance
-                (patternMatcherClass.getClassLoader());
-            
-            int id = maker.getKey().hashCode();
-            
-            String baseName = patternMatcherClass.getName() + '$';
-            String className = baseName;
-            try {
-                while (true) {
-                    className = baseName + (id & 0xffffffffL);
-                    try {
-                        injector.loadClass(className);
-                    }
-                    catch (LinkageError e) {
-                    }
-                    id++;
-                }
-            }
-            catch (ClassNotFoundException e) {
-            }
-
-            ClassFile cf = maker.createClassFile(className);
-            
-            /*
-            try {
-                String name = cf.getClassName();
-                name = name.substring(name.lastIndexOf('.') + 1) + ".class";
-                System.out.println(name);
-                OutputStream out = new FileOutputStream(name);
-                cf.writeTo(out);
-                out.close();
-            }
-            catch (IOException e) {
-            }
-            */
-
-            try {
-                OutputStream stream = injector.getStream(cf.getClassName());
-                cf.writeTo(stream);
-                stream.close();
-            }
-            catch (IOException e) {
-                throw new InternalError(e.toString());
-            }
-            
-            try {
-                clazz = injector.loadClass(cf.getClassName());
-            }
-            catch (ClassNotFoundException e) {
-                throw new InternalError(e.toString());
-            }
-
-            cPatternMatcherClasses.put(maker.getKey(), clazz);
+            clazz = createClass(maker);
         }
 
         try {
-            Constructor ctor =
+            Constructor<?> ctor =
                 clazz.getConstructor(new Class[]{Object[].class});
             return (PatternMatcher)ctor.newInstance
                 (new Object[]{maker.getMappedValues()});
@@ -116,6 +63,75 @@ public abstract class PatternMatcher {
         }
     }
 
+    /**
+     * Generates the class for the given patterns. Generation is serialized
+     * so that each set of patterns is only generated once and class names
+     * are chosen without conflict.
+     */
+    private static synchronized Class<?> createClass(Maker maker) {
+        Class<?> clazz = cPatternMatcherClasses.get(maker.getKey());
+        if (clazz != null) {
+            return clazz;
+        }
+
+        Class<?> patternMatcherClass = PatternMatcher.class;
+
+        ClassInjector injector = ClassInjector.getInstance
+            (patternMatcherClass.getClassLoader());
+        
+        int id = maker.getKey().hashCode();
+        
+        String baseName = patternMatcherClass.getName() + '$';
+        String className = baseName;
+        try {
+            while (true) {
+                className = baseName + (id & 0xffffffffL);
+                try {
+                    injector.loadClass(className);
+                }
+                catch (LinkageError e) {
+                }
+                id++;
+            }
+        }
+        catch (ClassNotFoundException e) {
+        }
+
+        ClassFile cf = maker.createClassFile(className);
+        
+        /*
+        try {
+            String name = cf.getClassName();
+            name = name.substring(name.lastIndexOf('.') + 1) + ".class";
+            System.out.println(name);
+            OutputStream out = new FileOutputStream(name);
+            cf.writeTo(out);
+            out.close();
+        }
+        catch (IOException e) {
+        }
+        */
+
+        try {
+            OutputStream stream = injector.getStream(cf.getClassName());
+            cf.writeTo(stream);
+            stream.close();
+        }
+        catch (IOException e) {
+            throw new InternalError(e.toString());
+        }
+        
+        try {
+            clazz = injector.loadClass(cf.getClassName());
+        }
+        catch (ClassNotFoundException e) {
+            throw new InternalError(e.toString());
+        }
+
+        cPatternMatcherClasses.put(maker.getKey(), clazz);
+        return clazz;
+    }
+
     protected final Object[] mValues;
 
     protected PatternMatcher(Object[] values) {
@@ -0,0 +1,87 @@
+package org.teatrove.trove.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class DefaultByteBufferTest {
+
+    @Test
+    public void testPooledContents() throws Exception {
+        ChunkPool pool = new ChunkPool(16, 4, 4);
+        DefaultByteBuffer buffer = new DefaultByteBuffer(pool);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            buffer.append((byte) i);
+            expected.write(i);
+        }
+        byte[] bytes = new byte[40];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (100 + i);
+        }
+        buffer.append(bytes);
+        expected.write(bytes);
+        buffer.appendSurrogate(new ArrayByteData(new byte[] { 1, 2, 3 }));
+        expected.write(new byte[] { 1, 2, 3 });
+        buffer.append(bytes, 5, 20);
+        expected.write(bytes, 5, 20);
+
+        assertEquals(expected.size(), buffer.getByteCount());
+        assertEquals(expected.size() - 3, buffer.getBaseByteCount());
+        assertArrayEquals(expected.toByteArray(), toByteArray(buffer));
+    }
+
+    @Test
+    public void testChunksReusedWhenCleared() throws Exception {
+        ChunkPool pool = new ChunkPool(16, 4, 4);
+        DefaultByteBuffer buffer = new DefaultByteBuffer(pool);
+
+        buffer.append(new byte[100]);
+        long allocated = pool.getAllocatedCount();
+        assertEquals(7, allocated);
+
+        buffer.clear();
+        assertEquals(0, buffer.getByteCount());
+        assertEquals(3, pool.getSharedCount());
+
+        buffer.append(new byte[100]);
+        assertEquals(allocated, pool.getAllocatedCount());
+        assertEquals(7, pool.getReusedCount());
+
+        buffer.clear();
+        buffer.append("abc".getBytes("ISO-8859-1"));
+        assertArrayEquals("abc".getBytes("ISO-8859-1"), toByteArray(buffer));
+    }
+
+    @Test
+    public void testPooledCharConversion() throws Exception {
+        ChunkPool pool = new ChunkPool(16, 4, 4);
+        FastCharToByteBuffer buffer = new FastCharToByteBuffer
+            (new DefaultByteBuffer(pool), "ISO-8859-1", pool);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        buffer.append(text.toString());
+        buffer.append('!');
+        buffer.append(text.toString(), 10, 20);
+
+        String expected = text + "!" + text.substring(10, 30);
+        assertEquals(expected, new String(toByteArray(buffer), "ISO-8859-1"));
+
+        buffer.clear();
+        buffer.append("xyz");
+        assertEquals("xyz", new String(toByteArray(buffer), "ISO-8859-1"));
+    }
+
+    private static byte[] toByteArray(ByteData data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        data.writeTo(out);
+        return out.toByteArray();
+    }
+}
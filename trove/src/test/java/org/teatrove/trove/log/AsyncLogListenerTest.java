@@ -0,0 +1,163 @@
+package org.teatrove.trove.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Flushable;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AsyncLogListenerTest {
+
+    @Test
+    public void testOrderAndFlush() throws Exception {
+        StringWriter out = new StringWriter();
+        LogScribe scribe = new LogScribe(new PrintWriter(out));
+        scribe.setAutoFlushEnabled(false);
+        scribe.setShowThreadEnabled(false);
+
+        AsyncLogListener listener = new AsyncLogListener(scribe, 16, true);
+        Log log = new Log("test", null);
+        log.addLogListener(listener);
+        for (int i = 0; i < 100; i++) {
+            log.info("message " + i);
+        }
+        listener.close();
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(100, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertTrue(lines[i].trim().endsWith("test> message " + i));
+        }
+        assertEquals(0, listener.getDroppedCount());
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> messages = new ArrayList<String>();
+        Recorder recorder = new Recorder(messages) {
+            public void logMessage(LogEvent e) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                super.logMessage(e);
+            }
+        };
+
+        AsyncLogListener listener = new AsyncLogListener(recorder, 4, false);
+        Log log = new Log("test", null);
+        log.addLogListener(listener);
+        for (int i = 0; i < 20; i++) {
+            log.info("message " + i);
+        }
+
+        // at most the buffer and the event being passed along are kept
+        assertTrue(listener.getDroppedCount() >= 15);
+        long dropped = listener.getDroppedCount();
+
+        release.countDown();
+        listener.close();
+
+        assertEquals(20 - dropped + 1, messages.size());
+        assertEquals("message 0", messages.get(0));
+        assertTrue(messages.contains("Dropped " + dropped +
+                   " log events because the log buffer was full"));
+        assertTrue(recorder.mFlushes > 0);
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final List<String> messages = new ArrayList<String>();
+        final AsyncLogListener listener =
+            new AsyncLogListener(new Recorder(messages), 2, true);
+        final Log log = new Log("test", null);
+        log.addLogListener(listener);
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 250; j++) {
+                        log.info("message");
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        listener.close();
+
+        assertEquals(1000, messages.size());
+        assertEquals(0, listener.getDroppedCount());
+    }
+
+    @Test
+    public void testListenerFailure() throws Exception {
+        final List<String> messages = new ArrayList<String>();
+        Recorder recorder = new Recorder(messages) {
+            public void logMessage(LogEvent e) {
+                if (e.getMessage().equals("error")) {
+                    throw new AssertionError("error");
+                }
+                if (e.getMessage().equals("runtime")) {
+                    throw new IllegalStateException("runtime");
+                }
+                super.logMessage(e);
+            }
+
+            public void flush() {
+                super.flush();
+                throw new NoClassDefFoundError("flush");
+            }
+        };
+
+        AsyncLogListener listener = new AsyncLogListener(recorder, 4, true);
+        Log log = new Log("test", null);
+        log.addLogListener(listener);
+        log.info("before");
+        log.info("error");
+        log.info("runtime");
+        for (int i = 0; i < 20; i++) {
+            log.info("after " + i);
+        }
+        listener.close();
+
+        // the writer outlives the failures, so no events are lost
+        assertEquals(21, messages.size());
+        assertEquals("before", messages.get(0));
+        assertEquals("after 19", messages.get(20));
+        assertTrue(recorder.mFlushes > 0);
+    }
+
+    private static class Recorder implements LogListener, Flushable {
+        private final List<String> mMessages;
+        int mFlushes;
+
+        Recorder(List<String> messages) {
+            mMessages = messages;
+        }
+
+        public void logMessage(LogEvent e) {
+            mMessages.add(e.getMessage());
+        }
+
+        public void logException(LogEvent e) {
+            mMessages.add(e.getMessage());
+        }
+
+        public void flush() {
+            mFlushes++;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.teatrove.trove.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpClientTest {
+
+    private ServerSocket server;
+    private Thread serverThread;
+    private List<String> responses;
+    private volatile int connections;
+    private PooledSocketFactory factory;
+
+    @Before
+    public void init() throws IOException {
+        server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        responses = new ArrayList<String>();
+
+        serverThread = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = server.accept();
+                        // Serve each connection on its own thread, since
+                        // pooled connections are held open between
+                        // requests.
+                        Thread t = new Thread() {
+                            public void run() {
+                                try {
+                                    serve(socket);
+                                }
+                                catch (IOException e) {
+                                    // closed or timed out
+                                }
+                            }
+                        };
+                        t.setDaemon(true);
+                        t.start();
+                    }
+                }
+                catch (IOException e) {
+                    // closed
+                }
+            }
+        };
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (factory != null) {
+            factory.clear();
+        }
+        server.close();
+        serverThread.join(5000);
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        responses.add("HTTP/1.1 200 OK\r\n" +
+                      "Transfer-Encoding: chunked\r\n\r\n" +
+                      "5;name=value\r\nhello\r\n" +
+                      "7\r\n, world\r\n" +
+                      "0\r\nTrailer: value\r\n\r\n");
+        responses.add("HTTP/1.1 200 OK\r\n" +
+                      "Content-Length: 5\r\n\r\n" +
+                      "again");
+        responses.add("HTTP/1.1 200 OK\r\n" +
+                      "Connection: TE, close\r\n\r\n" +
+                      "closed");
+        responses.add("HTTP/1.1 200 OK\r\n" +
+                      "Content-Length: 3\r\n\r\n" +
+                      "new");
+
+        factory = createFactory(4, 0);
+
+        assertEquals("hello, world", read(factory));
+        assertEquals("again", read(factory));
+        assertEquals("closed", read(factory));
+        assertEquals("new", read(factory));
+
+        assertEquals(2, factory.getCreatedCount());
+        assertEquals(2, factory.getReusedCount());
+        assertEquals(3, factory.getRecycledCount());
+        assertEquals(1, factory.getAvailableCount());
+        assertEquals(2, connections);
+    }
+
+    @Test
+    public void testHttp10() throws Exception {
+        responses.add("HTTP/1.0 200 OK\r\n" +
+                      "Content-Length: 4\r\n\r\n" +
+                      "data");
+        responses.add("HTTP/1.0 200 OK\r\n" +
+                      "Content-Length: 4\r\n\r\n" +
+                      "more");
+
+        factory = createFactory(4, 0);
+
+        assertEquals("data", read(factory));
+        assertEquals("more", read(factory));
+        assertEquals(0, factory.getReusedCount());
+        assertEquals(0, factory.getAvailableCount());
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        responses.add("HTTP/1.1 200 OK\r\n" +
+                      "Content-Length: 1\r\n\r\n" +
+                      "a");
+        responses.add("HTTP/1.1 200 OK\r\n" +
+                      "Content-Length: 1\r\n\r\n" +
+                      "b");
+
+        factory = createFactory(4, 50);
+
+        assertEquals("a", read(factory));
+        assertEquals(1, factory.getAvailableCount());
+        Thread.sleep(200);
+        assertEquals("b", read(factory));
+
+        assertEquals(1, factory.getEvictedCount());
+        assertEquals(0, factory.getReusedCount());
+        assertEquals(2, factory.getCreatedCount());
+    }
+
+    @Test
+    public void testMaxPoolSize() throws Exception {
+        factory = createFactory(1, 0);
+
+        CheckedSocket a = factory.getSocket();
+        CheckedSocket b = factory.getSocket();
+        factory.recycleSocket(a);
+        factory.recycleSocket(b);
+
+        assertEquals(1, factory.getAvailableCount());
+        assertEquals(1, factory.getRecycledCount());
+        assertEquals(1, factory.getDiscardedCount());
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        factory = createFactory(4, 50);
+
+        CheckedSocket a = factory.getSocket();
+        factory.recycleSocket(a);
+        factory.evictIdle();
+        assertEquals(1, factory.getAvailableCount());
+
+        Thread.sleep(200);
+        factory.evictIdle();
+
+        assertEquals(0, factory.getAvailableCount());
+        assertEquals(1, factory.getEvictedCount());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        factory = createFactory(4, 0);
+
+        CheckedSocket a = factory.getSocket();
+        CheckedSocket b = factory.getSocket();
+        factory.recycleSocket(a);
+        assertFalse(factory.isClosed());
+
+        factory.close();
+        assertTrue(factory.isClosed());
+        assertEquals(0, factory.getAvailableCount());
+
+        // Sockets still in use when the pool closed are not pooled.
+        factory.recycleSocket(b);
+        assertEquals(0, factory.getAvailableCount());
+        assertEquals(1, factory.getDiscardedCount());
+    }
+
+    private PooledSocketFactory createFactory(int maxPoolSize,
+                                              long maxIdleTime) {
+        return new PooledSocketFactory
+            (new PlainSocketFactory(server.getInetAddress(),
+                                    server.getLocalPort(), 5000),
+             5000, maxPoolSize, maxIdleTime);
+    }
+
+    private String read(SocketFactory factory) throws IOException {
+        HttpClient client = new HttpClient(factory, 5000);
+        client.setProtocol("HTTP/1.1");
+        client.setHeader("Host", "localhost");
+        client.setURI("/");
+
+        HttpClient.Response response = client.getResponse();
+        assertEquals(200, response.getStatusCode());
+
+        InputStream in = response.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            out.write(b);
+        }
+        return out.toString("ISO-8859-1");
+    }
+
+    /**
+     * Answers requests on the connection with the next queued response,
+     * until the response closes the connection or the client does.
+     */
+    private void serve(Socket socket) throws IOException {
+        synchronized (this) {
+            connections++;
+        }
+        try {
+            socket.setSoTimeout(10000);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            while (readRequest(in)) {
+                String response;
+                synchronized (this) {
+                    if (responses.isEmpty()) {
+                        return;
+                    }
+                    response = responses.remove(0);
+                }
+                out.write(response.getBytes("ISO-8859-1"));
+                out.flush();
+                if (response.indexOf("close\r\n") >= 0 ||
+                    response.startsWith("HTTP/1.0")) {
+                    return;
+                }
+            }
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    private static boolean readRequest(InputStream in) throws IOException {
+        // Requests have no body, so read up to the blank line.
+        int matched = 0;
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == (matched % 2 == 0 ? '\r' : '\n')) {
+                if (++matched == 4) {
+                    return true;
+                }
+            }
+            else {
+                matched = (b == '\r') ? 1 : 0;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,221 @@
+package org.teatrove.trove.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teatrove.trove.classfile.ClassFile;
+import org.teatrove.trove.classfile.CodeBuilder;
+import org.teatrove.trove.classfile.MethodInfo;
+import org.teatrove.trove.classfile.Modifiers;
+import org.teatrove.trove.classfile.TypeDesc;
+
+public class ClassArchiveTest {
+
+    private static final String ROOT_PACKAGE = "org.teatrove.trove.packed";
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void init() throws IOException {
+        dir = File.createTempFile("classes", "");
+        dir.delete();
+        dir.mkdirs();
+        file = new File(dir, ".classes.pack");
+
+        for (int i = 0; i < 20; i++) {
+            writeClass("c" + i, "value" + i);
+        }
+        writeClass("sub.c0", "sub");
+    }
+
+    @After
+    public void cleanup() {
+        delete(dir);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        ClassArchive archive = ClassArchive.update(file, dir);
+        assertEquals(21, archive.size());
+        assertNotNull(archive.getBytecode("c0"));
+        assertNotNull(archive.getBytecode("sub/c0"));
+        assertNull(archive.getBytecode("missing"));
+
+        // unchanged class files are not packed again
+        long lastModified = file.lastModified();
+        file.setLastModified(lastModified - 10000);
+        ClassArchive.update(file, dir);
+        assertEquals(lastModified - 10000, file.lastModified());
+
+        writeClass("c1", "changed value");
+        ClassInjector injector = createInjector(ClassArchive.update(file, dir));
+        assertEquals("changed value", getValue(injector, "c1"));
+    }
+
+    @Test
+    public void testSameLengthAndTime() throws Exception {
+        ClassArchive.update(file, dir);
+
+        // a class rewritten within the same second keeps its length and
+        // time, so only its contents tell it apart
+        File classFile = new File(dir, "c2.class");
+        long lastModified = classFile.lastModified();
+        long length = classFile.length();
+        writeClass("c2", "VALUE2");
+        classFile.setLastModified(lastModified);
+        assertEquals(length, classFile.length());
+
+        ClassInjector injector = createInjector(ClassArchive.update(file, dir));
+        assertEquals("VALUE2", getValue(injector, "c2"));
+    }
+
+    @Test
+    public void testChangedClasses() throws Exception {
+        // class files written well before the archive are trusted by their
+        // length and time, without being read
+        long lastModified = System.currentTimeMillis() - 60000;
+        for (int i = 0; i < 20; i++) {
+            new File(dir, "c" + i + ".class").setLastModified(lastModified);
+        }
+        new File(dir, "sub/c0.class").setLastModified(lastModified);
+        ClassArchive.update(file, dir);
+
+        writeClass("c2", "VALUE2");
+        new File(dir, "c2.class").setLastModified(lastModified);
+        ClassInjector injector = createInjector(ClassArchive.update(file, dir));
+        assertEquals("value2", getValue(injector, "c2"));
+
+        // so a rewritten class file must be passed in as changed
+        injector = createInjector(ClassArchive.update
+            (file, dir, Collections.singleton("c2")));
+        assertEquals("VALUE2", getValue(injector, "c2"));
+
+        // and an unknown class does not cause the archive to be written
+        long archiveModified = file.lastModified() - 10000;
+        file.setLastModified(archiveModified);
+        ClassArchive.update(file, dir, Collections.singleton("missing"));
+        assertEquals(archiveModified, file.lastModified());
+    }
+
+    @Test
+    public void testLoadFromArchive() throws Exception {
+        ClassArchive archive = ClassArchive.update(file, dir);
+
+        // remove the class files, so that they can only be loaded from the
+        // archive
+        for (int i = 0; i < 20; i++) {
+            new File(dir, "c" + i + ".class").delete();
+        }
+
+        ClassInjector injector = createInjector(archive);
+        assertEquals("value3", getValue(injector, "c3"));
+        assertEquals("sub", getValue(injector, "sub.c0"));
+    }
+
+    @Test
+    public void testCorruptArchive() throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        out.write(new byte[] { 1, 2, 3, 4, 5 });
+        out.close();
+
+        ClassArchive archive = ClassArchive.update(file, dir);
+        assertEquals(21, archive.size());
+    }
+
+    @Test
+    public void testParallelLoad() throws Exception {
+        final ClassInjector injector =
+            createInjector(ClassArchive.update(file, dir));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Class<?>>> results = new ArrayList<Future<Class<?>>>();
+            for (int i = 0; i < 80; i++) {
+                final String name = ROOT_PACKAGE + ".c" + (i % 20);
+                results.add(executor.submit(new Callable<Class<?>>() {
+                    public Class<?> call() throws Exception {
+                        return injector.loadClass(name);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                Class<?> clazz = results.get(i).get();
+                assertSame(clazz, results.get(i % 20).get());
+                assertSame(injector, clazz.getClassLoader());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private ClassInjector createInjector(ClassArchive archive) {
+        ClassInjector injector =
+            new ClassInjector(null, new File[] { dir }, ROOT_PACKAGE);
+        injector.setClassArchive(archive);
+        return injector;
+    }
+
+    private String getValue(ClassInjector injector, String name)
+        throws Exception
+    {
+        Class<?> clazz = injector.loadClass(ROOT_PACKAGE + '.' + name);
+        assertTrue(clazz.getClassLoader() == injector);
+        return clazz.newInstance().toString();
+    }
+
+    private void writeClass(String name, String value) throws IOException {
+        ClassFile cf = new ClassFile(ROOT_PACKAGE + '.' + name);
+
+        MethodInfo ctor = cf.addDefaultConstructor();
+        CodeBuilder builder = new CodeBuilder(ctor);
+        builder.loadThis();
+        builder.invokeSuperConstructor();
+        builder.returnVoid();
+
+        MethodInfo toString = cf.addMethod
+            (new Modifiers(Modifier.PUBLIC), "toString", TypeDesc.STRING);
+        builder = new CodeBuilder(toString);
+        builder.loadConstant(value);
+        builder.returnValue(TypeDesc.STRING);
+
+        File classFile = new File(dir, name.replace('.', '/') + ".class");
+        classFile.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(classFile);
+        try {
+            cf.writeTo(out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+}
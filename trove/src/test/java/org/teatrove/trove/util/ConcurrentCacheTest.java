@@ -0,0 +1,129 @@
+package org.teatrove.trove.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConcurrentCacheTest {
+
+    @Test
+    public void testPutAndGet() {
+        ConcurrentCache<String, Integer> cache =
+            new ConcurrentCache<String, Integer>(10);
+
+        assertNull(cache.put("a", 1));
+        assertEquals(Integer.valueOf(1), cache.put("a", 2));
+        assertEquals(Integer.valueOf(2), cache.get("a"));
+        assertNull(cache.get("b"));
+
+        assertEquals(Integer.valueOf(2), cache.putIfAbsent("a", 3));
+        assertNull(cache.putIfAbsent("b", 4));
+        assertEquals(Integer.valueOf(4), cache.get("b"));
+
+        assertFalse(cache.remove("b", 5));
+        assertTrue(cache.remove("b", 4));
+        assertFalse(cache.containsKey("b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testNullValues() {
+        ConcurrentCache<String, Integer> cache =
+            new ConcurrentCache<String, Integer>(10);
+
+        cache.put("a", null);
+        assertTrue(cache.containsKey("a"));
+        assertNull(cache.get("a"));
+        assertNull(cache.remove("a"));
+        assertFalse(cache.containsKey("a"));
+    }
+
+    @Test
+    public void testIteration() {
+        ConcurrentCache<String, Integer> cache =
+            new ConcurrentCache<String, Integer>(10);
+        for (int i = 0; i < 5; i++) {
+            cache.put(String.valueOf(i), i);
+        }
+
+        int sum = 0;
+        for (Map.Entry<String, Integer> entry : cache.entrySet()) {
+            assertEquals(entry.getKey(), String.valueOf(entry.getValue()));
+            sum += entry.getValue();
+        }
+        assertEquals(10, sum);
+
+        cache.clear();
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testKeepsMostRecent() {
+        ConcurrentCache<Integer, String> cache =
+            new ConcurrentCache<Integer, String>(4);
+        for (int i = 0; i < 20; i++) {
+            cache.put(i, "value" + i);
+        }
+        // using an old value makes it recent again
+        assertEquals("value2", cache.get(2));
+
+        cache.clearSoftValues();
+
+        // the most recently used values are kept, and values that fell out
+        // of the ring of twice as many are cleared
+        assertEquals("value2", cache.get(2));
+        for (int i = 17; i < 20; i++) {
+            assertEquals("value" + i, cache.get(i));
+        }
+        for (int i = 0; i < 12; i++) {
+            if (i != 2) {
+                assertNull(cache.get(i));
+            }
+        }
+        assertTrue(cache.getClearedCount() >= 11);
+    }
+
+    @Test
+    public void testSoftValuesCleared() {
+        ConcurrentCache<Integer, String> cache =
+            new ConcurrentCache<Integer, String>(0);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "value" + i);
+        }
+
+        cache.clearSoftValues();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(cache.containsKey(i));
+            assertNull(cache.get(i));
+        }
+        assertEquals(10, cache.getClearedCount());
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testPurge() {
+        ConcurrentCache<Integer, String> cache =
+            new ConcurrentCache<Integer, String>(0);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "value" + i);
+        }
+        cache.clearSoftValues();
+
+        // cleared entries are removed from the map by the next change
+        assertNull(cache.putIfAbsent(0, "new"));
+        assertEquals(1, cache.size());
+        assertEquals(10, cache.getClearedCount());
+        assertEquals("new", cache.get(0));
+
+        // cleared values are not iterated over
+        cache.clearSoftValues();
+        assertFalse(cache.entrySet().iterator().hasNext());
+        assertEquals(0, cache.size());
+        assertEquals(11, cache.getClearedCount());
+    }
+}
@@ -0,0 +1,87 @@
+package org.teatrove.trove.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+public class DeflaterTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = createData(100000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater d = DeflaterPool.get(Deflater.DEFAULT_COMPRESSION, true);
+        DeflaterOutputStream dout = new DeflaterOutputStream(out, d, 512);
+        dout.write(data, 0, data.length);
+        dout.finish();
+        DeflaterPool.put(d);
+
+        assertTrue(out.size() < data.length / 2);
+        assertEquals(new String(data, "ISO-8859-1"),
+                     new String(inflate(out.toByteArray()), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testFullFlushSplice() throws Exception {
+        // Fully flushed segments are independent, so they can be compressed
+        // separately and joined together.
+        byte[] first = createData(5000);
+        byte[] second = createData(7000);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater d = new Deflater(Deflater.BEST_SPEED, true);
+        DeflaterOutputStream dout = new DeflaterOutputStream(out, d, 64);
+        dout.write(first, 0, first.length);
+        dout.fullFlush();
+
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        Deflater d2 = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        DeflaterOutputStream dout2 = new DeflaterOutputStream(segment, d2);
+        dout2.write(second, 0, second.length);
+        dout2.fullFlush();
+        d2.end();
+
+        out.write(segment.toByteArray());
+        dout.write(first, 0, first.length);
+        dout.finish();
+        d.end();
+
+        String expected = new String(first, "ISO-8859-1") +
+            new String(second, "ISO-8859-1") + new String(first, "ISO-8859-1");
+        assertEquals(expected,
+                     new String(inflate(out.toByteArray()), "ISO-8859-1"));
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + (i * 7 + i / 13) % 26);
+        }
+        return data;
+    }
+
+    private static byte[] inflate(byte[] compressed) throws Exception {
+        Inflater inflater = new Inflater(true);
+        // A dummy byte is needed at the end when there is no zlib wrapper.
+        byte[] input = new byte[compressed.length + 1];
+        System.arraycopy(compressed, 0, input, 0, compressed.length);
+        inflater.setInput(input);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        while (!inflater.finished()) {
+            int amt = inflater.inflate(buf);
+            if (amt == 0 && inflater.needsInput()) {
+                break;
+            }
+            out.write(buf, 0, amt);
+        }
+        inflater.end();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,112 @@
+package org.teatrove.trove.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+    @Test
+    public void testPutAndGet() {
+        ExpiringCache<String, Integer> cache =
+            new ExpiringCache<String, Integer>(10);
+
+        cache.put("a", 1, 0, 0);
+        cache.put("a", 2, 0, 0);
+        cache.put("b", null, 0, 0);
+        assertEquals(Integer.valueOf(2), cache.get("a", 0).getValue());
+        assertNotNull(cache.get("b", 0));
+        assertNull(cache.get("b", 0).getValue());
+        assertNull(cache.get("c", 0));
+        assertEquals(2, cache.size());
+
+        assertEquals(Integer.valueOf(2), cache.remove("a").getValue());
+        assertNull(cache.remove("a"));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiration() {
+        ExpiringCache<String, Integer> cache =
+            new ExpiringCache<String, Integer>(10);
+
+        cache.put("a", 1, 1000, 100);
+        assertNotNull(cache.get("a", 1099));
+
+        // Expired entries are still available until removed.
+        assertEquals(Integer.valueOf(1), cache.getEntry("a").getValue());
+        assertTrue(cache.getEntry("a").isExpired(1100));
+
+        assertNull(cache.get("a", 1100));
+        assertNull(cache.getEntry("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getExpirationCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        ExpiringCache<Integer, Integer> cache =
+            new ExpiringCache<Integer, Integer>(10);
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i, 0, 0);
+        }
+        // Use the oldest entry, so that the next oldest are evicted.
+        assertNotNull(cache.get(0, 0));
+
+        cache.put(10, 10, 0, 0);
+        assertEquals(9, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+        assertNotNull(cache.get(0, 0));
+        assertNull(cache.get(1, 0));
+        assertNull(cache.get(2, 0));
+        assertNotNull(cache.get(10, 0));
+    }
+
+    @Test
+    public void testEvictExpiredFirst() {
+        ExpiringCache<Integer, Integer> cache =
+            new ExpiringCache<Integer, Integer>(10);
+
+        for (int i = 0; i < 9; i++) {
+            cache.put(i, i, 0, 0);
+        }
+        cache.put(9, 9, 0, 50);
+
+        cache.put(10, 10, 100, 0);
+        assertEquals(9, cache.size());
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.getEntry(9));
+        assertNull(cache.getEntry(0));
+        assertNotNull(cache.getEntry(1));
+    }
+
+    @Test
+    public void testWeight() {
+        ExpiringCache<String, String> cache =
+            new ExpiringCache<String, String>(100, 1000);
+
+        cache.put("a", "a", 0, 0, 400);
+        cache.put("b", "b", 0, 0, 400);
+        assertEquals(800, cache.getWeight());
+
+        // Replacing an entry replaces its weight.
+        cache.put("b", "b", 0, 0, 100);
+        assertEquals(500, cache.getWeight());
+
+        cache.put("c", "c", 0, 0, 600);
+        assertEquals(700, cache.getWeight());
+        assertNull(cache.getEntry("a"));
+        assertFalse(cache.keySet().contains("a"));
+
+        cache.remove("c");
+        assertEquals(100, cache.getWeight());
+    }
+}